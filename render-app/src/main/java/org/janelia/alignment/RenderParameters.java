@@ -168,6 +168,7 @@ public class RenderParameters implements Serializable {
     private transient URI outUri;
     private transient boolean initialized;
     private transient ChannelNamesAndWeights channelNamesAndWeights;
+    private transient String meshCacheNamespace;
 
     public RenderParameters() {
         this(null,
@@ -620,6 +621,25 @@ public class RenderParameters implements Serializable {
         tileSpecs.forEach(TileSpec::flattenTransforms);
     }
 
+    /**
+     * @return identifier for the immutable version of these tile specs (e.g. a completed stack and its
+     *         last modified time) or null if tile transforms may differ from other specs with the same tile id.
+     */
+    public String getMeshCacheNamespace() {
+        return meshCacheNamespace;
+    }
+
+    /**
+     * Allows cached transform meshes to be keyed by tile id within the specified namespace instead of
+     * by a hash of each tile's transforms.  The namespace must change whenever any tile's transforms change,
+     * so it should only be set for specs that are loaded from a stack that is no longer being modified.
+     *
+     * @param  meshCacheNamespace  identifies the version of these tile specs (or null to hash transforms).
+     */
+    public void setMeshCacheNamespace(final String meshCacheNamespace) {
+        this.meshCacheNamespace = meshCacheNamespace;
+    }
+
     boolean hasMipmapPathBuilder() {
         return this.mipmapPathBuilder != null;
     }
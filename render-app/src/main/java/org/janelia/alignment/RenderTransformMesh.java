@@ -256,6 +256,46 @@ public class RenderTransformMesh implements InvertibleCoordinateTransform
 		this( t, numX, numY( numX, width, height ), width, height );
 	}
 
+    /**
+     * Creates a copy of the specified mesh with all target vertices (and affines) translated.
+     * This is much cheaper than building a new mesh since no transforms need to be applied.
+     *
+     * @param  mesh     mesh to copy (its affines must already be up to date).
+     * @param  targetX  x translation for target vertices.
+     * @param  targetY  y translation for target vertices.
+     */
+    public RenderTransformMesh(
+            final RenderTransformMesh mesh,
+            final double targetX,
+            final double targetY) {
+
+        this.width = mesh.width;
+        this.height = mesh.height;
+        this.min = new double[]{mesh.min[0] + targetX, mesh.min[1] + targetY};
+        this.max = new double[]{mesh.max[0] + targetX, mesh.max[1] + targetY};
+
+        this.av.ensureCapacity(mesh.av.size());
+
+        final double[] affineData = new double[6];
+        for (final Pair<AffineModel2D, double[][]> apq : mesh.av) {
+
+            final double[][] pq = apq.b;
+            final double[][] translatedPq = new double[][]{
+                    pq[0].clone(),
+                    pq[1].clone(),
+                    {pq[2][0] + targetX, pq[2][1] + targetX, pq[2][2] + targetX},
+                    {pq[3][0] + targetY, pq[3][1] + targetY, pq[3][2] + targetY}
+            };
+
+            apq.a.toArray(affineData);
+            final AffineModel2D translatedAffine = new AffineModel2D();
+            translatedAffine.set(affineData[0], affineData[1], affineData[2], affineData[3],
+                                 affineData[4] + targetX, affineData[5] + targetY);
+
+            av.add(new Pair<AffineModel2D, double[][]>(translatedAffine, translatedPq));
+        }
+    }
+
 	/**
 	 * Update all affine transformations.
 	 */
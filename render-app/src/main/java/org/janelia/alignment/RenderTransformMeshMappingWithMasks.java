@@ -18,22 +18,30 @@ package org.janelia.alignment;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RecursiveAction;
 
 import mpicbg.models.AffineModel2D;
 import mpicbg.trakem2.util.Pair;
 import mpicbg.util.Util;
 
 import org.janelia.alignment.mapper.PixelMapper;
+import org.janelia.alignment.util.SharedMappingThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Specialized {@link mpicbg.ij.TransformMapping} for {@link PixelMapper} instances
  * that calculates transforms once and then applies them to all channels and masks in one go.
+ *
+ * Multi-threaded mapping splits the target into bands of rows that are processed by
+ * the {@link SharedMappingThreadPool}.  Each band maps every triangle that intersects it
+ * (in mesh order), so no two threads ever write to the same target pixel.
  */
 public class RenderTransformMeshMappingWithMasks {
 
+    /** Number of row bands to create for each requested thread so that idle workers can steal work. */
+    private static final int BANDS_PER_THREAD = 4;
+
     private final RenderTransformMesh transform;
 
     public RenderTransformMeshMappingWithMasks(final RenderTransformMesh transform) {
@@ -44,60 +52,117 @@ public class RenderTransformMeshMappingWithMasks {
         map(pixelMapper, Runtime.getRuntime().availableProcessors());
     }
 
+    /**
+     * Maps all mesh triangles using the specified mapper.
+     *
+     * @param  pixelMapper  mapper for source and target pixels.
+     * @param  numThreads   number of threads requested for mapping.
+     *                      A value greater than one splits the target into
+     *                      (numThreads * {@value #BANDS_PER_THREAD}) row bands that are
+     *                      mapped by the shared pool, so overall concurrency is bounded
+     *                      by the pool's parallelism.
+     */
     public final void map(final PixelMapper pixelMapper,
                           final int numThreads) {
 
         final ArrayList<Pair<AffineModel2D, double[][]>> av = transform.getAV();
-        if (numThreads > 1) {
-            final AtomicInteger i = new AtomicInteger(0);
-            final ArrayList<Thread> threads = new ArrayList<>(numThreads);
-            for (int k = 0; k < numThreads; ++k) {
-                final Thread mtt = new MapTriangleThread(i, av, pixelMapper);
-                threads.add(mtt);
-                mtt.start();
-            }
-            for (final Thread mtt : threads) {
-                try {
-                    mtt.join();
-                } catch (final InterruptedException e) {
-                    LOG.warn("ignoring exception", e);
-                }
-            }
+        final int targetHeight = pixelMapper.getTargetHeight();
+        final int numberOfBands = Math.min(numThreads * BANDS_PER_THREAD, targetHeight);
+
+        if ((numThreads > 1) && (numberOfBands > 1)) {
+            final TriangleRows triangleRows = new TriangleRows(av, targetHeight);
+            final int rowsPerBand = (targetHeight + numberOfBands - 1) / numberOfBands;
+            SharedMappingThreadPool.getInstance().invoke(new MapBandsTask(triangleRows,
+                                                                          pixelMapper,
+                                                                          rowsPerBand,
+                                                                          0,
+                                                                          numberOfBands));
         } else {
             for (final Pair<AffineModel2D, double[][]> triangle : av) {
-                mapTriangle(triangle, pixelMapper);
+                mapTriangle(triangle, pixelMapper, 0, targetHeight - 1);
             }
         }
     }
 
-    private static final class MapTriangleThread extends Thread {
-        private final AtomicInteger i;
+    /**
+     * Target row range (clipped to the target) for each triangle in a mesh,
+     * calculated once so that bands can quickly skip triangles that do not intersect them.
+     */
+    private static final class TriangleRows {
         private final List<Pair<AffineModel2D, double[][]>> triangles;
-        private final PixelMapper pixelMapper;
+        private final int[] minRows;
+        private final int[] maxRows;
 
-        MapTriangleThread(final AtomicInteger i,
-                          final List<Pair<AffineModel2D, double[][]>> triangles,
-                          final PixelMapper pixelMapper) {
-            this.i = i;
+        TriangleRows(final List<Pair<AffineModel2D, double[][]>> triangles,
+                     final int targetHeight) {
             this.triangles = triangles;
+            this.minRows = new int[triangles.size()];
+            this.maxRows = new int[triangles.size()];
+
+            final double[] min = new double[2];
+            final double[] max = new double[2];
+            for (int i = 0; i < triangles.size(); i++) {
+                RenderTransformMesh.calculateTargetBoundingBox(triangles.get(i).b, min, max);
+                minRows[i] = Math.max(0, Util.roundPos(min[1]));
+                maxRows[i] = Math.min(targetHeight - 1, Util.roundPos(max[1]));
+            }
+        }
+
+        void mapBand(final PixelMapper pixelMapper,
+                     final int firstRow,
+                     final int lastRow) {
+            for (int i = 0; i < minRows.length; i++) {
+                if ((minRows[i] <= lastRow) && (maxRows[i] >= firstRow)) {
+                    mapTriangle(triangles.get(i), pixelMapper, firstRow, lastRow);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recursively splits a range of bands until each task maps a single band.
+     */
+    private static final class MapBandsTask extends RecursiveAction {
+        private final TriangleRows triangleRows;
+        private final PixelMapper pixelMapper;
+        private final int rowsPerBand;
+        private final int fromBand;
+        private final int toBand;
+
+        MapBandsTask(final TriangleRows triangleRows,
+                     final PixelMapper pixelMapper,
+                     final int rowsPerBand,
+                     final int fromBand,
+                     final int toBand) {
+            this.triangleRows = triangleRows;
             this.pixelMapper = pixelMapper;
+            this.rowsPerBand = rowsPerBand;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
         }
 
         @Override
-        final public void run() {
-            int k = i.getAndIncrement();
-            while (!isInterrupted() && k < triangles.size()) {
-                mapTriangle(triangles.get(k), pixelMapper);
-                k = i.getAndIncrement();
+        protected void compute() {
+            if ((toBand - fromBand) > 1) {
+                final int middleBand = (fromBand + toBand) >>> 1;
+                invokeAll(new MapBandsTask(triangleRows, pixelMapper, rowsPerBand, fromBand, middleBand),
+                          new MapBandsTask(triangleRows, pixelMapper, rowsPerBand, middleBand, toBand));
+            } else {
+                final int firstRow = fromBand * rowsPerBand;
+                final int lastRow = Math.min(firstRow + rowsPerBand, pixelMapper.getTargetHeight()) - 1;
+                if (firstRow <= lastRow) {
+                    triangleRows.mapBand(pixelMapper, firstRow, lastRow);
+                }
             }
         }
     }
 
     private static void mapTriangle(final Pair<AffineModel2D, double[][]> ai,
-                                    final PixelMapper pixelMapper) {
+                                    final PixelMapper pixelMapper,
+                                    final int firstRow,
+                                    final int lastRow) {
 
         final int w = pixelMapper.getTargetWidth() - 1;
-        final int h = pixelMapper.getTargetHeight() - 1;
 
         final double[][] pq = ai.b;
 
@@ -106,9 +171,9 @@ public class RenderTransformMeshMappingWithMasks {
         RenderTransformMesh.calculateTargetBoundingBox(pq, min, max);
 
         final int minX = Math.max(0, Util.roundPos(min[0]));
-        final int minY = Math.max(0, Util.roundPos(min[1]));
+        final int minY = Math.max(firstRow, Util.roundPos(min[1]));
         final int maxX = Math.min(w, Util.roundPos(max[0]));
-        final int maxY = Math.min(h, Util.roundPos(max[1]));
+        final int maxY = Math.min(lastRow, Util.roundPos(max[1]));
 
         final double[] source = new double[2];
 
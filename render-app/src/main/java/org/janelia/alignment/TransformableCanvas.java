@@ -14,11 +14,25 @@ public class TransformableCanvas {
 
     private final MipmapSource source;
     private final CoordinateTransformList<CoordinateTransform> transformList;
+    private final String meshCacheId;
 
     public TransformableCanvas(final MipmapSource source,
                                final CoordinateTransformList<CoordinateTransform> transformList) {
+        this(source, transformList, null);
+    }
+
+    /**
+     * @param  source         source for the canvas pixels.
+     * @param  transformList  list of transforms for the canvas.
+     * @param  meshCacheId    identifies the source and transforms for mesh caching
+     *                        (or null if meshes for this canvas should not be cached).
+     */
+    public TransformableCanvas(final MipmapSource source,
+                               final CoordinateTransformList<CoordinateTransform> transformList,
+                               final String meshCacheId) {
         this.source = source;
         this.transformList = transformList;
+        this.meshCacheId = meshCacheId;
     }
 
     public MipmapSource getSource() {
@@ -29,4 +43,8 @@ public class TransformableCanvas {
         return transformList;
     }
 
+    public String getMeshCacheId() {
+        return meshCacheId;
+    }
+
 }
@@ -2,6 +2,8 @@ package org.janelia.alignment.loader;
 
 import java.io.IOException;
 
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Reader;
 
@@ -26,4 +28,18 @@ public class HDF5SliceLoader extends N5SliceLoader {
             throws IOException {
         return new N5HDF5Reader(basePath);
     }
+
+    /**
+     * Pooled HDF5 readers hold an open file handle, so block reads are serialized per reader.
+     */
+    @Override
+    protected DataBlock<?> readBlock(final N5Reader reader,
+                                     final String dataSet,
+                                     final DatasetAttributes datasetAttributes,
+                                     final long[] gridPosition)
+            throws IOException {
+        synchronized (reader) {
+            return super.readBlock(reader, dataSet, datasetAttributes, gridPosition);
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package org.janelia.alignment.loader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of decompressed N5 (or HDF5) {@link DataBlock} instances for slice loading.
+ *
+ * Tiles cut from the same volume typically overlap the same blocks: neighboring tiles in a layer share
+ * blocks along their edges and, for volumes with a z block size greater than 1, every slice within a block
+ * depth reads the same blocks.  Caching decompressed blocks means each block is read and decompressed once
+ * instead of once per tile.
+ *
+ * Each cache is constrained by a max kilobyte parameter which should roughly correlate to max memory usage.
+ * Once a cache is full, least recently used blocks are removed to make room.
+ *
+ * @author Eric Trautman
+ */
+public class N5BlockCache {
+
+    /** Cache instance that doesn't cache anything but provides the same API for reading blocks. */
+    public static final N5BlockCache DISABLED_CACHE = new N5BlockCache();
+
+    /** Default max memory for cached blocks is 256MB (4,096 uncompressed 64x64x64 8-bit blocks). */
+    public static final long DEFAULT_MAX_CACHED_KILOBYTES = 256 * 1000;
+
+    private static volatile N5BlockCache sharedInstance = new N5BlockCache(DEFAULT_MAX_CACHED_KILOBYTES, true);
+
+    /**
+     * @return the cache shared by all slice loaders within this JVM.
+     */
+    public static N5BlockCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    public static synchronized void setSharedInstance(final N5BlockCache blockCache) {
+        sharedInstance = blockCache == null ? DISABLED_CACHE : blockCache;
+        LOG.info("setSharedInstance: exit, shared instance is now {}", sharedInstance);
+    }
+
+    private final long maximumNumberOfCachedKilobytes;
+    private final boolean recordStats;
+
+    private final Cache<Key, DataBlock<?>> cache;
+
+    /**
+     * Constructor for disabled cache.
+     */
+    private N5BlockCache() {
+        this.maximumNumberOfCachedKilobytes = 0;
+        this.recordStats = false;
+        this.cache = null;
+    }
+
+    /**
+     * Constructs a cache instance using the specified parameters.
+     *
+     * @param  maximumNumberOfCachedKilobytes  the approximate maximum amount of memory for the cache.
+     *
+     * @param  recordStats                     if true, useful tuning stats like cache hits and loads will be
+     *                                         maintained (presumably at some nominal overhead cost);
+     *                                         otherwise stats are not maintained.
+     */
+    public N5BlockCache(final long maximumNumberOfCachedKilobytes,
+                        final boolean recordStats) {
+
+        this.maximumNumberOfCachedKilobytes = maximumNumberOfCachedKilobytes;
+        this.recordStats = recordStats;
+
+        final Weigher<Key, DataBlock<?>> weigher =
+                (key, value) -> (int) Math.min(Integer.MAX_VALUE,
+                                               Math.max(1, getNumberOfBytes(value) / 1000));
+
+        if (recordStats) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumNumberOfCachedKilobytes)
+                    .weigher(weigher)
+                    .recordStats()
+                    .build();
+        } else {
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumNumberOfCachedKilobytes)
+                    .weigher(weigher)
+                    .build();
+        }
+    }
+
+    /**
+     * @return true if this cache actually caches blocks.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @param  key          identifies the block.
+     *
+     * @param  blockReader  reads the block when it is not already cached.
+     *
+     * @return the block for the specified key or null if the block does not exist.
+     *         Returned blocks are shared, so callers must not modify them.
+     *
+     * @throws IllegalArgumentException
+     *   if the block cannot be read.
+     */
+    public DataBlock<?> get(final Key key,
+                            final Callable<DataBlock<?>> blockReader)
+            throws IllegalArgumentException {
+
+        DataBlock<?> block;
+        try {
+            if (cache == null) {
+                block = blockReader.call();
+            } else {
+                block = cache.get(key, blockReader);
+            }
+        } catch (final CacheLoader.InvalidCacheLoadException e) {
+            // missing blocks are not cached (they are cheap to "read" and should be picked up once written)
+            block = null;
+        } catch (final Throwable t) {
+            throw new IllegalArgumentException("failed to read block " + key, t);
+        }
+
+        return block;
+    }
+
+    /**
+     * @return the number of entries currently in this cache.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Discards all entries in the cache.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return a current snapshot of this cache's cumulative statistics
+     *         (will be all zeros if stat recording is not enabled for this cache).
+     */
+    public CacheStats getStats() {
+        return cache == null ? EMPTY_STATS : cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "{numberOfEntries: " + size() +
+               ", maximumNumberOfCachedKilobytes: " + maximumNumberOfCachedKilobytes +
+               ", recordStats: " + recordStats +
+               ", hitRate: " + getStats().hitRate() +
+               '}';
+    }
+
+    /**
+     * @return approximate number of bytes used by the specified block's data.
+     */
+    static long getNumberOfBytes(final DataBlock<?> block) {
+        final Object data = block.getData();
+        final long bytesPerElement;
+        if ((data instanceof byte[]) || (data == null)) {
+            bytesPerElement = 1;
+        } else if (data instanceof short[]) {
+            bytesPerElement = 2;
+        } else if ((data instanceof long[]) || (data instanceof double[])) {
+            bytesPerElement = 8;
+        } else {
+            bytesPerElement = 4;
+        }
+        return block.getNumElements() * bytesPerElement;
+    }
+
+    /**
+     * Key that identifies a block by its volume, data set, and grid position.
+     */
+    public static class Key {
+
+        private final String basePath;
+        private final String dataSet;
+        private final long[] gridPosition;
+
+        public Key(final String basePath,
+                   final String dataSet,
+                   final long[] gridPosition) {
+            this.basePath = basePath;
+            this.dataSet = dataSet;
+            this.gridPosition = gridPosition;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof Key) {
+                    final Key that = (Key) o;
+                    result = Arrays.equals(this.gridPosition, that.gridPosition) &&
+                             this.dataSet.equals(that.dataSet) &&
+                             this.basePath.equals(that.basePath);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = basePath.hashCode();
+            result = 31 * result + dataSet.hashCode();
+            result = 31 * result + Arrays.hashCode(gridPosition);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "{basePath: '" + basePath +
+                   "', dataSet: '" + dataSet +
+                   "', gridPosition: " + Arrays.toString(gridPosition) +
+                   '}';
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(N5BlockCache.class);
+
+    private static final CacheStats EMPTY_STATS = new CacheStats(0, 0,
+                                                                 0, 0,
+                                                                 0, 0);
+}
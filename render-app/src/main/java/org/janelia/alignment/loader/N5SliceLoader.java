@@ -1,31 +1,30 @@
 package org.janelia.alignment.loader;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 
+import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5Reader;
-import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
-
-import net.imglib2.IterableInterval;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.type.NativeType;
-import net.imglib2.type.numeric.integer.ShortType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Pair;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Loads a 2D slice of an N5 volume identified as:
@@ -36,6 +35,13 @@ import net.imglib2.view.Views;
  *       file:///nrs/flyem/tmp/VNC-align.n5?dataSet=/align/slab-26/raw/s0&x=512&y=640&z=1656&w=384&h=640
  * </pre>
  *
+ * Readers and data set attributes are pooled by base path so that tiles cut from the same volume
+ * only open the volume once.  Slice pixels are copied directly from the volume's blocks which are
+ * read through the shared {@link N5BlockCache}, so neighboring tiles and slices reuse decompressed blocks.
+ *
+ * Readers are leased for the duration of each load, so a reader that is evicted or invalidated while
+ * other threads are using it is only closed once its last lease is released.
+ *
  * @author Eric Trautman
  */
 public class N5SliceLoader implements ImageLoader {
@@ -43,6 +49,28 @@ public class N5SliceLoader implements ImageLoader {
     /** Shareable instance of this loader. */
     public static final N5SliceLoader INSTANCE = new N5SliceLoader();
 
+    /** Maximum number of readers (volumes) pooled by each loader. */
+    private static final int MAX_POOLED_READERS = 64;
+
+    /** Maximum number of data set attributes cached by each loader. */
+    private static final int MAX_CACHED_ATTRIBUTES = 1000;
+
+    private final Cache<String, PooledReader> readerPool;
+    private final Cache<String, DatasetAttributes> attributesCache;
+
+    public N5SliceLoader() {
+        final RemovalListener<String, PooledReader> retireRemovedReader =
+                notification -> notification.getValue().retire();
+        this.readerPool = CacheBuilder.newBuilder()
+                .maximumSize(MAX_POOLED_READERS)
+                .removalListener(retireRemovedReader)
+                .recordStats()
+                .build();
+        this.attributesCache = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_ATTRIBUTES)
+                .build();
+    }
+
     @Override
     public boolean hasSame3DContext(final ImageLoader otherLoader) {
         return otherLoader instanceof N5SliceLoader;
@@ -53,6 +81,7 @@ public class N5SliceLoader implements ImageLoader {
             throws IllegalArgumentException {
 
         final ImageProcessor imageProcessor;
+        PooledReader pooledReader = null;
 
         try {
 
@@ -96,23 +125,14 @@ public class N5SliceLoader implements ImageLoader {
                 }
             }
 
-            long[] xAndYOffsets = null;
-            if (x != null) {
-                if (y != null) {
-                    xAndYOffsets = new long[] { x, y };
-                } else {
-                    xAndYOffsets = new long[] { x, 0 };
-                }
-            } else if (y != null) {
-                xAndYOffsets = new long[] { 0, y };
-            }
+            final long xOffset = x == null ? 0 : x;
+            final long yOffset = y == null ? 0 : y;
 
             if ((basePath != null) && (dataSet != null)) {
 
-                // TODO: review load process (seems very slow)
-
-                final N5Reader reader = buildReader(basePath);
-                final DatasetAttributes datasetAttributes = reader.getDatasetAttributes(dataSet);
+                pooledReader = leaseReader(basePath);
+                final N5Reader reader = pooledReader.getReader();
+                final DatasetAttributes datasetAttributes = getDatasetAttributes(reader, basePath, dataSet);
                 final DataType dataType = datasetAttributes.getDataType();
                 final long[] dimensions = datasetAttributes.getDimensions();
 
@@ -126,19 +146,30 @@ public class N5SliceLoader implements ImageLoader {
 
                 switch(dataType) {
                     case UINT8:
-                        imageProcessor = UNSIGNED_BYTE_HELPER.load(reader, dataSet, width, height, xAndYOffsets, z);
+                        imageProcessor = new ByteProcessor(width, height);
                         break;
                     case INT16:
-                        imageProcessor = SHORT_HELPER.load(reader, dataSet, width, height, xAndYOffsets, z);
+                        imageProcessor = new ShortProcessor(width, height);
                         break;
                     case FLOAT32:
-                        imageProcessor = FLOAT_HELPER.load(reader, dataSet, width, height, xAndYOffsets, z);
+                        imageProcessor = new FloatProcessor(width, height);
                         break;
                     default:
                         // case INT8: case INT32: case INT64: case FLOAT64: case OBJECT: case UINT16: case UINT32: case UINT64:
                         throw new IllegalArgumentException("dataType " + dataType + " is not supported");
                 }
 
+                copySliceBlocks(reader,
+                                basePath,
+                                dataSet,
+                                datasetAttributes,
+                                xOffset,
+                                yOffset,
+                                z,
+                                width,
+                                height,
+                                imageProcessor.getPixels());
+
             } else {
                 throw new IllegalArgumentException(
                         "n5 url '" + urlString +
@@ -148,6 +179,10 @@ public class N5SliceLoader implements ImageLoader {
 
         } catch (final Throwable t) {
             throw new IllegalArgumentException("failed to load n5 slice '" + urlString + "'", t);
+        } finally {
+            if (pooledReader != null) {
+                pooledReader.release();
+            }
         }
 
         return imageProcessor;
@@ -158,89 +193,188 @@ public class N5SliceLoader implements ImageLoader {
         return new N5FSReader(basePath);
     }
 
-    public static abstract class Helper <A extends NativeType< A >, B extends ImageProcessor> {
+    /**
+     * @return newly leased pooled reader for the specified base path (built with {@link #buildReader}
+     *         if necessary).  Callers must {@link PooledReader#release release} the reader when they are done.
+     */
+    PooledReader leaseReader(final String basePath)
+            throws ExecutionException {
+        PooledReader pooledReader;
+        do {
+            // a reader can be retired (removed from the pool) between lookup and lease,
+            // in which case the next lookup pools a new reader
+            pooledReader = readerPool.get(basePath, () -> new PooledReader(basePath, buildReader(basePath)));
+        } while (! pooledReader.lease());
+        return pooledReader;
+    }
 
-        public abstract B buildImageProcessor(final int width,
-                                              final int height);
+    /**
+     * @return cached attributes for the specified data set (read with the specified leased reader if necessary).
+     */
+    private DatasetAttributes getDatasetAttributes(final N5Reader reader,
+                                                   final String basePath,
+                                                   final String dataSet)
+            throws ExecutionException {
+        return attributesCache.get(basePath + "?dataSet=" + dataSet,
+                                   () -> reader.getDatasetAttributes(dataSet));
+    }
 
-        public abstract RandomAccessibleInterval<A> setupTarget(B forImageProcessor);
+    /**
+     * Discards all pooled readers and cached data set attributes.
+     * This should be called if volumes are rewritten while this loader is in use.
+     */
+    public void invalidateReaders() {
+        readerPool.invalidateAll();
+        attributesCache.invalidateAll();
+    }
 
-        public ImageProcessor load(final N5Reader reader,
-                                   final String dataSet,
-                                   final int width,
-                                   final int height,
-                                   final long[] xAndYOffsets,
-                                   final Long zOffset)
-                throws IOException {
+    /**
+     * @return a current snapshot of the reader pool's cumulative statistics.
+     */
+    public CacheStats getReaderPoolStats() {
+        return readerPool.stats();
+    }
 
-            final B imageProcessor = buildImageProcessor(width, height);
-            final RandomAccessibleInterval<A> target = setupTarget(imageProcessor);
-            final RandomAccessibleInterval<A> source = N5Utils.open(reader, dataSet);
+    /**
+     * Reads the specified block.  Subclasses with readers that cannot be shared across threads
+     * should override this method to serialize access.
+     *
+     * @return the block at the specified grid position or null if it does not exist.
+     */
+    protected DataBlock<?> readBlock(final N5Reader reader,
+                                     final String dataSet,
+                                     final DatasetAttributes datasetAttributes,
+                                     final long[] gridPosition)
+            throws IOException {
+        return reader.readBlock(dataSet, datasetAttributes, gridPosition);
+    }
 
-            RandomAccessibleInterval<A> slice = zOffset == null ? source : Views.hyperSlice(source, 2, zOffset);
-            if (xAndYOffsets != null) {
-                slice = Views.offsetInterval(slice, xAndYOffsets, new long[] {0,1});
-            }
-            final IntervalView<Pair<A, A>> pairView =  Views.interval(Views.pair(slice, target),
-                                                                      target);
-            final IterableInterval<Pair<A, A>> pairs = Views.flatIterable(pairView);
+    /**
+     * Copies the pixels of all (possibly cached) blocks that intersect the specified slice area
+     * into the target pixel array.  Areas outside of the volume or without blocks are left empty.
+     */
+    private void copySliceBlocks(final N5Reader reader,
+                                 final String basePath,
+                                 final String dataSet,
+                                 final DatasetAttributes datasetAttributes,
+                                 final long xOffset,
+                                 final long yOffset,
+                                 final Long z,
+                                 final int width,
+                                 final int height,
+                                 final Object targetPixels) {
+
+        final long[] dimensions = datasetAttributes.getDimensions();
+        final int[] blockSize = datasetAttributes.getBlockSize();
+        final boolean isVolume = dimensions.length > 2;
+        final long sliceZ = z == null ? 0 : z;
+
+        if (isVolume && ((sliceZ < 0) || (sliceZ >= dimensions[2]))) {
+            throw new IllegalArgumentException("z " + sliceZ + " is outside of volume with dimensions " +
+                                               Arrays.toString(dimensions));
+        }
 
-            pairs.forEach(pair -> {
-                final A fromPixel = pair.getA();
-                final A toPixel = pair.getB();
-                toPixel.set(fromPixel);
-            });
+        final long minX = Math.max(0, xOffset);
+        final long minY = Math.max(0, yOffset);
+        final long maxX = Math.min(xOffset + width, dimensions[0]) - 1;
+        final long maxY = Math.min(yOffset + height, dimensions[1]) - 1;
 
-            return imageProcessor;
+        if ((minX > maxX) || (minY > maxY)) {
+            return;
         }
-    }
 
-    public static Helper<UnsignedByteType, ByteProcessor> UNSIGNED_BYTE_HELPER =
-            new Helper<UnsignedByteType, ByteProcessor>() {
-                @Override
-                public ByteProcessor buildImageProcessor(final int width,
-                                                         final int height) {
-                    return new ByteProcessor(width, height);
-                }
+        final N5BlockCache blockCache = N5BlockCache.getSharedInstance();
+        final long gridZ = isVolume ? sliceZ / blockSize[2] : 0;
+        final int blockZ = isVolume ? (int) (sliceZ - (gridZ * blockSize[2])) : 0;
 
-                @Override
-                public RandomAccessibleInterval<UnsignedByteType> setupTarget(final ByteProcessor forImageProcessor) {
-                    return ArrayImgs.unsignedBytes(
-                            (byte[]) forImageProcessor.getPixels(),
-                            forImageProcessor.getWidth(),
-                            forImageProcessor.getHeight());
-                }
-            };
-
-    public static Helper<ShortType, ShortProcessor> SHORT_HELPER =
-            new Helper<ShortType, ShortProcessor>() {
-                @Override
-                public ShortProcessor buildImageProcessor(final int width,
-                                                          final int height) {
-                    return new ShortProcessor(width, height);
-                }
-                @Override
-                public RandomAccessibleInterval<ShortType> setupTarget(final ShortProcessor forImageProcessor) {
-                    return ArrayImgs.shorts(
-                            (short[]) forImageProcessor.getPixels(),
-                            forImageProcessor.getWidth(),
-                            forImageProcessor.getHeight());
+        for (long gridY = minY / blockSize[1]; gridY <= maxY / blockSize[1]; gridY++) {
+            for (long gridX = minX / blockSize[0]; gridX <= maxX / blockSize[0]; gridX++) {
+
+                final long[] gridPosition = isVolume ? new long[] {gridX, gridY, gridZ} : new long[] {gridX, gridY};
+                final DataBlock<?> block =
+                        blockCache.get(new N5BlockCache.Key(basePath, dataSet, gridPosition),
+                                       () -> readBlock(reader, dataSet, datasetAttributes, gridPosition));
+
+                if (block == null) {
+                    continue; // missing blocks are empty
                 }
-            };
-
-    public static Helper<FloatType, FloatProcessor> FLOAT_HELPER =
-            new Helper<FloatType, FloatProcessor>() {
-                @Override
-                public FloatProcessor buildImageProcessor(final int width,
-                                                          final int height) {
-                    return new FloatProcessor(width, height);
+
+                final int[] size = block.getSize();
+                final long blockMinX = gridX * blockSize[0];
+                final long blockMinY = gridY * blockSize[1];
+                final long fromX = Math.max(minX, blockMinX);
+                final long toX = Math.min(maxX, blockMinX + size[0] - 1);
+                final long toY = Math.min(maxY, blockMinY + size[1] - 1);
+                final int rowLength = (int) (toX - fromX + 1);
+                final Object blockPixels = block.getData();
+
+                for (long worldY = Math.max(minY, blockMinY); worldY <= toY; worldY++) {
+                    final long blockIndex =
+                            (((long) blockZ * size[1]) + (worldY - blockMinY)) * size[0] + (fromX - blockMinX);
+                    final long targetIndex = ((worldY - yOffset) * width) + (fromX - xOffset);
+                    System.arraycopy(blockPixels, (int) blockIndex, targetPixels, (int) targetIndex, rowLength);
                 }
-                @Override
-                public RandomAccessibleInterval<FloatType> setupTarget(final FloatProcessor forImageProcessor) {
-                    return ArrayImgs.floats(
-                            (float[]) forImageProcessor.getPixels(),
-                            forImageProcessor.getWidth(),
-                            forImageProcessor.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Pooled reader with a count of the loads currently using it.
+     * Once a reader is removed from the pool it is retired and closed when its last lease is released.
+     */
+    static class PooledReader {
+
+        private final String basePath;
+        private final N5Reader reader;
+        private int leaseCount;
+        private boolean retired;
+
+        PooledReader(final String basePath,
+                     final N5Reader reader) {
+            this.basePath = basePath;
+            this.reader = reader;
+            this.leaseCount = 0;
+            this.retired = false;
+        }
+
+        N5Reader getReader() {
+            return reader;
+        }
+
+        /**
+         * @return true if the reader was leased or false if it has been retired.
+         */
+        synchronized boolean lease() {
+            if (! retired) {
+                leaseCount++;
+            }
+            return ! retired;
+        }
+
+        synchronized void release() {
+            leaseCount--;
+            if (retired && (leaseCount == 0)) {
+                close();
+            }
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (leaseCount == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (reader instanceof Closeable) {
+                try {
+                    ((Closeable) reader).close();
+                } catch (final IOException e) {
+                    LOG.warn("failed to close reader for " + basePath, e);
                 }
-            };
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(N5SliceLoader.class);
 }
@@ -97,14 +97,17 @@ public class MultiChannelWithAlphaMapper
         final int targetIntensity = target.ip.get(targetX, targetY);
         final double targetAlpha = target.mask.get(targetX, targetY) / targetMaxMaskIntensity;
 
-        final double[] blendedIntensityAndAlpha =
-                SingleChannelWithAlphaMapper.getBlendedIntensityAndAlpha(sourceIntensity,
-                                                                         sourceAlpha,
-                                                                         targetIntensity,
-                                                                         targetAlpha);
-
-        target.ip.setf(targetX, targetY, (float) blendedIntensityAndAlpha[0]);
-        target.mask.setf(targetX, targetY, (float) (blendedIntensityAndAlpha[1] * targetMaxMaskIntensity));
+        final double blendedAlpha =
+                SingleChannelWithAlphaMapper.getBlendedAlpha(sourceAlpha, targetIntensity, targetAlpha);
+        final double blendedIntensity =
+                SingleChannelWithAlphaMapper.getBlendedIntensity(sourceIntensity,
+                                                                 sourceAlpha,
+                                                                 targetIntensity,
+                                                                 targetAlpha,
+                                                                 blendedAlpha);
+
+        target.ip.setf(targetX, targetY, (float) blendedIntensity);
+        target.mask.setf(targetX, targetY, (float) (blendedAlpha * targetMaxMaskIntensity));
     }
 
 
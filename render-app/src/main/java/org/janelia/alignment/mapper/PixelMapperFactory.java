@@ -0,0 +1,183 @@
+package org.janelia.alignment.mapper;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import org.janelia.alignment.ChannelMap;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Selects the {@link PixelMapper} implementation best suited for a specific render context.
+ *
+ * Single channel sources are mapped with mappers specialized for the target's pixel type
+ * (and 8-bit masks) whenever possible.  These read and write the underlying pixel arrays directly,
+ * so the per-pixel mapping loop avoids virtual processor calls and allocation.
+ * Anything else (multi-channel sources, non 8-bit masks, ...) falls back to the generic processor based mappers.
+ *
+ * @author Eric Trautman
+ */
+public class PixelMapperFactory {
+
+    /**
+     * @param  sourceChannels     channels to map.
+     * @param  hasMask            true if masks should be mapped.
+     * @param  binaryMask         true if only 100% opaque pixels should be mapped (no blending).
+     * @param  skipInterpolation  true if interpolation should be skipped.
+     * @param  targetChannels     target channels for mapped results.
+     *
+     * @return {@link PixelMapper} instance "optimized" for mapping source channel(s) for
+     *         a specific render context.
+     *
+     * @throws IllegalArgumentException
+     *   if the sole source channel is missing from the target channels.
+     */
+    public static PixelMapper getPixelMapper(final ChannelMap sourceChannels,
+                                             final boolean hasMask,
+                                             final boolean binaryMask,
+                                             final boolean skipInterpolation,
+                                             final ChannelMap targetChannels)
+            throws IllegalArgumentException {
+
+        final PixelMapper tilePixelMapper;
+
+        if (sourceChannels.size() > 1) {
+
+            if (hasMask) {
+                if (binaryMask) {
+                    tilePixelMapper = new MultiChannelWithBinaryMaskMapper(sourceChannels,
+                                                                           targetChannels,
+                                                                           (! skipInterpolation));
+                } else {
+                    tilePixelMapper = new MultiChannelWithAlphaMapper(sourceChannels,
+                                                                      targetChannels,
+                                                                      (! skipInterpolation));
+                }
+            } else {
+                tilePixelMapper = new MultiChannelMapper(sourceChannels,
+                                                         targetChannels,
+                                                         (! skipInterpolation));
+            }
+
+        } else {
+
+            final String channelName = sourceChannels.getFirstChannelName();
+
+            final ImageProcessorWithMasks sourceChannel = sourceChannels.get(channelName);
+            final ImageProcessorWithMasks targetChannel = targetChannels.get(channelName);
+
+            if (targetChannel != null) {
+                tilePixelMapper = getSingleChannelMapper(sourceChannel,
+                                                         targetChannel,
+                                                         hasMask,
+                                                         binaryMask,
+                                                         (! skipInterpolation));
+            } else {
+
+                throw new IllegalArgumentException("The sole source channel (" + channelName +
+                                                   ") is missing from specified target channels (" +
+                                                   targetChannels + ").");
+            }
+
+        }
+
+        return tilePixelMapper;
+    }
+
+    /**
+     * @return {@link PixelMapper} instance "optimized" for mapping a single source channel to a target channel.
+     */
+    public static PixelMapper getSingleChannelMapper(final ImageProcessorWithMasks sourceChannel,
+                                                     final ImageProcessorWithMasks targetChannel,
+                                                     final boolean hasMask,
+                                                     final boolean binaryMask,
+                                                     final boolean isMappingInterpolated) {
+
+        final ImageProcessor targetProcessor = targetChannel.ip;
+        final PixelMapper tilePixelMapper;
+
+        if (hasMask) {
+
+            if (hasByteMask(sourceChannel) && hasByteMask(targetChannel)) {
+                if (targetProcessor instanceof ByteProcessor) {
+                    tilePixelMapper = new SingleByteChannelWithMaskMapper(sourceChannel,
+                                                                          targetChannel,
+                                                                          isMappingInterpolated,
+                                                                          binaryMask);
+                } else if (targetProcessor instanceof ShortProcessor) {
+                    tilePixelMapper = new SingleShortChannelWithMaskMapper(sourceChannel,
+                                                                           targetChannel,
+                                                                           isMappingInterpolated,
+                                                                           binaryMask);
+                } else if (targetProcessor instanceof FloatProcessor) {
+                    tilePixelMapper = new SingleFloatChannelWithMaskMapper(sourceChannel,
+                                                                           targetChannel,
+                                                                           isMappingInterpolated,
+                                                                           binaryMask);
+                } else if (targetProcessor instanceof ColorProcessor) {
+                    tilePixelMapper = new SingleColorChannelWithMaskMapper(sourceChannel,
+                                                                           targetChannel,
+                                                                           isMappingInterpolated,
+                                                                           binaryMask);
+                } else {
+                    tilePixelMapper = getGenericSingleChannelWithMaskMapper(sourceChannel,
+                                                                            targetChannel,
+                                                                            binaryMask,
+                                                                            isMappingInterpolated);
+                }
+            } else {
+                tilePixelMapper = getGenericSingleChannelWithMaskMapper(sourceChannel,
+                                                                        targetChannel,
+                                                                        binaryMask,
+                                                                        isMappingInterpolated);
+            }
+
+        } else if (targetProcessor instanceof ByteProcessor) {
+            tilePixelMapper = new SingleByteChannelMapper(sourceChannel, targetChannel, isMappingInterpolated);
+        } else if (targetProcessor instanceof ShortProcessor) {
+            tilePixelMapper = new SingleShortChannelMapper(sourceChannel, targetChannel, isMappingInterpolated);
+        } else if (targetProcessor instanceof FloatProcessor) {
+            tilePixelMapper = new SingleFloatChannelMapper(sourceChannel, targetChannel, isMappingInterpolated);
+        } else if (targetProcessor instanceof ColorProcessor) {
+            tilePixelMapper = new SingleColorChannelMapper(sourceChannel, targetChannel, isMappingInterpolated);
+        } else {
+            tilePixelMapper = new SingleChannelMapper(sourceChannel, targetChannel, isMappingInterpolated);
+        }
+
+        return tilePixelMapper;
+    }
+
+    private static PixelMapper getGenericSingleChannelWithMaskMapper(final ImageProcessorWithMasks sourceChannel,
+                                                                     final ImageProcessorWithMasks targetChannel,
+                                                                     final boolean binaryMask,
+                                                                     final boolean isMappingInterpolated) {
+        final PixelMapper tilePixelMapper;
+        if (binaryMask) {
+            tilePixelMapper = new SingleChannelWithBinaryMaskMapper(sourceChannel,
+                                                                    targetChannel,
+                                                                    isMappingInterpolated);
+        } else if (targetChannel.ip instanceof ColorProcessor) {
+            tilePixelMapper = new SingleColorChannelWithAlphaMapper(sourceChannel,
+                                                                    targetChannel,
+                                                                    isMappingInterpolated);
+        } else {
+            tilePixelMapper = new SingleChannelWithAlphaMapper(sourceChannel,
+                                                               targetChannel,
+                                                               isMappingInterpolated);
+        }
+        return tilePixelMapper;
+    }
+
+    /**
+     * @return true if the specified channel has an 8-bit mask with the same dimensions as its pixels.
+     */
+    private static boolean hasByteMask(final ImageProcessorWithMasks channel) {
+        return (channel.mask instanceof ByteProcessor) &&
+               (channel.mask.getWidth() == channel.ip.getWidth()) &&
+               (channel.mask.getHeight() == channel.ip.getHeight());
+    }
+
+}
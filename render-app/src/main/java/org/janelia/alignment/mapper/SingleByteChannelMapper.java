@@ -0,0 +1,52 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source pixels from an unmasked 8-bit source to an 8-bit target canvas.
+ * Pixel arrays are accessed directly to avoid virtual processor calls in the mapping loop.
+ */
+public class SingleByteChannelMapper
+        extends SingleChannelMapper {
+
+    private final byte[] sourcePixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final byte[] targetPixels;
+    private final int targetWidth;
+
+    public SingleByteChannelMapper(final ImageProcessorWithMasks source,
+                                   final ImageProcessorWithMasks target,
+                                   final boolean isMappingInterpolated) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.sourcePixels = (byte[]) normalizedSource.ip.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (byte[]) target.ip.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        targetPixels[targetY * targetWidth + targetX] = sourcePixels[roundedSourceY * sourceWidth + roundedSourceX];
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        targetPixels[targetY * targetWidth + targetX] =
+                (byte) PixelArrays.interpolateByte(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY);
+    }
+
+}
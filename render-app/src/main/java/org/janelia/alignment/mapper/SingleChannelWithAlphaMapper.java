@@ -63,11 +63,12 @@ public class SingleChannelWithAlphaMapper
         final int targetIntensity = target.ip.get(targetX, targetY);
         final double targetAlpha = target.mask.get(targetX, targetY) / targetMaxMaskIntensity;
 
-        final double[] blendedIntensityAndAlpha =
-                getBlendedIntensityAndAlpha(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha);
+        final double blendedAlpha = getBlendedAlpha(sourceAlpha, targetIntensity, targetAlpha);
+        final double blendedIntensity =
+                getBlendedIntensity(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha, blendedAlpha);
 
-        target.ip.setf(targetX, targetY, (float) blendedIntensityAndAlpha[0]);
-        target.mask.setf(targetX, targetY, (float) (blendedIntensityAndAlpha[1] * targetMaxMaskIntensity));
+        target.ip.setf(targetX, targetY, (float) blendedIntensity);
+        target.mask.setf(targetX, targetY, (float) (blendedAlpha * targetMaxMaskIntensity));
     }
 
     public static double[] getBlendedIntensityAndAlpha(final double sourceIntensity,
@@ -75,28 +76,52 @@ public class SingleChannelWithAlphaMapper
                                                        final double targetIntensity,
                                                        final double targetAlpha) {
 
-        final double blendedIntensity;
-        final double blendedAlpha;
+        final double blendedAlpha = getBlendedAlpha(sourceAlpha, targetIntensity, targetAlpha);
+        final double blendedIntensity =
+                getBlendedIntensity(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha, blendedAlpha);
 
-        if (targetIntensity == 0) {
+        return new double[] { blendedIntensity, blendedAlpha };
+    }
 
-            blendedIntensity = sourceIntensity * sourceAlpha;
+    /**
+     * @return alpha for a source pixel blended into a target pixel.
+     *         Split from {@link #getBlendedIntensity} so that per-pixel blending does not need to allocate arrays.
+     */
+    public static double getBlendedAlpha(final double sourceAlpha,
+                                         final double targetIntensity,
+                                         final double targetAlpha) {
+        final double blendedAlpha;
+        if (targetIntensity == 0) {
             blendedAlpha = sourceAlpha;
-
         } else {
-
             blendedAlpha = sourceAlpha + (targetAlpha * (1 - sourceAlpha));
+        }
+        return blendedAlpha;
+    }
+
+    /**
+     * @return intensity for a source pixel blended into a target pixel
+     *         (blendedAlpha must come from {@link #getBlendedAlpha}).
+     */
+    public static double getBlendedIntensity(final double sourceIntensity,
+                                             final double sourceAlpha,
+                                             final double targetIntensity,
+                                             final double targetAlpha,
+                                             final double blendedAlpha) {
+
+        final double blendedIntensity;
 
-            if (blendedAlpha == 0) {
-                blendedIntensity = 0;
-            } else {
-                blendedIntensity =
-                        ((sourceIntensity * sourceAlpha) + (targetIntensity * targetAlpha * (1 - sourceAlpha))) /
-                        blendedAlpha;
-            }
+        if (targetIntensity == 0) {
+            blendedIntensity = sourceIntensity * sourceAlpha;
+        } else if (blendedAlpha == 0) {
+            blendedIntensity = 0;
+        } else {
+            blendedIntensity =
+                    ((sourceIntensity * sourceAlpha) + (targetIntensity * targetAlpha * (1 - sourceAlpha))) /
+                    blendedAlpha;
         }
 
-        return new double[] { blendedIntensity, blendedAlpha };
+        return blendedIntensity;
     }
 
 }
@@ -0,0 +1,52 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source pixels from an unmasked RGB source to an RGB target canvas.
+ * Pixel arrays are accessed directly to avoid virtual processor calls in the mapping loop.
+ */
+public class SingleColorChannelMapper
+        extends SingleChannelMapper {
+
+    private final int[] sourcePixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int[] targetPixels;
+    private final int targetWidth;
+
+    public SingleColorChannelMapper(final ImageProcessorWithMasks source,
+                                    final ImageProcessorWithMasks target,
+                                    final boolean isMappingInterpolated) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.sourcePixels = (int[]) normalizedSource.ip.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (int[]) target.ip.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        targetPixels[targetY * targetWidth + targetX] = sourcePixels[roundedSourceY * sourceWidth + roundedSourceX];
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        targetPixels[targetY * targetWidth + targetX] =
+                PixelArrays.interpolateColor(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY);
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source and 8-bit mask pixels from an RGB source to an RGB target canvas and 8-bit mask.
+ * Blending matches {@link SingleColorChannelWithAlphaMapper} (or {@link SingleChannelWithBinaryMaskMapper}
+ * when binaryMask is true) but is done inline on the pixel arrays without any per-pixel allocation.
+ */
+public class SingleColorChannelWithMaskMapper
+        extends SingleChannelWithAlphaMapper {
+
+    private final boolean binaryMask;
+    private final int[] sourcePixels;
+    private final byte[] sourceMaskPixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int[] targetPixels;
+    private final byte[] targetMaskPixels;
+    private final int targetWidth;
+
+    public SingleColorChannelWithMaskMapper(final ImageProcessorWithMasks source,
+                                            final ImageProcessorWithMasks target,
+                                            final boolean isMappingInterpolated,
+                                            final boolean binaryMask) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.binaryMask = binaryMask;
+        this.sourcePixels = (int[]) normalizedSource.ip.getPixels();
+        this.sourceMaskPixels = (byte[]) normalizedSource.mask.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (int[]) target.ip.getPixels();
+        this.targetMaskPixels = (byte[]) target.mask.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        final int sourceIndex = roundedSourceY * sourceWidth + roundedSourceX;
+        blend(targetY * targetWidth + targetX,
+              sourcePixels[sourceIndex],
+              sourceMaskPixels[sourceIndex] & 0xff);
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        blend(targetY * targetWidth + targetX,
+              PixelArrays.interpolateColor(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY),
+              PixelArrays.interpolateByte(sourceMaskPixels, sourceWidth, sourceHeight, sourceX, sourceY));
+    }
+
+    private void blend(final int targetIndex,
+                       final int sourceIntensity,
+                       final int sourceMaskIntensity) {
+
+        if (binaryMask) {
+
+            if (sourceMaskIntensity > 0) {
+                targetPixels[targetIndex] = sourceIntensity;
+                targetMaskPixels[targetIndex] = (byte) (int) targetMaxMaskIntensity;
+            }
+
+        } else {
+
+            blendWithAlpha(targetIndex, sourceIntensity, sourceMaskIntensity);
+        }
+    }
+
+    private void blendWithAlpha(final int targetIndex,
+                                final int sourceIntensity,
+                                final int sourceMaskIntensity) {
+
+        final int sourceR = (sourceIntensity & 0xff0000) >> 16;
+        final int sourceG = (sourceIntensity & 0xff00) >> 8;
+        final int sourceB = sourceIntensity & 0xff;
+
+        final double sourceAlpha = sourceMaskIntensity / sourceMaxMaskIntensity;
+
+        final int targetIntensity = targetPixels[targetIndex];
+
+        final int blendedIntensity;
+        final double blendedAlpha;
+
+        if (targetIntensity == 0) {
+
+            final int blendedR = (int) ((sourceR * sourceAlpha) + 0.5);
+            final int blendedG = (int) ((sourceG * sourceAlpha) + 0.5);
+            final int blendedB = (int) ((sourceB * sourceAlpha) + 0.5);
+
+            blendedIntensity = (blendedR << 16) + (blendedG << 8) + blendedB;
+            blendedAlpha = sourceAlpha;
+
+        } else {
+
+            final double targetAlpha =
+                    ((targetMaskPixels[targetIndex] & 0xff) / targetMaxMaskIntensity) * (1 - sourceAlpha);
+
+            blendedAlpha = sourceAlpha + targetAlpha;
+
+            if (blendedAlpha == 0) {
+                blendedIntensity = 0;
+            } else {
+                final int targetR = (targetIntensity & 0xff0000) >> 16;
+                final int targetG = (targetIntensity & 0xff00) >> 8;
+                final int targetB = targetIntensity & 0xff;
+
+                final int blendedR = (int) ((((sourceR * sourceAlpha) + (targetR * targetAlpha)) / blendedAlpha) + 0.5);
+                final int blendedG = (int) ((((sourceG * sourceAlpha) + (targetG * targetAlpha)) / blendedAlpha) + 0.5);
+                final int blendedB = (int) ((((sourceB * sourceAlpha) + (targetB * targetAlpha)) / blendedAlpha) + 0.5);
+
+                blendedIntensity = (blendedR << 16) + (blendedG << 8) + blendedB;
+            }
+        }
+
+        targetPixels[targetIndex] = blendedIntensity;
+        targetMaskPixels[targetIndex] = (byte) (int) (blendedAlpha * targetMaxMaskIntensity);
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source pixels from an unmasked 32-bit float source to a 32-bit float target canvas.
+ * Pixel arrays are accessed directly to avoid virtual processor calls in the mapping loop.
+ */
+public class SingleFloatChannelMapper
+        extends SingleChannelMapper {
+
+    private final float[] sourcePixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final float[] targetPixels;
+    private final int targetWidth;
+
+    public SingleFloatChannelMapper(final ImageProcessorWithMasks source,
+                                    final ImageProcessorWithMasks target,
+                                    final boolean isMappingInterpolated) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.sourcePixels = (float[]) normalizedSource.ip.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (float[]) target.ip.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        targetPixels[targetY * targetWidth + targetX] = sourcePixels[roundedSourceY * sourceWidth + roundedSourceX];
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        targetPixels[targetY * targetWidth + targetX] =
+                PixelArrays.interpolateFloat(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY);
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source and 8-bit mask pixels from a 32-bit float source to a 32-bit float target canvas and 8-bit mask.
+ * Blending uses the same formula as {@link SingleChannelWithAlphaMapper} (or {@link SingleChannelWithBinaryMaskMapper}
+ * when binaryMask is true) but is done inline on the pixel arrays without any per-pixel allocation.
+ * Unlike the generic mapper (which blends raw float bit patterns), intensities are blended as float values.
+ */
+public class SingleFloatChannelWithMaskMapper
+        extends SingleChannelWithAlphaMapper {
+
+    private final boolean binaryMask;
+    private final float[] sourcePixels;
+    private final byte[] sourceMaskPixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final float[] targetPixels;
+    private final byte[] targetMaskPixels;
+    private final int targetWidth;
+
+    public SingleFloatChannelWithMaskMapper(final ImageProcessorWithMasks source,
+                                            final ImageProcessorWithMasks target,
+                                            final boolean isMappingInterpolated,
+                                            final boolean binaryMask) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.binaryMask = binaryMask;
+        this.sourcePixels = (float[]) normalizedSource.ip.getPixels();
+        this.sourceMaskPixels = (byte[]) normalizedSource.mask.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (float[]) target.ip.getPixels();
+        this.targetMaskPixels = (byte[]) target.mask.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        final int sourceIndex = roundedSourceY * sourceWidth + roundedSourceX;
+        blend(targetY * targetWidth + targetX,
+              sourcePixels[sourceIndex],
+              sourceMaskPixels[sourceIndex] & 0xff);
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        blend(targetY * targetWidth + targetX,
+              PixelArrays.interpolateFloat(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY),
+              PixelArrays.interpolateByte(sourceMaskPixels, sourceWidth, sourceHeight, sourceX, sourceY));
+    }
+
+    private void blend(final int targetIndex,
+                       final float sourceIntensity,
+                       final int sourceMaskIntensity) {
+
+        if (binaryMask) {
+
+            if (sourceMaskIntensity > 0) {
+                targetPixels[targetIndex] = sourceIntensity;
+                targetMaskPixels[targetIndex] = (byte) (int) targetMaxMaskIntensity;
+            }
+
+        } else {
+
+            final double sourceAlpha = sourceMaskIntensity / sourceMaxMaskIntensity;
+            final float targetIntensity = targetPixels[targetIndex];
+            final double targetAlpha = (targetMaskPixels[targetIndex] & 0xff) / targetMaxMaskIntensity;
+
+            final double blendedAlpha = getBlendedAlpha(sourceAlpha, targetIntensity, targetAlpha);
+            final double blendedIntensity =
+                    getBlendedIntensity(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha, blendedAlpha);
+
+            targetPixels[targetIndex] = (float) blendedIntensity;
+            targetMaskPixels[targetIndex] = (byte) (float) (blendedAlpha * targetMaxMaskIntensity);
+        }
+    }
+
+}
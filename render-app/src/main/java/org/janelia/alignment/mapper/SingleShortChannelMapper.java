@@ -0,0 +1,52 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source pixels from an unmasked 16-bit source to a 16-bit target canvas.
+ * Pixel arrays are accessed directly to avoid virtual processor calls in the mapping loop.
+ */
+public class SingleShortChannelMapper
+        extends SingleChannelMapper {
+
+    private final short[] sourcePixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final short[] targetPixels;
+    private final int targetWidth;
+
+    public SingleShortChannelMapper(final ImageProcessorWithMasks source,
+                                    final ImageProcessorWithMasks target,
+                                    final boolean isMappingInterpolated) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.sourcePixels = (short[]) normalizedSource.ip.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (short[]) target.ip.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        targetPixels[targetY * targetWidth + targetX] = sourcePixels[roundedSourceY * sourceWidth + roundedSourceX];
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        targetPixels[targetY * targetWidth + targetX] =
+                (short) PixelArrays.interpolateShort(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.janelia.alignment.mapper;
+
+import static mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+/**
+ * Maps source and 8-bit mask pixels from a 16-bit source to a 16-bit target canvas and 8-bit mask.
+ * Blending matches {@link SingleChannelWithAlphaMapper} (or {@link SingleChannelWithBinaryMaskMapper}
+ * when binaryMask is true) but is done inline on the pixel arrays without any per-pixel allocation.
+ */
+public class SingleShortChannelWithMaskMapper
+        extends SingleChannelWithAlphaMapper {
+
+    private final boolean binaryMask;
+    private final short[] sourcePixels;
+    private final byte[] sourceMaskPixels;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final short[] targetPixels;
+    private final byte[] targetMaskPixels;
+    private final int targetWidth;
+
+    public SingleShortChannelWithMaskMapper(final ImageProcessorWithMasks source,
+                                            final ImageProcessorWithMasks target,
+                                            final boolean isMappingInterpolated,
+                                            final boolean binaryMask) {
+
+        super(source, target, isMappingInterpolated);
+
+        this.binaryMask = binaryMask;
+        this.sourcePixels = (short[]) normalizedSource.ip.getPixels();
+        this.sourceMaskPixels = (byte[]) normalizedSource.mask.getPixels();
+        this.sourceWidth = normalizedSource.ip.getWidth();
+        this.sourceHeight = normalizedSource.ip.getHeight();
+        this.targetPixels = (short[]) target.ip.getPixels();
+        this.targetMaskPixels = (byte[]) target.mask.getPixels();
+        this.targetWidth = target.ip.getWidth();
+    }
+
+    @Override
+    public void map(final double sourceX,
+                    final double sourceY,
+                    final int targetX,
+                    final int targetY) {
+
+        final int roundedSourceX = (int) (sourceX + 0.5f);
+        final int roundedSourceY = (int) (sourceY + 0.5f);
+        final int sourceIndex = roundedSourceY * sourceWidth + roundedSourceX;
+        blend(targetY * targetWidth + targetX,
+              sourcePixels[sourceIndex] & 0xffff,
+              sourceMaskPixels[sourceIndex] & 0xff);
+    }
+
+    @Override
+    public void mapInterpolated(final double sourceX,
+                                final double sourceY,
+                                final int targetX,
+                                final int targetY) {
+
+        blend(targetY * targetWidth + targetX,
+              PixelArrays.interpolateShort(sourcePixels, sourceWidth, sourceHeight, sourceX, sourceY),
+              PixelArrays.interpolateByte(sourceMaskPixels, sourceWidth, sourceHeight, sourceX, sourceY));
+    }
+
+    private void blend(final int targetIndex,
+                       final int sourceIntensity,
+                       final int sourceMaskIntensity) {
+
+        if (binaryMask) {
+
+            if (sourceMaskIntensity > 0) {
+                targetPixels[targetIndex] = (short) sourceIntensity;
+                targetMaskPixels[targetIndex] = (byte) (int) targetMaxMaskIntensity;
+            }
+
+        } else {
+
+            final double sourceAlpha = sourceMaskIntensity / sourceMaxMaskIntensity;
+            final int targetIntensity = targetPixels[targetIndex] & 0xffff;
+            final double targetAlpha = (targetMaskPixels[targetIndex] & 0xff) / targetMaxMaskIntensity;
+
+            final double blendedAlpha = getBlendedAlpha(sourceAlpha, targetIntensity, targetAlpha);
+            final double blendedIntensity =
+                    getBlendedIntensity(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha, blendedAlpha);
+
+            targetPixels[targetIndex] = (short) (float) blendedIntensity;
+            targetMaskPixels[targetIndex] = (byte) (float) (blendedAlpha * targetMaxMaskIntensity);
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -11,6 +12,7 @@ import java.util.List;
 import mpicbg.imagefeatures.Feature;
 
 import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.match.CanvasFeatureListCodec.DescriptorEncoding;
 import org.janelia.alignment.util.FileUtil;
 
 /**
@@ -18,11 +20,16 @@ import org.janelia.alignment.util.FileUtil;
  *
  * Includes {@link #writeToStorage(File, CanvasFeatureList)} and {@link #readFromStorage(File, CanvasId)} methods
  * to facilitate persistence to and retrieval from a file system.
+ * Lists are stored in the compact binary format supported by {@link CanvasFeatureListCodec},
+ * but lists previously stored as gzipped JSON can still be read.
  *
  * @author Eric Trautman
  */
 public class CanvasFeatureList implements Serializable {
 
+    public static final String BINARY_STORAGE_SUFFIX = ".features.bin";
+    public static final String JSON_STORAGE_SUFFIX = ".features.json.gz";
+
     private final CanvasId canvasId;
     private final String renderParametersUrl;
     private final Double renderScale;
@@ -78,11 +85,19 @@ public class CanvasFeatureList implements Serializable {
         return featureList.size();
     }
 
+    /**
+     * @return copy of this list's context with the specified features.
+     */
+    CanvasFeatureList withFeatureList(final List<Feature> featureList) {
+        return new CanvasFeatureList(canvasId, renderParametersUrl, renderScale, clipWidth, clipHeight, featureList);
+    }
+
     /**
      * @param  rootDirectory  root directory for all features extracted in a particular run.
      * @param  canvasId       identifies the desired canvas.
      *
      * @return persisted feature list for the specified canvas.
+     *         Binary storage is used when it exists, otherwise legacy JSON storage is read.
      *
      * @throws IOException
      *   if the canvas feature storage file cannot be found or parsed.
@@ -91,12 +106,31 @@ public class CanvasFeatureList implements Serializable {
                                                     final CanvasId canvasId)
             throws IOException {
         final Path path = getStoragePath(rootDirectory, canvasId);
-        final Reader reader = new FileUtil().getExtensionBasedReader(path.toString());
-        return JsonUtils.FAST_MAPPER.readValue(reader, CanvasFeatureList.class);
+        final CanvasFeatureList canvasFeatureList;
+        if (Files.exists(path)) {
+            canvasFeatureList = CanvasFeatureListCodec.read(path);
+        } else {
+            canvasFeatureList = readJson(getJsonStoragePath(rootDirectory, canvasId));
+        }
+        return canvasFeatureList;
     }
 
     /**
-     * Persists the specified feature data to disk (see {@link #getStoragePath(File, CanvasId)}).
+     * @return feature list parsed from the specified JSON file.
+     *
+     * @throws IOException
+     *   if the file cannot be found or parsed.
+     */
+    public static CanvasFeatureList readJson(final Path path)
+            throws IOException {
+        try (final Reader reader = new FileUtil().getExtensionBasedReader(path.toString())) {
+            return JsonUtils.FAST_MAPPER.readValue(reader, CanvasFeatureList.class);
+        }
+    }
+
+    /**
+     * Persists the specified feature data to disk with full precision descriptors
+     * (see {@link #getStoragePath(File, CanvasId)}).
      *
      * @param  rootDirectory      root directory for all features extracted in the current run.
      * @param  canvasFeatureList  feature data to persist.
@@ -107,14 +141,31 @@ public class CanvasFeatureList implements Serializable {
     public static void writeToStorage(final File rootDirectory,
                                       final CanvasFeatureList canvasFeatureList)
             throws IOException {
+        writeToStorage(rootDirectory, canvasFeatureList, DescriptorEncoding.FLOAT32);
+    }
+
+    /**
+     * Persists the specified feature data to disk (see {@link #getStoragePath(File, CanvasId)}).
+     *
+     * @param  rootDirectory       root directory for all features extracted in the current run.
+     * @param  canvasFeatureList   feature data to persist.
+     * @param  descriptorEncoding  encoding for stored feature descriptors.
+     *
+     * @throws IOException
+     *   if the feature data cannot be persisted.
+     */
+    public static void writeToStorage(final File rootDirectory,
+                                      final CanvasFeatureList canvasFeatureList,
+                                      final DescriptorEncoding descriptorEncoding)
+            throws IOException {
         final Path path = getStoragePath(rootDirectory, canvasFeatureList.canvasId);
         FileUtil.ensureWritableDirectory(path.getParent().toFile());
-        FileUtil.saveJsonFile(path.toString(), canvasFeatureList, JsonUtils.FAST_MAPPER);
+        CanvasFeatureListCodec.write(path, canvasFeatureList, descriptorEncoding);
     }
 
     /**
      * Builds a standard storage path for the specified canvas of the form:
-     * [root]/[canvas_group_id]/[canvas_id].features.json.gz
+     * [root]/[canvas_group_id]/[canvas_id].features.bin
      *
      * @param  rootDirectory  root directory for all features extracted in a particular run.
      * @param  canvasId       the current canvas.
@@ -123,13 +174,33 @@ public class CanvasFeatureList implements Serializable {
      */
     public static Path getStoragePath(final File rootDirectory,
                                       final CanvasId canvasId) {
+        return getStoragePath(rootDirectory, canvasId, BINARY_STORAGE_SUFFIX);
+    }
+
+    /**
+     * Builds the legacy JSON storage path for the specified canvas of the form:
+     * [root]/[canvas_group_id]/[canvas_id].features.json.gz
+     *
+     * @param  rootDirectory  root directory for all features extracted in a particular run.
+     * @param  canvasId       the current canvas.
+     *
+     * @return legacy JSON storage path for the specified canvas' feature data.
+     */
+    public static Path getJsonStoragePath(final File rootDirectory,
+                                          final CanvasId canvasId) {
+        return getStoragePath(rootDirectory, canvasId, JSON_STORAGE_SUFFIX);
+    }
+
+    private static Path getStoragePath(final File rootDirectory,
+                                       final CanvasId canvasId,
+                                       final String suffix) {
         String name = canvasId.getId();
         if (canvasId.getRelativePosition() != null) {
             name = name + "__" + canvasId.getRelativePosition();
         }
         return Paths.get(rootDirectory.getAbsolutePath(),
                          canvasId.getGroupId(),
-                         name + ".features.json.gz");
+                         name + suffix);
     }
 
 }
@@ -0,0 +1,355 @@
+package org.janelia.alignment.match;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import mpicbg.imagefeatures.Feature;
+
+import org.janelia.alignment.json.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes {@link CanvasFeatureList} data in a compact binary format.
+ *
+ * <pre>
+ * Fixed header (24 bytes, little endian):
+ *
+ *    0  int    magic number (0x4C465652)
+ *    4  short  format version
+ *    6  byte   descriptor encoding (0 = float32, 1 = quantized uint8)
+ *    7  byte   number of location dimensions
+ *    8  int    number of features
+ *   12  int    number of descriptor values per feature
+ *   16  float  descriptor quantization scale (maximum descriptor value, only used for uint8 encoding)
+ *   20  int    number of metadata bytes
+ *
+ * Metadata:  UTF-8 JSON canvas feature list without the features (canvasId, renderParametersUrl, ...)
+ *
+ * Feature records (fixed size):  location doubles, scale float, orientation float, descriptor values
+ * </pre>
+ *
+ * Files are memory mapped when read and features are decoded on demand, so loading a file
+ * only costs the header and metadata parse.  Features are decoded (and their descriptor arrays allocated)
+ * the first time they are accessed.
+ *
+ * @author Eric Trautman
+ */
+public class CanvasFeatureListCodec {
+
+    /** Storage encoding for feature descriptor values. */
+    public enum DescriptorEncoding {
+
+        /** Full precision 4 byte floats. */
+        FLOAT32(4),
+
+        /** Single byte values scaled to the file's maximum descriptor value (roughly 4x smaller files). */
+        UINT8(1);
+
+        private final int bytesPerValue;
+
+        DescriptorEncoding(final int bytesPerValue) {
+            this.bytesPerValue = bytesPerValue;
+        }
+    }
+
+    public static final int MAGIC_NUMBER = 0x4C465652;
+    public static final short CURRENT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 24;
+
+    /**
+     * Writes the specified feature list to the specified path.
+     * Data is written to a temporary file that is then moved into place so that concurrent
+     * readers never see a partially written file.
+     *
+     * @throws IllegalArgumentException
+     *   if the features do not all have the same number of location dimensions and descriptor values.
+     *
+     * @throws IOException
+     *   if the data cannot be written.
+     */
+    public static void write(final Path path,
+                             final CanvasFeatureList canvasFeatureList,
+                             final DescriptorEncoding descriptorEncoding)
+            throws IllegalArgumentException, IOException {
+
+        final List<Feature> featureList = canvasFeatureList.getFeatureList();
+        final int featureCount = featureList == null ? 0 : featureList.size();
+
+        int locationLength = 2;
+        int descriptorLength = 0;
+        float maxDescriptorValue = 0.0f;
+        for (int i = 0; i < featureCount; i++) {
+            final Feature feature = featureList.get(i);
+            if (i == 0) {
+                locationLength = feature.location.length;
+                descriptorLength = feature.descriptor.length;
+            } else if ((feature.location.length != locationLength) ||
+                       (feature.descriptor.length != descriptorLength)) {
+                throw new IllegalArgumentException(
+                        "feature " + i + " for " + canvasFeatureList.getCanvasId() + " has " +
+                        feature.location.length + " location dimensions and " + feature.descriptor.length +
+                        " descriptor values but feature 0 has " + locationLength + " location dimensions and " +
+                        descriptorLength + " descriptor values");
+            }
+            for (final float value : feature.descriptor) {
+                maxDescriptorValue = Math.max(maxDescriptorValue, value);
+            }
+        }
+
+        final CanvasFeatureList metadata = canvasFeatureList.withFeatureList(null);
+        final byte[] metadataBytes = JsonUtils.FAST_MAPPER.writeValueAsBytes(metadata);
+
+        final int recordLength = getRecordLength(locationLength, descriptorLength, descriptorEncoding);
+        final long fileLength = HEADER_LENGTH + metadataBytes.length + ((long) featureCount * recordLength);
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    featureCount + " features for " + canvasFeatureList.getCanvasId() +
+                    " are too large to store in a single file");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) fileLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putShort(CURRENT_VERSION);
+        buffer.put((byte) descriptorEncoding.ordinal());
+        buffer.put((byte) locationLength);
+        buffer.putInt(featureCount);
+        buffer.putInt(descriptorLength);
+        buffer.putFloat(maxDescriptorValue);
+        buffer.putInt(metadataBytes.length);
+        buffer.put(metadataBytes);
+
+        final float quantizationFactor = maxDescriptorValue > 0 ? 255.0f / maxDescriptorValue : 0.0f;
+        for (int i = 0; i < featureCount; i++) {
+            final Feature feature = featureList.get(i);
+            for (final double coordinate : feature.location) {
+                buffer.putDouble(coordinate);
+            }
+            buffer.putFloat(feature.scale);
+            buffer.putFloat(feature.orientation);
+            if (descriptorEncoding == DescriptorEncoding.FLOAT32) {
+                for (final float value : feature.descriptor) {
+                    buffer.putFloat(value);
+                }
+            } else {
+                for (final float value : feature.descriptor) {
+                    buffer.put((byte) Math.max(0, Math.min(255, Math.round(value * quantizationFactor))));
+                }
+            }
+        }
+        buffer.flip();
+
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tempPath,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        LOG.info("write: exit, wrote {} features ({} descriptors) to {}", featureCount, descriptorEncoding, path);
+    }
+
+    /**
+     * @return feature list memory mapped from the specified path.
+     *         The returned list's features are lazily decoded.
+     *
+     * @throws IOException
+     *   if the file cannot be read or is not a supported binary feature file.
+     */
+    public static CanvasFeatureList read(final Path path)
+            throws IOException {
+
+        final MappedByteBuffer mappedBuffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // mapping remains valid after the channel is closed
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final ByteBuffer buffer = mappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((buffer.limit() < HEADER_LENGTH) || (buffer.getInt(0) != MAGIC_NUMBER)) {
+            throw new IOException(path + " is not a binary feature list file");
+        }
+
+        final short version = buffer.getShort(4);
+        if (version != CURRENT_VERSION) {
+            throw new IOException(path + " has unsupported binary feature list version " + version);
+        }
+
+        final int encodingOrdinal = buffer.get(6);
+        if ((encodingOrdinal < 0) || (encodingOrdinal >= DescriptorEncoding.values().length)) {
+            throw new IOException(path + " has unsupported descriptor encoding " + encodingOrdinal);
+        }
+        final DescriptorEncoding descriptorEncoding = DescriptorEncoding.values()[encodingOrdinal];
+
+        final int locationLength = buffer.get(7);
+        final int featureCount = buffer.getInt(8);
+        final int descriptorLength = buffer.getInt(12);
+        final float maxDescriptorValue = buffer.getFloat(16);
+        final int metadataLength = buffer.getInt(20);
+
+        final int recordsOffset = HEADER_LENGTH + metadataLength;
+        final int recordLength = getRecordLength(locationLength, descriptorLength, descriptorEncoding);
+        final long expectedLength = recordsOffset + ((long) featureCount * recordLength);
+        if (buffer.limit() != expectedLength) {
+            throw new IOException(path + " contains " + buffer.limit() + " bytes but header indicates " +
+                                  expectedLength + " bytes should be present");
+        }
+
+        final byte[] metadataBytes = new byte[metadataLength];
+        final ByteBuffer metadataBuffer = buffer.duplicate();
+        metadataBuffer.position(HEADER_LENGTH);
+        metadataBuffer.get(metadataBytes);
+        final CanvasFeatureList metadata =
+                JsonUtils.FAST_MAPPER.readValue(metadataBytes, CanvasFeatureList.class);
+
+        final MappedFeatureList featureList = new MappedFeatureList(buffer,
+                                                                    recordsOffset,
+                                                                    featureCount,
+                                                                    locationLength,
+                                                                    descriptorLength,
+                                                                    descriptorEncoding,
+                                                                    maxDescriptorValue);
+
+        return metadata.withFeatureList(featureList);
+    }
+
+    private static int getRecordLength(final int locationLength,
+                                       final int descriptorLength,
+                                       final DescriptorEncoding descriptorEncoding) {
+        return (locationLength * 8) + 4 + 4 + (descriptorLength * descriptorEncoding.bytesPerValue);
+    }
+
+    /**
+     * Read-only list view of memory mapped feature records.
+     *
+     * Each feature is decoded the first time it is requested and then retained, so callers that only
+     * look at some features (e.g. locations within a clip region) never allocate descriptors for the rest.
+     * Decoded features are shared by all callers and must not be modified.
+     *
+     * Serialized instances are replaced with a standard list of fully decoded features
+     * since mapped buffers cannot be serialized.
+     */
+    public static class MappedFeatureList
+            extends AbstractList<Feature>
+            implements RandomAccess, Serializable {
+
+        private final transient ByteBuffer buffer;
+        private final int recordsOffset;
+        private final int featureCount;
+        private final int locationLength;
+        private final int descriptorLength;
+        private final DescriptorEncoding descriptorEncoding;
+        private final float dequantizationFactor;
+        private final int recordLength;
+        private final transient AtomicReferenceArray<Feature> decodedFeatures;
+
+        private MappedFeatureList(final ByteBuffer buffer,
+                                  final int recordsOffset,
+                                  final int featureCount,
+                                  final int locationLength,
+                                  final int descriptorLength,
+                                  final DescriptorEncoding descriptorEncoding,
+                                  final float maxDescriptorValue) {
+            this.buffer = buffer;
+            this.recordsOffset = recordsOffset;
+            this.featureCount = featureCount;
+            this.locationLength = locationLength;
+            this.descriptorLength = descriptorLength;
+            this.descriptorEncoding = descriptorEncoding;
+            this.dequantizationFactor = maxDescriptorValue / 255.0f;
+            this.recordLength = getRecordLength(locationLength, descriptorLength, descriptorEncoding);
+            this.decodedFeatures = new AtomicReferenceArray<>(featureCount);
+        }
+
+        @Override
+        public int size() {
+            return featureCount;
+        }
+
+        @Override
+        public Feature get(final int index) {
+            Feature feature = decodedFeatures.get(index);
+            if (feature == null) {
+                feature = decode(index);
+                if (! decodedFeatures.compareAndSet(index, null, feature)) {
+                    feature = decodedFeatures.get(index);
+                }
+            }
+            return feature;
+        }
+
+        /**
+         * @return the specified dimension of the specified feature's location
+         *         (read directly from the mapped buffer without decoding the feature).
+         */
+        public double getLocation(final int index,
+                                  final int dimension) {
+            if ((index < 0) || (index >= featureCount)) {
+                throw new IndexOutOfBoundsException("index " + index + " is out of bounds for size " + featureCount);
+            }
+            return buffer.getDouble(recordsOffset + (index * recordLength) + (dimension * 8));
+        }
+
+        private Feature decode(final int index) {
+
+            if ((index < 0) || (index >= featureCount)) {
+                throw new IndexOutOfBoundsException("index " + index + " is out of bounds for size " + featureCount);
+            }
+
+            // only absolute reads are used so that the shared buffer can be accessed concurrently
+            int offset = recordsOffset + (index * recordLength);
+
+            final double[] location = new double[locationLength];
+            for (int i = 0; i < locationLength; i++) {
+                location[i] = buffer.getDouble(offset);
+                offset += 8;
+            }
+
+            final float scale = buffer.getFloat(offset);
+            offset += 4;
+            final float orientation = buffer.getFloat(offset);
+            offset += 4;
+
+            final float[] descriptor = new float[descriptorLength];
+            if (descriptorEncoding == DescriptorEncoding.FLOAT32) {
+                for (int i = 0; i < descriptorLength; i++) {
+                    descriptor[i] = buffer.getFloat(offset);
+                    offset += 4;
+                }
+            } else {
+                for (int i = 0; i < descriptorLength; i++) {
+                    descriptor[i] = (buffer.get(offset) & 0xff) * dequantizationFactor;
+                    offset++;
+                }
+            }
+
+            return new Feature(scale, orientation, location, descriptor);
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return new ArrayList<>(this);
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureListCodec.class);
+}
@@ -1,14 +1,19 @@
 package org.janelia.alignment.match;
 
+import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import mpicbg.ij.FeatureTransform;
 import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Point;
 import mpicbg.models.PointMatch;
 import mpicbg.util.Timer;
 
+import org.janelia.alignment.match.cache.CachedCanvasFeatures;
 import org.janelia.alignment.match.parameters.MatchDerivationParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +26,24 @@ import org.slf4j.LoggerFactory;
  */
 public class CanvasFeatureMatcher implements Serializable {
 
+    /** Methods for finding the nearest descriptors of each feature. */
+    public enum DescriptorSearch {
+
+        /** Compare every pair of features. */
+        EXACT,
+
+        /** Search a randomized k-d forest of the second canvas' descriptors (see {@link FeatureDescriptorIndex}). */
+        KD_FOREST
+    }
+
+    public static final int DEFAULT_KD_FOREST_TREES = 4;
+    public static final int DEFAULT_KD_FOREST_MAX_CHECKS = 512;
+
     private final float rod;
     private final MatchFilter matchFilter;
+    private final DescriptorSearch descriptorSearch;
+    private final int kdForestTrees;
+    private final int kdForestMaxChecks;
 
     /**
      * Sets up everything that is needed to derive point matches from the feature lists of two canvases.
@@ -31,6 +52,12 @@ public class CanvasFeatureMatcher implements Serializable {
                                 final double renderScale) {
         this.rod = matchParameters.matchRod;
         this.matchFilter = new MatchFilter(matchParameters, renderScale);
+        this.descriptorSearch = matchParameters.matchDescriptorSearch == null ?
+                                DescriptorSearch.EXACT : matchParameters.matchDescriptorSearch;
+        this.kdForestTrees = matchParameters.matchKdForestTrees == null ?
+                             DEFAULT_KD_FOREST_TREES : matchParameters.matchKdForestTrees;
+        this.kdForestMaxChecks = matchParameters.matchKdForestMaxChecks == null ?
+                                 DEFAULT_KD_FOREST_MAX_CHECKS : matchParameters.matchKdForestMaxChecks;
     }
 
     public MatchFilter getMatchFilter() {
@@ -45,6 +72,26 @@ public class CanvasFeatureMatcher implements Serializable {
      */
     public CanvasMatchResult deriveMatchResult(final List<Feature> canvas1Features,
                                                final List<Feature> canvas2Features) {
+        return deriveMatchResult(canvas1Features, canvas2Features, null);
+    }
+
+    /**
+     * Same as {@link #deriveMatchResult(List, List)} but reuses the second canvas' cached descriptor index
+     * when k-d forest descriptor search is enabled.
+     *
+     * @param  canvas1Features  cached features for first canvas.
+     * @param  canvas2Features  cached features for second canvas.
+     *
+     * @return SIFT match results for the specified features.
+     */
+    public CanvasMatchResult deriveMatchResult(final CachedCanvasFeatures canvas1Features,
+                                               final CachedCanvasFeatures canvas2Features) {
+        return deriveMatchResult(canvas1Features.getFeatureList(), canvas2Features.getFeatureList(), canvas2Features);
+    }
+
+    private CanvasMatchResult deriveMatchResult(final List<Feature> canvas1Features,
+                                                final List<Feature> canvas2Features,
+                                                final CachedCanvasFeatures cachedCanvas2Features) {
 
         LOG.info("deriveMatchResult: entry, canvas1Features.size={}, canvas2Features.size={}",
                  canvas1Features.size(), canvas2Features.size());
@@ -54,7 +101,14 @@ public class CanvasFeatureMatcher implements Serializable {
 
         final List<PointMatch> candidates = new ArrayList<>(canvas1Features.size());
 
-        FeatureTransform.matchFeatures(canvas1Features, canvas2Features, candidates, rod);
+        if (useIndexedSearch(canvas2Features.size())) {
+            final FeatureDescriptorIndex canvas2Index = cachedCanvas2Features == null ?
+                                                        new FeatureDescriptorIndex(canvas2Features, kdForestTrees) :
+                                                        cachedCanvas2Features.getDescriptorIndex(kdForestTrees);
+            matchFeatures(canvas1Features, canvas2Features, canvas2Index, candidates, rod, kdForestMaxChecks);
+        } else {
+            FeatureTransform.matchFeatures(canvas1Features, canvas2Features, candidates, rod);
+        }
 
         final CanvasMatchResult result = matchFilter.buildMatchResult(candidates);
 
@@ -63,5 +117,60 @@ public class CanvasFeatureMatcher implements Serializable {
         return result;
     }
 
+    /**
+     * @return true if the k-d forest should be searched for the specified number of features.
+     *         Small feature lists are always searched exactly since a brute force scan
+     *         compares no more descriptors than an index search would.
+     */
+    boolean useIndexedSearch(final int canvas2FeatureCount) {
+        return DescriptorSearch.KD_FOREST.equals(descriptorSearch) && (canvas2FeatureCount > kdForestMaxChecks);
+    }
+
+    /**
+     * Identifies candidate matches the same way as {@link FeatureTransform#matchFeatures}
+     * (nearest neighbor distance ratio test followed by removal of ambiguous matches),
+     * but finds (approximate) nearest neighbors with the specified index instead of a brute force scan.
+     *
+     * @param  features1       features for first canvas.
+     * @param  features2       features for second canvas.
+     * @param  features2Index  descriptor index built from features2.
+     * @param  matches         list to which candidate matches are added.
+     * @param  rod             ratio of distances (closest / next closest) for matches.
+     * @param  maxChecks       maximum number of descriptors to compare for each first canvas feature.
+     */
+    public static void matchFeatures(final List<Feature> features1,
+                                     final List<Feature> features2,
+                                     final FeatureDescriptorIndex features2Index,
+                                     final List<PointMatch> matches,
+                                     final double rod,
+                                     final int maxChecks) {
+
+        final FeatureDescriptorIndex.Search search = features2Index.newSearch();
+        final double squaredRod = rod * rod;
+
+        final List<PointMatch> ratioMatches = new ArrayList<>();
+        final Map<Point2D.Double, Integer> locationCounts = new HashMap<>();
+
+        for (final Feature feature1 : features1) {
+            search.findTwoNearestNeighbors(feature1.descriptor, maxChecks);
+            // ratio of (non-squared) distances must be less than rod
+            if ((search.getSecondNearestIndex() >= 0) &&
+                (search.getNearestSquaredDistance() < squaredRod * search.getSecondNearestSquaredDistance())) {
+                final Feature feature2 = features2.get(search.getNearestIndex());
+                ratioMatches.add(new PointMatch(new Point(feature1.location), new Point(feature2.location)));
+                locationCounts.merge(new Point2D.Double(feature2.location[0], feature2.location[1]),
+                                     1, Integer::sum);
+            }
+        }
+
+        // remove ambiguous matches (matches that share a second canvas location)
+        for (final PointMatch match : ratioMatches) {
+            final double[] p2 = match.getP2().getL();
+            if (locationCounts.get(new Point2D.Double(p2[0], p2[1])) == 1) {
+                matches.add(match);
+            }
+        }
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureMatcher.class);
 }
@@ -151,7 +151,7 @@ public class CanvasMatches implements Serializable, Comparable<CanvasMatches> {
         }
     }
 
-    ConsensusSetData getConsensusSetData() {
+    public ConsensusSetData getConsensusSetData() {
         return consensusSetData;
     }
 
@@ -295,6 +295,13 @@ public class CanvasMatches implements Serializable, Comparable<CanvasMatches> {
         }
     }
 
+    /**
+     * Restores a previously saved match count for instances loaded without match details.
+     */
+    void setMatchCount(final Integer matchCount) {
+        this.matchCount = matchCount;
+    }
+
     public static CanvasMatches fromJson(final String json) {
         return JSON_HELPER.fromJson(json);
     }
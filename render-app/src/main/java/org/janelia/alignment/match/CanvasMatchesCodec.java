@@ -0,0 +1,456 @@
+package org.janelia.alignment.match;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encodings for {@link CanvasMatches} data.
+ *
+ * Point and weight values can be packed into little endian float64 or float32 byte arrays for storage
+ * (see {@link #pack(double[][], ValueEncoding)}).  Packed point arrays hold all values for the first
+ * dimension followed by all values for the second dimension and so on.
+ *
+ * Lists of canvas matches can also be streamed in a binary format that is much smaller and faster
+ * to write and parse than JSON:
+ *
+ * <pre>
+ * Stream header (8 bytes, little endian):
+ *
+ *    0  int    magic number (0x4D435652)
+ *    4  short  format version
+ *    6  short  reserved
+ *
+ * Records (little endian):
+ *
+ *    int     number of record bytes that follow (0 marks the end of the stream)
+ *    string  pGroupId, pId, qGroupId, and qId
+ *    byte    1 if consensus set data follows, 0 otherwise
+ *              int index (-1 for null), string originalPId, string originalQId
+ *    int     matchCount (-1 for null)
+ *    int     number of point dimensions (-1 if match details are excluded)
+ *              int number of matches, float64 p values, float64 q values, float64 w values
+ *
+ * Strings are written as an int UTF-8 byte count (-1 for null) followed by the UTF-8 bytes.
+ * </pre>
+ *
+ * @author Eric Trautman
+ */
+public class CanvasMatchesCodec {
+
+    /** Encoding for packed point and weight values. */
+    public enum ValueEncoding {
+
+        /** Full precision 8 byte doubles. */
+        FLOAT64(8),
+
+        /** 4 byte floats (half the size, roughly 7 significant digits). */
+        FLOAT32(4);
+
+        private final int bytesPerValue;
+
+        ValueEncoding(final int bytesPerValue) {
+            this.bytesPerValue = bytesPerValue;
+        }
+    }
+
+    public static final int MAGIC_NUMBER = 0x4D435652;
+    public static final short CURRENT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * @return canvas matches built from the specified previously normalized values.
+     *         The specified match count is only used when matches is null (match details were excluded).
+     */
+    public static CanvasMatches buildCanvasMatches(final String pGroupId,
+                                                   final String pId,
+                                                   final String qGroupId,
+                                                   final String qId,
+                                                   final ConsensusSetData consensusSetData,
+                                                   final Matches matches,
+                                                   final Integer matchCount) {
+        final CanvasMatches canvasMatches = new CanvasMatches(pGroupId, pId, qGroupId, qId, matches);
+        canvasMatches.setConsensusSetData(consensusSetData);
+        if (matches == null) {
+            canvasMatches.setMatchCount(matchCount);
+        }
+        return canvasMatches;
+    }
+
+    /**
+     * @return the specified values packed with the specified encoding.
+     */
+    public static byte[] pack(final double[] values,
+                              final ValueEncoding encoding) {
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(values.length * encoding.bytesPerValue).order(ByteOrder.LITTLE_ENDIAN);
+        putValues(buffer, values, encoding);
+        return buffer.array();
+    }
+
+    /**
+     * @return the specified points (one array of values per dimension) packed with the specified encoding.
+     */
+    public static byte[] pack(final double[][] points,
+                              final ValueEncoding encoding) {
+        final int valuesPerDimension = points.length == 0 ? 0 : points[0].length;
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(points.length * valuesPerDimension * encoding.bytesPerValue)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+        for (final double[] values : points) {
+            putValues(buffer, values, encoding);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return values unpacked from the specified bytes.
+     *
+     * @throws IllegalArgumentException
+     *   if the number of bytes is not consistent with the specified encoding.
+     */
+    public static double[] unpackValues(final byte[] bytes,
+                                        final ValueEncoding encoding)
+            throws IllegalArgumentException {
+        return unpackPoints(bytes, 1, encoding)[0];
+    }
+
+    /**
+     * @return points (one array of values per dimension) unpacked from the specified bytes.
+     *
+     * @throws IllegalArgumentException
+     *   if the number of bytes is not consistent with the specified dimensions and encoding.
+     */
+    public static double[][] unpackPoints(final byte[] bytes,
+                                          final int numberOfDimensions,
+                                          final ValueEncoding encoding)
+            throws IllegalArgumentException {
+
+        final int bytesPerPoint = numberOfDimensions * encoding.bytesPerValue;
+        if ((numberOfDimensions < 1) || (bytes.length % bytesPerPoint != 0)) {
+            throw new IllegalArgumentException(
+                    bytes.length + " bytes cannot be unpacked into " + numberOfDimensions + " dimensional " +
+                    encoding + " points");
+        }
+
+        final int valuesPerDimension = bytes.length / bytesPerPoint;
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final double[][] points = new double[numberOfDimensions][];
+        for (int d = 0; d < numberOfDimensions; d++) {
+            points[d] = getValues(buffer, valuesPerDimension, encoding);
+        }
+        return points;
+    }
+
+    /**
+     * Writes the binary stream header.
+     *
+     * @throws IOException
+     *   if the header cannot be written.
+     */
+    public static void writeHeader(final OutputStream outputStream)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putShort(CURRENT_VERSION);
+        buffer.putShort((short) 0);
+        outputStream.write(buffer.array());
+    }
+
+    /**
+     * Writes a binary stream record for the specified matches.
+     *
+     * @throws IOException
+     *   if the record cannot be written.
+     */
+    public static void write(final CanvasMatches canvasMatches,
+                             final OutputStream outputStream)
+            throws IOException {
+
+        final byte[] pGroupId = toBytes(canvasMatches.getpGroupId());
+        final byte[] pId = toBytes(canvasMatches.getpId());
+        final byte[] qGroupId = toBytes(canvasMatches.getqGroupId());
+        final byte[] qId = toBytes(canvasMatches.getqId());
+
+        int recordLength = getLength(pGroupId) + getLength(pId) + getLength(qGroupId) + getLength(qId) + 1 + 4 + 4;
+
+        final ConsensusSetData consensusSetData = canvasMatches.getConsensusSetData();
+        byte[] originalPId = null;
+        byte[] originalQId = null;
+        if (consensusSetData != null) {
+            originalPId = toBytes(consensusSetData.getOriginalPId());
+            originalQId = toBytes(consensusSetData.getOriginalQId());
+            recordLength += 4 + getLength(originalPId) + getLength(originalQId);
+        }
+
+        final Matches matches = canvasMatches.getMatches();
+        int numberOfDimensions = -1;
+        int numberOfMatches = 0;
+        if (matches != null) {
+            numberOfDimensions = matches.getPs().length;
+            numberOfMatches = matches.getWs().length;
+            recordLength += 4 + ((2 * numberOfDimensions + 1) * numberOfMatches * ValueEncoding.FLOAT64.bytesPerValue);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + recordLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(recordLength);
+        putString(buffer, pGroupId);
+        putString(buffer, pId);
+        putString(buffer, qGroupId);
+        putString(buffer, qId);
+
+        if (consensusSetData == null) {
+            buffer.put((byte) 0);
+        } else {
+            final Integer index = consensusSetData.getIndex();
+            buffer.put((byte) 1);
+            buffer.putInt(index == null ? -1 : index);
+            putString(buffer, originalPId);
+            putString(buffer, originalQId);
+        }
+
+        final Integer matchCount = canvasMatches.getMatchCount();
+        buffer.putInt(matchCount == null ? -1 : matchCount);
+
+        buffer.putInt(numberOfDimensions);
+        if (matches != null) {
+            buffer.putInt(numberOfMatches);
+            for (final double[] values : matches.getPs()) {
+                putValues(buffer, values, ValueEncoding.FLOAT64);
+            }
+            for (final double[] values : matches.getQs()) {
+                putValues(buffer, values, ValueEncoding.FLOAT64);
+            }
+            putValues(buffer, matches.getWs(), ValueEncoding.FLOAT64);
+        }
+
+        outputStream.write(buffer.array());
+    }
+
+    /**
+     * Writes the binary stream terminator (a zero length record).
+     *
+     * @throws IOException
+     *   if the terminator cannot be written.
+     */
+    public static void writeTerminator(final OutputStream outputStream)
+            throws IOException {
+        outputStream.write(new byte[4]);
+    }
+
+    /**
+     * Writes the specified list as a complete binary stream.
+     *
+     * @throws IOException
+     *   if the list cannot be written.
+     */
+    public static void writeList(final List<CanvasMatches> canvasMatchesList,
+                                 final OutputStream outputStream)
+            throws IOException {
+        writeHeader(outputStream);
+        for (final CanvasMatches canvasMatches : canvasMatchesList) {
+            write(canvasMatches, outputStream);
+        }
+        writeTerminator(outputStream);
+    }
+
+    /**
+     * @return list of canvas matches read from the specified binary stream.
+     *
+     * @throws IOException
+     *   if the stream cannot be read or is not a supported canvas matches stream.
+     */
+    public static List<CanvasMatches> readList(final InputStream inputStream)
+            throws IOException {
+
+        final RecordReader recordReader = new RecordReader(inputStream);
+        final List<CanvasMatches> canvasMatchesList = new ArrayList<>();
+
+        byte[] record = recordReader.next();
+        while (record != null) {
+            canvasMatchesList.add(decode(record));
+            record = recordReader.next();
+        }
+
+        return canvasMatchesList;
+    }
+
+    /**
+     * @return canvas matches decoded from the specified record (see {@link RecordReader#next()}).
+     */
+    public static CanvasMatches decode(final byte[] record) {
+        return readRecord(ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Sequentially reads raw records from a binary canvas matches stream.
+     * Reading is separated from decoding (see {@link #decode(byte[])}) so that
+     * records can be decoded by other threads while the stream is being read.
+     */
+    public static class RecordReader {
+
+        private final DataInputStream dataInputStream;
+        private final byte[] lengthBytes;
+
+        /**
+         * Wraps the specified stream and reads its header.
+         *
+         * @throws IOException
+         *   if the header cannot be read or the stream is not a supported canvas matches stream.
+         */
+        public RecordReader(final InputStream inputStream)
+                throws IOException {
+
+            this.dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, 65536));
+            this.lengthBytes = new byte[4];
+
+            final byte[] header = new byte[HEADER_LENGTH];
+            dataInputStream.readFully(header);
+            final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+            final int magicNumber = headerBuffer.getInt();
+            if (magicNumber != MAGIC_NUMBER) {
+                throw new IOException("stream is not a binary canvas matches stream");
+            }
+
+            final short version = headerBuffer.getShort();
+            if (version != CURRENT_VERSION) {
+                throw new IOException("stream has unsupported binary canvas matches version " + version);
+            }
+        }
+
+        /**
+         * @return the next raw record or null if the end of the stream has been reached.
+         *
+         * @throws IOException
+         *   if the record cannot be read (e.g. because the stream was truncated).
+         */
+        public byte[] next()
+                throws IOException {
+
+            dataInputStream.readFully(lengthBytes);
+            final int recordLength = ByteBuffer.wrap(lengthBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if (recordLength < 0) {
+                throw new IOException("stream contains invalid record length " + recordLength);
+            }
+
+            byte[] record = null;
+            if (recordLength > 0) {
+                record = new byte[recordLength];
+                dataInputStream.readFully(record);
+            }
+            return record;
+        }
+    }
+
+    private static CanvasMatches readRecord(final ByteBuffer buffer) {
+
+        final String pGroupId = getString(buffer);
+        final String pId = getString(buffer);
+        final String qGroupId = getString(buffer);
+        final String qId = getString(buffer);
+
+        ConsensusSetData consensusSetData = null;
+        if (buffer.get() == 1) {
+            final int index = buffer.getInt();
+            final String originalPId = getString(buffer);
+            final String originalQId = getString(buffer);
+            consensusSetData = new ConsensusSetData(index < 0 ? null : index, originalPId, originalQId);
+        }
+
+        final int matchCount = buffer.getInt();
+
+        Matches matches = null;
+        final int numberOfDimensions = buffer.getInt();
+        if (numberOfDimensions >= 0) {
+            final int numberOfMatches = buffer.getInt();
+            final double[][] p = new double[numberOfDimensions][];
+            for (int d = 0; d < numberOfDimensions; d++) {
+                p[d] = getValues(buffer, numberOfMatches, ValueEncoding.FLOAT64);
+            }
+            final double[][] q = new double[numberOfDimensions][];
+            for (int d = 0; d < numberOfDimensions; d++) {
+                q[d] = getValues(buffer, numberOfMatches, ValueEncoding.FLOAT64);
+            }
+            final double[] w = getValues(buffer, numberOfMatches, ValueEncoding.FLOAT64);
+            matches = new Matches(p, q, w);
+        }
+
+        return buildCanvasMatches(pGroupId, pId, qGroupId, qId,
+                                  consensusSetData,
+                                  matches,
+                                  matchCount < 0 ? null : matchCount);
+    }
+
+    private static byte[] toBytes(final String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int getLength(final byte[] stringBytes) {
+        return 4 + (stringBytes == null ? 0 : stringBytes.length);
+    }
+
+    private static void putString(final ByteBuffer buffer,
+                                  final byte[] stringBytes) {
+        if (stringBytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(stringBytes.length);
+            buffer.put(stringBytes);
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        String value = null;
+        final int length = buffer.getInt();
+        if (length >= 0) {
+            value = new String(buffer.array(),
+                               buffer.arrayOffset() + buffer.position(),
+                               length,
+                               StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        return value;
+    }
+
+    private static void putValues(final ByteBuffer buffer,
+                                  final double[] values,
+                                  final ValueEncoding encoding) {
+        // bulk view puts use the buffer's (little endian) byte order but do not advance the buffer's position
+        if (encoding == ValueEncoding.FLOAT64) {
+            buffer.asDoubleBuffer().put(values);
+        } else {
+            final FloatBuffer floatBuffer = buffer.asFloatBuffer();
+            for (final double value : values) {
+                floatBuffer.put((float) value);
+            }
+        }
+        buffer.position(buffer.position() + (values.length * encoding.bytesPerValue));
+    }
+
+    private static double[] getValues(final ByteBuffer buffer,
+                                      final int numberOfValues,
+                                      final ValueEncoding encoding) {
+        final double[] values = new double[numberOfValues];
+        if (encoding == ValueEncoding.FLOAT64) {
+            buffer.asDoubleBuffer().get(values);
+        } else {
+            final FloatBuffer floatBuffer = buffer.asFloatBuffer();
+            for (int i = 0; i < numberOfValues; i++) {
+                values[i] = floatBuffer.get();
+            }
+        }
+        buffer.position(buffer.position() + (numberOfValues * encoding.bytesPerValue));
+        return values;
+    }
+
+}
@@ -0,0 +1,451 @@
+package org.janelia.alignment.match;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.imagefeatures.Feature;
+
+/**
+ * Randomized k-d forest index of feature descriptors that supports approximate two nearest neighbor searches.
+ *
+ * Each tree splits on a dimension randomly chosen from the dimensions with the highest descriptor variance,
+ * so the trees partition descriptor space differently.  Searches descend all trees and then
+ * continue with the closest unexplored branches of any tree until a maximum number of descriptors
+ * have been compared, trading recall for speed.
+ *
+ * Indexes are immutable once built, so one index can be shared by concurrent searches
+ * (each of which uses its own {@link Search} instance).
+ *
+ * @author Eric Trautman
+ */
+public class FeatureDescriptorIndex {
+
+    private final float[][] descriptors;
+    private final int numberOfTrees;
+    private final int[][] treePointIndexes;
+    private final Tree[] trees;
+
+    /**
+     * @param  features       features to index (descriptors are referenced, not copied).
+     * @param  numberOfTrees  number of randomized trees to build.
+     *
+     * @throws IllegalArgumentException
+     *   if the number of trees is not positive or the feature descriptors have different lengths.
+     */
+    public FeatureDescriptorIndex(final List<Feature> features,
+                                  final int numberOfTrees)
+            throws IllegalArgumentException {
+
+        if (numberOfTrees < 1) {
+            throw new IllegalArgumentException("numberOfTrees must be positive");
+        }
+
+        this.descriptors = new float[features.size()][];
+        for (int i = 0; i < descriptors.length; i++) {
+            descriptors[i] = features.get(i).descriptor;
+            if (descriptors[i].length != descriptors[0].length) {
+                throw new IllegalArgumentException("feature " + i + " has descriptor length " +
+                                                   descriptors[i].length + " instead of " + descriptors[0].length);
+            }
+        }
+
+        this.numberOfTrees = numberOfTrees;
+        this.treePointIndexes = new int[numberOfTrees][];
+        this.trees = new Tree[numberOfTrees];
+
+        for (int t = 0; t < numberOfTrees; t++) {
+            final Random random = new Random(RANDOM_SEED + t);
+            final int[] pointIndexes = new int[descriptors.length];
+            for (int i = 0; i < pointIndexes.length; i++) {
+                pointIndexes[i] = i;
+            }
+            // shuffle so that split variance samples differ for each tree
+            for (int i = pointIndexes.length - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final int swap = pointIndexes[i];
+                pointIndexes[i] = pointIndexes[j];
+                pointIndexes[j] = swap;
+            }
+            treePointIndexes[t] = pointIndexes;
+            trees[t] = new Tree(descriptors.length);
+            if (descriptors.length > 0) {
+                trees[t].buildNode(descriptors, pointIndexes, 0, pointIndexes.length, random);
+            }
+        }
+    }
+
+    public int getNumberOfTrees() {
+        return numberOfTrees;
+    }
+
+    public int size() {
+        return descriptors.length;
+    }
+
+    /**
+     * @return new search context for this index (contexts are not thread safe, so use one per thread).
+     */
+    public Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * @return approximate kilobytes used by this index's trees (descriptors are not included since they are shared).
+     */
+    public long getKilobytes() {
+        long bytes = 0;
+        for (int t = 0; t < numberOfTrees; t++) {
+            bytes += (treePointIndexes[t].length * 4L) + (trees[t].nodeCount * 16L);
+        }
+        return bytes / 1024;
+    }
+
+    /**
+     * Nodes for one tree stored in parallel arrays.
+     * Leaf nodes have a split dimension of -1 and low and high values that identify
+     * the range of their points in the tree's point index array.
+     */
+    private static class Tree {
+
+        private int[] splitDimensions;
+        private float[] splitValues;
+        private int[] lowChildren;
+        private int[] highChildren;
+        private int nodeCount;
+
+        Tree(final int numberOfPoints) {
+            final int initialCapacity = Math.max(1, 2 * numberOfPoints / MAX_LEAF_SIZE);
+            this.splitDimensions = new int[initialCapacity];
+            this.splitValues = new float[initialCapacity];
+            this.lowChildren = new int[initialCapacity];
+            this.highChildren = new int[initialCapacity];
+            this.nodeCount = 0;
+        }
+
+        private int addNode(final int splitDimension,
+                            final float splitValue,
+                            final int low,
+                            final int high) {
+            if (nodeCount == splitDimensions.length) {
+                final int capacity = nodeCount * 2;
+                splitDimensions = Arrays.copyOf(splitDimensions, capacity);
+                splitValues = Arrays.copyOf(splitValues, capacity);
+                lowChildren = Arrays.copyOf(lowChildren, capacity);
+                highChildren = Arrays.copyOf(highChildren, capacity);
+            }
+            splitDimensions[nodeCount] = splitDimension;
+            splitValues[nodeCount] = splitValue;
+            lowChildren[nodeCount] = low;
+            highChildren[nodeCount] = high;
+            return nodeCount++;
+        }
+
+        /**
+         * Builds the node for points [start, stop) of the point index array.
+         *
+         * @return index of the built node.
+         */
+        private int buildNode(final float[][] descriptors,
+                              final int[] pointIndexes,
+                              final int start,
+                              final int stop,
+                              final Random random) {
+
+            if (stop - start <= MAX_LEAF_SIZE) {
+                return addNode(-1, 0, start, stop);
+            }
+
+            // estimate mean and variance of each dimension from a sample of the node's (shuffled) points
+            final int dimensions = descriptors[pointIndexes[start]].length;
+            final int sampleStop = Math.min(stop, start + VARIANCE_SAMPLE_SIZE);
+            final double[] means = new double[dimensions];
+            final double[] variances = new double[dimensions];
+            for (int i = start; i < sampleStop; i++) {
+                final float[] descriptor = descriptors[pointIndexes[i]];
+                for (int d = 0; d < dimensions; d++) {
+                    means[d] += descriptor[d];
+                }
+            }
+            final int sampleSize = sampleStop - start;
+            for (int d = 0; d < dimensions; d++) {
+                means[d] /= sampleSize;
+            }
+            for (int i = start; i < sampleStop; i++) {
+                final float[] descriptor = descriptors[pointIndexes[i]];
+                for (int d = 0; d < dimensions; d++) {
+                    final double delta = descriptor[d] - means[d];
+                    variances[d] += delta * delta;
+                }
+            }
+
+            final int splitDimension = selectHighVarianceDimension(variances, random);
+            final float splitValue = (float) means[splitDimension];
+
+            // partition points so that [start, middle) are below the split value
+            int middle = start;
+            for (int i = start; i < stop; i++) {
+                if (descriptors[pointIndexes[i]][splitDimension] < splitValue) {
+                    final int swap = pointIndexes[i];
+                    pointIndexes[i] = pointIndexes[middle];
+                    pointIndexes[middle] = swap;
+                    middle++;
+                }
+            }
+
+            if ((middle == start) || (middle == stop)) {
+                // sampled points are identical in the split dimension, so no useful split exists
+                return addNode(-1, 0, start, stop);
+            }
+
+            final int nodeIndex = addNode(splitDimension, splitValue, -1, -1);
+            final int lowChild = buildNode(descriptors, pointIndexes, start, middle, random);
+            final int highChild = buildNode(descriptors, pointIndexes, middle, stop, random);
+            lowChildren[nodeIndex] = lowChild;
+            highChildren[nodeIndex] = highChild;
+
+            return nodeIndex;
+        }
+
+        private static int selectHighVarianceDimension(final double[] variances,
+                                                       final Random random) {
+            final int candidateCount = Math.min(SPLIT_DIMENSION_CANDIDATES, variances.length);
+            final int[] candidates = new int[candidateCount];
+            int found = 0;
+            for (int d = 0; d < variances.length; d++) {
+                // insertion sort into descending order of variance
+                int i = Math.min(found, candidateCount - 1);
+                if ((found < candidateCount) || (variances[d] > variances[candidates[i]])) {
+                    while ((i > 0) && (variances[d] > variances[candidates[i - 1]])) {
+                        candidates[i] = candidates[i - 1];
+                        i--;
+                    }
+                    candidates[i] = d;
+                    found = Math.min(found + 1, candidateCount);
+                }
+            }
+            return candidates[random.nextInt(found)];
+        }
+    }
+
+    /**
+     * Search context that holds reusable state for finding nearest neighbors of many query descriptors.
+     */
+    public class Search {
+
+        private final int[] visitedStamps;
+        private int stamp;
+
+        private float[] heapDistances;
+        private int[] heapTrees;
+        private int[] heapNodes;
+        private int heapSize;
+
+        private int nearestIndex;
+        private int secondNearestIndex;
+        private double nearestSquaredDistance;
+        private double secondNearestSquaredDistance;
+        private int checkCount;
+
+        private Search() {
+            this.visitedStamps = new int[descriptors.length];
+            this.stamp = 0;
+            this.heapDistances = new float[64];
+            this.heapTrees = new int[64];
+            this.heapNodes = new int[64];
+            this.heapSize = 0;
+        }
+
+        /**
+         * Finds the (approximate) two nearest indexed descriptors to the query descriptor.
+         *
+         * @param  query      descriptor to search for.
+         * @param  maxChecks  maximum number of indexed descriptors to compare (after the initial descent
+         *                    of each tree), larger values improve accuracy but take longer.
+         */
+        public void findTwoNearestNeighbors(final float[] query,
+                                            final int maxChecks) {
+
+            stamp++;
+            if (stamp == 0) {
+                Arrays.fill(visitedStamps, 0);
+                stamp = 1;
+            }
+
+            heapSize = 0;
+            nearestIndex = -1;
+            secondNearestIndex = -1;
+            nearestSquaredDistance = Double.MAX_VALUE;
+            secondNearestSquaredDistance = Double.MAX_VALUE;
+            checkCount = 0;
+
+            if (descriptors.length > 0) {
+
+                for (int t = 0; t < numberOfTrees; t++) {
+                    descend(t, 0, 0.0f, query);
+                }
+
+                while ((heapSize > 0) && (checkCount < maxChecks)) {
+                    final float branchDistance = heapDistances[0];
+                    final int tree = heapTrees[0];
+                    final int node = heapNodes[0];
+                    popHeap();
+                    if (branchDistance >= secondNearestSquaredDistance) {
+                        break; // no remaining branch can improve the result
+                    }
+                    descend(tree, node, branchDistance, query);
+                }
+            }
+        }
+
+        /**
+         * @return index (in the indexed feature list) of the nearest feature or -1 if none was found.
+         */
+        public int getNearestIndex() {
+            return nearestIndex;
+        }
+
+        /**
+         * @return index (in the indexed feature list) of the second nearest feature or -1 if none was found.
+         */
+        public int getSecondNearestIndex() {
+            return secondNearestIndex;
+        }
+
+        public double getNearestSquaredDistance() {
+            return nearestSquaredDistance;
+        }
+
+        public double getSecondNearestSquaredDistance() {
+            return secondNearestSquaredDistance;
+        }
+
+        private void descend(final int treeIndex,
+                             final int startNode,
+                             final float startDistance,
+                             final float[] query) {
+
+            final Tree tree = trees[treeIndex];
+            int node = startNode;
+            while (tree.splitDimensions[node] >= 0) {
+                final float delta = query[tree.splitDimensions[node]] - tree.splitValues[node];
+                final int nearChild;
+                final int farChild;
+                if (delta < 0) {
+                    nearChild = tree.lowChildren[node];
+                    farChild = tree.highChildren[node];
+                } else {
+                    nearChild = tree.highChildren[node];
+                    farChild = tree.lowChildren[node];
+                }
+                final float farDistance = startDistance + (delta * delta);
+                if (farDistance < secondNearestSquaredDistance) {
+                    pushHeap(farDistance, treeIndex, farChild);
+                }
+                node = nearChild;
+            }
+
+            final int[] pointIndexes = treePointIndexes[treeIndex];
+            for (int i = tree.lowChildren[node]; i < tree.highChildren[node]; i++) {
+                final int pointIndex = pointIndexes[i];
+                if (visitedStamps[pointIndex] != stamp) {
+                    visitedStamps[pointIndex] = stamp;
+                    checkCount++;
+                    final double distance = squaredDistance(query, descriptors[pointIndex],
+                                                            secondNearestSquaredDistance);
+                    if (distance < nearestSquaredDistance) {
+                        secondNearestIndex = nearestIndex;
+                        secondNearestSquaredDistance = nearestSquaredDistance;
+                        nearestIndex = pointIndex;
+                        nearestSquaredDistance = distance;
+                    } else if (distance < secondNearestSquaredDistance) {
+                        secondNearestIndex = pointIndex;
+                        secondNearestSquaredDistance = distance;
+                    }
+                }
+            }
+        }
+
+        private void pushHeap(final float distance,
+                              final int tree,
+                              final int node) {
+            if (heapSize == heapDistances.length) {
+                final int capacity = heapSize * 2;
+                heapDistances = Arrays.copyOf(heapDistances, capacity);
+                heapTrees = Arrays.copyOf(heapTrees, capacity);
+                heapNodes = Arrays.copyOf(heapNodes, capacity);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (heapDistances[parent] <= distance) {
+                    break;
+                }
+                heapDistances[i] = heapDistances[parent];
+                heapTrees[i] = heapTrees[parent];
+                heapNodes[i] = heapNodes[parent];
+                i = parent;
+            }
+            heapDistances[i] = distance;
+            heapTrees[i] = tree;
+            heapNodes[i] = node;
+        }
+
+        private void popHeap() {
+            heapSize--;
+            if (heapSize > 0) {
+                final float distance = heapDistances[heapSize];
+                final int tree = heapTrees[heapSize];
+                final int node = heapNodes[heapSize];
+                int i = 0;
+                while (true) {
+                    int child = (2 * i) + 1;
+                    if (child >= heapSize) {
+                        break;
+                    }
+                    if ((child + 1 < heapSize) && (heapDistances[child + 1] < heapDistances[child])) {
+                        child++;
+                    }
+                    if (distance <= heapDistances[child]) {
+                        break;
+                    }
+                    heapDistances[i] = heapDistances[child];
+                    heapTrees[i] = heapTrees[child];
+                    heapNodes[i] = heapNodes[child];
+                    i = child;
+                }
+                heapDistances[i] = distance;
+                heapTrees[i] = tree;
+                heapNodes[i] = node;
+            }
+        }
+    }
+
+    /**
+     * @return squared euclidean distance between the descriptors,
+     *         or any value not less than the limit once the partial distance reaches the limit.
+     */
+    static double squaredDistance(final float[] a,
+                                  final float[] b,
+                                  final double limit) {
+        double sum = 0.0;
+        int d = 0;
+        while (d < a.length) {
+            // check the limit every 16 dimensions to keep the inner loop simple
+            final int blockStop = Math.min(d + 16, a.length);
+            for (; d < blockStop; d++) {
+                final double delta = a[d] - b[d];
+                sum += delta * delta;
+            }
+            if (sum >= limit) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int VARIANCE_SAMPLE_SIZE = 100;
+    private static final int SPLIT_DIMENSION_CANDIDATES = 5;
+    private static final long RANDOM_SEED = 1979L;
+}
@@ -9,6 +9,7 @@ import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWith
 
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.match.CanvasFeatureExtractor.FeaturesWithSourceData;
+import org.janelia.alignment.match.FeatureDescriptorIndex;
 
 /**
  * Cache container for a canvas' list of features.
@@ -19,11 +20,13 @@ public class CachedCanvasFeatures implements CachedCanvasData {
 
     private final FeaturesWithSourceData featuresWithSourceData;
     private final double[] clipOffsets;
+    private FeatureDescriptorIndex descriptorIndex;
 
     CachedCanvasFeatures(final FeaturesWithSourceData featuresWithSourceData,
                          final double[] clipOffsets) {
         this.featuresWithSourceData = featuresWithSourceData;
         this.clipOffsets = clipOffsets;
+        this.descriptorIndex = null;
     }
 
     CachedCanvasFeatures(final List<Feature> featureList,
@@ -77,6 +80,25 @@ public class CachedCanvasFeatures implements CachedCanvasData {
         return maskProcessor;
     }
 
+    /**
+     * Builds the descriptor index for this canvas' features the first time it is requested
+     * (or when a different number of trees is requested) so that the index is shared by all
+     * matches with this canvas while it remains cached.
+     *
+     * Note that the index is not included in {@link #getKilobytes()} since it is built after
+     * the features are cached, but it only adds a few bytes per feature for each tree.
+     *
+     * @param  numberOfTrees  number of randomized trees for the index.
+     *
+     * @return descriptor index for this canvas' features.
+     */
+    public synchronized FeatureDescriptorIndex getDescriptorIndex(final int numberOfTrees) {
+        if ((descriptorIndex == null) || (descriptorIndex.getNumberOfTrees() != numberOfTrees)) {
+            descriptorIndex = new FeatureDescriptorIndex(getFeatureList(), numberOfTrees);
+        }
+        return descriptorIndex;
+    }
+
     public long getKilobytes() {
         return featuresWithSourceData.getKilobytes();
     }
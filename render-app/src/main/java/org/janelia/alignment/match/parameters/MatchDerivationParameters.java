@@ -4,6 +4,8 @@ import com.beust.jcommander.Parameter;
 
 import java.io.Serializable;
 
+import org.janelia.alignment.match.CanvasFeatureMatcher;
+import org.janelia.alignment.match.CanvasFeatureMatcher.DescriptorSearch;
 import org.janelia.alignment.match.MatchFilter.FilterType;
 import org.janelia.alignment.match.ModelType;
 
@@ -125,6 +127,35 @@ public class MatchDerivationParameters implements Serializable {
     )
     public FilterType matchFilter = FilterType.SINGLE_SET;
 
+    // descriptor search parameters default to null (instead of being set in setDefaults)
+    // so that they are omitted from the JSON (and slugs) of existing match stage configurations
+
+    @Parameter(
+            names = "--matchDescriptorSearch",
+            description = "Method for finding the nearest descriptors of each feature: " +
+                          "EXACT compares every pair of features, " +
+                          "KD_FOREST searches a randomized k-d forest " +
+                          "(faster for large feature lists but approximate).  " +
+                          "Omit to use EXACT."
+    )
+    public DescriptorSearch matchDescriptorSearch;
+
+    @Parameter(
+            names = "--matchKdForestTrees",
+            description = "Number of randomized k-d trees to search when matchDescriptorSearch is KD_FOREST " +
+                          "(default is " + CanvasFeatureMatcher.DEFAULT_KD_FOREST_TREES + ")"
+    )
+    public Integer matchKdForestTrees;
+
+    @Parameter(
+            names = "--matchKdForestMaxChecks",
+            description = "Maximum number of descriptors to compare for each feature when matchDescriptorSearch " +
+                          "is KD_FOREST.  Larger values find more true nearest neighbors but take longer.  " +
+                          "Canvases with no more features than this are searched exactly " +
+                          "(default is " + CanvasFeatureMatcher.DEFAULT_KD_FOREST_MAX_CHECKS + ")"
+    )
+    public Integer matchKdForestMaxChecks;
+
     @Parameter(
             names = "--matchFullScaleCoverageRadius",
             description = "Full scale radius to use for coverage analysis"
@@ -135,8 +135,7 @@ public class StageMatcher {
 
         final long featureMatchStart = System.currentTimeMillis();
         final CanvasMatchResult matchResult =
-                stageResources.getFeatureMatcher().deriveMatchResult(pFeatures.getFeatureList(),
-                                                                     qFeatures.getFeatureList());
+                stageResources.getFeatureMatcher().deriveMatchResult(pFeatures, qFeatures);
         final long featureMatchStop = System.currentTimeMillis();
 
         final double[] pClipOffsets = pFeatures.getClipOffsets();
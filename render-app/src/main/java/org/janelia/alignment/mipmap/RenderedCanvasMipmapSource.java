@@ -6,9 +6,16 @@ import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import mpicbg.models.AffineModel2D;
 import mpicbg.models.CoordinateTransform;
@@ -21,16 +28,12 @@ import org.janelia.alignment.RenderTransformMesh;
 import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
 import org.janelia.alignment.TransformableCanvas;
 import org.janelia.alignment.Utils;
-import org.janelia.alignment.mapper.MultiChannelMapper;
-import org.janelia.alignment.mapper.MultiChannelWithAlphaMapper;
-import org.janelia.alignment.mapper.MultiChannelWithBinaryMaskMapper;
 import org.janelia.alignment.mapper.PixelMapper;
-import org.janelia.alignment.mapper.SingleChannelMapper;
-import org.janelia.alignment.mapper.SingleChannelWithAlphaMapper;
-import org.janelia.alignment.mapper.SingleChannelWithBinaryMaskMapper;
-import org.janelia.alignment.mapper.SingleColorChannelWithAlphaMapper;
+import org.janelia.alignment.mapper.PixelMapperFactory;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.util.ImageProcessorCache;
+import org.janelia.alignment.util.RenderTransformMeshCache;
+import org.janelia.alignment.util.SharedCanvasLoaderPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +61,8 @@ public class RenderedCanvasMipmapSource
     private final boolean hasMasks;
     private final boolean binaryMask;
 
+    private volatile StageTimes lastStageTimes;
+
     /**
      * Constructs a canvas based upon {@link RenderParameters} that is dynamically
      * rendered when {@link #getChannels} is called.
@@ -97,6 +102,8 @@ public class RenderedCanvasMipmapSource
      * @param  meshCellSize            desired size of a mesh cell (triangle) in pixels.
      * @param  levelZeroScale          scale factor for transformed components at mipmap level 0 of this canvas.
      * @param  numberOfMappingThreads  number of threads to use for pixel mapping.
+     *                                 When greater than one, this many canvases are also loaded (and meshed)
+     *                                 ahead of the canvas currently being mapped.
      * @param  skipInterpolation       enable sloppy but fast rendering by skipping interpolation.
      * @param  hasMasks                true if this canvas contains at least one source with a mask.
      * @param  binaryMask              render only 100% opaque pixels.
@@ -152,50 +159,213 @@ public class RenderedCanvasMipmapSource
 
         final double levelScale = (1.0 / Math.pow(2.0, mipmapLevel)) * levelZeroScale;
 
-        long totalScaleDerivationTime = 0;
+        final StageTimes stageTimes = new StageTimes();
 
-        for (final TransformableCanvas canvas : canvasList) {
+        if ((numberOfMappingThreads > 1) && (canvasList.size() > 1)) {
+            pipelineCanvases(levelScale, stageTimes, targetChannels);
+        } else {
+            for (final TransformableCanvas canvas : canvasList) {
+                mapCanvas(prepareCanvas(canvas, levelScale, stageTimes), levelScale, stageTimes, targetChannels);
+            }
+        }
 
-            final long scaleDerivationStart = System.currentTimeMillis();
+        lastStageTimes = stageTimes;
 
-            final CoordinateTransformList<CoordinateTransform> renderTransformList =
-                    addRenderScaleAndOffset(canvas.getTransformList(), levelZeroScale, levelScale, x, y);
+        LOG.debug("getChannels: rendering {} canvases took {}", canvasList.size(), stageTimes);
 
-            final MipmapSource source = canvas.getSource();
+        return targetChannels;
+    }
 
-            final double averageScale = Utils.sampleAverageScale(renderTransformList,
-                                                                 source.getFullScaleWidth(),
-                                                                 source.getFullScaleHeight(),
-                                                                 meshCellSize);
+    /**
+     * @return per-stage times for the most recent {@link #getChannels} call (or null if nothing has been rendered).
+     */
+    public StageTimes getLastStageTimes() {
+        return lastStageTimes;
+    }
 
-            final int componentMipmapLevel = Utils.bestMipmapLevel(averageScale);
+    /**
+     * Loads and meshes canvases ahead of the canvas currently being mapped, keeping at most
+     * {@link #numberOfMappingThreads} canvases (including the one being mapped) in memory.
+     * Canvases are always mapped in list order so that overlapping pixels are written exactly as they are
+     * when each canvas is rendered sequentially.
+     */
+    private void pipelineCanvases(final double levelScale,
+                                  final StageTimes stageTimes,
+                                  final ChannelMap targetChannels)
+            throws IllegalArgumentException {
 
-            totalScaleDerivationTime += (System.currentTimeMillis() - scaleDerivationStart);
+        final ExecutorService loaderPool = SharedCanvasLoaderPool.getInstance();
+        final Deque<FutureTask<PreparedCanvas>> preparedQueue = new ArrayDeque<>(numberOfMappingThreads);
+
+        int nextCanvasIndex = 0;
+        try {
+            for (int mapIndex = 0; mapIndex < canvasList.size(); mapIndex++) {
+
+                while ((nextCanvasIndex < canvasList.size()) &&
+                       (nextCanvasIndex < mapIndex + numberOfMappingThreads)) {
+                    final TransformableCanvas canvas = canvasList.get(nextCanvasIndex);
+                    final FutureTask<PreparedCanvas> preparedCanvasTask =
+                            new FutureTask<>(() -> prepareCanvas(canvas, levelScale, stageTimes));
+                    loaderPool.execute(preparedCanvasTask);
+                    preparedQueue.add(preparedCanvasTask);
+                    nextCanvasIndex++;
+                }
 
-            final ChannelMap sourceChannels = source.getChannels(componentMipmapLevel);
+                final PreparedCanvas preparedCanvas = waitForPreparedCanvas(preparedQueue.remove(), stageTimes);
 
-            // setup target channels based upon first source channel
-            if ((targetChannels.size() == 0) && (sourceChannels.size() > 0)) {
-                setupTargetChannels(sourceChannels, levelScale, targetChannels);
+                mapCanvas(preparedCanvas, levelScale, stageTimes, targetChannels);
+            }
+        } finally {
+            for (final FutureTask<PreparedCanvas> unmappedCanvas : preparedQueue) {
+                unmappedCanvas.cancel(true);
             }
+        }
+    }
+
+    private PreparedCanvas waitForPreparedCanvas(final FutureTask<PreparedCanvas> preparedCanvasFuture,
+                                                 final StageTimes stageTimes)
+            throws IllegalArgumentException {
 
-            mapPixels(source,
-                      sourceChannels,
-                      componentMipmapLevel,
-                      renderTransformList,
-                      meshCellSize,
-                      hasMasks,
-                      binaryMask,
-                      numberOfMappingThreads,
-                      skipInterpolation,
-                      targetChannels);
+        // The shared loader pool is bounded and may be busy (e.g. with nested canvases waiting on their own sources),
+        // so prepare the canvas in this thread if no pool thread has started it yet.
+        // This does nothing if the task is already running or done.
+        preparedCanvasFuture.run();
+
+        final long waitStart = System.currentTimeMillis();
+
+        final PreparedCanvas preparedCanvas;
+        try {
+            preparedCanvas = preparedCanvasFuture.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading canvas", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("failed to load canvas", cause);
         }
 
-        LOG.debug("getChannels: deriving average scale for {} canvases took {} milliseconds",
-                  canvasList.size(),
-                  totalScaleDerivationTime);
+        stageTimes.addWaitTime(System.currentTimeMillis() - waitStart);
 
-        return targetChannels;
+        return preparedCanvas;
+    }
+
+    /**
+     * Derives the best mipmap level for the specified canvas, loads its source channels,
+     * and builds the mesh needed to map them.
+     * This work is independent of all other canvases, so it can be done concurrently.
+     */
+    private PreparedCanvas prepareCanvas(final TransformableCanvas canvas,
+                                         final double levelScale,
+                                         final StageTimes stageTimes) {
+
+        final long scaleDerivationStart = System.currentTimeMillis();
+
+        final CoordinateTransformList<CoordinateTransform> renderTransformList =
+                addRenderScaleAndOffset(canvas.getTransformList(), levelZeroScale, levelScale, x, y);
+
+        final MipmapSource source = canvas.getSource();
+
+        final double averageScale = Utils.sampleAverageScale(renderTransformList,
+                                                             source.getFullScaleWidth(),
+                                                             source.getFullScaleHeight(),
+                                                             meshCellSize);
+
+        final int componentMipmapLevel = Utils.bestMipmapLevel(averageScale);
+
+        final long loadStart = System.currentTimeMillis();
+
+        final ChannelMap sourceChannels = source.getChannels(componentMipmapLevel);
+
+        final long meshStart = System.currentTimeMillis();
+
+        RenderTransformMesh mesh = null;
+
+        if (sourceChannels.size() > 0) {
+
+            if (hasMasks) {
+                // add empty (inverted) source mask for each channel if it does not already exist
+                for (final ImageProcessorWithMasks sourceChannel : sourceChannels.values()) {
+                    if (sourceChannel.mask == null) {
+                        sourceChannel.mask = new ByteProcessor(sourceChannel.ip.getWidth(),
+                                                               sourceChannel.ip.getHeight());
+                        sourceChannel.mask.invert();
+                    }
+                }
+            }
+
+            // all channels should have same size, so we only need to look at the first channel
+            final ImageProcessorWithMasks firstChannel = sourceChannels.getFirstChannel();
+            final int mipmapWidth = firstChannel.ip.getWidth();
+            final int mipmapHeight = firstChannel.ip.getHeight();
+
+            final Callable<RenderTransformMesh> meshBuilder = () -> createRenderMesh(componentMipmapLevel,
+                                                                                     renderTransformList,
+                                                                                     source.getFullScaleWidth(),
+                                                                                     meshCellSize,
+                                                                                     mipmapWidth,
+                                                                                     mipmapHeight);
+
+            final RenderTransformMeshCache meshCache = RenderTransformMeshCache.getSharedInstance();
+
+            if ((canvas.getMeshCacheId() != null) && meshCache.isEnabled()) {
+                final RenderTransformMeshCache.Key meshKey =
+                        new RenderTransformMeshCache.Key(canvas.getMeshCacheId(),
+                                                         componentMipmapLevel,
+                                                         mipmapWidth,
+                                                         mipmapHeight,
+                                                         meshCellSize,
+                                                         levelZeroScale,
+                                                         levelScale);
+                // meshes are cached without the render offset (x, y) so they can be reused for other boxes
+                mesh = meshCache.get(meshKey, x * levelScale, y * levelScale, meshBuilder);
+            } else {
+                mesh = createRenderMesh(componentMipmapLevel,
+                                        renderTransformList,
+                                        source.getFullScaleWidth(),
+                                        meshCellSize,
+                                        mipmapWidth,
+                                        mipmapHeight);
+            }
+        }
+
+        final long meshStop = System.currentTimeMillis();
+
+        stageTimes.addPrepareTimes(loadStart - scaleDerivationStart,
+                                   meshStart - loadStart,
+                                   meshStop - meshStart);
+
+        return new PreparedCanvas(source, sourceChannels, mesh);
+    }
+
+    private void mapCanvas(final PreparedCanvas preparedCanvas,
+                           final double levelScale,
+                           final StageTimes stageTimes,
+                           final ChannelMap targetChannels) {
+
+        final ChannelMap sourceChannels = preparedCanvas.sourceChannels;
+
+        // setup target channels based upon first source channel
+        if ((targetChannels.size() == 0) && (sourceChannels.size() > 0)) {
+            setupTargetChannels(sourceChannels, levelScale, targetChannels);
+        }
+
+        final long mapStart = System.currentTimeMillis();
+
+        mapPixels(preparedCanvas.source,
+                  sourceChannels,
+                  preparedCanvas.mesh,
+                  hasMasks,
+                  binaryMask,
+                  numberOfMappingThreads,
+                  skipInterpolation,
+                  targetChannels);
+
+        stageTimes.addMapTime(System.currentTimeMillis() - mapStart);
     }
 
     private void setupTargetChannels(final ChannelMap sourceChannels,
@@ -239,7 +409,11 @@ public class RenderedCanvasMipmapSource
 
         final List<TransformableCanvas> canvasList = new ArrayList<>(renderParameters.numberOfTileSpecs());
 
+        final boolean isMeshCacheEnabled = RenderTransformMeshCache.getSharedInstance().isEnabled();
+
         MipmapSource source;
+        final String meshCacheNamespace = renderParameters.getMeshCacheNamespace();
+
         for (final TileSpec tileSpec : renderParameters.getTileSpecs()) {
 
             source = new UrlMipmapSource("tile '" + tileSpec.getTileId() + "'",
@@ -257,7 +431,14 @@ public class RenderedCanvasMipmapSource
                                                   renderParameters.getFilters());
             }
 
-            canvasList.add(new TransformableCanvas(source, tileSpec.getTransforms().getNewInstanceAsList()));
+            final String meshCacheId = isMeshCacheEnabled ?
+                                       RenderTransformMeshCache.buildTileTransformId(tileSpec,
+                                                                                     meshCacheNamespace) :
+                                       null;
+
+            canvasList.add(new TransformableCanvas(source,
+                                                   tileSpec.getTransforms().getNewInstanceAsList(),
+                                                   meshCacheId));
         }
 
         return canvasList;
@@ -339,9 +520,7 @@ public class RenderedCanvasMipmapSource
      *
      * @param  source                  source pixel data.
      * @param  sourceChannels          channels extracted from the source.
-     * @param  mipmapLevel             source mipmap level.
-     * @param  renderTransformList     list of transforms for the render context.
-     * @param  meshCellSize            desired size of a mesh cell (triangle) in pixels.
+     * @param  mesh                    mesh for mapping the source channels (or null if there are no channels).
      * @param  canvasHasMasks          true if at least one source in the larger canvas being rendered has a mask
      *                                 (even if this source does not have a mask).
      * @param  binaryMask              render only 100% opaque pixels.
@@ -351,9 +530,7 @@ public class RenderedCanvasMipmapSource
      */
     private static void mapPixels(final MipmapSource source,
                                   final ChannelMap sourceChannels,
-                                  final int mipmapLevel,
-                                  final CoordinateTransformList<CoordinateTransform> renderTransformList,
-                                  final double meshCellSize,
+                                  final RenderTransformMesh mesh,
                                   final boolean canvasHasMasks,
                                   final boolean binaryMask,
                                   final int numberOfMappingThreads,
@@ -364,36 +541,11 @@ public class RenderedCanvasMipmapSource
 
             final long mapStart = System.currentTimeMillis();
 
-            // all channels should have same size, so we only need to look at the first channel
-            final ImageProcessorWithMasks firstChannel = sourceChannels.getFirstChannel();
-            final int mipmapWidth = firstChannel.ip.getWidth();
-            final int mipmapHeight = firstChannel.ip.getHeight();
-
-            if (canvasHasMasks) {
-                // add empty (inverted) source mask for each channel if it does not already exist
-                for (final ImageProcessorWithMasks sourceChannel : sourceChannels.values()) {
-                    if (sourceChannel.mask == null) {
-                        sourceChannel.mask = new ByteProcessor(sourceChannel.ip.getWidth(),
-                                                               sourceChannel.ip.getHeight());
-                        sourceChannel.mask.invert();
-                    }
-                }
-            }
-
-            final PixelMapper tilePixelMapper = getPixelMapper(sourceChannels,
-                                                               canvasHasMasks,
-                                                               binaryMask,
-                                                               skipInterpolation,
-                                                               targetChannels);
-
-            final RenderTransformMesh mesh = createRenderMesh(mipmapLevel,
-                                                              renderTransformList,
-                                                              source.getFullScaleWidth(),
-                                                              meshCellSize,
-                                                              mipmapWidth,
-                                                              mipmapHeight);
-
-            final long meshCreationStop = System.currentTimeMillis();
+            final PixelMapper tilePixelMapper = PixelMapperFactory.getPixelMapper(sourceChannels,
+                                                                                  canvasHasMasks,
+                                                                                  binaryMask,
+                                                                                  skipInterpolation,
+                                                                                  targetChannels);
 
             final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
 
@@ -409,85 +561,91 @@ public class RenderedCanvasMipmapSource
 
             final long mapStop = System.currentTimeMillis();
 
-            LOG.debug("mapPixels: mapping of {} took {} milliseconds to process (mesh:{}, map{}:{})",
-                      source.getSourceName(),
-                      mapStop - mapStart,
-                      meshCreationStop - mapStart,
+            LOG.debug("mapPixels: mapping{} of {} took {} milliseconds",
                       mapType,
-                      mapStop - meshCreationStop);
-            }
+                      source.getSourceName(),
+                      mapStop - mapStart);
+        }
 
     }
 
     /**
-     * @return {@link PixelMapper} instance "optimized" for mapping source channel(s) for
-     *         a specific render context.
+     * Source channels and mesh for a canvas that is ready to be mapped.
      */
-    private static PixelMapper getPixelMapper(final ChannelMap sourceChannels,
-                                              final boolean hasMask,
-                                              final boolean binaryMask,
-                                              final boolean skipInterpolation,
-                                              final ChannelMap targetChannels) {
-
-        final PixelMapper tilePixelMapper;
-
-        if (sourceChannels.size() > 1) {
-
-            if (hasMask) {
-                if (binaryMask) {
-                    tilePixelMapper = new MultiChannelWithBinaryMaskMapper(sourceChannels,
-                                                                           targetChannels,
-                                                                           (! skipInterpolation));
-                } else {
-                    tilePixelMapper = new MultiChannelWithAlphaMapper(sourceChannels,
-                                                                      targetChannels,
-                                                                      (! skipInterpolation));
-                }
-            } else {
-                tilePixelMapper = new MultiChannelMapper(sourceChannels,
-                                                         targetChannels,
-                                                         (! skipInterpolation));
-            }
+    private static class PreparedCanvas {
+
+        private final MipmapSource source;
+        private final ChannelMap sourceChannels;
+        private final RenderTransformMesh mesh;
+
+        PreparedCanvas(final MipmapSource source,
+                       final ChannelMap sourceChannels,
+                       final RenderTransformMesh mesh) {
+            this.source = source;
+            this.sourceChannels = sourceChannels;
+            this.mesh = mesh;
+        }
+    }
 
-        } else {
+    /**
+     * Cumulative times (in milliseconds) spent in each render stage for all canvases.
+     * When canvases are pipelined, scale derivation, load, and mesh times are summed across
+     * concurrent loader threads, so their total can exceed the elapsed render time.
+     * The wait time is how long mapping was blocked waiting for the next canvas to be loaded.
+     */
+    public static class StageTimes {
 
-            final String channelName = sourceChannels.getFirstChannelName();
+        private final AtomicLong scaleDerivationTime = new AtomicLong();
+        private final AtomicLong loadTime = new AtomicLong();
+        private final AtomicLong meshTime = new AtomicLong();
+        private final AtomicLong mapTime = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
 
-            final ImageProcessorWithMasks sourceChannel = sourceChannels.get(channelName);
-            final ImageProcessorWithMasks targetChannel = targetChannels.get(channelName);
-
-            if (targetChannel != null) {
-
-                if (hasMask) {
-                    if (binaryMask) {
-                        tilePixelMapper = new SingleChannelWithBinaryMaskMapper(sourceChannel,
-                                                                                targetChannel,
-                                                                                (! skipInterpolation));
-                    } else if (targetChannel.ip instanceof ColorProcessor) {
-                        tilePixelMapper = new SingleColorChannelWithAlphaMapper(sourceChannel,
-                                                                                targetChannel,
-                                                                                (! skipInterpolation));
-                    } else {
-                        tilePixelMapper = new SingleChannelWithAlphaMapper(sourceChannel,
-                                                                           targetChannel,
-                                                                           (! skipInterpolation));
-                    }
-                } else {
-                    tilePixelMapper = new SingleChannelMapper(sourceChannel,
-                                                              targetChannel,
-                                                              (! skipInterpolation));
-                }
+        public long getScaleDerivationTime() {
+            return scaleDerivationTime.get();
+        }
 
-            } else {
+        public long getLoadTime() {
+            return loadTime.get();
+        }
 
-                throw new IllegalArgumentException("The sole source channel (" + channelName +
-                                                   ") is missing from specified target channels (" +
-                                                   targetChannels + ").");
-            }
+        public long getMeshTime() {
+            return meshTime.get();
+        }
+
+        public long getMapTime() {
+            return mapTime.get();
+        }
 
+        public long getWaitTime() {
+            return waitTime.get();
         }
 
-        return tilePixelMapper;
+        void addPrepareTimes(final long scaleDerivationMilliseconds,
+                             final long loadMilliseconds,
+                             final long meshMilliseconds) {
+            scaleDerivationTime.addAndGet(scaleDerivationMilliseconds);
+            loadTime.addAndGet(loadMilliseconds);
+            meshTime.addAndGet(meshMilliseconds);
+        }
+
+        void addMapTime(final long milliseconds) {
+            mapTime.addAndGet(milliseconds);
+        }
+
+        void addWaitTime(final long milliseconds) {
+            waitTime.addAndGet(milliseconds);
+        }
+
+        @Override
+        public String toString() {
+            return "{scaleDerivation: " + scaleDerivationTime +
+                   ", load: " + loadTime +
+                   ", mesh: " + meshTime +
+                   ", map: " + mapTime +
+                   ", wait: " + waitTime +
+                   '}';
+        }
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderedCanvasMipmapSource.class);
@@ -0,0 +1,212 @@
+package org.janelia.alignment.spec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable, Sort-Tile-Recursive (STR) bulk loaded R-tree of {@link TileBounds} for one layer.
+ *
+ * Unlike {@link TileBoundsRTree} (which supports incremental additions and circle searches),
+ * this tree is built once from a complete list of tiles and stores each level's node bounds in flat arrays.
+ * That makes it compact, fast to build, and safe to share across threads -
+ * which suits caching one tree per layer for repeated box searches.
+ *
+ * Tiles with missing bounds are excluded from the tree.
+ *
+ * @author Eric Trautman
+ */
+public class TileBoundsPackedRTree {
+
+    /** Default maximum number of children for each tree node. */
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private final Double z;
+    private final int nodeCapacity;
+
+    /** Tiles in packed (leaf) order. */
+    private final TileBounds[] tiles;
+
+    /**
+     * Bounds for each level of the tree (minX, minY, maxX, maxY for each node).
+     * Level 0 contains the bounds of each tile and the last level contains the root node(s).
+     * Node i of level k covers nodes [i * nodeCapacity, (i + 1) * nodeCapacity) of level k - 1.
+     */
+    private final double[][] levelBounds;
+
+    /**
+     * Construct a tree from the specified list of tile bounds using the default node capacity.
+     *
+     * @param  z               z value for all tiles.
+     * @param  tileBoundsList  list of bounds objects.
+     */
+    public TileBoundsPackedRTree(final Double z,
+                                 final List<TileBounds> tileBoundsList) {
+        this(z, tileBoundsList, DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * Construct a tree from the specified list of tile bounds.
+     *
+     * @param  z               z value for all tiles.
+     * @param  tileBoundsList  list of bounds objects.
+     * @param  nodeCapacity    maximum number of children for each tree node.
+     *
+     * @throws IllegalArgumentException
+     *   if the node capacity is less than 2.
+     */
+    public TileBoundsPackedRTree(final Double z,
+                                 final List<TileBounds> tileBoundsList,
+                                 final int nodeCapacity)
+            throws IllegalArgumentException {
+
+        if (nodeCapacity < 2) {
+            throw new IllegalArgumentException("node capacity must be at least 2");
+        }
+
+        this.z = z;
+        this.nodeCapacity = nodeCapacity;
+        this.tiles = tileBoundsList.stream()
+                .filter(TileBoundsPackedRTree::hasBounds)
+                .toArray(TileBounds[]::new);
+
+        sortTiles(tiles, nodeCapacity);
+
+        final List<double[]> levels = new ArrayList<>();
+        double[] bounds = new double[tiles.length * 4];
+        for (int i = 0; i < tiles.length; i++) {
+            final int offset = i * 4;
+            bounds[offset] = tiles[i].getMinX();
+            bounds[offset + 1] = tiles[i].getMinY();
+            bounds[offset + 2] = tiles[i].getMaxX();
+            bounds[offset + 3] = tiles[i].getMaxY();
+        }
+        levels.add(bounds);
+
+        while ((bounds.length / 4) > nodeCapacity) {
+            bounds = buildParentBounds(bounds, nodeCapacity);
+            levels.add(bounds);
+        }
+
+        this.levelBounds = levels.toArray(new double[levels.size()][]);
+    }
+
+    /**
+     * @return z value for all tiles.
+     */
+    public Double getZ() {
+        return z;
+    }
+
+    /**
+     * @return number of tiles in this tree.
+     */
+    public int size() {
+        return tiles.length;
+    }
+
+    /**
+     * @return all tiles that intersect (or touch) the specified bounding box, in no particular order.
+     */
+    public List<TileBounds> findTilesInBox(final double minX,
+                                           final double minY,
+                                           final double maxX,
+                                           final double maxY) {
+        final List<TileBounds> matchingTiles = new ArrayList<>();
+        final int topLevel = levelBounds.length - 1;
+        final int topLevelNodeCount = levelBounds[topLevel].length / 4;
+        for (int node = 0; node < topLevelNodeCount; node++) {
+            addTilesInBox(topLevel, node, minX, minY, maxX, maxY, matchingTiles);
+        }
+        return matchingTiles;
+    }
+
+    private void addTilesInBox(final int level,
+                               final int node,
+                               final double minX,
+                               final double minY,
+                               final double maxX,
+                               final double maxY,
+                               final List<TileBounds> matchingTiles) {
+
+        final double[] bounds = levelBounds[level];
+        final int offset = node * 4;
+
+        // same (inclusive) intersection logic as the database box queries
+        if ((bounds[offset] <= maxX) && (bounds[offset + 1] <= maxY) &&
+            (bounds[offset + 2] >= minX) && (bounds[offset + 3] >= minY)) {
+
+            if (level == 0) {
+                matchingTiles.add(tiles[node]);
+            } else {
+                final int firstChild = node * nodeCapacity;
+                final int lastChild = Math.min(firstChild + nodeCapacity, levelBounds[level - 1].length / 4);
+                for (int child = firstChild; child < lastChild; child++) {
+                    addTilesInBox(level - 1, child, minX, minY, maxX, maxY, matchingTiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts tiles into STR order: tiles are sorted by center x into vertical slices
+     * and then each slice is sorted by center y so that consecutive runs of tiles are spatially close.
+     */
+    private static void sortTiles(final TileBounds[] tiles,
+                                  final int nodeCapacity) {
+
+        final int leafCount = (tiles.length + nodeCapacity - 1) / nodeCapacity;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        final int sliceSize = Math.max(1, sliceCount * nodeCapacity);
+
+        Arrays.sort(tiles, Comparator.comparingDouble(TileBoundsPackedRTree::getCenterX));
+        for (int from = 0; from < tiles.length; from += sliceSize) {
+            Arrays.sort(tiles, from, Math.min(from + sliceSize, tiles.length),
+                        Comparator.comparingDouble(TileBoundsPackedRTree::getCenterY));
+        }
+    }
+
+    private static double[] buildParentBounds(final double[] childBounds,
+                                              final int nodeCapacity) {
+
+        final int childCount = childBounds.length / 4;
+        final int parentCount = (childCount + nodeCapacity - 1) / nodeCapacity;
+        final double[] parentBounds = new double[parentCount * 4];
+
+        for (int parent = 0; parent < parentCount; parent++) {
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            final int lastChild = Math.min((parent + 1) * nodeCapacity, childCount);
+            for (int child = parent * nodeCapacity; child < lastChild; child++) {
+                final int offset = child * 4;
+                minX = Math.min(minX, childBounds[offset]);
+                minY = Math.min(minY, childBounds[offset + 1]);
+                maxX = Math.max(maxX, childBounds[offset + 2]);
+                maxY = Math.max(maxY, childBounds[offset + 3]);
+            }
+            final int offset = parent * 4;
+            parentBounds[offset] = minX;
+            parentBounds[offset + 1] = minY;
+            parentBounds[offset + 2] = maxX;
+            parentBounds[offset + 3] = maxY;
+        }
+
+        return parentBounds;
+    }
+
+    private static boolean hasBounds(final TileBounds tileBounds) {
+        return (tileBounds.getMinX() != null) && (tileBounds.getMinY() != null) &&
+               (tileBounds.getMaxX() != null) && (tileBounds.getMaxY() != null);
+    }
+
+    private static double getCenterX(final TileBounds tileBounds) {
+        return (tileBounds.getMinX() + tileBounds.getMaxX()) / 2.0;
+    }
+
+    private static double getCenterY(final TileBounds tileBounds) {
+        return (tileBounds.getMinY() + tileBounds.getMaxY()) / 2.0;
+    }
+}
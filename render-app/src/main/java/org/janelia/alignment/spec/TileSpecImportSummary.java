@@ -0,0 +1,70 @@
+package org.janelia.alignment.spec;
+
+import org.janelia.alignment.json.JsonUtils;
+
+/**
+ * Summary of a streamed tile and transform spec import.
+ *
+ * @author Eric Trautman
+ */
+public class TileSpecImportSummary {
+
+    private final long tileCount;
+    private final long transformCount;
+    private final long batchCount;
+    private final long elapsedMilliseconds;
+    private final double tilesPerSecond;
+
+    // no-arg constructor needed for JSON deserialization
+    @SuppressWarnings("unused")
+    private TileSpecImportSummary() {
+        this(0, 0, 0, 0);
+    }
+
+    public TileSpecImportSummary(final long tileCount,
+                                 final long transformCount,
+                                 final long batchCount,
+                                 final long elapsedMilliseconds) {
+        this.tileCount = tileCount;
+        this.transformCount = transformCount;
+        this.batchCount = batchCount;
+        this.elapsedMilliseconds = elapsedMilliseconds;
+        this.tilesPerSecond = elapsedMilliseconds > 0 ? tileCount * 1000.0 / elapsedMilliseconds : tileCount;
+    }
+
+    public long getTileCount() {
+        return tileCount;
+    }
+
+    public long getTransformCount() {
+        return transformCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getElapsedMilliseconds() {
+        return elapsedMilliseconds;
+    }
+
+    public double getTilesPerSecond() {
+        return tilesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    public String toJson() {
+        return JSON_HELPER.toJson(this);
+    }
+
+    public static TileSpecImportSummary fromJson(final String json) {
+        return JSON_HELPER.fromJson(json);
+    }
+
+    private static final JsonUtils.Helper<TileSpecImportSummary> JSON_HELPER =
+            new JsonUtils.Helper<>(TileSpecImportSummary.class);
+}
@@ -18,6 +18,10 @@ public class StackId implements Comparable<StackId>, Serializable {
     public static final String SECTION_COLLECTION_SUFFIX = "section";
     public static final String TILE_COLLECTION_SUFFIX = "tile";
     public static final String TRANSFORM_COLLECTION_SUFFIX = "transform";
+    public static final String CHANGED_Z_COLLECTION_SUFFIX = "changed_z";
+
+    // kept no longer than the transform suffix so that valid stacks always have a valid temporary section name
+    public static final String SECTION_TEMP_COLLECTION_SUFFIX = "tsection";
 
     private final String owner;
     private final String project;
@@ -106,6 +110,15 @@ public class StackId implements Comparable<StackId>, Serializable {
         return getCollectionName(SECTION_COLLECTION_SUFFIX);
     }
 
+    /**
+     * @return name of the collection used to build replacement section data
+     *         before it is (atomically) renamed to the section collection.
+     */
+    @JsonIgnore
+    public String getSectionTempCollectionName() {
+        return getCollectionName(SECTION_TEMP_COLLECTION_SUFFIX);
+    }
+
     @JsonIgnore
     public String getTileCollectionName() {
         return getCollectionName(TILE_COLLECTION_SUFFIX);
@@ -116,6 +129,11 @@ public class StackId implements Comparable<StackId>, Serializable {
         return getCollectionName(TRANSFORM_COLLECTION_SUFFIX);
     }
 
+    @JsonIgnore
+    public String getChangedZCollectionName() {
+        return getCollectionName(CHANGED_Z_COLLECTION_SUFFIX);
+    }
+
     private String getCollectionName(final String suffix) {
         return COLLECTION_NAME_UTIL.getName(owner, project, stack, suffix);
     }
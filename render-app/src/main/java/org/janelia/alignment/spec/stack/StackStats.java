@@ -24,6 +24,8 @@ public class StackStats
     private final Integer minTileHeight;
     private final Integer maxTileHeight;
     private final Set<String> channelNames;
+    private final Long derivedZCount;
+    private final Long derivationMillis;
 
     // no-arg constructor needed for JSON deserialization
     @SuppressWarnings("unused")
@@ -38,6 +40,8 @@ public class StackStats
         this.minTileHeight = null;
         this.maxTileHeight = null;
         this.channelNames = null;
+        this.derivedZCount = null;
+        this.derivationMillis = null;
     }
 
     public StackStats(final Bounds stackBounds,
@@ -50,6 +54,36 @@ public class StackStats
                       final Integer minTileHeight,
                       final Integer maxTileHeight,
                       final Set<String> channelNames) {
+        this(stackBounds,
+             sectionCount,
+             nonIntegralSectionCount,
+             tileCount,
+             transformCount,
+             minTileWidth,
+             maxTileWidth,
+             minTileHeight,
+             maxTileHeight,
+             channelNames,
+             null,
+             null);
+    }
+
+    /**
+     * @param  derivedZCount     number of layers (re)derived when these stats were built.
+     * @param  derivationMillis  number of milliseconds it took to derive these stats.
+     */
+    public StackStats(final Bounds stackBounds,
+                      final Long sectionCount,
+                      final Long nonIntegralSectionCount,
+                      final Long tileCount,
+                      final Long transformCount,
+                      final Integer minTileWidth,
+                      final Integer maxTileWidth,
+                      final Integer minTileHeight,
+                      final Integer maxTileHeight,
+                      final Set<String> channelNames,
+                      final Long derivedZCount,
+                      final Long derivationMillis) {
         this.stackBounds = stackBounds;
         this.sectionCount = sectionCount;
         this.nonIntegralSectionCount = nonIntegralSectionCount;
@@ -60,6 +94,8 @@ public class StackStats
         this.minTileHeight = minTileHeight;
         this.maxTileHeight = maxTileHeight;
         this.channelNames = channelNames;
+        this.derivedZCount = derivedZCount;
+        this.derivationMillis = derivationMillis;
     }
 
     public Bounds getStackBounds() {
@@ -102,6 +138,21 @@ public class StackStats
         return channelNames;
     }
 
+    /**
+     * @return number of layers (re)derived when these stats were built
+     *         (less than the section count when only changed layers were derived).
+     */
+    public Long getDerivedZCount() {
+        return derivedZCount;
+    }
+
+    /**
+     * @return number of milliseconds it took to derive these stats.
+     */
+    public Long getDerivationMillis() {
+        return derivationMillis;
+    }
+
     @Override
     public String toString() {
         return toJson();
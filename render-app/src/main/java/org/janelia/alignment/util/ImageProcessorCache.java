@@ -4,6 +4,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
 import com.google.common.cache.Weigher;
 
 import ij.process.ByteProcessor;
@@ -23,6 +24,14 @@ import org.slf4j.LoggerFactory;
  * Cache instances are thread safe and do not depend upon garbage collection or independent threads to evict
  * stale entries, making the instances safer for use in application servers.
  *
+ * Down sampled images are derived progressively: each requested level is down sampled from the closest
+ * cached higher resolution level of the same image and any intermediate levels produced along the way
+ * are cached as well.  Requests for zoomed out levels therefore rarely need to start from full resolution.
+ *
+ * Caches can optionally be backed by an {@link OffHeapImageProcessorStore} that holds processors
+ * evicted from the cache off of the Java heap.  Processors found in the off-heap store are promoted
+ * back into the cache instead of being reloaded.
+ *
  * For gory details about the cache implementation, see
  * <a href="https://code.google.com/p/guava-libraries/wiki/CachesExplained">
  *     https://code.google.com/p/guava-libraries/wiki/CachesExplained
@@ -41,6 +50,7 @@ public class ImageProcessorCache {
     private final long maximumNumberOfCachedKilobytes;
     private final boolean recordStats;
     private final boolean cacheOriginalsForDownSampledImages;
+    private final OffHeapImageProcessorStore offHeapStore;
 
     private final LoadingCache<CacheKey, ImageProcessor> cache;
 
@@ -51,6 +61,7 @@ public class ImageProcessorCache {
         this.maximumNumberOfCachedKilobytes = 0;
         this.recordStats = false;
         this.cacheOriginalsForDownSampledImages = false;
+        this.offHeapStore = null;
         this.cache = null;
     }
 
@@ -73,10 +84,37 @@ public class ImageProcessorCache {
     public ImageProcessorCache(final long maximumNumberOfCachedPixels,
                                final boolean recordStats,
                                final boolean cacheOriginalsForDownSampledImages) {
+        this(maximumNumberOfCachedPixels, recordStats, cacheOriginalsForDownSampledImages, null);
+    }
+
+    /**
+     * Constructs a cache instance using the specified parameters.
+     *
+     * @param  maximumNumberOfCachedPixels         the maximum number of pixels to maintain in the cache.
+     *                                             This should roughly correlate to the maximum amount of
+     *                                             memory for the cache.
+     *
+     * @param  recordStats                         if true, useful tuning stats like cache hits and loads will be
+     *                                             maintained (presumably at some nominal overhead cost);
+     *                                             otherwise stats are not maintained.
+     *
+     * @param  cacheOriginalsForDownSampledImages  if true, when down sampled images are requested their source
+     *                                             images will also be cached (presumably improving the speed
+     *                                             of future down sampling to a different level);
+     *                                             otherwise only the down sampled result images are cached.
+     *
+     * @param  offHeapStore                        second level store for evicted processors
+     *                                             (or null if evicted processors should simply be discarded).
+     */
+    public ImageProcessorCache(final long maximumNumberOfCachedPixels,
+                               final boolean recordStats,
+                               final boolean cacheOriginalsForDownSampledImages,
+                               final OffHeapImageProcessorStore offHeapStore) {
 
         this.maximumNumberOfCachedKilobytes = maximumNumberOfCachedPixels / 1000;
         this.recordStats = recordStats;
         this.cacheOriginalsForDownSampledImages = cacheOriginalsForDownSampledImages;
+        this.offHeapStore = offHeapStore;
 
         final Weigher<CacheKey, ImageProcessor> weigher =
                 (key, value) -> {
@@ -97,27 +135,42 @@ public class ImageProcessorCache {
 
                     @Override
                     public ImageProcessor load(final CacheKey key) {
-                        return loadImageProcessor(key.getUri(),
-                                                  key.getDownSampleLevels(),
-                                                  key.isMask(),
-                                                  key.getImageLoader());
+                        ImageProcessor imageProcessor = null;
+                        if (offHeapStore != null) {
+                            imageProcessor = offHeapStore.remove(key);
+                        }
+                        if (imageProcessor == null) {
+                            imageProcessor = loadImageProcessor(key.getUri(),
+                                                                key.getDownSampleLevels(),
+                                                                key.isMask(),
+                                                                key.getImageLoader());
+                        }
+                        return imageProcessor;
+                    }
+                };
+
+        // move processors evicted because the cache is full to the off-heap store (when there is one)
+        final RemovalListener<CacheKey, ImageProcessor> removalListener =
+                notification -> {
+                    if (notification.wasEvicted() && (notification.getValue() != null)) {
+                        offHeapStore.put(notification.getKey(), notification.getValue());
                     }
                 };
 
+        final CacheBuilder<CacheKey, ImageProcessor> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumWeight(maximumNumberOfCachedKilobytes)
+                .weigher(weigher);
 
         if (recordStats) {
-            cache = CacheBuilder.newBuilder()
-                    .maximumWeight(maximumNumberOfCachedKilobytes)
-                    .weigher(weigher)
-                    .recordStats()
-                    .build(loader);
-        } else {
-            cache = CacheBuilder.newBuilder()
-                    .maximumWeight(maximumNumberOfCachedKilobytes)
-                    .weigher(weigher)
-                    .build(loader);
+            cacheBuilder.recordStats();
         }
 
+        if (offHeapStore != null) {
+            cacheBuilder.removalListener(removalListener);
+        }
+
+        cache = cacheBuilder.build(loader);
+
     }
 
     /**
@@ -180,12 +233,15 @@ public class ImageProcessorCache {
     }
 
     /**
-     * Discards all entries in the cache.
+     * Discards all entries in the cache (and its off-heap store if it has one).
      */
     public void invalidateAll() {
         if (cache != null) {
             cache.invalidateAll();
         }
+        if (offHeapStore != null) {
+            offHeapStore.invalidateAll();
+        }
     }
 
     /**
@@ -196,12 +252,21 @@ public class ImageProcessorCache {
         return cache == null ? EMPTY_STATS : cache.stats();
     }
 
+    /**
+     * @return a current snapshot of this cache's off-heap store statistics
+     *         (or null if this cache does not have an off-heap store).
+     */
+    public OffHeapImageProcessorStore.Stats getOffHeapStats() {
+        return offHeapStore == null ? null : offHeapStore.getStats();
+    }
+
     @Override
     public String toString() {
         return "{numberOfEntries: " + size() +
                ", maximumNumberOfCachedKilobytes: " + maximumNumberOfCachedKilobytes +
                ", recordStats: " + recordStats +
                ", cacheOriginalsForDownSampledImages: " + cacheOriginalsForDownSampledImages +
+               ", offHeapStore: " + offHeapStore +
                '}';
     }
 
@@ -230,10 +295,16 @@ public class ImageProcessorCache {
         }
 
         ImageProcessor imageProcessor = null;
-
-        // if we need to down sample, see if source image is already cached before trying to load it
-        if (downSampleLevels > 0) {
-            imageProcessor = cache.getIfPresent(new CacheKey(urlString, 0, isMask, imageLoader));
+        int sourceLevel = 0;
+
+        // if we need to down sample, see if the closest higher resolution level is already cached before
+        // trying to load the source image (map lookups are used here so that probes don't skew cache stats)
+        for (int level = downSampleLevels - 1; level >= 0; level--) {
+            imageProcessor = cache.asMap().get(new CacheKey(urlString, level, isMask, imageLoader));
+            if (imageProcessor != null) {
+                sourceLevel = level;
+                break;
+            }
         }
 
         // load the image as needed
@@ -258,12 +329,22 @@ public class ImageProcessorCache {
 
         }
 
-        // down sample the image as needed
-        if (downSampleLevels > 0) {
+        // down sample the image one level at a time, caching intermediate levels so that they can be
+        // reused by requests for those levels or as the source for deriving further down sampled levels
+        for (int level = sourceLevel + 1; level <= downSampleLevels; level++) {
+
             // NOTE: The down sample methods return a safe copy and leave the source imageProcessor unmodified,
             //       so we don't need to duplicate a cached source instance before down sampling.
-            imageProcessor = Downsampler.downsampleImageProcessor(imageProcessor,
-                                                                  downSampleLevels);
+            imageProcessor = Downsampler.downsampleImageProcessor(imageProcessor);
+
+            if (level < downSampleLevels) {
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("loadImageProcessor: caching intermediate level {} for {}", level, urlString);
+                }
+
+                cache.put(new CacheKey(urlString, level, isMask, imageLoader), imageProcessor);
+            }
         }
 
         return imageProcessor;
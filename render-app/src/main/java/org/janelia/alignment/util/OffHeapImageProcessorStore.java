@@ -0,0 +1,587 @@
+package org.janelia.alignment.util;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second level store for decoded {@link ImageProcessor} pixels that keeps pixel data off the Java heap
+ * in a memory-mapped file arena.  It is used by {@link ImageProcessorCache} instances to hold processors
+ * evicted from their (on-heap) cache so that they can be restored without being reloaded and decoded.
+ *
+ * <p>
+ * The arena is split into fixed size slabs.  Each slab is assigned to a size class when needed and is
+ * then divided into equal slots of that class's size (a power of two between {@link #MIN_SLOT_BYTES} and
+ * the slab size).  When no free slot exists for a size class, a slab is taken (in order of preference) from
+ * the unassigned slabs, from another size class that no longer uses any of its slots, or from the least
+ * recently used entry of another class after evicting all entries in that slab.  If the class already has
+ * entries, its least recently used entry is evicted instead of reclaiming another class's slab.
+ * Processors larger than a slab are not stored.
+ * </p>
+ *
+ * <p>
+ * The {@link #getSharedInstance shared instance} lives for the life of the JVM,
+ * so entries survive when the on-heap caches that use it are rebuilt.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class OffHeapImageProcessorStore {
+
+    /** Smallest slot size (64KB, roughly a 256x256 8-bit processor). */
+    public static final int MIN_SLOT_BYTES = 64 * 1024;
+
+    /** Default slab size (64MB, roughly an 8K x 8K 8-bit processor). */
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024 * 1024;
+
+    private static OffHeapImageProcessorStore sharedInstance;
+
+    /**
+     * @param  capacityBytes  capacity for the shared store if it has not already been created.
+     *
+     * @return the store shared by all caches in this JVM, creating it if necessary.
+     *
+     * @throws IllegalStateException
+     *   if the store's memory-mapped arena cannot be created.
+     */
+    public static synchronized OffHeapImageProcessorStore getSharedInstance(final long capacityBytes)
+            throws IllegalStateException {
+        if (sharedInstance == null) {
+            sharedInstance = new OffHeapImageProcessorStore(capacityBytes, DEFAULT_SLAB_BYTES, null);
+            LOG.info("getSharedInstance: created {}", sharedInstance);
+        } else if (sharedInstance.getCapacityBytes() != capacityBytes) {
+            LOG.warn("getSharedInstance: ignoring capacity {} since {} has already been created",
+                     capacityBytes, sharedInstance);
+        }
+        return sharedInstance;
+    }
+
+    private final int slabBytes;
+    private final List<MappedByteBuffer> slabs;
+    private final Deque<Integer> unassignedSlabs;
+    private final SizeClass[] slabSizeClasses;
+    private final int[] slabUsedSlotCounts;
+    private final List<SizeClass> sizeClasses;
+    private final LinkedHashMap<ImageProcessorCache.CacheKey, Entry> entries;
+
+    private long usedBytes;
+    private long hitCount;
+    private long missCount;
+    private long storeCount;
+    private long evictionCount;
+    private long rejectionCount;
+
+    /**
+     * Constructs a store with a newly mapped arena.
+     *
+     * @param  capacityBytes  total arena size (rounded down to a multiple of the slab size).
+     * @param  slabBytes      size of each slab (must be a power of two that is at least {@link #MIN_SLOT_BYTES}).
+     * @param  arenaDirectory directory for the arena file (or null to use the default temporary directory).
+     *
+     * @throws IllegalArgumentException
+     *   if the sizes are invalid.
+     *
+     * @throws IllegalStateException
+     *   if the arena cannot be created.
+     */
+    public OffHeapImageProcessorStore(final long capacityBytes,
+                                      final int slabBytes,
+                                      final File arenaDirectory)
+            throws IllegalArgumentException, IllegalStateException {
+
+        if ((slabBytes < MIN_SLOT_BYTES) || (Integer.bitCount(slabBytes) != 1)) {
+            throw new IllegalArgumentException("slab size must be a power of two that is at least " + MIN_SLOT_BYTES);
+        }
+
+        final long numberOfSlabs = capacityBytes / slabBytes;
+        if (numberOfSlabs < 1) {
+            throw new IllegalArgumentException("capacity must be at least " + slabBytes + " bytes");
+        }
+
+        this.slabBytes = slabBytes;
+        this.slabs = new ArrayList<>((int) numberOfSlabs);
+        this.unassignedSlabs = new ArrayDeque<>((int) numberOfSlabs);
+        this.slabSizeClasses = new SizeClass[(int) numberOfSlabs];
+        this.slabUsedSlotCounts = new int[(int) numberOfSlabs];
+
+        try {
+            final File arenaFile = File.createTempFile("render-image-arena-", ".bin", arenaDirectory);
+            try (final RandomAccessFile randomAccessFile = new RandomAccessFile(arenaFile, "rw")) {
+                randomAccessFile.setLength(numberOfSlabs * slabBytes);
+                final FileChannel channel = randomAccessFile.getChannel();
+                for (int i = 0; i < numberOfSlabs; i++) {
+                    final MappedByteBuffer slab = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                              (long) i * slabBytes,
+                                                              slabBytes);
+                    slab.order(ByteOrder.nativeOrder());
+                    slabs.add(slab);
+                    unassignedSlabs.add(i);
+                }
+            } finally {
+                // mappings remain valid after the file is removed (on systems that support it)
+                if (! arenaFile.delete()) {
+                    arenaFile.deleteOnExit();
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("failed to create memory-mapped arena", e);
+        }
+
+        this.sizeClasses = new ArrayList<>();
+        for (int slotBytes = MIN_SLOT_BYTES; slotBytes <= slabBytes; slotBytes = slotBytes * 2) {
+            sizeClasses.add(new SizeClass(slotBytes));
+        }
+
+        this.entries = new LinkedHashMap<>(1024, 0.75f, true);
+    }
+
+    public long getCapacityBytes() {
+        return (long) slabs.size() * slabBytes;
+    }
+
+    /**
+     * Copies the specified processor's pixels into this store.
+     * Processors that are already stored, too large, or of an unsupported type are ignored.
+     *
+     * @param  key             cache key for the processor.
+     * @param  imageProcessor  processor to store.
+     */
+    synchronized void put(final ImageProcessorCache.CacheKey key,
+                          final ImageProcessor imageProcessor) {
+
+        final PixelType pixelType = PixelType.forProcessor(imageProcessor);
+        final long byteCount = pixelType == null ? Long.MAX_VALUE :
+                               (long) imageProcessor.getPixelCount() * pixelType.bytesPerPixel;
+
+        if (entries.containsKey(key)) {
+            return;
+        } else if (byteCount > slabBytes) {
+            rejectionCount++;
+            return;
+        }
+
+        final SizeClass sizeClass = sizeClasses.get(getSizeClassIndex((int) byteCount));
+        final Slot slot = allocateSlot(sizeClass);
+        if (slot == null) {
+            rejectionCount++;
+            return;
+        }
+
+        final ByteBuffer buffer = getSlotBuffer(slot, (int) byteCount);
+        pixelType.write(imageProcessor, buffer);
+
+        entries.put(key, new Entry(pixelType,
+                                   imageProcessor.getWidth(),
+                                   imageProcessor.getHeight(),
+                                   imageProcessor.getMin(),
+                                   imageProcessor.getMax(),
+                                   sizeClass,
+                                   slot,
+                                   (int) byteCount));
+        usedBytes += sizeClass.slotBytes;
+        storeCount++;
+    }
+
+    /**
+     * Removes the specified processor from this store and returns it
+     * (so that it can be promoted to a first level cache).
+     *
+     * @param  key  cache key for the processor.
+     *
+     * @return newly allocated on-heap copy of the stored processor or null if it is not stored.
+     */
+    synchronized ImageProcessor remove(final ImageProcessorCache.CacheKey key) {
+
+        final Entry entry = entries.remove(key);
+
+        ImageProcessor imageProcessor = null;
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+            imageProcessor = entry.pixelType.read(entry.width,
+                                                  entry.height,
+                                                  getSlotBuffer(entry.slot, entry.byteCount));
+            if (entry.pixelType != PixelType.COLOR) { // color processors change pixels when min and max are set
+                imageProcessor.setMinAndMax(entry.min, entry.max);
+            }
+            freeSlot(entry);
+        }
+
+        return imageProcessor;
+    }
+
+    /**
+     * Discards all entries in this store.
+     */
+    public synchronized void invalidateAll() {
+        for (final Entry entry : entries.values()) {
+            freeSlot(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return the number of entries currently in this store.
+     */
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    /**
+     * @return a snapshot of this store's cumulative statistics.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(entries.size(), usedBytes, getCapacityBytes(),
+                         hitCount, missCount, storeCount, evictionCount, rejectionCount);
+    }
+
+    @Override
+    public String toString() {
+        return "{capacityBytes: " + getCapacityBytes() +
+               ", slabBytes: " + slabBytes +
+               ", stats: " + getStats() +
+               '}';
+    }
+
+    private int getSizeClassIndex(final int byteCount) {
+        int index = 0;
+        for (int slotBytes = MIN_SLOT_BYTES; slotBytes < byteCount; slotBytes = slotBytes * 2) {
+            index++;
+        }
+        return index;
+    }
+
+    private Slot allocateSlot(final SizeClass sizeClass) {
+
+        if (sizeClass.freeSlots.isEmpty()) {
+            if (unassignedSlabs.isEmpty() && (! releaseUnusedSlab()) && (! evictLeastRecentlyUsed(sizeClass))) {
+                // every slab is in use by other size classes, so take one of them
+                reclaimLeastRecentlyUsedSlab();
+            }
+            if (sizeClass.freeSlots.isEmpty() && (! unassignedSlabs.isEmpty())) {
+                assignSlab(unassignedSlabs.remove(), sizeClass);
+            }
+        }
+
+        final Slot slot = sizeClass.freeSlots.poll();
+        if (slot != null) {
+            slabUsedSlotCounts[slot.slabIndex]++;
+        }
+        return slot;
+    }
+
+    private void assignSlab(final int slabIndex,
+                            final SizeClass sizeClass) {
+        slabSizeClasses[slabIndex] = sizeClass;
+        slabUsedSlotCounts[slabIndex] = 0;
+        for (int offset = 0; offset < slabBytes; offset += sizeClass.slotBytes) {
+            sizeClass.freeSlots.add(new Slot(slabIndex, offset));
+        }
+    }
+
+    /**
+     * Returns the specified slab's (free) slots to the unassigned pool.
+     */
+    private void releaseSlab(final int slabIndex) {
+        slabSizeClasses[slabIndex].freeSlots.removeIf(slot -> slot.slabIndex == slabIndex);
+        slabSizeClasses[slabIndex] = null;
+        unassignedSlabs.add(slabIndex);
+    }
+
+    /**
+     * @return true if an assigned slab with no used slots was found and released.
+     */
+    private boolean releaseUnusedSlab() {
+        for (int slabIndex = 0; slabIndex < slabSizeClasses.length; slabIndex++) {
+            if ((slabSizeClasses[slabIndex] != null) && (slabUsedSlotCounts[slabIndex] == 0)) {
+                releaseSlab(slabIndex);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the least recently used entry of the specified size class was evicted.
+     */
+    private boolean evictLeastRecentlyUsed(final SizeClass sizeClass) {
+        final Iterator<Map.Entry<ImageProcessorCache.CacheKey, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            if (entry.sizeClass == sizeClass) {
+                iterator.remove();
+                freeSlot(entry);
+                evictionCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts all entries in the slab holding the least recently used entry and then releases that slab.
+     * Used when a size class has no slots at all because other classes have claimed every slab.
+     */
+    private void reclaimLeastRecentlyUsedSlab() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        if (iterator.hasNext()) {
+            final int slabIndex = iterator.next().slot.slabIndex;
+            entries.values().removeIf(entry -> {
+                final boolean inSlab = entry.slot.slabIndex == slabIndex;
+                if (inSlab) {
+                    freeSlot(entry);
+                    evictionCount++;
+                }
+                return inSlab;
+            });
+            releaseSlab(slabIndex);
+        }
+    }
+
+    private void freeSlot(final Entry entry) {
+        entry.sizeClass.freeSlots.add(entry.slot);
+        slabUsedSlotCounts[entry.slot.slabIndex]--;
+        usedBytes -= entry.sizeClass.slotBytes;
+    }
+
+    private ByteBuffer getSlotBuffer(final Slot slot,
+                                     final int byteCount) {
+        final ByteBuffer buffer = slabs.get(slot.slabIndex).duplicate();
+        buffer.position(slot.offset);
+        buffer.limit(slot.offset + byteCount);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Cumulative statistics for a store.
+     */
+    public static class Stats {
+
+        private final long entryCount;
+        private final long usedBytes;
+        private final long capacityBytes;
+        private final long hitCount;
+        private final long missCount;
+        private final long storeCount;
+        private final long evictionCount;
+        private final long rejectionCount;
+
+        public Stats(final long entryCount,
+                     final long usedBytes,
+                     final long capacityBytes,
+                     final long hitCount,
+                     final long missCount,
+                     final long storeCount,
+                     final long evictionCount,
+                     final long rejectionCount) {
+            this.entryCount = entryCount;
+            this.usedBytes = usedBytes;
+            this.capacityBytes = capacityBytes;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.storeCount = storeCount;
+            this.evictionCount = evictionCount;
+            this.rejectionCount = rejectionCount;
+        }
+
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        public long getUsedBytes() {
+            return usedBytes;
+        }
+
+        public long getCapacityBytes() {
+            return capacityBytes;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getStoreCount() {
+            return storeCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getRejectionCount() {
+            return rejectionCount;
+        }
+
+        @Override
+        public String toString() {
+            return "{entryCount: " + entryCount +
+                   ", usedBytes: " + usedBytes +
+                   ", capacityBytes: " + capacityBytes +
+                   ", hitCount: " + hitCount +
+                   ", missCount: " + missCount +
+                   ", storeCount: " + storeCount +
+                   ", evictionCount: " + evictionCount +
+                   ", rejectionCount: " + rejectionCount +
+                   '}';
+        }
+    }
+
+    /** Supported processor types with their off-heap copy logic. */
+    private enum PixelType {
+
+        BYTE(1) {
+            @Override
+            void write(final ImageProcessor imageProcessor, final ByteBuffer buffer) {
+                buffer.put((byte[]) imageProcessor.getPixels());
+            }
+            @Override
+            ImageProcessor read(final int width, final int height, final ByteBuffer buffer) {
+                final byte[] pixels = new byte[width * height];
+                buffer.get(pixels);
+                return new ByteProcessor(width, height, pixels);
+            }
+        },
+
+        SHORT(2) {
+            @Override
+            void write(final ImageProcessor imageProcessor, final ByteBuffer buffer) {
+                buffer.asShortBuffer().put((short[]) imageProcessor.getPixels());
+            }
+            @Override
+            ImageProcessor read(final int width, final int height, final ByteBuffer buffer) {
+                final short[] pixels = new short[width * height];
+                buffer.asShortBuffer().get(pixels);
+                return new ShortProcessor(width, height, pixels, null);
+            }
+        },
+
+        FLOAT(4) {
+            @Override
+            void write(final ImageProcessor imageProcessor, final ByteBuffer buffer) {
+                buffer.asFloatBuffer().put((float[]) imageProcessor.getPixels());
+            }
+            @Override
+            ImageProcessor read(final int width, final int height, final ByteBuffer buffer) {
+                final float[] pixels = new float[width * height];
+                buffer.asFloatBuffer().get(pixels);
+                return new FloatProcessor(width, height, pixels);
+            }
+        },
+
+        COLOR(4) {
+            @Override
+            void write(final ImageProcessor imageProcessor, final ByteBuffer buffer) {
+                buffer.asIntBuffer().put((int[]) imageProcessor.getPixels());
+            }
+            @Override
+            ImageProcessor read(final int width, final int height, final ByteBuffer buffer) {
+                final int[] pixels = new int[width * height];
+                buffer.asIntBuffer().get(pixels);
+                return new ColorProcessor(width, height, pixels);
+            }
+        };
+
+        private final int bytesPerPixel;
+
+        PixelType(final int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        abstract void write(final ImageProcessor imageProcessor, final ByteBuffer buffer);
+
+        abstract ImageProcessor read(final int width, final int height, final ByteBuffer buffer);
+
+        static PixelType forProcessor(final ImageProcessor imageProcessor) {
+            final PixelType pixelType;
+            if (imageProcessor instanceof ByteProcessor) {
+                pixelType = BYTE;
+            } else if (imageProcessor instanceof ShortProcessor) {
+                pixelType = SHORT;
+            } else if (imageProcessor instanceof FloatProcessor) {
+                pixelType = FLOAT;
+            } else if (imageProcessor instanceof ColorProcessor) {
+                pixelType = COLOR;
+            } else {
+                pixelType = null;
+            }
+            return pixelType;
+        }
+    }
+
+    private static class SizeClass {
+        private final int slotBytes;
+        private final Deque<Slot> freeSlots;
+
+        SizeClass(final int slotBytes) {
+            this.slotBytes = slotBytes;
+            this.freeSlots = new ArrayDeque<>();
+        }
+    }
+
+    private static class Slot {
+        private final int slabIndex;
+        private final int offset;
+
+        Slot(final int slabIndex,
+             final int offset) {
+            this.slabIndex = slabIndex;
+            this.offset = offset;
+        }
+    }
+
+    private static class Entry {
+        private final PixelType pixelType;
+        private final int width;
+        private final int height;
+        private final double min;
+        private final double max;
+        private final SizeClass sizeClass;
+        private final Slot slot;
+        private final int byteCount;
+
+        Entry(final PixelType pixelType,
+              final int width,
+              final int height,
+              final double min,
+              final double max,
+              final SizeClass sizeClass,
+              final Slot slot,
+              final int byteCount) {
+            this.pixelType = pixelType;
+            this.width = width;
+            this.height = height;
+            this.min = min;
+            this.max = max;
+            this.sizeClass = sizeClass;
+            this.slot = slot;
+            this.byteCount = byteCount;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapImageProcessorStore.class);
+}
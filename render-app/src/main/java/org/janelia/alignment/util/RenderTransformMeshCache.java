@@ -0,0 +1,292 @@
+package org.janelia.alignment.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.spec.TileSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of {@link RenderTransformMesh} instances for rendering.
+ *
+ * Building a mesh requires applying a tile's full transform list to every mesh vertex,
+ * which is expensive for non-linear (e.g. thin plate spline or warp field) transforms.
+ * The same tile is often rendered repeatedly at the same scale for neighboring boxes,
+ * so meshes are cached without their render offset and then translated to the offset
+ * of each subsequent render.
+ *
+ * Each cache is constrained by a max kilobyte parameter which should roughly correlate to max memory usage.
+ * Once a cache is full, least recently used instances are removed to make room.
+ *
+ * @author Eric Trautman
+ */
+public class RenderTransformMeshCache {
+
+    /** Cache instance that doesn't cache anything but provides the same API for building meshes. */
+    public static final RenderTransformMeshCache DISABLED_CACHE = new RenderTransformMeshCache();
+
+    /** Default max memory for cached meshes is 256MB (roughly 1,000 meshes with 4,000 triangles each). */
+    public static final long DEFAULT_MAX_CACHED_KILOBYTES = 256 * 1000;
+
+    /** Approximate memory used by each mesh triangle (vertices, affine, and object overhead). */
+    private static final long BYTES_PER_TRIANGLE = 320;
+
+    private static volatile RenderTransformMeshCache sharedInstance = DISABLED_CACHE;
+
+    /**
+     * @return the cache shared by all renderers within this JVM (disabled unless {@link #setSharedInstance} is called).
+     */
+    public static RenderTransformMeshCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    public static synchronized void setSharedInstance(final RenderTransformMeshCache meshCache) {
+        sharedInstance = meshCache == null ? DISABLED_CACHE : meshCache;
+        LOG.info("setSharedInstance: exit, shared instance is now {}", sharedInstance);
+    }
+
+    /**
+     * @return identifier for the specified tile's current transforms that can be used for {@link Key} instances.
+     */
+    public static String buildTileTransformId(final TileSpec tileSpec) {
+        return buildTileTransformId(tileSpec, null);
+    }
+
+    /**
+     * @param  tileSpec            tile being rendered.
+     * @param  meshCacheNamespace  identifies an immutable version of the tile's stack
+     *                             (see {@link org.janelia.alignment.RenderParameters#getMeshCacheNamespace}).
+     *
+     * @return identifier for the specified tile's transforms that can be used for {@link Key} instances.
+     *         When a namespace is specified, the tile id is sufficient within it so the transforms are not
+     *         serialized and hashed.
+     */
+    public static String buildTileTransformId(final TileSpec tileSpec,
+                                              final String meshCacheNamespace) {
+        if (meshCacheNamespace != null) {
+            return meshCacheNamespace + "::" + tileSpec.getTileId();
+        }
+        final String transformsHash = Hashing.murmur3_128()
+                .hashString(tileSpec.getTransforms().toJson(), StandardCharsets.UTF_8)
+                .toString();
+        return tileSpec.getTileId() + "::" + transformsHash;
+    }
+
+    private final long maximumNumberOfCachedKilobytes;
+    private final boolean recordStats;
+
+    private final Cache<Key, RenderTransformMesh> cache;
+
+    /**
+     * Constructor for disabled cache.
+     */
+    private RenderTransformMeshCache() {
+        this.maximumNumberOfCachedKilobytes = 0;
+        this.recordStats = false;
+        this.cache = null;
+    }
+
+    /**
+     * Constructs a cache instance using the specified parameters.
+     *
+     * @param  maximumNumberOfCachedKilobytes  the approximate maximum amount of memory for the cache.
+     *
+     * @param  recordStats                     if true, useful tuning stats like cache hits and loads will be
+     *                                         maintained (presumably at some nominal overhead cost);
+     *                                         otherwise stats are not maintained.
+     */
+    public RenderTransformMeshCache(final long maximumNumberOfCachedKilobytes,
+                                    final boolean recordStats) {
+
+        this.maximumNumberOfCachedKilobytes = maximumNumberOfCachedKilobytes;
+        this.recordStats = recordStats;
+
+        final Weigher<Key, RenderTransformMesh> weigher =
+                (key, value) -> (int) Math.min(Integer.MAX_VALUE,
+                                               Math.max(1, (value.getAV().size() * BYTES_PER_TRIANGLE) / 1000));
+
+        if (recordStats) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumNumberOfCachedKilobytes)
+                    .weigher(weigher)
+                    .recordStats()
+                    .build();
+        } else {
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maximumNumberOfCachedKilobytes)
+                    .weigher(weigher)
+                    .build();
+        }
+    }
+
+    /**
+     * @return true if this cache actually caches meshes.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @param  key          identifies the mesh.
+     *
+     * @param  renderX      target x offset (in target pixels) of the render context.
+     *
+     * @param  renderY      target y offset (in target pixels) of the render context.
+     *
+     * @param  meshBuilder  builds the mesh (including the render offset) when it is not already cached.
+     *
+     * @return a mesh for the specified key that has been translated to the specified render offset.
+     *         Returned instances are never shared, so callers can safely modify them.
+     *
+     * @throws IllegalArgumentException
+     *   if the mesh cannot be built.
+     */
+    public RenderTransformMesh get(final Key key,
+                                   final double renderX,
+                                   final double renderY,
+                                   final Callable<RenderTransformMesh> meshBuilder)
+            throws IllegalArgumentException {
+
+        final RenderTransformMesh[] builtMesh = { null };
+
+        final RenderTransformMesh mesh;
+        try {
+            if (cache == null) {
+                mesh = meshBuilder.call();
+            } else {
+                final RenderTransformMesh cachedMesh = cache.get(key, () -> {
+                    builtMesh[0] = meshBuilder.call();
+                    return new RenderTransformMesh(builtMesh[0], renderX, renderY);
+                });
+                mesh = builtMesh[0] == null ? new RenderTransformMesh(cachedMesh, -renderX, -renderY) : builtMesh[0];
+            }
+        } catch (final Throwable t) {
+            throw new IllegalArgumentException("failed to retrieve mesh for " + key, t);
+        }
+
+        return mesh;
+    }
+
+    /**
+     * @return the number of entries currently in this cache.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Discards all entries in the cache.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return a current snapshot of this cache's cumulative statistics
+     *         (will be all zeros if stat recording is not enabled for this cache).
+     */
+    public CacheStats getStats() {
+        return cache == null ? EMPTY_STATS : cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "{numberOfEntries: " + size() +
+               ", maximumNumberOfCachedKilobytes: " + maximumNumberOfCachedKilobytes +
+               ", recordStats: " + recordStats +
+               '}';
+    }
+
+    /**
+     * Key that combines a tile's transforms with everything else (except render offset) that affects its mesh.
+     */
+    public static class Key {
+
+        private final String tileTransformId;
+        private final int sourceMipmapLevel;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final double meshCellSize;
+        private final double levelZeroScale;
+        private final double levelScale;
+
+        /**
+         * @param  tileTransformId    identifies the tile and its transforms (see {@link #buildTileTransformId}).
+         * @param  sourceMipmapLevel  mipmap level of the source pixels being mapped.
+         * @param  sourceWidth        width of the source mipmap.
+         * @param  sourceHeight       height of the source mipmap.
+         * @param  meshCellSize       desired size of a mesh cell (triangle) in pixels.
+         * @param  levelZeroScale     scale factor for the canvas at mipmap level 0.
+         * @param  levelScale         scale factor for the canvas at the rendered mipmap level.
+         */
+        public Key(final String tileTransformId,
+                   final int sourceMipmapLevel,
+                   final int sourceWidth,
+                   final int sourceHeight,
+                   final double meshCellSize,
+                   final double levelZeroScale,
+                   final double levelScale) {
+            this.tileTransformId = tileTransformId;
+            this.sourceMipmapLevel = sourceMipmapLevel;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.meshCellSize = meshCellSize;
+            this.levelZeroScale = levelZeroScale;
+            this.levelScale = levelScale;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof Key) {
+                    final Key that = (Key) o;
+                    result = (this.sourceMipmapLevel == that.sourceMipmapLevel) &&
+                             (this.sourceWidth == that.sourceWidth) &&
+                             (this.sourceHeight == that.sourceHeight) &&
+                             (Double.compare(this.meshCellSize, that.meshCellSize) == 0) &&
+                             (Double.compare(this.levelZeroScale, that.levelZeroScale) == 0) &&
+                             (Double.compare(this.levelScale, that.levelScale) == 0) &&
+                             this.tileTransformId.equals(that.tileTransformId);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tileTransformId, sourceMipmapLevel, levelScale);
+        }
+
+        @Override
+        public String toString() {
+            return "{tileTransformId: '" + tileTransformId +
+                   "', sourceMipmapLevel: " + sourceMipmapLevel +
+                   ", sourceWidth: " + sourceWidth +
+                   ", sourceHeight: " + sourceHeight +
+                   ", meshCellSize: " + meshCellSize +
+                   ", levelZeroScale: " + levelZeroScale +
+                   ", levelScale: " + levelScale +
+                   '}';
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderTransformMeshCache.class);
+
+    private static final CacheStats EMPTY_STATS = new CacheStats(0, 0,
+                                                                 0, 0,
+                                                                 0, 0);
+}
@@ -75,6 +75,10 @@ public class RenderWebServiceUrls implements Serializable {
         return getMatchCollectionUrlString() + "/pGroup/" + pGroupId + "/matches";
     }
 
+    public String getMatchesWithPGroupIdsUrlString() {
+        return getMatchCollectionUrlString() + "/matchesWithPGroupIds";
+    }
+
     public String getMatchesOutsideGroupUrlString(final String groupId) {
         return getMatchCollectionUrlString() + "/group/" + groupId + "/matchesOutsideGroup";
     }
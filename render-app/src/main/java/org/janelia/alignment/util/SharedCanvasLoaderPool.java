@@ -0,0 +1,61 @@
+package org.janelia.alignment.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pool shared by all canvas renderers within a JVM for loading source pixels and building
+ * meshes ahead of pixel mapping.
+ *
+ * The pool has a fixed maximum number of daemon threads so that concurrent requests cannot start
+ * an unbounded number of loader threads.  Canvases can be nested (a canvas source can itself be a rendered
+ * canvas), so callers waiting for a task that has not been started must run it themselves
+ * (see {@link java.util.concurrent.FutureTask#run}) instead of blocking on a busy pool.
+ *
+ * The pool size can be configured by setting the {@value #POOL_SIZE_PROPERTY} system property before first use.
+ * If it is not specified, the pool is sized to twice the number of available processors (loading is I/O bound).
+ *
+ * @author Eric Trautman
+ */
+public class SharedCanvasLoaderPool {
+
+    public static final String POOL_SIZE_PROPERTY = "render.canvasLoaderPoolSize";
+
+    private static volatile ExecutorService sharedPool;
+
+    public static ExecutorService getInstance() {
+        if (sharedPool == null) {
+            setSharedPool();
+        }
+        return sharedPool;
+    }
+
+    private static synchronized void setSharedPool() {
+        if (sharedPool == null) {
+
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            final ThreadFactory threadFactory = runnable -> {
+                final Thread thread = new Thread(runnable, "render-canvas-loader-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+
+            int poolSize = 2 * Runtime.getRuntime().availableProcessors();
+            final Integer propertyValue = Integer.getInteger(POOL_SIZE_PROPERTY);
+            if ((propertyValue != null) && (propertyValue > 0)) {
+                poolSize = propertyValue;
+            }
+
+            sharedPool = Executors.newFixedThreadPool(poolSize, threadFactory);
+
+            LOG.info("setSharedPool: exit, created {} with {} threads", sharedPool, poolSize);
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedCanvasLoaderPool.class);
+}
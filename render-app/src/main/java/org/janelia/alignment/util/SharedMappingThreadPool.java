@@ -0,0 +1,86 @@
+package org.janelia.alignment.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The bounded work-stealing pool shared by all pixel mapping operations within a JVM.
+ *
+ * Pool parallelism is fixed when the pool is first used.
+ * It can be configured by calling {@link #setParallelism} before first use or by setting the
+ * {@value #PARALLELISM_PROPERTY} system property.  If neither is specified, the pool is sized
+ * to the number of available processors.
+ *
+ * @author Eric Trautman
+ */
+public class SharedMappingThreadPool {
+
+    public static final String PARALLELISM_PROPERTY = "render.mappingThreadPoolParallelism";
+
+    private static Integer configuredParallelism;
+    private static volatile ForkJoinPool sharedPool;
+
+    public static ForkJoinPool getInstance() {
+        if (sharedPool == null) {
+            setSharedPool();
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Sets the parallelism for the shared pool.
+     * This has no effect (other than logging a warning) once the pool has been created.
+     *
+     * @param  parallelism  maximum number of threads to use for mapping.
+     *
+     * @throws IllegalArgumentException
+     *   if the specified parallelism is not positive.
+     */
+    public static synchronized void setParallelism(final int parallelism)
+            throws IllegalArgumentException {
+
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("mapping thread pool parallelism must be positive");
+        }
+
+        if (sharedPool == null) {
+            configuredParallelism = parallelism;
+        } else if (sharedPool.getParallelism() != parallelism) {
+            LOG.warn("setParallelism: ignoring request to change parallelism to {} since {} has already been created",
+                     parallelism, sharedPool);
+        }
+    }
+
+    private static synchronized void setSharedPool() {
+        if (sharedPool == null) {
+
+            int parallelism = Runtime.getRuntime().availableProcessors();
+
+            if (configuredParallelism != null) {
+                parallelism = configuredParallelism;
+            } else {
+                final Integer propertyValue = Integer.getInteger(PARALLELISM_PROPERTY);
+                if ((propertyValue != null) && (propertyValue > 0)) {
+                    parallelism = propertyValue;
+                }
+            }
+
+            sharedPool = new ForkJoinPool(parallelism,
+                                          pool -> {
+                                              final ForkJoinWorkerThread thread =
+                                                      ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                                              thread.setName("render-mapping-" + thread.getPoolIndex());
+                                              return thread;
+                                          },
+                                          null,
+                                          false);
+
+            LOG.info("setSharedPool: exit, created {}", sharedPool);
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMappingThreadPool.class);
+}
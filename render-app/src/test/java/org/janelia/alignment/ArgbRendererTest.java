@@ -100,6 +100,34 @@ public class ArgbRendererTest {
 //                          outputFile.exists());
 //    }
 
+    @Test
+    public void testPipelinedStitching() throws Exception {
+
+        // loading and meshing of tiles overlaps mapping when multiple threads are requested,
+        // but result must be identical to single threaded rendering
+        final File expectedFile =
+                new File(modulePath + "/src/test/resources/stitch-test/expected_stitched_4_tiles.jpg");
+
+        final String[] args = {
+                "--tile_spec_url", "src/test/resources/stitch-test/test_4_tiles.json",
+                "--out", outputFile.getAbsolutePath(),
+                "--width", "4576",
+                "--height", "4173",
+                "--scale", "0.05",
+                "--threads", "4"
+        };
+
+        ArgbRenderer.renderUsingCommandLineArguments(args);
+
+        Assert.assertTrue("stitched file " + outputFile.getAbsolutePath() + " not created", outputFile.exists());
+
+        final String expectedDigestString = getDigestString(expectedFile);
+        final String actualDigestString = getDigestString(outputFile);
+
+        Assert.assertEquals("pipelined stitched file MD5 hash differs from expected result",
+                            expectedDigestString, actualDigestString);
+    }
+
     @Test
     public void testMixedMaskStitching() throws Exception {
 
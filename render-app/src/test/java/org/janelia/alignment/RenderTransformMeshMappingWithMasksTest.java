@@ -0,0 +1,63 @@
+package org.janelia.alignment;
+
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.mapper.SingleChannelMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderTransformMeshMappingWithMasks} class.
+ *
+ * @author Eric Trautman
+ */
+public class RenderTransformMeshMappingWithMasksTest {
+
+    @Test
+    public void testPooledMappingMatchesSerialMapping() {
+
+        final ByteProcessor sourceProcessor = new ByteProcessor(400, 300);
+        final Random random = new Random(42);
+        final byte[] sourcePixels = (byte[]) sourceProcessor.getPixels();
+        random.nextBytes(sourcePixels);
+
+        final AffineModel2D model = new AffineModel2D();
+        model.set(0.93, 0.12, -0.08, 1.07, 17.3, 9.1);
+
+        final RenderTransformMesh mesh = new RenderTransformMesh(model, 20, 400, 300);
+        mesh.updateAffines();
+
+        final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
+
+        for (final boolean isMappingInterpolated : new boolean[] { false, true }) {
+
+            final ByteProcessor serialTarget = new ByteProcessor(450, 360);
+            mapping.map(buildMapper(sourceProcessor, serialTarget, isMappingInterpolated), 1);
+
+            for (final int numberOfThreads : new int[] { 2, 7 }) {
+
+                final ByteProcessor pooledTarget = new ByteProcessor(450, 360);
+                mapping.map(buildMapper(sourceProcessor, pooledTarget, isMappingInterpolated), numberOfThreads);
+
+                Assert.assertArrayEquals("pixels differ for " + numberOfThreads +
+                                         " threads with isMappingInterpolated " + isMappingInterpolated,
+                                         (byte[]) serialTarget.getPixels(),
+                                         (byte[]) pooledTarget.getPixels());
+            }
+        }
+    }
+
+    private static SingleChannelMapper buildMapper(final ByteProcessor sourceProcessor,
+                                                   final ByteProcessor targetProcessor,
+                                                   final boolean isMappingInterpolated) {
+        return new SingleChannelMapper(new ImageProcessorWithMasks(sourceProcessor, null, null),
+                                       new ImageProcessorWithMasks(targetProcessor, null, null),
+                                       isMappingInterpolated);
+    }
+
+}
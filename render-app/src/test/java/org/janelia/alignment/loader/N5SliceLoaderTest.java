@@ -0,0 +1,245 @@
+package org.janelia.alignment.loader;
+
+import com.google.common.cache.CacheStats;
+
+import ij.process.ImageProcessor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.janelia.alignment.util.FileUtil;
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link N5SliceLoader} class.
+ *
+ * @author Eric Trautman
+ */
+public class N5SliceLoaderTest {
+
+    private static final String DATA_SET = "/test/s0";
+    private static final long[] DIMENSIONS = { 40, 30, 8 };
+    private static final int[] BLOCK_SIZE = { 16, 16, 4 };
+
+    private File n5Directory;
+    private N5BlockCache blockCache;
+
+    @Before
+    public void setup() throws IOException {
+        n5Directory = Files.createTempDirectory("test_n5_slice_loader_").toFile();
+        writeVolume(n5Directory.getAbsolutePath());
+
+        blockCache = new N5BlockCache(1000, true);
+        N5BlockCache.setSharedInstance(blockCache);
+    }
+
+    @After
+    public void tearDown() {
+        N5BlockCache.setSharedInstance(new N5BlockCache(N5BlockCache.DEFAULT_MAX_CACHED_KILOBYTES, true));
+        if (n5Directory.exists()) {
+            FileUtil.deleteRecursive(n5Directory);
+        }
+    }
+
+    @Test
+    public void testNeighboringSlicesReuseBlocks() {
+
+        final N5SliceLoader loader = new N5SliceLoader();
+
+        // tile spans 3 x 2 blocks
+        validateSlice(loader, 5, 3, 0, 30, 20);
+
+        CacheStats stats = blockCache.getStats();
+        Assert.assertEquals("invalid number of block loads for first slice", 6, stats.loadCount());
+        Assert.assertEquals("invalid number of block hits for first slice", 0, stats.hitCount());
+
+        // next slice is within the same z block, so all blocks should come from the cache
+        validateSlice(loader, 5, 3, 1, 30, 20);
+
+        stats = blockCache.getStats();
+        Assert.assertEquals("neighboring slice should not load any blocks", 6, stats.loadCount());
+        Assert.assertEquals("invalid number of block hits for neighboring slice", 6, stats.hitCount());
+
+        // neighboring tile in the same slice shares the right column of blocks
+        validateSlice(loader, 20, 3, 1, 20, 20);
+
+        stats = blockCache.getStats();
+        Assert.assertEquals("neighboring tile should not load any blocks", 6, stats.loadCount());
+        Assert.assertEquals("invalid number of block hits for neighboring tile", 10, stats.hitCount());
+
+        // slice in the next z block requires new blocks
+        validateSlice(loader, 5, 3, 4, 30, 20);
+
+        stats = blockCache.getStats();
+        Assert.assertEquals("invalid number of block loads for next z block", 12, stats.loadCount());
+
+        Assert.assertEquals("reader should only be built once", 1, loader.getReaderPoolStats().loadCount());
+    }
+
+    @Test
+    public void testSliceOutsideOfVolume() {
+
+        final N5SliceLoader loader = new N5SliceLoader();
+        final ImageProcessor ip = loadSlice(loader, 30, 25, 2, 20, 10);
+
+        for (int y = 0; y < ip.getHeight(); y++) {
+            for (int x = 0; x < ip.getWidth(); x++) {
+                final int worldX = x + 30;
+                final int worldY = y + 25;
+                final int expected = (worldX < DIMENSIONS[0]) && (worldY < DIMENSIONS[1]) ?
+                                     getExpectedValue(worldX, worldY, 2) : 0;
+                Assert.assertEquals("invalid pixel (" + x + "," + y + ")", expected, ip.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testLeasedReaderIsClosedAfterLastRelease() throws Exception {
+
+        final CloseCountingReader reader = new CloseCountingReader(n5Directory.getAbsolutePath());
+        final N5SliceLoader.PooledReader pooledReader = new N5SliceLoader.PooledReader("test", reader);
+
+        Assert.assertTrue("first lease should succeed", pooledReader.lease());
+        Assert.assertTrue("second lease should succeed", pooledReader.lease());
+
+        pooledReader.retire();
+        Assert.assertFalse("retired reader should not be leased", pooledReader.lease());
+
+        pooledReader.release();
+        Assert.assertEquals("reader should not be closed while it is leased", 0, reader.closeCount);
+
+        pooledReader.release();
+        Assert.assertEquals("reader should be closed after last release", 1, reader.closeCount);
+    }
+
+    @Test
+    public void testInvalidatedReaderIsReplaced() throws Exception {
+
+        final N5SliceLoader loader = new N5SliceLoader() {
+            @Override
+            public N5Reader buildReader(final String basePath)
+                    throws IOException {
+                return new CloseCountingReader(basePath);
+            }
+        };
+
+        final String basePath = n5Directory.getAbsolutePath();
+        final N5SliceLoader.PooledReader pooledReader = loader.leaseReader(basePath);
+
+        loader.invalidateReaders();
+
+        final CloseCountingReader reader = (CloseCountingReader) pooledReader.getReader();
+        Assert.assertEquals("leased reader should not be closed by invalidation", 0, reader.closeCount);
+
+        // loads after invalidation should use a new reader
+        validateSlice(loader, 5, 3, 0, 30, 20);
+        Assert.assertEquals("invalid number of reader builds", 2, loader.getReaderPoolStats().loadCount());
+
+        pooledReader.release();
+        Assert.assertEquals("invalidated reader should be closed after release", 1, reader.closeCount);
+    }
+
+    private void validateSlice(final N5SliceLoader loader,
+                               final int x,
+                               final int y,
+                               final int z,
+                               final int width,
+                               final int height) {
+
+        final ImageProcessor ip = loadSlice(loader, x, y, z, width, height);
+
+        Assert.assertEquals("invalid width", width, ip.getWidth());
+        Assert.assertEquals("invalid height", height, ip.getHeight());
+
+        for (int py = 0; py < height; py++) {
+            for (int px = 0; px < width; px++) {
+                Assert.assertEquals("invalid pixel (" + px + "," + py + ") for slice " + z,
+                                    getExpectedValue(px + x, py + y, z), ip.get(px, py));
+            }
+        }
+    }
+
+    private ImageProcessor loadSlice(final N5SliceLoader loader,
+                                     final int x,
+                                     final int y,
+                                     final int z,
+                                     final int width,
+                                     final int height) {
+        final String url = "file://" + n5Directory.getAbsolutePath() + "?dataSet=" + DATA_SET +
+                           "&x=" + x + "&y=" + y + "&z=" + z + "&w=" + width + "&h=" + height;
+        return loader.load(url);
+    }
+
+    private static int getExpectedValue(final long x,
+                                        final long y,
+                                        final long z) {
+        return (int) ((x + (2 * y) + (3 * z)) % 256);
+    }
+
+    private static class CloseCountingReader
+            extends N5FSReader
+            implements Closeable {
+
+        private int closeCount;
+
+        CloseCountingReader(final String basePath)
+                throws IOException {
+            super(basePath);
+            this.closeCount = 0;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+    }
+
+    private static void writeVolume(final String basePath)
+            throws IOException {
+
+        final N5Writer n5Writer = new N5FSWriter(basePath);
+        n5Writer.createDataset(DATA_SET, DIMENSIONS, BLOCK_SIZE, DataType.UINT8, new RawCompression());
+        final DatasetAttributes attributes = n5Writer.getDatasetAttributes(DATA_SET);
+
+        for (long gridZ = 0; gridZ * BLOCK_SIZE[2] < DIMENSIONS[2]; gridZ++) {
+            for (long gridY = 0; gridY * BLOCK_SIZE[1] < DIMENSIONS[1]; gridY++) {
+                for (long gridX = 0; gridX * BLOCK_SIZE[0] < DIMENSIONS[0]; gridX++) {
+
+                    final long[] min = { gridX * BLOCK_SIZE[0], gridY * BLOCK_SIZE[1], gridZ * BLOCK_SIZE[2] };
+                    final int[] size = new int[3];
+                    for (int d = 0; d < 3; d++) {
+                        size[d] = (int) Math.min(BLOCK_SIZE[d], DIMENSIONS[d] - min[d]);
+                    }
+
+                    final byte[] data = new byte[size[0] * size[1] * size[2]];
+                    int i = 0;
+                    for (int z = 0; z < size[2]; z++) {
+                        for (int y = 0; y < size[1]; y++) {
+                            for (int x = 0; x < size[0]; x++) {
+                                data[i++] = (byte) getExpectedValue(min[0] + x, min[1] + y, min[2] + z);
+                            }
+                        }
+                    }
+
+                    n5Writer.writeBlock(DATA_SET,
+                                        attributes,
+                                        new ByteArrayDataBlock(size, new long[] { gridX, gridY, gridZ }, data));
+                }
+            }
+        }
+    }
+
+}
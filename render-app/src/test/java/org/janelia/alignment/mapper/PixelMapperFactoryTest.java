@@ -0,0 +1,198 @@
+package org.janelia.alignment.mapper;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PixelMapperFactory} class and verifies that the specialized mappers it selects
+ * produce the same results as the generic processor based mappers.
+ *
+ * @author Eric Trautman
+ */
+public class PixelMapperFactoryTest {
+
+    private static final int SOURCE_WIDTH = 200;
+    private static final int SOURCE_HEIGHT = 150;
+    private static final int TARGET_WIDTH = 230;
+    private static final int TARGET_HEIGHT = 180;
+
+    @Test
+    public void testUnmaskedMappers() {
+        for (final boolean isMappingInterpolated : new boolean[] { false, true }) {
+            for (final ImageProcessor targetType : buildTargetTypes()) {
+
+                final ImageProcessor sourceProcessor = buildRandomProcessor(targetType, SOURCE_WIDTH, SOURCE_HEIGHT, 1);
+                final ImageProcessor genericTarget = targetType.createProcessor(TARGET_WIDTH, TARGET_HEIGHT);
+                final ImageProcessor specializedTarget = targetType.createProcessor(TARGET_WIDTH, TARGET_HEIGHT);
+
+                final ImageProcessorWithMasks source = new ImageProcessorWithMasks(sourceProcessor, null, null);
+                final ImageProcessorWithMasks target = new ImageProcessorWithMasks(specializedTarget, null, null);
+                final PixelMapper specializedMapper =
+                        PixelMapperFactory.getSingleChannelMapper(source,
+                                                                  target,
+                                                                  false,
+                                                                  false,
+                                                                  isMappingInterpolated);
+
+                Assert.assertNotEquals("specialized mapper should be selected for " + targetType.getClass(),
+                                       SingleChannelMapper.class, specializedMapper.getClass());
+
+                map(new SingleChannelMapper(source,
+                                            new ImageProcessorWithMasks(genericTarget, null, null),
+                                            isMappingInterpolated));
+                map(specializedMapper);
+
+                assertSamePixels(targetType.getClass() + " pixels differ with isMappingInterpolated " +
+                                 isMappingInterpolated,
+                                 genericTarget, specializedTarget);
+            }
+        }
+    }
+
+    @Test
+    public void testMaskedMappers() {
+        for (final boolean binaryMask : new boolean[] { false, true }) {
+            for (final boolean isMappingInterpolated : new boolean[] { false, true }) {
+                for (final ImageProcessor targetType : buildTargetTypes()) {
+
+                    if ((targetType instanceof FloatProcessor) && (! binaryMask)) {
+                        continue; // generic mapper blends raw float bits, so results are not comparable
+                    }
+
+                    final String context = targetType.getClass() + " with binaryMask " + binaryMask +
+                                           " and isMappingInterpolated " + isMappingInterpolated;
+
+                    final ImageProcessor sourceProcessor =
+                            buildRandomProcessor(targetType, SOURCE_WIDTH, SOURCE_HEIGHT, 2);
+                    final ImageProcessor sourceMask =
+                            buildRandomProcessor(new ByteProcessor(1, 1), SOURCE_WIDTH, SOURCE_HEIGHT, 3);
+                    final ImageProcessorWithMasks source =
+                            new ImageProcessorWithMasks(sourceProcessor, sourceMask, null);
+
+                    final ImageProcessorWithMasks genericTarget = buildMaskedTarget(targetType);
+                    final ImageProcessorWithMasks specializedTarget = buildMaskedTarget(targetType);
+
+                    final PixelMapper genericMapper;
+                    if (binaryMask) {
+                        genericMapper = new SingleChannelWithBinaryMaskMapper(source,
+                                                                              genericTarget,
+                                                                              isMappingInterpolated);
+                    } else if (targetType instanceof ColorProcessor) {
+                        genericMapper = new SingleColorChannelWithAlphaMapper(source,
+                                                                              genericTarget,
+                                                                              isMappingInterpolated);
+                    } else {
+                        genericMapper = new SingleChannelWithAlphaMapper(source,
+                                                                         genericTarget,
+                                                                         isMappingInterpolated);
+                    }
+
+                    final PixelMapper specializedMapper =
+                            PixelMapperFactory.getSingleChannelMapper(source,
+                                                                      specializedTarget,
+                                                                      true,
+                                                                      binaryMask,
+                                                                      isMappingInterpolated);
+
+                    Assert.assertNotEquals("specialized mapper should be selected for " + context,
+                                           genericMapper.getClass(), specializedMapper.getClass());
+
+                    map(genericMapper);
+                    map(specializedMapper);
+
+                    assertSamePixels(context + " pixels differ", genericTarget.ip, specializedTarget.ip);
+                    assertSamePixels(context + " mask pixels differ", genericTarget.mask, specializedTarget.mask);
+                }
+            }
+        }
+    }
+
+    private static ImageProcessor[] buildTargetTypes() {
+        return new ImageProcessor[] {
+                new ByteProcessor(1, 1),
+                new ShortProcessor(1, 1),
+                new FloatProcessor(1, 1),
+                new ColorProcessor(1, 1)
+        };
+    }
+
+    private static ImageProcessor buildRandomProcessor(final ImageProcessor type,
+                                                       final int width,
+                                                       final int height,
+                                                       final long seed) {
+        final ImageProcessor processor = type.createProcessor(width, height);
+        final Random random = new Random(seed);
+        final Object pixels = processor.getPixels();
+        if (pixels instanceof byte[]) {
+            random.nextBytes((byte[]) pixels);
+        } else if (pixels instanceof short[]) {
+            final short[] shortPixels = (short[]) pixels;
+            for (int i = 0; i < shortPixels.length; i++) {
+                shortPixels[i] = (short) random.nextInt(65536);
+            }
+        } else if (pixels instanceof float[]) {
+            final float[] floatPixels = (float[]) pixels;
+            for (int i = 0; i < floatPixels.length; i++) {
+                floatPixels[i] = random.nextFloat() * 1000;
+            }
+        } else {
+            final int[] intPixels = (int[]) pixels;
+            for (int i = 0; i < intPixels.length; i++) {
+                intPixels[i] = random.nextInt() & 0xffffff;
+            }
+        }
+        return processor;
+    }
+
+    private static ImageProcessorWithMasks buildMaskedTarget(final ImageProcessor targetType) {
+        // partially populate target so that blending with existing pixels is exercised
+        final ImageProcessor targetProcessor = buildRandomProcessor(targetType, TARGET_WIDTH, TARGET_HEIGHT, 4);
+        final ImageProcessor targetMask =
+                buildRandomProcessor(new ByteProcessor(1, 1), TARGET_WIDTH, TARGET_HEIGHT, 5);
+        for (int y = 0; y < TARGET_HEIGHT / 2; y++) {
+            for (int x = 0; x < TARGET_WIDTH; x++) {
+                targetProcessor.set(x, y, 0);
+                targetMask.set(x, y, 0);
+            }
+        }
+        return new ImageProcessorWithMasks(targetProcessor, targetMask, null);
+    }
+
+    private static void map(final PixelMapper pixelMapper) {
+        final AffineModel2D model = new AffineModel2D();
+        model.set(0.93, 0.12, -0.08, 1.07, 17.3, 9.1);
+        final RenderTransformMesh mesh = new RenderTransformMesh(model, 20, SOURCE_WIDTH, SOURCE_HEIGHT);
+        mesh.updateAffines();
+        new RenderTransformMeshMappingWithMasks(mesh).map(pixelMapper, 1);
+    }
+
+    private static void assertSamePixels(final String message,
+                                         final ImageProcessor expected,
+                                         final ImageProcessor actual) {
+        final Object expectedPixels = expected.getPixels();
+        final Object actualPixels = actual.getPixels();
+        if (expectedPixels instanceof byte[]) {
+            Assert.assertArrayEquals(message, (byte[]) expectedPixels, (byte[]) actualPixels);
+        } else if (expectedPixels instanceof short[]) {
+            Assert.assertArrayEquals(message, (short[]) expectedPixels, (short[]) actualPixels);
+        } else if (expectedPixels instanceof float[]) {
+            Assert.assertArrayEquals(message, (float[]) expectedPixels, (float[]) actualPixels, 0.0f);
+        } else {
+            Assert.assertArrayEquals(message, (int[]) expectedPixels, (int[]) actualPixels);
+        }
+    }
+
+}
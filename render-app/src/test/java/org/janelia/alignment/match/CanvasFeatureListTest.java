@@ -17,6 +17,7 @@
 package org.janelia.alignment.match;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -24,6 +25,7 @@ import java.util.List;
 
 import mpicbg.imagefeatures.Feature;
 
+import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.util.FileUtil;
 import org.junit.After;
 import org.junit.Assert;
@@ -82,6 +84,77 @@ public class CanvasFeatureListTest {
                             canvasId, storedCanvasFeatureList.getCanvasId());
         Assert.assertEquals("invalid number of stored features",
                             featureList.size(), storedCanvasFeatureList.getFeatureList().size());
+        Assert.assertEquals("invalid stored render scale",
+                            0.4, storedCanvasFeatureList.getRenderScale(), 0.0);
+
+        final Feature storedFeature = storedCanvasFeatureList.getFeatureList().get(0);
+        Assert.assertArrayEquals("invalid stored location",
+                                 featureList.get(0).location, storedFeature.location, 0.0);
+        Assert.assertArrayEquals("invalid stored descriptor",
+                                 featureList.get(0).descriptor, storedFeature.descriptor, 0.0f);
+    }
+
+    @Test
+    public void testQuantizedDescriptors() throws Exception {
+
+        final List<Feature> featureList = new ArrayList<>();
+        featureList.add(new Feature(1.5, 0.2, new double[] {10.0, 20.0}, new float[] {0.0f, 0.1f, 0.2f, 0.4f}));
+        featureList.add(new Feature(2.5, 0.3, new double[] {30.0, 40.0}, new float[] {0.4f, 0.3f, 0.05f, 0.0f}));
+
+        final CanvasId canvasId = new CanvasId("testGroup", "testId");
+        final CanvasFeatureList canvasFeatureList = new CanvasFeatureList(canvasId,
+                                                                          "http://foo.com/render-parameters",
+                                                                          0.4,
+                                                                          null,
+                                                                          null,
+                                                                          featureList);
+
+        CanvasFeatureList.writeToStorage(rootFeatureListDirectory,
+                                         canvasFeatureList,
+                                         CanvasFeatureListCodec.DescriptorEncoding.UINT8);
+
+        final CanvasFeatureList storedCanvasFeatureList =
+                CanvasFeatureList.readFromStorage(rootFeatureListDirectory, canvasId);
+
+        Assert.assertEquals("invalid number of stored features",
+                            featureList.size(), storedCanvasFeatureList.size());
+
+        for (int i = 0; i < featureList.size(); i++) {
+            final Feature feature = featureList.get(i);
+            final Feature storedFeature = storedCanvasFeatureList.getFeatureList().get(i);
+            Assert.assertEquals("invalid scale for feature " + i, feature.scale, storedFeature.scale, 0.0f);
+            Assert.assertArrayEquals("invalid location for feature " + i,
+                                     feature.location, storedFeature.location, 0.0);
+            Assert.assertArrayEquals("invalid descriptor for feature " + i,
+                                     feature.descriptor, storedFeature.descriptor, 0.4f / 255);
+        }
+    }
+
+    @Test
+    public void testReadLegacyJson() throws Exception {
+
+        final List<Feature> featureList = new ArrayList<>();
+        featureList.add(new Feature(0.1, 0.2, new double[] {0.3, 0.4}, new float[] {0.5f, 0.6f}));
+
+        final CanvasId canvasId = new CanvasId("testGroup", "legacyId");
+        final CanvasFeatureList canvasFeatureList = new CanvasFeatureList(canvasId,
+                                                                          "http://foo.com/render-parameters",
+                                                                          0.4,
+                                                                          null,
+                                                                          null,
+                                                                          featureList);
+
+        final Path jsonPath = CanvasFeatureList.getJsonStoragePath(rootFeatureListDirectory, canvasId);
+        FileUtil.ensureWritableDirectory(jsonPath.getParent().toFile());
+        FileUtil.saveJsonFile(jsonPath.toString(), canvasFeatureList, JsonUtils.FAST_MAPPER);
+
+        final CanvasFeatureList storedCanvasFeatureList =
+                CanvasFeatureList.readFromStorage(rootFeatureListDirectory, canvasId);
+
+        Assert.assertEquals("invalid stored canvasId",
+                            canvasId, storedCanvasFeatureList.getCanvasId());
+        Assert.assertEquals("invalid number of stored features",
+                            featureList.size(), storedCanvasFeatureList.size());
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureListTest.class);
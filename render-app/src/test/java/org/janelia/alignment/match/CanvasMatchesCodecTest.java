@@ -0,0 +1,104 @@
+package org.janelia.alignment.match;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CanvasMatchesCodec} class.
+ *
+ * @author Eric Trautman
+ */
+public class CanvasMatchesCodecTest {
+
+    @Test
+    public void testPackAndUnpack() {
+
+        final double[][] points = {
+                { 1.0, 2.5, -3.125, 1234567.891 },
+                { 0.1, 4000.0, 7.75, -0.5 }
+        };
+
+        final byte[] float64Bytes = CanvasMatchesCodec.pack(points, CanvasMatchesCodec.ValueEncoding.FLOAT64);
+        Assert.assertEquals("invalid number of float64 bytes", 2 * 4 * 8, float64Bytes.length);
+
+        final double[][] float64Points =
+                CanvasMatchesCodec.unpackPoints(float64Bytes, 2, CanvasMatchesCodec.ValueEncoding.FLOAT64);
+        for (int d = 0; d < points.length; d++) {
+            Assert.assertArrayEquals("float64 values for dimension " + d + " should be exact",
+                                     points[d], float64Points[d], 0.0);
+        }
+
+        final byte[] float32Bytes = CanvasMatchesCodec.pack(points, CanvasMatchesCodec.ValueEncoding.FLOAT32);
+        Assert.assertEquals("invalid number of float32 bytes", 2 * 4 * 4, float32Bytes.length);
+
+        final double[][] float32Points =
+                CanvasMatchesCodec.unpackPoints(float32Bytes, 2, CanvasMatchesCodec.ValueEncoding.FLOAT32);
+        for (int d = 0; d < points.length; d++) {
+            for (int i = 0; i < points[d].length; i++) {
+                Assert.assertEquals("invalid float32 value " + i + " for dimension " + d,
+                                    (float) points[d][i], float32Points[d][i], 0.0);
+            }
+        }
+
+        final double[] weights = { 1.0, 0.25, 0.0 };
+        final byte[] weightBytes = CanvasMatchesCodec.pack(weights, CanvasMatchesCodec.ValueEncoding.FLOAT32);
+        Assert.assertArrayEquals("invalid weights",
+                                 weights,
+                                 CanvasMatchesCodec.unpackValues(weightBytes, CanvasMatchesCodec.ValueEncoding.FLOAT32),
+                                 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpackInvalidLength() {
+        CanvasMatchesCodec.unpackPoints(new byte[20], 2, CanvasMatchesCodec.ValueEncoding.FLOAT64);
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+
+        final CanvasMatches withDetails =
+                new CanvasMatches("1.0", "tile-a", "2.0", "tile-b",
+                                  new Matches(new double[][] { { 1.0, 2.0 }, { 3.0, 4.0 } },
+                                              new double[][] { { 5.0, 6.0 }, { 7.0, 8.0 } },
+                                              new double[] { 1.0, 0.5 }));
+
+        final CanvasMatches withConsensusSet =
+                new CanvasMatches("1.0", "tile-a_set_1.0_2.0_1", "2.0", "tile-c_set_1.0_2.0_1",
+                                  new Matches(new double[][] { { 9.0 }, { 10.0 } },
+                                              new double[][] { { 11.0 }, { 12.0 } },
+                                              new double[] { 1.0 }));
+        withConsensusSet.setConsensusSetData(new ConsensusSetData(1, "tile-a", "tile-c"));
+
+        final CanvasMatches withoutDetails =
+                CanvasMatchesCodec.buildCanvasMatches("2.0", "tile-d", "2.0", "tile-e", null, null, 42);
+
+        final List<CanvasMatches> list = Arrays.asList(withDetails, withConsensusSet, withoutDetails);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CanvasMatchesCodec.writeList(list, outputStream);
+
+        final List<CanvasMatches> parsedList =
+                CanvasMatchesCodec.readList(new ByteArrayInputStream(outputStream.toByteArray()));
+
+        Assert.assertEquals("invalid number of parsed matches", list.size(), parsedList.size());
+        for (int i = 0; i < list.size(); i++) {
+            Assert.assertEquals("matches " + i + " differ after round trip",
+                                list.get(i).toJson(), parsedList.get(i).toJson());
+        }
+
+        Assert.assertEquals("match count not preserved for matches without details",
+                            Integer.valueOf(42), parsedList.get(2).getMatchCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadJsonStream() throws IOException {
+        CanvasMatchesCodec.readList(new ByteArrayInputStream("[{\"pGroupId\": \"1.0\"}]".getBytes()));
+    }
+
+}
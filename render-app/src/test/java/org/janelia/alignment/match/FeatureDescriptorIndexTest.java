@@ -0,0 +1,112 @@
+package org.janelia.alignment.match;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FeatureTransform;
+import mpicbg.models.PointMatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FeatureDescriptorIndex} class.
+ *
+ * @author Eric Trautman
+ */
+public class FeatureDescriptorIndexTest {
+
+    @Test
+    public void testExhaustiveSearchMatchesBruteForce() {
+
+        final Random random = new Random(7);
+        final List<Feature> indexedFeatures = buildRandomFeatures(random, 2000);
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(indexedFeatures, 4);
+
+        Assert.assertEquals("invalid number of trees", 4, index.getNumberOfTrees());
+        Assert.assertEquals("invalid size", indexedFeatures.size(), index.size());
+
+        final FeatureDescriptorIndex.Search search = index.newSearch();
+
+        for (final Feature queryFeature : buildRandomFeatures(random, 50)) {
+
+            int expectedNearestIndex = -1;
+            double expectedNearestDistance = Double.MAX_VALUE;
+            double expectedSecondNearestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < indexedFeatures.size(); i++) {
+                final double d = FeatureDescriptorIndex.squaredDistance(queryFeature.descriptor,
+                                                                        indexedFeatures.get(i).descriptor,
+                                                                        Double.MAX_VALUE);
+                if (d < expectedNearestDistance) {
+                    expectedSecondNearestDistance = expectedNearestDistance;
+                    expectedNearestDistance = d;
+                    expectedNearestIndex = i;
+                } else if (d < expectedSecondNearestDistance) {
+                    expectedSecondNearestDistance = d;
+                }
+            }
+
+            // checking every descriptor must produce exact results
+            search.findTwoNearestNeighbors(queryFeature.descriptor, indexedFeatures.size());
+
+            Assert.assertEquals("invalid nearest index", expectedNearestIndex, search.getNearestIndex());
+            Assert.assertEquals("invalid nearest distance",
+                                expectedNearestDistance, search.getNearestSquaredDistance(), 0.000001);
+            Assert.assertEquals("invalid second nearest distance",
+                                expectedSecondNearestDistance, search.getSecondNearestSquaredDistance(), 0.000001);
+        }
+    }
+
+    @Test
+    public void testIndexedMatchesAgreeWithExactMatches() {
+
+        final Random random = new Random(13);
+        final List<Feature> features1 = buildRandomFeatures(random, 500);
+
+        // second canvas contains slightly perturbed copies of the first canvas features plus unmatched noise
+        final List<Feature> features2 = new ArrayList<>();
+        for (final Feature feature1 : features1) {
+            final float[] descriptor = new float[feature1.descriptor.length];
+            for (int d = 0; d < descriptor.length; d++) {
+                descriptor[d] = feature1.descriptor[d] + (random.nextFloat() - 0.5f) * 0.01f;
+            }
+            features2.add(new Feature(feature1.scale, feature1.orientation,
+                                      new double[] { feature1.location[0] + 5, feature1.location[1] + 5 },
+                                      descriptor));
+        }
+        features2.addAll(buildRandomFeatures(random, 500));
+
+        final List<PointMatch> indexedMatches = new ArrayList<>();
+        CanvasFeatureMatcher.matchFeatures(features1,
+                                           features2,
+                                           new FeatureDescriptorIndex(features2, 4),
+                                           indexedMatches,
+                                           0.92,
+                                           features2.size());
+
+        final List<PointMatch> exactMatches = new ArrayList<>();
+        FeatureTransform.matchFeatures(features1, features2, exactMatches, 0.92);
+
+        Assert.assertEquals("exhaustive indexed search should find same number of matches as exact search",
+                            exactMatches.size(), indexedMatches.size());
+    }
+
+    private static List<Feature> buildRandomFeatures(final Random random,
+                                                     final int count) {
+        final List<Feature> features = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final float[] descriptor = new float[DESCRIPTOR_SIZE];
+            for (int d = 0; d < DESCRIPTOR_SIZE; d++) {
+                descriptor[d] = random.nextFloat();
+            }
+            features.add(new Feature(1.0, 0.0,
+                                     new double[] { random.nextDouble() * 1000, random.nextDouble() * 1000 },
+                                     descriptor));
+        }
+        return features;
+    }
+
+    private static final int DESCRIPTOR_SIZE = 32;
+}
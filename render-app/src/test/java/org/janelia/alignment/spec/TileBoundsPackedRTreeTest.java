@@ -0,0 +1,95 @@
+package org.janelia.alignment.spec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TileBoundsPackedRTree} class.
+ *
+ * @author Eric Trautman
+ */
+public class TileBoundsPackedRTreeTest {
+
+    @Test
+    public void testFindTilesInBox() {
+
+        final double z = 1.0;
+        final List<TileBounds> tileBoundsList = new ArrayList<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final double minX = random.nextInt(10000);
+            final double minY = random.nextInt(10000);
+            tileBoundsList.add(new TileBounds("tile-" + i, "1.0", z,
+                                              minX, minY, minX + 100 + random.nextInt(200), minY + 100));
+        }
+        tileBoundsList.add(new TileBounds("tile-without-bounds", "1.0", z, null, null, null, null));
+
+        for (final int nodeCapacity : new int[] {2, 4, TileBoundsPackedRTree.DEFAULT_NODE_CAPACITY}) {
+
+            final TileBoundsPackedRTree tree = new TileBoundsPackedRTree(z, tileBoundsList, nodeCapacity);
+
+            Assert.assertEquals("tiles without bounds should be excluded", 1000, tree.size());
+
+            for (int i = 0; i < 50; i++) {
+                final double minX = random.nextInt(10000);
+                final double minY = random.nextInt(10000);
+                final double maxX = minX + random.nextInt(2000);
+                final double maxY = minY + random.nextInt(2000);
+                Assert.assertEquals("invalid results for box " + i + " with node capacity " + nodeCapacity,
+                                    findTilesByScan(tileBoundsList, minX, minY, maxX, maxY),
+                                    getTileIds(tree.findTilesInBox(minX, minY, maxX, maxY)));
+            }
+        }
+    }
+
+    @Test
+    public void testFindTilesInBoxEdgeCases() {
+
+        final List<TileBounds> tileBoundsList = new ArrayList<>();
+        tileBoundsList.add(new TileBounds("tile-a", "1.0", 1.0, 0.0, 0.0, 10.0, 10.0));
+
+        TileBoundsPackedRTree tree = new TileBoundsPackedRTree(1.0, tileBoundsList);
+
+        Assert.assertEquals("touching box should intersect",
+                            1, tree.findTilesInBox(10.0, 10.0, 20.0, 20.0).size());
+        Assert.assertEquals("point inside tile should intersect",
+                            1, tree.findTilesInBox(5.0, 5.0, 5.0, 5.0).size());
+        Assert.assertEquals("distant box should not intersect",
+                            0, tree.findTilesInBox(10.1, 0.0, 20.0, 20.0).size());
+
+        tree = new TileBoundsPackedRTree(1.0, new ArrayList<>());
+        Assert.assertEquals("empty tree should not find anything",
+                            0, tree.findTilesInBox(0.0, 0.0, 20.0, 20.0).size());
+    }
+
+    private static Set<String> findTilesByScan(final List<TileBounds> tileBoundsList,
+                                               final double minX,
+                                               final double minY,
+                                               final double maxX,
+                                               final double maxY) {
+        final Set<String> tileIds = new TreeSet<>();
+        for (final TileBounds tileBounds : tileBoundsList) {
+            if ((tileBounds.getMinX() != null) &&
+                (tileBounds.getMinX() <= maxX) && (tileBounds.getMinY() <= maxY) &&
+                (tileBounds.getMaxX() >= minX) && (tileBounds.getMaxY() >= minY)) {
+                tileIds.add(tileBounds.getTileId());
+            }
+        }
+        return tileIds;
+    }
+
+    private static Set<String> getTileIds(final List<TileBounds> tileBoundsList) {
+        final Set<String> tileIds = new TreeSet<>();
+        for (final TileBounds tileBounds : tileBoundsList) {
+            tileIds.add(tileBounds.getTileId());
+        }
+        return tileIds;
+    }
+
+}
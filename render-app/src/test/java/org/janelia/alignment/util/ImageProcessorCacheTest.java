@@ -0,0 +1,62 @@
+package org.janelia.alignment.util;
+
+import ij.process.ImageProcessor;
+
+import java.io.File;
+
+import mpicbg.trakem2.util.Downsampler;
+
+import org.janelia.alignment.loader.ImageLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ImageProcessorCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class ImageProcessorCacheTest {
+
+    @Test
+    public void testProgressiveDownSampling() {
+
+        final String url = "file:" + new File("src/test/resources/warp-field-test/tile000.png").getAbsolutePath();
+        final ImageLoader.LoaderType loaderType = ImageLoader.LoaderType.IMAGEJ_DEFAULT;
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  false);
+
+        final ImageProcessor levelThree = cache.get(url, 3, false, false, loaderType, null);
+
+        Assert.assertEquals("intermediate levels 1 and 2 should be cached along with level 3",
+                            3, cache.size());
+
+        final ImageProcessor levelZero = ImageLoader.build(loaderType, null).load(url);
+        assertSamePixels("level 3 derived progressively differs from level 3 derived from level 0",
+                         Downsampler.downsampleImageProcessor(levelZero, 3), levelThree);
+
+        final ImageProcessor levelTwo = cache.get(url, 2, false, false, loaderType, null);
+        Assert.assertEquals("level 2 should have been retrieved from the cache",
+                            1, cache.getStats().hitCount());
+        assertSamePixels("cached level 2 differs from level 2 derived from level 0",
+                         Downsampler.downsampleImageProcessor(levelZero, 2), levelTwo);
+
+        final ImageProcessor levelFour = cache.get(url, 4, false, false, loaderType, null);
+        Assert.assertEquals("level 4 should have been derived from cached level 3 without any other loads",
+                            2, cache.getStats().loadCount());
+        assertSamePixels("level 4 derived from cached level 3 differs from level 4 derived from level 0",
+                         Downsampler.downsampleImageProcessor(levelZero, 4), levelFour);
+    }
+
+    private static void assertSamePixels(final String message,
+                                         final ImageProcessor expected,
+                                         final ImageProcessor actual) {
+        Assert.assertEquals(message + " (width)", expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(message + " (height)", expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getPixelCount(); i++) {
+            Assert.assertEquals(message + " (pixel " + i + ")", expected.get(i), actual.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.janelia.alignment.util;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+import org.janelia.alignment.loader.ImageLoader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link OffHeapImageProcessorStore} class.
+ *
+ * @author Eric Trautman
+ */
+public class OffHeapImageProcessorStoreTest {
+
+    private static final int SLAB_BYTES = 2 * OffHeapImageProcessorStore.MIN_SLOT_BYTES;
+
+    private OffHeapImageProcessorStore store;
+    private ImageLoader imageLoader;
+
+    @Before
+    public void setup() {
+        store = new OffHeapImageProcessorStore(3 * SLAB_BYTES, SLAB_BYTES, null);
+        imageLoader = ImageLoader.build(ImageLoader.LoaderType.IMAGEJ_DEFAULT, null);
+    }
+
+    @Test
+    public void testStoreAndPromote() {
+
+        final Random random = new Random(3);
+
+        final ByteProcessor byteProcessor = new ByteProcessor(100, 80);
+        random.nextBytes((byte[]) byteProcessor.getPixels());
+
+        final ShortProcessor shortProcessor = new ShortProcessor(90, 70);
+        final short[] shortPixels = (short[]) shortProcessor.getPixels();
+        for (int i = 0; i < shortPixels.length; i++) {
+            shortPixels[i] = (short) random.nextInt(65536);
+        }
+        shortProcessor.setMinAndMax(100, 40000);
+
+        final FloatProcessor floatProcessor = new FloatProcessor(60, 50);
+        final float[] floatPixels = (float[]) floatProcessor.getPixels();
+        for (int i = 0; i < floatPixels.length; i++) {
+            floatPixels[i] = random.nextFloat();
+        }
+
+        store.put(buildKey("byte"), byteProcessor);
+        store.put(buildKey("short"), shortProcessor);
+        store.put(buildKey("float"), floatProcessor);
+
+        Assert.assertEquals("invalid number of entries after put", 3, store.size());
+
+        final ImageProcessor restoredByteProcessor = store.remove(buildKey("byte"));
+        Assert.assertTrue("byte processor not restored", restoredByteProcessor instanceof ByteProcessor);
+        Assert.assertArrayEquals("byte pixels differ",
+                                 (byte[]) byteProcessor.getPixels(),
+                                 (byte[]) restoredByteProcessor.getPixels());
+
+        final ImageProcessor restoredShortProcessor = store.remove(buildKey("short"));
+        Assert.assertTrue("short processor not restored", restoredShortProcessor instanceof ShortProcessor);
+        Assert.assertArrayEquals("short pixels differ",
+                                 shortPixels,
+                                 (short[]) restoredShortProcessor.getPixels());
+        Assert.assertEquals("short max differs", 40000, restoredShortProcessor.getMax(), 0.0001);
+
+        final ImageProcessor restoredFloatProcessor = store.remove(buildKey("float"));
+        Assert.assertArrayEquals("float pixels differ",
+                                 floatPixels,
+                                 (float[]) restoredFloatProcessor.getPixels(),
+                                 0.0f);
+
+        Assert.assertNull("promoted processor should be removed from store", store.remove(buildKey("byte")));
+
+        final OffHeapImageProcessorStore.Stats stats = store.getStats();
+        Assert.assertEquals("invalid hit count", 3, stats.getHitCount());
+        Assert.assertEquals("invalid miss count", 1, stats.getMissCount());
+        Assert.assertEquals("invalid used bytes", 0, stats.getUsedBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+
+        // each 200x200 byte processor needs a 64KB slot, so every slab holds two of them
+        final int numberOfProcessors = 7;
+        for (int i = 0; i < numberOfProcessors; i++) {
+            store.put(buildKey("tile-" + i), new ByteProcessor(200, 200));
+        }
+
+        final OffHeapImageProcessorStore.Stats stats = store.getStats();
+        Assert.assertEquals("invalid number of entries", 6, stats.getEntryCount());
+        Assert.assertEquals("invalid eviction count", 1, stats.getEvictionCount());
+
+        Assert.assertNull("least recently used processor should have been evicted",
+                          store.remove(buildKey("tile-0")));
+        Assert.assertNotNull("most recently used processor should be stored",
+                             store.remove(buildKey("tile-6")));
+    }
+
+    @Test
+    public void testSlabReassignment() {
+
+        // fill every slab with 64KB slots
+        for (int i = 0; i < 6; i++) {
+            store.put(buildKey("tile-" + i), new ByteProcessor(200, 200));
+        }
+
+        // each 300x300 byte processor needs a 128KB slot (a full slab),
+        // so the least recently used slab (tile-0 and tile-1) must be reclaimed
+        store.put(buildKey("big-0"), new ByteProcessor(300, 300));
+
+        Assert.assertEquals("invalid eviction count after reclaim", 2, store.getStats().getEvictionCount());
+        Assert.assertNull("tile-0 should have been evicted", store.remove(buildKey("tile-0")));
+
+        // free both slots in the next slab so that it can be reassigned without eviction
+        Assert.assertNotNull("tile-2 should be stored", store.remove(buildKey("tile-2")));
+        Assert.assertNotNull("tile-3 should be stored", store.remove(buildKey("tile-3")));
+
+        store.put(buildKey("big-1"), new ByteProcessor(300, 300));
+
+        final OffHeapImageProcessorStore.Stats stats = store.getStats();
+        Assert.assertEquals("invalid rejection count", 0, stats.getRejectionCount());
+        Assert.assertEquals("unused slab should be reassigned without eviction", 2, stats.getEvictionCount());
+        Assert.assertNotNull("tile-4 should be stored", store.remove(buildKey("tile-4")));
+        Assert.assertNotNull("big-0 should be stored", store.remove(buildKey("big-0")));
+        Assert.assertNotNull("big-1 should be stored", store.remove(buildKey("big-1")));
+    }
+
+    @Test
+    public void testOversizedProcessorIsRejected() {
+        store.put(buildKey("big"), new ByteProcessor(1000, 1000));
+        Assert.assertEquals("oversized processor should not be stored", 0, store.size());
+        Assert.assertEquals("invalid rejection count", 1, store.getStats().getRejectionCount());
+    }
+
+    private ImageProcessorCache.CacheKey buildKey(final String url) {
+        return new ImageProcessorCache.CacheKey(url, 0, false, imageLoader);
+    }
+
+}
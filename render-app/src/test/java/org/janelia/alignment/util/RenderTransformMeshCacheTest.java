@@ -0,0 +1,117 @@
+package org.janelia.alignment.util;
+
+import com.google.common.cache.CacheStats;
+
+import java.util.Collections;
+import java.util.List;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+import mpicbg.trakem2.util.Pair;
+
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.mipmap.RenderedCanvasMipmapSource;
+import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.TileSpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderTransformMeshCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class RenderTransformMeshCacheTest {
+
+    @Test
+    public void testTranslatedCacheHit() {
+
+        final double levelZeroScale = 0.5;
+        final double levelScale = 0.25;
+
+        final RenderTransformMeshCache meshCache =
+                new RenderTransformMeshCache(RenderTransformMeshCache.DEFAULT_MAX_CACHED_KILOBYTES, true);
+        final RenderTransformMeshCache.Key key =
+                new RenderTransformMeshCache.Key("tile-a::123", 1, 1000, 800, 64, levelZeroScale, levelScale);
+
+        final RenderTransformMesh firstBoxMesh =
+                meshCache.get(key, 100 * levelScale, 200 * levelScale,
+                              () -> buildMesh(levelZeroScale, levelScale, 100, 200));
+
+        final double secondX = 1300;
+        final double secondY = -700;
+        final RenderTransformMesh secondBoxMesh =
+                meshCache.get(key, secondX * levelScale, secondY * levelScale,
+                              () -> { throw new IllegalStateException("mesh should have been cached"); });
+
+        final CacheStats stats = meshCache.getStats();
+        Assert.assertEquals("invalid number of misses", 1, stats.missCount());
+        Assert.assertEquals("invalid number of hits", 1, stats.hitCount());
+
+        Assert.assertNotSame("cached mesh should be copied", firstBoxMesh, secondBoxMesh);
+
+        final RenderTransformMesh expectedMesh = buildMesh(levelZeroScale, levelScale, secondX, secondY);
+
+        final List<Pair<AffineModel2D, double[][]>> expectedTriangles = expectedMesh.getAV();
+        final List<Pair<AffineModel2D, double[][]>> actualTriangles = secondBoxMesh.getAV();
+        Assert.assertEquals("invalid number of triangles", expectedTriangles.size(), actualTriangles.size());
+
+        final double[] expectedPoint = new double[2];
+        final double[] actualPoint = new double[2];
+        for (int i = 0; i < expectedTriangles.size(); i++) {
+            final double[][] expectedPq = expectedTriangles.get(i).b;
+            final double[][] actualPq = actualTriangles.get(i).b;
+            for (int row = 0; row < expectedPq.length; row++) {
+                Assert.assertArrayEquals("triangle " + i + " row " + row + " differs",
+                                         expectedPq[row], actualPq[row], 0.000001);
+            }
+
+            expectedPoint[0] = 17.0;
+            expectedPoint[1] = 23.0;
+            actualPoint[0] = expectedPoint[0];
+            actualPoint[1] = expectedPoint[1];
+            expectedTriangles.get(i).a.applyInPlace(expectedPoint);
+            actualTriangles.get(i).a.applyInPlace(actualPoint);
+            Assert.assertArrayEquals("triangle " + i + " affine differs", expectedPoint, actualPoint, 0.000001);
+        }
+    }
+
+    @Test
+    public void testBuildTileTransformId() {
+
+        final TileSpec tileSpec = new TileSpec();
+        tileSpec.setTileId("tile-a");
+        tileSpec.addTransformSpecs(Collections.singletonList(
+                new LeafTransformSpec(AffineModel2D.class.getName(), "1 0 0 1 0 0")));
+
+        Assert.assertEquals("namespace should be used instead of transforms hash",
+                            "stack-a@1234::tile-a",
+                            RenderTransformMeshCache.buildTileTransformId(tileSpec, "stack-a@1234"));
+
+        final String hashedId = RenderTransformMeshCache.buildTileTransformId(tileSpec);
+        Assert.assertEquals("missing namespace should hash transforms",
+                            hashedId, RenderTransformMeshCache.buildTileTransformId(tileSpec, null));
+        Assert.assertTrue("hashed id should start with tile id", hashedId.startsWith("tile-a::"));
+
+        tileSpec.addTransformSpecs(Collections.singletonList(
+                new LeafTransformSpec(AffineModel2D.class.getName(), "1 0 0 1 5 0")));
+        Assert.assertNotEquals("changed transforms should change hashed id",
+                               hashedId, RenderTransformMeshCache.buildTileTransformId(tileSpec));
+    }
+
+    private static RenderTransformMesh buildMesh(final double levelZeroScale,
+                                                 final double levelScale,
+                                                 final double x,
+                                                 final double y) {
+        final AffineModel2D tileTransform = new AffineModel2D();
+        tileTransform.set(0.98, 0.03, -0.02, 1.01, 2500.0, 1800.0);
+
+        final CoordinateTransformList<CoordinateTransform> renderTransformList = new CoordinateTransformList<>();
+        renderTransformList.add(tileTransform);
+        RenderedCanvasMipmapSource.addRenderScaleAndOffset(renderTransformList, levelZeroScale, levelScale, x, y);
+
+        return RenderedCanvasMipmapSource.createRenderMesh(1, renderTransformList, 2000, 64, 1000, 800);
+    }
+
+}
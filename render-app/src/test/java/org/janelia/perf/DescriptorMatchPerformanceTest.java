@@ -0,0 +1,233 @@
+package org.janelia.perf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FeatureTransform;
+import mpicbg.models.PointMatch;
+
+import org.janelia.alignment.match.CanvasFeatureList;
+import org.janelia.alignment.match.CanvasFeatureListCodec;
+import org.janelia.alignment.match.CanvasFeatureMatcher;
+import org.janelia.alignment.match.FeatureDescriptorIndex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares exact (brute force) descriptor matching with approximate matching backed by a
+ * {@link FeatureDescriptorIndex} for a range of max check values.
+ * Average match times and the recall of each approximate match set relative to the exact match set
+ * are printed to standard out.
+ *
+ * <p>
+ * Stored feature files (binary .features.bin or legacy .features.json.gz) can be compared by running
+ * main with pairs of file paths.  When no paths are specified, synthetic clustered descriptors are used.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class DescriptorMatchPerformanceTest {
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+    private int numberOfTrees;
+    private double rod;
+    private int[] maxChecksValues;
+
+    private List<FeaturePair> featurePairs;
+
+    public static void main(final String[] args) {
+        final DescriptorMatchPerformanceTest test = new DescriptorMatchPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            if (args.length > 1) {
+                test.featurePairs = new ArrayList<>();
+                for (int i = 1; i < args.length; i += 2) {
+                    test.featurePairs.add(new FeaturePair(args[i - 1], readFeatures(Paths.get(args[i - 1])),
+                                                          readFeatures(Paths.get(args[i]))));
+                }
+            }
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 3;
+        numberOfTrees = CanvasFeatureMatcher.DEFAULT_KD_FOREST_TREES;
+        rod = 0.92;
+        maxChecksValues = new int[] { 64, 128, 256, 512, 1024 };
+    }
+
+    @Test
+    public void runTests() {
+        if (enableTests) {
+
+            if (featurePairs == null) {
+                featurePairs = new ArrayList<>();
+                featurePairs.add(buildSyntheticPair(new Random(23), 8000));
+            }
+
+            System.out.println(String.format("%-40s  %9s  %9s  %9s  %8s  %7s  %10s",
+                                             "pair", "features1", "features2", "maxChecks",
+                                             "matches", "recall", "avgMatchMs"));
+            System.out.println(String.format("%-40s  %9s  %9s  %9s  %8s  %7s  %10s",
+                                             "----", "---------", "---------", "---------",
+                                             "-------", "------", "----------"));
+
+            for (final FeaturePair pair : featurePairs) {
+                compareMatches(pair);
+            }
+        }
+    }
+
+    private void compareMatches(final FeaturePair pair) {
+
+        long totalTime = 0;
+        List<PointMatch> exactMatches = null;
+        for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+            final long startTime = System.currentTimeMillis();
+            exactMatches = new ArrayList<>();
+            FeatureTransform.matchFeatures(pair.features1, pair.features2, exactMatches, rod);
+            totalTime += System.currentTimeMillis() - startTime;
+        }
+
+        final Set<String> exactKeys = getMatchKeys(exactMatches);
+        printResult(pair, "exact", exactMatches.size(), 1.0, totalTime / numberOfTimesToRepeatEachTest);
+
+        final long indexStartTime = System.currentTimeMillis();
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(pair.features2, numberOfTrees);
+        System.out.println("  built " + numberOfTrees + " tree index (" + index.getKilobytes() + "KB) in " +
+                           (System.currentTimeMillis() - indexStartTime) + "ms");
+
+        for (final int maxChecks : maxChecksValues) {
+            totalTime = 0;
+            List<PointMatch> indexedMatches = null;
+            for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+                final long startTime = System.currentTimeMillis();
+                indexedMatches = new ArrayList<>();
+                CanvasFeatureMatcher.matchFeatures(pair.features1, pair.features2, index,
+                                                   indexedMatches, rod, maxChecks);
+                totalTime += System.currentTimeMillis() - startTime;
+            }
+
+            int foundCount = 0;
+            for (final String key : getMatchKeys(indexedMatches)) {
+                if (exactKeys.contains(key)) {
+                    foundCount++;
+                }
+            }
+            final double recall = exactKeys.size() == 0 ? 1.0 : (double) foundCount / exactKeys.size();
+
+            printResult(pair, String.valueOf(maxChecks), indexedMatches.size(), recall,
+                        totalTime / numberOfTimesToRepeatEachTest);
+
+            Assert.assertTrue("indexed search should find matches when exact search does",
+                              (exactMatches.size() == 0) || (indexedMatches.size() > 0));
+        }
+    }
+
+    private void printResult(final FeaturePair pair,
+                             final String maxChecks,
+                             final int matchCount,
+                             final double recall,
+                             final long averageTime) {
+        System.out.println(String.format("%-40s  %9d  %9d  %9s  %8d  %7.3f  %10d",
+                                         pair.name, pair.features1.size(), pair.features2.size(), maxChecks,
+                                         matchCount, recall, averageTime));
+    }
+
+    private static Set<String> getMatchKeys(final List<PointMatch> matches) {
+        final Set<String> keys = new HashSet<>(matches.size() * 2);
+        for (final PointMatch match : matches) {
+            final double[] p1 = match.getP1().getL();
+            final double[] p2 = match.getP2().getL();
+            keys.add(p1[0] + "," + p1[1] + ":" + p2[0] + "," + p2[1]);
+        }
+        return keys;
+    }
+
+    private static List<Feature> readFeatures(final Path path)
+            throws IOException {
+        final CanvasFeatureList canvasFeatureList =
+                path.toString().endsWith(CanvasFeatureList.BINARY_STORAGE_SUFFIX) ?
+                CanvasFeatureListCodec.read(path) : CanvasFeatureList.readJson(path);
+        // copy features so that memory mapped lists are decoded before timing starts
+        return new ArrayList<>(canvasFeatureList.getFeatureList());
+    }
+
+    /**
+     * Builds SIFT-like descriptors clustered around a few hundred centers, with the second canvas
+     * containing perturbed copies of half of the first canvas features plus unrelated features.
+     */
+    private static FeaturePair buildSyntheticPair(final Random random,
+                                                  final int featureCount) {
+
+        final int numberOfCenters = 200;
+        final float[][] centers = new float[numberOfCenters][DESCRIPTOR_SIZE];
+        for (final float[] center : centers) {
+            for (int d = 0; d < DESCRIPTOR_SIZE; d++) {
+                center[d] = random.nextFloat() * 0.3f;
+            }
+        }
+
+        final List<Feature> features1 = new ArrayList<>(featureCount);
+        final List<Feature> features2 = new ArrayList<>(featureCount);
+        for (int i = 0; i < featureCount; i++) {
+            final Feature feature1 = buildClusteredFeature(random, centers, null, 0.05f);
+            features1.add(feature1);
+            if (i % 2 == 0) {
+                features2.add(buildClusteredFeature(random, centers, feature1, 0.01f));
+            } else {
+                features2.add(buildClusteredFeature(random, centers, null, 0.05f));
+            }
+        }
+
+        return new FeaturePair("synthetic", features1, features2);
+    }
+
+    private static Feature buildClusteredFeature(final Random random,
+                                                 final float[][] centers,
+                                                 final Feature source,
+                                                 final float noise) {
+        final float[] base = source == null ? centers[random.nextInt(centers.length)] : source.descriptor;
+        final float[] descriptor = new float[DESCRIPTOR_SIZE];
+        for (int d = 0; d < DESCRIPTOR_SIZE; d++) {
+            descriptor[d] = Math.max(0.0f, base[d] + (float) random.nextGaussian() * noise);
+        }
+        final double[] location = source == null ?
+                                  new double[] { random.nextDouble() * 2000, random.nextDouble() * 2000 } :
+                                  new double[] { source.location[0] + 100, source.location[1] + 50 };
+        return new Feature(1.0, 0.0, location, descriptor);
+    }
+
+    private static class FeaturePair {
+
+        private final String name;
+        private final List<Feature> features1;
+        private final List<Feature> features2;
+
+        FeaturePair(final String name,
+                    final List<Feature> features1,
+                    final List<Feature> features2) {
+            this.name = name.length() > 40 ? "..." + name.substring(name.length() - 37) : name;
+            this.features1 = features1;
+            this.features2 = features2;
+        }
+    }
+
+    // standard SIFT descriptor size (4 x 4 histograms with 8 bins)
+    private static final int DESCRIPTOR_SIZE = 128;
+}
@@ -0,0 +1,176 @@
+package org.janelia.perf;
+
+import ij.process.ByteProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.NoninvertibleModelException;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+import mpicbg.trakem2.util.Pair;
+
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
+import org.janelia.alignment.mapper.PixelMapper;
+import org.janelia.alignment.mapper.SingleChannelMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares pixel mapping times for the shared (pooled) row band mapping implemented by
+ * {@link RenderTransformMeshMappingWithMasks} with the original approach of creating
+ * dedicated triangle mapping threads for each mapped tile.
+ * Average times for each approach and thread count are printed to standard out.
+ *
+ * <p>
+ * Each test maps a "canvas" of synthetic 2K x 2K tiles to emulate a box request that renders many tiles.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class MappingPerformanceTest {
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+    private int numberOfTilesPerCanvas;
+
+    private ByteProcessor sourceProcessor;
+    private RenderTransformMesh mesh;
+
+    public static void main(final String[] args) {
+        final MappingPerformanceTest test = new MappingPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 5;
+        numberOfTilesPerCanvas = 20;
+
+        sourceProcessor = new ByteProcessor(2048, 2048);
+        new Random(1).nextBytes((byte[]) sourceProcessor.getPixels());
+
+        final AffineModel2D model = new AffineModel2D();
+        model.set(0.98, 0.02, -0.01, 1.01, 3.0, 5.0);
+        mesh = new RenderTransformMesh(model, 64, 2048, 2048);
+        mesh.updateAffines();
+    }
+
+    @Test
+    public void runTests() {
+        if (enableTests) {
+
+            final int availableProcessors = Runtime.getRuntime().availableProcessors();
+
+            System.out.println(String.format("%-9s  %7s  %11s", "approach", "threads", "avgCanvasMs"));
+            System.out.println(String.format("%-9s  %7s  %11s", "---------", "-------", "-----------"));
+
+            for (int threadCount = 1; threadCount <= availableProcessors; threadCount = threadCount * 2) {
+                // run each approach once to warm up JIT before measuring
+                mapCanvas(threadCount, false);
+                mapCanvas(threadCount, true);
+
+                long legacyTime = 0;
+                long pooledTime = 0;
+                for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+                    legacyTime += mapCanvas(threadCount, false);
+                    pooledTime += mapCanvas(threadCount, true);
+                }
+                System.out.println(String.format("%-9s  %7d  %11d",
+                                                 "perCall", threadCount, legacyTime / numberOfTimesToRepeatEachTest));
+                System.out.println(String.format("%-9s  %7d  %11d",
+                                                 "pooled", threadCount, pooledTime / numberOfTimesToRepeatEachTest));
+            }
+        }
+    }
+
+    private long mapCanvas(final int threadCount,
+                           final boolean usePool) {
+
+        final ByteProcessor targetProcessor = new ByteProcessor(2200, 2200);
+        final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
+
+        final long start = System.currentTimeMillis();
+
+        for (int tile = 0; tile < numberOfTilesPerCanvas; tile++) {
+            final PixelMapper pixelMapper =
+                    new SingleChannelMapper(new ImageProcessorWithMasks(sourceProcessor, null, null),
+                                            new ImageProcessorWithMasks(targetProcessor, null, null),
+                                            true);
+            if (usePool) {
+                mapping.map(pixelMapper, threadCount);
+            } else {
+                mapWithDedicatedThreads(pixelMapper, threadCount);
+            }
+        }
+
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Original mapping approach that creates (and joins) new triangle mapping threads for each call.
+     */
+    private void mapWithDedicatedThreads(final PixelMapper pixelMapper,
+                                         final int numThreads) {
+
+        final List<Pair<AffineModel2D, double[][]>> av = mesh.getAV();
+        final AtomicInteger nextTriangle = new AtomicInteger(0);
+        final List<Thread> threads = new ArrayList<>(numThreads);
+        for (int k = 0; k < numThreads; ++k) {
+            final Thread thread = new Thread(() -> {
+                for (int i = nextTriangle.getAndIncrement(); i < av.size(); i = nextTriangle.getAndIncrement()) {
+                    mapTriangle(av.get(i), pixelMapper);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void mapTriangle(final Pair<AffineModel2D, double[][]> ai,
+                                    final PixelMapper pixelMapper) {
+
+        final double[] min = new double[2];
+        final double[] max = new double[2];
+        RenderTransformMesh.calculateTargetBoundingBox(ai.b, min, max);
+
+        final int minX = Math.max(0, (int) (min[0] + 0.5));
+        final int minY = Math.max(0, (int) (min[1] + 0.5));
+        final int maxX = Math.min(pixelMapper.getTargetWidth() - 1, (int) (max[0] + 0.5));
+        final int maxY = Math.min(pixelMapper.getTargetHeight() - 1, (int) (max[1] + 0.5));
+
+        final double[] source = new double[2];
+        for (int targetY = minY; targetY <= maxY; ++targetY) {
+            for (int targetX = minX; targetX <= maxX; ++targetX) {
+                if (RenderTransformMesh.isInTargetTriangle(ai.b, targetX, targetY)) {
+                    source[0] = targetX;
+                    source[1] = targetY;
+                    try {
+                        ai.a.applyInverseInPlace(source);
+                    } catch (final NoninvertibleModelException e) {
+                        continue;
+                    }
+                    pixelMapper.mapInterpolated(source[0], source[1], targetX, targetY);
+                }
+            }
+        }
+    }
+
+}
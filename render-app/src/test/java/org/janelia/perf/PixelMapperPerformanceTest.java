@@ -0,0 +1,173 @@
+package org.janelia.perf;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
+import org.janelia.alignment.mapper.PixelMapper;
+import org.janelia.alignment.mapper.PixelMapperFactory;
+import org.janelia.alignment.mapper.SingleChannelMapper;
+import org.janelia.alignment.mapper.SingleChannelWithAlphaMapper;
+import org.janelia.alignment.mapper.SingleChannelWithBinaryMaskMapper;
+import org.janelia.alignment.mapper.SingleColorChannelWithAlphaMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares single threaded pixel mapping times for the generic (processor based) single channel mappers
+ * with the type specialized (array based) mappers selected by {@link PixelMapperFactory}
+ * for each supported pixel type and mask mode.
+ * Average times for each mapper pair are printed to standard out.
+ *
+ * <p>
+ * Each test interpolates a "canvas" of synthetic 2K x 2K tiles to emulate a box request that renders many tiles.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class PixelMapperPerformanceTest {
+
+    private enum MaskMode { NONE, ALPHA, BINARY }
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+    private int numberOfTilesPerCanvas;
+
+    private RenderTransformMesh mesh;
+
+    public static void main(final String[] args) {
+        final PixelMapperPerformanceTest test = new PixelMapperPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 5;
+        numberOfTilesPerCanvas = 10;
+
+        final AffineModel2D model = new AffineModel2D();
+        model.set(0.98, 0.02, -0.01, 1.01, 3.0, 5.0);
+        mesh = new RenderTransformMesh(model, 64, 2048, 2048);
+        mesh.updateAffines();
+    }
+
+    @Test
+    public void runTests() {
+        if (enableTests) {
+
+            final ImageProcessor[] types = {
+                    new ByteProcessor(1, 1),
+                    new ShortProcessor(1, 1),
+                    new FloatProcessor(1, 1),
+                    new ColorProcessor(1, 1)
+            };
+
+            System.out.println(String.format("%-14s  %-6s  %14s  %18s",
+                                             "type", "mask", "genericAvgMs", "specializedAvgMs"));
+            System.out.println(String.format("%-14s  %-6s  %14s  %18s",
+                                             "--------------", "------", "------------", "----------------"));
+
+            for (final ImageProcessor type : types) {
+
+                final ImageProcessor sourceProcessor = buildSourceProcessor(type);
+                final ByteProcessor sourceMask = new ByteProcessor(2048, 2048);
+                new Random(2).nextBytes((byte[]) sourceMask.getPixels());
+
+                for (final MaskMode maskMode : MaskMode.values()) {
+
+                    // run each approach once to warm up JIT before measuring
+                    mapCanvas(type, sourceProcessor, sourceMask, maskMode, false);
+                    mapCanvas(type, sourceProcessor, sourceMask, maskMode, true);
+
+                    long genericTime = 0;
+                    long specializedTime = 0;
+                    for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+                        genericTime += mapCanvas(type, sourceProcessor, sourceMask, maskMode, false);
+                        specializedTime += mapCanvas(type, sourceProcessor, sourceMask, maskMode, true);
+                    }
+
+                    System.out.println(String.format("%-14s  %-6s  %14d  %18d",
+                                                     type.getClass().getSimpleName(),
+                                                     maskMode,
+                                                     genericTime / numberOfTimesToRepeatEachTest,
+                                                     specializedTime / numberOfTimesToRepeatEachTest));
+                }
+            }
+        }
+    }
+
+    private long mapCanvas(final ImageProcessor type,
+                           final ImageProcessor sourceProcessor,
+                           final ByteProcessor sourceMask,
+                           final MaskMode maskMode,
+                           final boolean useSpecializedMapper) {
+
+        final boolean hasMask = maskMode != MaskMode.NONE;
+        final ImageProcessor targetProcessor = type.createProcessor(2200, 2200);
+        final ImageProcessorWithMasks target =
+                new ImageProcessorWithMasks(targetProcessor, hasMask ? new ByteProcessor(2200, 2200) : null, null);
+        final ImageProcessorWithMasks source =
+                new ImageProcessorWithMasks(sourceProcessor, hasMask ? sourceMask : null, null);
+
+        final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
+
+        final long start = System.currentTimeMillis();
+
+        for (int tile = 0; tile < numberOfTilesPerCanvas; tile++) {
+            final PixelMapper pixelMapper;
+            if (useSpecializedMapper) {
+                pixelMapper = PixelMapperFactory.getSingleChannelMapper(source,
+                                                                        target,
+                                                                        hasMask,
+                                                                        maskMode == MaskMode.BINARY,
+                                                                        true);
+            } else if (maskMode == MaskMode.BINARY) {
+                pixelMapper = new SingleChannelWithBinaryMaskMapper(source, target, true);
+            } else if (maskMode == MaskMode.ALPHA) {
+                if (targetProcessor instanceof ColorProcessor) {
+                    pixelMapper = new SingleColorChannelWithAlphaMapper(source, target, true);
+                } else {
+                    pixelMapper = new SingleChannelWithAlphaMapper(source, target, true);
+                }
+            } else {
+                pixelMapper = new SingleChannelMapper(source, target, true);
+            }
+            mapping.map(pixelMapper, 1);
+        }
+
+        return System.currentTimeMillis() - start;
+    }
+
+    private static ImageProcessor buildSourceProcessor(final ImageProcessor type) {
+        final ByteProcessor byteProcessor = new ByteProcessor(2048, 2048);
+        new Random(1).nextBytes((byte[]) byteProcessor.getPixels());
+        final ImageProcessor sourceProcessor;
+        if (type instanceof ShortProcessor) {
+            sourceProcessor = byteProcessor.convertToShortProcessor();
+        } else if (type instanceof FloatProcessor) {
+            sourceProcessor = byteProcessor.convertToFloatProcessor();
+        } else if (type instanceof ColorProcessor) {
+            sourceProcessor = byteProcessor.convertToColorProcessor();
+        } else {
+            sourceProcessor = byteProcessor;
+        }
+        return sourceProcessor;
+    }
+
+}
@@ -17,6 +17,7 @@ import mpicbg.imagefeatures.FloatArray2DSIFT;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.match.CanvasFeatureExtractor;
 import org.janelia.alignment.match.CanvasFeatureList;
+import org.janelia.alignment.match.CanvasFeatureListCodec.DescriptorEncoding;
 import org.janelia.alignment.match.CanvasId;
 import org.janelia.alignment.match.CanvasIdWithRenderContext;
 import org.janelia.alignment.match.CanvasRenderParametersUrlTemplate;
@@ -56,10 +57,16 @@ public class FeatureClient
 
         @Parameter(
                 names = "--rootFeatureDirectory",
-                description = "Root directory for saved feature lists (features saved to [root]/[canvas_group_id]/[canvas_id].features.json.gz)",
+                description = "Root directory for saved feature lists (features saved to [root]/[canvas_group_id]/[canvas_id].features.bin)",
                 required = true)
         public String rootFeatureDirectory;
 
+        @Parameter(
+                names = "--descriptorEncoding",
+                description = "Encoding for saved feature descriptors (UINT8 files are roughly 4x smaller)"
+        )
+        public DescriptorEncoding descriptorEncoding = DescriptorEncoding.FLOAT32;
+
         @Parameter(
                 names = "--pairJson",
                 description = "JSON file where tile pairs are stored (.json, .gz, or .zip)",
@@ -148,7 +155,8 @@ public class FeatureClient
                                         parameters.featureRender,
                                         parameters.featureRenderClip,
                                         parameters.featureExtraction,
-                                        new File(parameters.rootFeatureDirectory).getAbsoluteFile());
+                                        new File(parameters.rootFeatureDirectory).getAbsoluteFile(),
+                                        parameters.descriptorEncoding);
     }
 
     private static void generateFeatureListsForCanvases(final String renderParametersUrlTemplate,
@@ -156,7 +164,8 @@ public class FeatureClient
                                                         final FeatureRenderParameters featureRenderParameters,
                                                         final FeatureRenderClipParameters featureRenderClipParameters,
                                                         final FeatureExtractionParameters featureExtractionParameters,
-                                                        final File rootDirectory)
+                                                        final File rootDirectory,
+                                                        final DescriptorEncoding descriptorEncoding)
             throws IOException {
 
         final CanvasRenderParametersUrlTemplate urlTemplateForRun =
@@ -192,7 +201,7 @@ public class FeatureClient
                                           urlTemplateForRun.getClipHeight(),
                                           featureList);
 
-            CanvasFeatureList.writeToStorage(rootDirectory, canvasFeatureList);
+            CanvasFeatureList.writeToStorage(rootDirectory, canvasFeatureList, descriptorEncoding);
         }
 
         LOG.info("generateFeatureListsForCanvases: saved features for {} canvases", canvasIdList.size());
@@ -0,0 +1,123 @@
+package org.janelia.render.client;
+
+import com.beust.jcommander.Parameter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.janelia.alignment.match.CanvasFeatureList;
+import org.janelia.alignment.match.CanvasFeatureListCodec;
+import org.janelia.alignment.match.CanvasFeatureListCodec.DescriptorEncoding;
+import org.janelia.render.client.parameter.CommandLineParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java client for converting feature lists previously saved as gzipped JSON
+ * ([root]/[canvas_group_id]/[canvas_id].features.json.gz) to the current binary storage format
+ * ([root]/[canvas_group_id]/[canvas_id].features.bin).
+ *
+ * @author Eric Trautman
+ */
+public class FeatureStorageConversionClient {
+
+    public static class Parameters extends CommandLineParameters {
+
+        @Parameter(
+                names = "--rootFeatureDirectory",
+                description = "Root directory for saved feature lists",
+                required = true)
+        public String rootFeatureDirectory;
+
+        @Parameter(
+                names = "--descriptorEncoding",
+                description = "Encoding for converted feature descriptors (UINT8 files are roughly 4x smaller)"
+        )
+        public DescriptorEncoding descriptorEncoding = DescriptorEncoding.FLOAT32;
+
+        @Parameter(
+                names = "--deleteJson",
+                description = "Delete each JSON file after it has been successfully converted",
+                arity = 0)
+        public boolean deleteJson = false;
+    }
+
+    public static void main(final String[] args) {
+
+        final ClientRunner clientRunner = new ClientRunner(args) {
+            @Override
+            public void runClient(final String[] args) throws Exception {
+
+                final Parameters parameters = new Parameters();
+                parameters.parse(args);
+
+                LOG.info("runClient: entry, parameters={}", parameters);
+
+                final FeatureStorageConversionClient client = new FeatureStorageConversionClient(parameters);
+                client.convertAll();
+
+            }
+        };
+        clientRunner.run();
+
+    }
+
+    private final Parameters parameters;
+
+    FeatureStorageConversionClient(final Parameters parameters) {
+        this.parameters = parameters;
+    }
+
+    void convertAll() throws IOException {
+
+        final Path rootPath = Paths.get(parameters.rootFeatureDirectory).toAbsolutePath();
+
+        final List<Path> jsonPaths;
+        try (final Stream<Path> pathStream = Files.walk(rootPath)) {
+            jsonPaths = pathStream
+                    .filter(path -> path.getFileName().toString().endsWith(CanvasFeatureList.JSON_STORAGE_SUFFIX))
+                    .collect(Collectors.toList());
+        }
+
+        LOG.info("convertAll: found {} JSON feature files in {}", jsonPaths.size(), rootPath);
+
+        for (final Path jsonPath : jsonPaths) {
+            convert(jsonPath, parameters.descriptorEncoding, parameters.deleteJson);
+        }
+
+        LOG.info("convertAll: converted {} JSON feature files", jsonPaths.size());
+    }
+
+    /**
+     * Converts the specified JSON feature file to a binary file in the same directory.
+     *
+     * @return path of the binary file.
+     */
+    static Path convert(final Path jsonPath,
+                        final DescriptorEncoding descriptorEncoding,
+                        final boolean deleteJson)
+            throws IOException {
+
+        final String jsonName = jsonPath.getFileName().toString();
+        final String binaryName =
+                jsonName.substring(0, jsonName.length() - CanvasFeatureList.JSON_STORAGE_SUFFIX.length()) +
+                CanvasFeatureList.BINARY_STORAGE_SUFFIX;
+        final Path binaryPath = jsonPath.resolveSibling(binaryName);
+
+        final CanvasFeatureList canvasFeatureList = CanvasFeatureList.readJson(jsonPath);
+        CanvasFeatureListCodec.write(binaryPath, canvasFeatureList, descriptorEncoding);
+
+        if (deleteJson) {
+            Files.delete(jsonPath);
+        }
+
+        return binaryPath;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(FeatureStorageConversionClient.class);
+}
@@ -2,6 +2,7 @@ package org.janelia.render.client;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.fasterxml.jackson.databind.MappingIterator;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -9,8 +10,12 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpec;
@@ -50,6 +55,25 @@ public class ImportJsonClient {
                 required = false)
         public String transformFile;
 
+        @Parameter(
+                names = "--streamTiles",
+                description = "Stream tile specs to the server in batches as they are read " +
+                              "instead of loading each tile file into memory",
+                arity = 0)
+        public boolean streamTiles = false;
+
+        @Parameter(
+                names = "--streamBatchSize",
+                description = "Number of tile specs to derive and save in each batch when streaming " +
+                              "(larger values are limited to the server maximum)")
+        public Integer streamBatchSize = 1000;
+
+        @Parameter(
+                names = "--streamWriteThreads",
+                description = "Number of batches the server should save concurrently when streaming " +
+                              "(omit to use server default, larger values are limited to the server maximum)")
+        public Integer streamWriteThreads;
+
         @Parameter(
                 description = "list of tile spec files (.json, .gz, or .zip)",
                 required = true)
@@ -98,47 +122,125 @@ public class ImportJsonClient {
 
         LOG.info("importStackData: entry, tileFile={}", tileFile);
 
-        final List<TileSpec> tileSpecs = loadTileData(tileFile);
+        if (parameters.streamTiles) {
 
-        if (tileSpecs.size() > 0) {
+            streamStackData(tileFile);
 
-            final ProcessTimer timer = new ProcessTimer();
-            int tileSpecCount = 0;
+        } else {
 
-            final ResolvedTileSpecCollection resolvedTiles =
-                    new ResolvedTileSpecCollection(transformSpecs,
-                                                   tileSpecs);
+            final List<TileSpec> tileSpecs = loadTileData(tileFile);
 
-            for (final TileSpec tileSpec : resolvedTiles.getTileSpecs()) {
+            if (tileSpecs.size() > 0) {
 
-                tileSpecCount++;
+                final ResolvedTileSpecCollection resolvedTiles =
+                        new ResolvedTileSpecCollection(transformSpecs,
+                                                       tileSpecs);
 
-                tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+                deriveBoundingBoxesAndRemoveInvalidTiles(resolvedTiles);
 
-                if (timer.hasIntervalPassed()) {
-                    LOG.info("importStackData: derived bounding box for {} out of {} tiles",
-                             tileSpecCount, tileSpecs.size());
-                }
+                renderDataClient.saveResolvedTiles(resolvedTiles, parameters.stack, null);
+            }
 
-                // TODO: generate mipmaps?
+        }
 
-            }
+        LOG.info("importStackData: exit, saved tiles and transforms from {}", tileFile);
+    }
+
+    /**
+     * Reads, derives, and saves tile specs in batches so that memory use stays constant for large tile files.
+     */
+    private void streamStackData(final String tileFile)
+            throws IOException {
+
+        final Path path = FileSystems.getDefault().getPath(tileFile).toAbsolutePath();
+
+        LOG.info("streamStackData: entry, path={}", path);
+
+        try (final Reader reader = FileUtil.DEFAULT_INSTANCE.getExtensionBasedReader(path.toString());
+             final MappingIterator<TileSpec> tileSpecIterator =
+                     JsonUtils.FAST_MAPPER.readerFor(TileSpec.class).readValues(reader)) {
+
+            renderDataClient.saveResolvedTilesStream(parameters.stack,
+                                                     transformSpecs,
+                                                     new DerivedTileSpecIterator(tileSpecIterator),
+                                                     parameters.streamBatchSize,
+                                                     parameters.streamWriteThreads);
+        }
+    }
 
-            if ((tileSpecValidator != null) && (tileSpecCount > 0)) {
+    private void deriveBoundingBoxesAndRemoveInvalidTiles(final ResolvedTileSpecCollection resolvedTiles) {
 
-                // filter out invalid specs based upon bounding box
-                resolvedTiles.setTileSpecValidator(tileSpecValidator);
-                resolvedTiles.removeInvalidTileSpecs();
+        final ProcessTimer timer = new ProcessTimer();
+        final int totalTileSpecCount = resolvedTiles.getTileCount();
+        int tileSpecCount = 0;
 
+        for (final TileSpec tileSpec : resolvedTiles.getTileSpecs()) {
+
+            tileSpecCount++;
+
+            tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+
+            if (timer.hasIntervalPassed()) {
+                LOG.info("deriveBoundingBoxesAndRemoveInvalidTiles: derived bounding box for {} out of {} tiles",
+                         tileSpecCount, totalTileSpecCount);
             }
 
-            LOG.info("importStackData: derived bounding box for {} tiles, elapsedSeconds={}",
-                      tileSpecCount, timer.getElapsedSeconds());
+            // TODO: generate mipmaps?
 
-            renderDataClient.saveResolvedTiles(resolvedTiles, parameters.stack, null);
         }
 
-        LOG.info("importStackData: exit, saved tiles and transforms from {}", tileFile);
+        if ((tileSpecValidator != null) && (tileSpecCount > 0)) {
+
+            // filter out invalid specs based upon bounding box
+            resolvedTiles.setTileSpecValidator(tileSpecValidator);
+            resolvedTiles.removeInvalidTileSpecs();
+
+        }
+
+        LOG.info("deriveBoundingBoxesAndRemoveInvalidTiles: derived bounding box for {} tiles, elapsedSeconds={}",
+                 tileSpecCount, timer.getElapsedSeconds());
+    }
+
+    /**
+     * Pulls tile specs from a source iterator one batch at a time,
+     * resolving, deriving, and validating each batch before its specs are returned.
+     */
+    private class DerivedTileSpecIterator
+            implements Iterator<TileSpec> {
+
+        private final Iterator<TileSpec> sourceIterator;
+        private Iterator<TileSpec> batchIterator;
+
+        DerivedTileSpecIterator(final Iterator<TileSpec> sourceIterator) {
+            this.sourceIterator = sourceIterator;
+            this.batchIterator = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((! batchIterator.hasNext()) && sourceIterator.hasNext()) {
+                loadNextBatch();
+            }
+            return batchIterator.hasNext();
+        }
+
+        @Override
+        public TileSpec next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batchIterator.next();
+        }
+
+        private void loadNextBatch() {
+            final List<TileSpec> batch = new ArrayList<>(parameters.streamBatchSize);
+            while (sourceIterator.hasNext() && (batch.size() < parameters.streamBatchSize)) {
+                batch.add(sourceIterator.next());
+            }
+            final ResolvedTileSpecCollection resolvedTiles = new ResolvedTileSpecCollection(transformSpecs, batch);
+            deriveBoundingBoxesAndRemoveInvalidTiles(resolvedTiles);
+            batchIterator = new ArrayList<>(resolvedTiles.getTileSpecs()).iterator();
+        }
     }
 
     public static List<TransformSpec> loadTransformData(final String transformFile)
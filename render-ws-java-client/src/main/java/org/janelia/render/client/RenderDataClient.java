@@ -3,6 +3,7 @@ package org.janelia.render.client;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -10,17 +11,21 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -35,6 +40,8 @@ import org.janelia.alignment.spec.SectionData;
 import org.janelia.alignment.spec.TileBounds;
 import org.janelia.alignment.spec.TileCoordinates;
 import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TileSpecImportSummary;
+import org.janelia.alignment.spec.TransformSpec;
 import org.janelia.alignment.spec.stack.HierarchicalStack;
 import org.janelia.alignment.spec.stack.MipmapPathBuilder;
 import org.janelia.alignment.spec.stack.StackId;
@@ -44,6 +51,8 @@ import org.janelia.alignment.transform.ConsensusWarpFieldBuilder;
 import org.janelia.alignment.util.RenderWebServiceUrls;
 import org.janelia.alignment.util.ZFilter;
 import org.janelia.render.client.request.WaitingRetryHandler;
+import org.janelia.render.client.response.CanvasMatchesResponseHandler;
+import org.janelia.render.client.response.CanvasMatchesStreamResponseHandler;
 import org.janelia.render.client.response.EmptyResponseHandler;
 import org.janelia.render.client.response.JsonResponseHandler;
 import org.janelia.render.client.response.ResourceCreatedResponseHandler;
@@ -1071,6 +1080,79 @@ public class RenderDataClient {
         httpClient.execute(httpPut, responseHandler);
     }
 
+    /**
+     * Streams the specified shared transform specs and tile specs to the server as newline-delimited JSON.
+     * Tile specs are pulled from the iterator as the request is written, so callers can lazily load them
+     * and avoid holding an entire stack's worth of specs in memory.
+     *
+     * @param  stack                 name of stack.
+     * @param  transformSpecs        shared transform specs referenced by the tile specs.
+     * @param  tileSpecs             iterator for tile specs (each must have a derived bounding box).
+     * @param  batchSize             number of tile specs the server should save in each batch (null for default).
+     * @param  numberOfWriteThreads  number of batches the server should save concurrently (null for default).
+     *
+     * @return summary of the server import.
+     *
+     * @throws IOException
+     *   if the request fails for any reason.
+     */
+    public TileSpecImportSummary saveResolvedTilesStream(final String stack,
+                                                         final Collection<TransformSpec> transformSpecs,
+                                                         final Iterator<TileSpec> tileSpecs,
+                                                         final Integer batchSize,
+                                                         final Integer numberOfWriteThreads)
+            throws IOException {
+
+        final URIBuilder uriBuilder = new URIBuilder(getUri(urls.getStackUrlString(stack) + "/resolvedTilesStream"));
+        addParameterIfDefined("batchSize", batchSize, uriBuilder);
+        addParameterIfDefined("writeThreads", numberOfWriteThreads, uriBuilder);
+
+        final URI uri = getUri(uriBuilder);
+        final String requestContext = "PUT " + uri;
+        final JsonUtils.Helper<TileSpecImportSummary> helper = new JsonUtils.Helper<>(TileSpecImportSummary.class);
+        final JsonResponseHandler<TileSpecImportSummary> responseHandler =
+                new JsonResponseHandler<>(requestContext, helper);
+
+        final EntityTemplate entity = new EntityTemplate(outputStream -> {
+            for (final TransformSpec transformSpec : transformSpecs) {
+                writeJsonLine(transformSpec, outputStream);
+            }
+            try {
+                while (tileSpecs.hasNext()) {
+                    writeJsonLine(tileSpecs.next(), outputStream);
+                }
+            } catch (final RuntimeException e) {
+                // Jackson's MappingIterator wraps parse and read failures in unchecked exceptions
+                // (e.g. RuntimeJsonMappingException), so surface the underlying IOException when there is one
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+            outputStream.flush();
+        });
+        entity.setContentType(NDJSON_MIME_TYPE);
+        entity.setChunked(true);
+
+        final HttpPut httpPut = new HttpPut(uri);
+        httpPut.setEntity(entity);
+
+        LOG.info("saveResolvedTilesStream: submitting {} with {} transforms", requestContext, transformSpecs.size());
+
+        final TileSpecImportSummary summary = httpClient.execute(httpPut, responseHandler);
+
+        LOG.info("saveResolvedTilesStream: server import summary is {}", summary);
+
+        return summary;
+    }
+
+    private static void writeJsonLine(final Object spec,
+                                      final OutputStream outputStream)
+            throws IOException {
+        outputStream.write(JsonUtils.FAST_MAPPER.writeValueAsBytes(spec));
+        outputStream.write('\n');
+    }
+
     /**
      * Updates the z value for the specified stack section.
      *
@@ -1207,10 +1289,9 @@ public class RenderDataClient {
                                                urls.getMatchCollectionUrlString(), pGroupId, pId, qGroupId, qId);
         final URI uri = getUri(urlString);
         final HttpGet httpGet = new HttpGet(uri);
+        httpGet.setHeader(HttpHeaders.ACCEPT, CanvasMatchesResponseHandler.ACCEPT_HEADER_VALUE);
         final String requestContext = "GET " + uri;
-        final TypeReference<List<CanvasMatches>> typeReference = new TypeReference<List<CanvasMatches>>() {};
-        final JsonUtils.GenericHelper<List<CanvasMatches>> helper = new JsonUtils.GenericHelper<>(typeReference);
-        final JsonResponseHandler<List<CanvasMatches>> responseHandler = new JsonResponseHandler<>(requestContext, helper);
+        final CanvasMatchesResponseHandler responseHandler = new CanvasMatchesResponseHandler(requestContext);
 
         LOG.info("getMatchesBetweenTiles: submitting {}", requestContext);
 
@@ -1244,6 +1325,54 @@ public class RenderDataClient {
                           excludeMatchDetails);
     }
 
+    /**
+     * Retrieves all matches for the specified pGroupIds in one streamed request,
+     * passing the matches for each pGroup to the specified consumer as soon as they have been read.
+     *
+     * @param  pGroupIds                pGroupIds (usually section ids) to retrieve.
+     * @param  excludeMatchDetails      if true, only retrieve pair identifiers and exclude detailed match points.
+     * @param  numberOfDecodingThreads  number of threads to use for decoding binary match records.
+     * @param  pGroupMatchesConsumer    consumer for the list of matches in each pGroup
+     *                                  (called once per pGroup that has matches, in pGroupId order).
+     *
+     * @return total number of matches consumed.
+     *
+     * @throws IOException
+     *   if the request fails for any reason.
+     */
+    public long consumeMatchesWithPGroupIds(final List<String> pGroupIds,
+                                            final boolean excludeMatchDetails,
+                                            final int numberOfDecodingThreads,
+                                            final Consumer<List<CanvasMatches>> pGroupMatchesConsumer)
+            throws IOException {
+
+        final URI uri;
+        try {
+            final URIBuilder builder = new URIBuilder(urls.getMatchesWithPGroupIdsUrlString());
+            if (excludeMatchDetails) {
+                builder.addParameter("excludeMatchDetails", String.valueOf(excludeMatchDetails));
+            }
+            uri = builder.build();
+        } catch (final URISyntaxException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        final String json = JsonUtils.FAST_MAPPER.writeValueAsString(pGroupIds);
+        final StringEntity stringEntity = new StringEntity(json, ContentType.APPLICATION_JSON);
+        final String requestContext = "POST " + uri;
+        final CanvasMatchesStreamResponseHandler responseHandler =
+                new CanvasMatchesStreamResponseHandler(requestContext, numberOfDecodingThreads, pGroupMatchesConsumer);
+
+        final HttpPost httpPost = new HttpPost(uri);
+        httpPost.setHeader(HttpHeaders.ACCEPT, CanvasMatchesStreamResponseHandler.ACCEPT_HEADER_VALUE);
+        httpPost.setEntity(stringEntity);
+
+        LOG.info("consumeMatchesWithPGroupIds: submitting {} for {} pGroupIds",
+                 requestContext, pGroupIds.size());
+
+        return httpClient.execute(httpPost, responseHandler);
+    }
+
     /**
      * @param  groupId      groupId (usually the section id).
      *
@@ -1587,12 +1716,11 @@ public class RenderDataClient {
             throw new IOException(e.getMessage(), e);
         }
 
+        // request compact binary matches (servers that don't support them will return JSON)
         final HttpGet httpGet = new HttpGet(uri);
+        httpGet.setHeader(HttpHeaders.ACCEPT, CanvasMatchesResponseHandler.ACCEPT_HEADER_VALUE);
         final String requestContext = "GET " + uri;
-        final TypeReference<List<CanvasMatches>> typeReference = new TypeReference<List<CanvasMatches>>() {};
-        final JsonUtils.GenericHelper<List<CanvasMatches>> helper = new JsonUtils.GenericHelper<>(typeReference);
-        final JsonResponseHandler<List<CanvasMatches>> responseHandler = new JsonResponseHandler<>(requestContext,
-                                                                                                   helper);
+        final CanvasMatchesResponseHandler responseHandler = new CanvasMatchesResponseHandler(requestContext);
 
         LOG.info(context + ": submitting {}", requestContext);
 
@@ -1600,4 +1728,6 @@ public class RenderDataClient {
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderDataClient.class);
+
+    private static final String NDJSON_MIME_TYPE = "application/x-ndjson";
 }
@@ -12,6 +12,15 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussianPeak;
@@ -92,6 +101,16 @@ public class SIFTPointMatchClient
                 description = "Maximum number of gigabytes of peaks to cache")
         public Integer maxPeakCacheGb = 2;
 
+        @Parameter(
+                names = "--numberOfThreads",
+                description = "Number of pairs to process concurrently (concurrent pairs share the feature and peak caches)")
+        public int numberOfThreads = 1;
+
+        @Parameter(
+                names = "--storeBatchSize",
+                description = "Number of pairs with matches to accumulate before storing them")
+        public int storeBatchSize = 1000;
+
         @Parameter(
                 names = "--failedPairsDir",
                 description = "Write failed pairs (ones that did not have matches) to a JSON file in this directory",
@@ -272,24 +291,22 @@ public class SIFTPointMatchClient
             peakExtractor = null;
         }
 
-        final List<CanvasMatches> matchList = new ArrayList<>();
+        final CanvasRenderParametersUrlTemplate gdUrlTemplate = gdUrlTemplateForRun;
+        final Function<OrderedCanvasIdPair, List<CanvasMatches>> pairMatcher = pair -> {
+
+            final List<CanvasMatches> matchList = new ArrayList<>();
 
-        CanvasId p;
-        CanvasId q;
-        CachedCanvasFeatures pFeatures;
-        CachedCanvasFeatures qFeatures;
-        CanvasMatchResult matchResult;
-        for (final OrderedCanvasIdPair pair : renderableCanvasIdPairs.getNeighborPairs()) {
-            p = pair.getP();
-            q = pair.getQ();
+            final CanvasId p = pair.getP();
+            final CanvasId q = pair.getQ();
 
             LOG.info("generateMatchesForPairs: derive matches between {} and {}", p, q);
 
-            pFeatures = featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(p, siftUrlTemplateForRun));
-            qFeatures = featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(q, siftUrlTemplateForRun));
+            final CachedCanvasFeatures pFeatures =
+                    featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(p, siftUrlTemplateForRun));
+            final CachedCanvasFeatures qFeatures =
+                    featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(q, siftUrlTemplateForRun));
 
-            matchResult = featureMatcher.deriveMatchResult(pFeatures.getFeatureList(),
-                                                           qFeatures.getFeatureList());
+            final CanvasMatchResult matchResult = featureMatcher.deriveMatchResult(pFeatures, qFeatures);
 
             final double[] pClipOffsets = pFeatures.getClipOffsets();
             final double[] qClipOffsets = qFeatures.getClipOffsets();
@@ -321,15 +338,15 @@ public class SIFTPointMatchClient
                                                            pClipOffsets,
                                                            qClipOffsets,
                                                            matchList);
-                        pairCounts.siftSaved++;
+                        pairCounts.siftSaved.incrementAndGet();
                     } else {
                         LOG.info("generateMatchesForPairs: dropping SIFT matches because coverage is insufficient");
-                        pairCounts.siftPoorCoverage++;
+                        pairCounts.siftPoorCoverage.incrementAndGet();
                     }
 
                 } else {
                     LOG.info("generateMatchesForPairs: no SIFT matches to save");
-                    pairCounts.siftPoorQuantity++;
+                    pairCounts.siftPoorQuantity.incrementAndGet();
                 }
 
             } else {
@@ -345,26 +362,140 @@ public class SIFTPointMatchClient
                                                   p,
                                                   q,
                                                   matchResult,
-                                                  gdUrlTemplateForRun);
+                                                  gdUrlTemplate);
             }
-        }
+
+            return matchList;
+        };
+
+        // while a pair is being matched, features for the pairs a few positions ahead of it are extracted
+        // so that they are (hopefully) cached by the time a worker gets to those pairs
+        final Consumer<OrderedCanvasIdPair> pairPrefetcher = pair -> {
+            featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(pair.getP(), siftUrlTemplateForRun));
+            featureDataCache.getCanvasFeatures(CanvasIdWithRenderContext.build(pair.getQ(), siftUrlTemplateForRun));
+        };
+
+        final List<CanvasMatches> nonEmptyMatchesList =
+                processPairs(renderableCanvasIdPairs.getNeighborPairs(), pairMatcher, pairPrefetcher);
 
         final int pairCount = renderableCanvasIdPairs.size();
 
-        LOG.info("generateMatchesForPairs: derived matches for {} out of {} pairs", matchList.size(), pairCount);
+        LOG.info("generateMatchesForPairs: saved matches for {} out of {} pairs", nonEmptyMatchesList.size(), pairCount);
         LOG.info("generateMatchesForPairs: source cache stats are {}", sourceImageProcessorCache.getStats());
         LOG.info("generateMatchesForPairs: feature cache stats are {}", featureDataCache.stats());
         if (peakDataCache != null) {
             LOG.info("generateMatchesForPairs: peak cache stats are {}", peakDataCache.stats());
         }
 
-        final List<CanvasMatches> nonEmptyMatchesList = storeMatches(matchList);
-        this.pairCounts.totalSaved += nonEmptyMatchesList.size();
-        this.pairCounts.totalProcessed += pairCount;
+        this.pairCounts.totalProcessed.addAndGet(pairCount);
 
         return nonEmptyMatchesList;
     }
 
+    /**
+     * Matches the specified pairs using {@link Parameters#numberOfThreads} concurrent workers,
+     * storing non-empty matches in batches of {@link Parameters#storeBatchSize} pairs as they are derived.
+     *
+     * @return list of all stored (non-empty) matches.
+     */
+    private List<CanvasMatches> processPairs(final List<OrderedCanvasIdPair> pairs,
+                                             final Function<OrderedCanvasIdPair, List<CanvasMatches>> pairMatcher,
+                                             final Consumer<OrderedCanvasIdPair> pairPrefetcher)
+            throws IOException {
+
+        final int numberOfWorkers = Math.max(1, Math.min(parameters.numberOfThreads, pairs.size()));
+        final List<CanvasMatches> storedMatchesList = new ArrayList<>();
+        final List<CanvasMatches> unstoredMatchesList = new ArrayList<>();
+        final AtomicInteger nextPairIndex = new AtomicInteger(0);
+
+        final ExecutorService workerService = Executors.newFixedThreadPool(numberOfWorkers);
+        final ExecutorService prefetchService = numberOfWorkers > 1 ? Executors.newSingleThreadExecutor() : null;
+
+        final Callable<Void> worker = () -> {
+            for (int i = nextPairIndex.getAndIncrement(); i < pairs.size(); i = nextPairIndex.getAndIncrement()) {
+
+                final int prefetchIndex = i + numberOfWorkers;
+                if ((prefetchService != null) && (prefetchIndex < pairs.size())) {
+                    final OrderedCanvasIdPair prefetchPair = pairs.get(prefetchIndex);
+                    prefetchService.submit(() -> prefetch(pairPrefetcher, prefetchPair));
+                }
+
+                final List<CanvasMatches> pairMatchesList = pairMatcher.apply(pairs.get(i));
+
+                List<CanvasMatches> batchToStore = null;
+                synchronized (unstoredMatchesList) {
+                    unstoredMatchesList.addAll(pairMatchesList);
+                    if ((unstoredMatchesList.size() > 0) &&
+                        (unstoredMatchesList.size() >= parameters.storeBatchSize)) {
+                        batchToStore = new ArrayList<>(unstoredMatchesList);
+                        unstoredMatchesList.clear();
+                    }
+                }
+
+                if (batchToStore != null) {
+                    storeMatchesBatch(batchToStore, storedMatchesList);
+                }
+            }
+            return null;
+        };
+
+        try {
+
+            final List<Future<Void>> workerFutures = new ArrayList<>(numberOfWorkers);
+            for (int i = 0; i < numberOfWorkers; i++) {
+                workerFutures.add(workerService.submit(worker));
+            }
+
+            for (final Future<Void> workerFuture : workerFutures) {
+                workerFuture.get();
+            }
+
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException("interrupted while matching pairs", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("failed to match pairs", cause);
+        } finally {
+            workerService.shutdownNow();
+            if (prefetchService != null) {
+                prefetchService.shutdownNow();
+            }
+        }
+
+        storeMatchesBatch(unstoredMatchesList, storedMatchesList);
+
+        return storedMatchesList;
+    }
+
+    private static void prefetch(final Consumer<OrderedCanvasIdPair> pairPrefetcher,
+                                 final OrderedCanvasIdPair pair) {
+        try {
+            pairPrefetcher.accept(pair);
+        } catch (final Throwable t) {
+            // failures will be reported (or retried) when a worker processes the pair
+            LOG.warn("prefetch: failed to prefetch data for pair " + pair, t);
+        }
+    }
+
+    private void storeMatchesBatch(final List<CanvasMatches> matchesList,
+                                   final List<CanvasMatches> storedMatchesList)
+            throws IOException {
+
+        // serialize storage requests so that batches are not sent to the match service concurrently
+        synchronized (storedMatchesList) {
+            final List<CanvasMatches> nonEmptyMatchesList = storeMatches(matchesList);
+            storedMatchesList.addAll(nonEmptyMatchesList);
+            pairCounts.totalSaved.addAndGet(nonEmptyMatchesList.size());
+            LOG.info("storeMatchesBatch: stored matches for {} pairs, {} pairs stored so far",
+                     nonEmptyMatchesList.size(), storedMatchesList.size());
+        }
+    }
+
     private void appendGeometricMatchesIfNecessary(final CachedCanvasFeatures pCanvasFeatures,
                                                    final CachedCanvasFeatures qCanvasFeatures,
                                                    final double siftFullScaleOverlapBlockRadius,
@@ -397,7 +528,7 @@ public class SIFTPointMatchClient
 
                     LOG.info("appendGeometricMatchesIfNecessary: saving {} SIFT matches and skipping Geometric process",
                              siftMatchResult.getTotalNumberOfInliers());
-                    pairCounts.siftSaved++;
+                    pairCounts.siftSaved.incrementAndGet();
 
                     siftMatchResult.addInlierMatchesToList(p.getGroupId(),
                                                            p.getId(),
@@ -444,7 +575,7 @@ public class SIFTPointMatchClient
             } else {
                 LOG.info("appendGeometricMatchesIfNecessary: dropping SIFT matches and skipping Geometric process because only {} matches were found",
                          siftMatchResult.getTotalNumberOfInliers());
-                pairCounts.siftPoorQuantity++;
+                pairCounts.siftPoorQuantity.incrementAndGet();
             }
 
 
@@ -491,8 +622,9 @@ public class SIFTPointMatchClient
         final CachedCanvasPeaks qCanvasPeaks =
                 peakDataCache.getCanvasPeaks(CanvasIdWithRenderContext.build(q, gdUrlTemplateForRun));
 
-        final List<DifferenceOfGaussianPeak<FloatType>> pCanvasPeakList = pCanvasPeaks.getPeakList();
-        final List<DifferenceOfGaussianPeak<FloatType>> qCanvasPeakList = qCanvasPeaks.getPeakList();
+        // copy cached peak lists before filtering them since the cached lists are shared by all pairs
+        final List<DifferenceOfGaussianPeak<FloatType>> pCanvasPeakList = new ArrayList<>(pCanvasPeaks.getPeakList());
+        final List<DifferenceOfGaussianPeak<FloatType>> qCanvasPeakList = new ArrayList<>(qCanvasPeaks.getPeakList());
 
         final List<PointMatch> siftScaledInliers = siftMatchResult.getInlierPointMatchList();
 
@@ -611,33 +743,33 @@ public class SIFTPointMatchClient
 
                         LOG.info("findGeometricDescriptorMatches: saving {} combined matches",
                                  consistentCombinedSiftScaleInliers.size());
-                        pairCounts.combinedSaved++;
+                        pairCounts.combinedSaved.incrementAndGet();
                         matchList.add(combinedCanvasMatches);
 
                     } else {
                         LOG.info("findGeometricDescriptorMatches: dropping all matches because combined coverage is insufficient");
-                        pairCounts.combinedPoorCoverage++;
+                        pairCounts.combinedPoorCoverage.incrementAndGet();
                     }
 
 
                 } else {
                     LOG.info("findGeometricDescriptorMatches: dropping all matches because only {} combined matches were found",
                              combinedSiftScaleInliers.size());
-                    pairCounts.combinedPoorQuantity++;
+                    pairCounts.combinedPoorQuantity.incrementAndGet();
                 }
 
 
             } else {
                 LOG.info("findGeometricDescriptorMatches: dropping SIFT matches because no GD matches were found");
-                pairCounts.combinedPoorQuantity++;
+                pairCounts.combinedPoorQuantity.incrementAndGet();
             }
 
         } else if (combinedCanvasMatches == null) {
             LOG.info("findGeometricDescriptorMatches: no SIFT or GD matches were found, nothing to do");
-            pairCounts.combinedPoorQuantity++;
+            pairCounts.combinedPoorQuantity.incrementAndGet();
         } else {
             LOG.info("findGeometricDescriptorMatches: saving {} combined matches", combinedCanvasMatches.size());
-            pairCounts.combinedSaved++;
+            pairCounts.combinedSaved.incrementAndGet();
             matchList.add(combinedCanvasMatches);
         }
 
@@ -655,7 +787,7 @@ public class SIFTPointMatchClient
     }
 
     private void logStats() {
-        final int percentSaved = (int) ((pairCounts.totalSaved / (double) pairCounts.totalProcessed) * 100);
+        final int percentSaved = (int) ((pairCounts.totalSaved.get() / (double) pairCounts.totalProcessed.get()) * 100);
         LOG.info("logStats: saved matches for {} out of {} pairs ({}%), siftPoorCoverage: {}, siftPoorQuantity: {}, siftSaved: {}, combinedPoorCoverage: {}, combinedPoorQuantity: {}, combinedSaved: {}, ",
                  pairCounts.totalSaved,
                  pairCounts.totalProcessed,
@@ -680,14 +812,17 @@ public class SIFTPointMatchClient
         return new Point(reScaledLocal);
     }
 
+    /**
+     * Pair outcome counts that can be safely updated by concurrent pair workers.
+     */
     private static class MatchPairCounts {
-        private long siftPoorCoverage = 0;
-        private long siftPoorQuantity = 0;
-        private long siftSaved = 0;
-        private long combinedPoorCoverage = 0;
-        private long combinedPoorQuantity = 0;
-        private long combinedSaved = 0;
-        private long totalProcessed = 0;
-        private long totalSaved = 0;
+        private final AtomicLong siftPoorCoverage = new AtomicLong(0);
+        private final AtomicLong siftPoorQuantity = new AtomicLong(0);
+        private final AtomicLong siftSaved = new AtomicLong(0);
+        private final AtomicLong combinedPoorCoverage = new AtomicLong(0);
+        private final AtomicLong combinedPoorQuantity = new AtomicLong(0);
+        private final AtomicLong combinedSaved = new AtomicLong(0);
+        private final AtomicLong totalProcessed = new AtomicLong(0);
+        private final AtomicLong totalSaved = new AtomicLong(0);
     }
 }
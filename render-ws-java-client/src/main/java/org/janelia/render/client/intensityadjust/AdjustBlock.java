@@ -514,6 +514,17 @@ public class AdjustBlock {
 			final Interval interval,
 			final boolean cacheOnDisk,
 			final int z) throws IOException, InterruptedException, ExecutionException
+	{
+		return renderIntensityAdjustedSliceGlobalPerSlice(stack, renderDataClient, interval, cacheOnDisk, z, 1);
+	}
+
+	public static RandomAccessibleInterval<UnsignedByteType> renderIntensityAdjustedSliceGlobalPerSlice(
+			final String stack,
+			final RenderDataClient renderDataClient,
+			final Interval interval,
+			final boolean cacheOnDisk,
+			final int z,
+			final int numThreads) throws IOException, InterruptedException, ExecutionException
 	{
 		final boolean isSec26 = renderDataClient.getUrls().getStackUrlString( "" ).contains( "Sec26" );
 		LOG.debug("renderIntensityAdjustedSliceGauss: isSec26=" + isSec26 );
@@ -536,7 +547,8 @@ public class AdjustBlock {
 				lambda2,
 				neighborWeight,
 				iterations,
-				cacheOnDisk );
+				cacheOnDisk,
+				numThreads );
 
 		for ( int i = 0; i < data.size(); ++i )
 			adjustments.put( i, new double[] { 0,1,0 } );
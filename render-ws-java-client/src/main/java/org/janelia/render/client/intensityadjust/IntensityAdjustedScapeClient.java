@@ -83,7 +83,8 @@ public class IntensityAdjustedScapeClient
                                          parameters.correctionMethod,
                                          slicePathFormatSpec,
                                          parameters.format,
-                                         z.intValue());
+                                         z.intValue(),
+                                         parameters.numberOfThreads);
         }
 
         LOG.info("run: exit, rendered {} layers", zValues.size());
@@ -95,7 +96,8 @@ public class IntensityAdjustedScapeClient
                                                     final CorrectionMethod correctionMethod,
                                                     final String slicePathFormatSpec,
                                                     final String format,
-                                                    final int integralZ)
+                                                    final int integralZ,
+                                                    final int numberOfThreads)
             throws Exception {
 
         LOG.info("renderIntensityAdjustedScape: entry, integralZ={}", integralZ);
@@ -117,7 +119,8 @@ public class IntensityAdjustedScapeClient
                                                                                dataClient,
                                                                                interval,
                                                                                false,
-                                                                               integralZ);
+                                                                               integralZ,
+                                                                               numberOfThreads);
                 break;
             default:
                 slice = AdjustBlock.renderIntensityAdjustedSlice(stack,
@@ -2,10 +2,12 @@ package org.janelia.render.client.intensityadjust.intensity;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,8 +44,6 @@ import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.imageplus.FloatImagePlus;
 import net.imglib2.img.imageplus.ImagePlusImgs;
-import net.imglib2.img.list.ListImg;
-import net.imglib2.img.list.ListRandomAccess;
 import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
@@ -52,11 +52,10 @@ import net.imglib2.util.ValuePair;
 
 public class IntensityMatcher
 {
-	final private class Matcher implements Runnable
+	final private class Matcher implements Callable< ArrayList< ArrayList< PointMatch > > >
 	{
 		//final private Rectangle roi;
 		final private ValuePair< Pair<AffineModel2D,MinimalTileSpec>, Pair<AffineModel2D,MinimalTileSpec> > patchPair;
-		final private HashMap< Pair<AffineModel2D,MinimalTileSpec>, ArrayList< Tile< ? > > > coefficientsTiles;
 		final private PointMatchFilter filter;
 		final private double scale;
 		final private int numCoefficients;
@@ -65,7 +64,6 @@ public class IntensityMatcher
 
 		public Matcher(
 				final ValuePair< Pair<AffineModel2D,MinimalTileSpec>, Pair<AffineModel2D,MinimalTileSpec> > patchPair,
-				final HashMap< Pair<AffineModel2D,MinimalTileSpec>, ArrayList< Tile< ? > > > coefficientsTiles,
 				final PointMatchFilter filter,
 				final double scale,
 				final int numCoefficients,
@@ -74,7 +72,6 @@ public class IntensityMatcher
 		{
 			//this.roi = roi;
 			this.patchPair = patchPair;
-			this.coefficientsTiles = coefficientsTiles;
 			this.filter = filter;
 			this.scale = scale;
 			this.numCoefficients = numCoefficients;
@@ -82,8 +79,13 @@ public class IntensityMatcher
 			this.cacheOnDisk = cacheOnDisk;
 		}
 
+		/**
+		 * Renders the intersection of the patch pair and returns the filtered matches
+		 * for each pair of coefficient tiles (see {@link IntensityMatcher#filterOverlapMatches}).
+		 * Tiles are not connected here so that matching can run concurrently.
+		 */
 		@Override
-		public void run()
+		public ArrayList< ArrayList< PointMatch > > call()
 		{
 			final Pair<AffineModel2D,MinimalTileSpec> p1 = patchPair.getA();
 			final Pair<AffineModel2D,MinimalTileSpec> p2 = patchPair.getB();
@@ -91,9 +93,6 @@ public class IntensityMatcher
 			final Interval i1 = Intervals.smallestContainingInterval( getBoundingBox( p1.getB(), p1.getA() ) );
 			final Rectangle box1 = new Rectangle( (int)i1.min( 0 ), (int)i1.min( 1 ), (int)i1.dimension( 0 ), (int)i1.dimension( 1 ));// p1.getBoundingBox().intersection( roi );
 
-			/* get the coefficient tiles */
-			final ArrayList< Tile< ? > > p1CoefficientsTiles = coefficientsTiles.get( p1 );
-
 			/* render intersection */
 			final Interval i2 = Intervals.smallestContainingInterval( getBoundingBox( p2.getB(), p2.getA() ) );
 			final Rectangle box2 = new Rectangle( (int)i2.min( 0 ), (int)i2.min( 1 ), (int)i2.dimension( 0 ), (int)i2.dimension( 1 ));//p2.getBoundingBox();
@@ -101,7 +100,6 @@ public class IntensityMatcher
 
 			final int w = ( int ) ( box.width * scale + 0.5 );
 			final int h = ( int ) ( box.height * scale + 0.5 );
-			final int n = w * h;
 
 			final FloatProcessor pixels1 = new FloatProcessor( w, h );
 			final FloatProcessor weights1 = new FloatProcessor( w, h );
@@ -119,82 +117,118 @@ public class IntensityMatcher
 			//new ImagePlus( "weights2", weights2 ).show();
 			//SimpleMultiThreading.threadHaltUnClean();
 
-			/*
-			 * generate a matrix of all coefficients in p1 to all
-			 * coefficients in p2 to store matches
-			 */
-			final ArrayList< ArrayList< PointMatch > > list = new ArrayList< ArrayList< PointMatch > >();
-			for ( int i = 0; i < numCoefficients * numCoefficients * numCoefficients * numCoefficients; ++i )
-				list.add( new ArrayList< PointMatch >() );
-			final ListImg< ArrayList< PointMatch > > matrix = new ListImg< ArrayList< PointMatch > >( list, numCoefficients * numCoefficients, numCoefficients * numCoefficients );
-			final ListRandomAccess< ArrayList< PointMatch > > ra = matrix.randomAccess();
-
-			/*
-			 * iterate over all pixels and feed matches into the match
-			 * matrix
-			 */
-			for ( int i = 0; i < n; ++i )
+			return filterOverlapMatches(
+					( float[] )pixels1.getPixels(),
+					( float[] )weights1.getPixels(),
+					( int[] )coefficients1.getPixels(),
+					( float[] )pixels2.getPixels(),
+					( float[] )weights2.getPixels(),
+					( int[] )coefficients2.getPixels(),
+					numCoefficients * numCoefficients,
+					filter );
+		}
+	}
+
+	/**
+	 * Samples the rendered intersection of two patches and filters the samples
+	 * for each pair of coefficient tiles.
+	 *
+	 * Samples are gathered into primitive arrays that are ordered by coefficient pair,
+	 * so {@link PointMatch} objects are only created for one coefficient pair at a time
+	 * while it is being filtered.
+	 *
+	 * @param pixels1 intersection pixels of the first patch
+	 * @param weights1 intersection weights of the first patch
+	 * @param coefficients1 intersection coefficient tile labels of the first patch (first label is 1, 0 is none)
+	 * @param pixels2 intersection pixels of the second patch
+	 * @param weights2 intersection weights of the second patch
+	 * @param coefficients2 intersection coefficient tile labels of the second patch
+	 * @param numCoefficientTiles number of coefficient tiles per patch
+	 * @param filter filter for the samples of each coefficient pair (must not be shared across threads)
+	 *
+	 * @return filtered matches for each coefficient pair at index c1 + c2 * numCoefficientTiles
+	 *         (null for pairs without any remaining matches)
+	 */
+	public static ArrayList< ArrayList< PointMatch > > filterOverlapMatches(
+			final float[] pixels1,
+			final float[] weights1,
+			final int[] coefficients1,
+			final float[] pixels2,
+			final float[] weights2,
+			final int[] coefficients2,
+			final int numCoefficientTiles,
+			final PointMatchFilter filter )
+	{
+		final int n = pixels1.length;
+		final int numCells = numCoefficientTiles * numCoefficientTiles;
+
+		/*
+		 * find the coefficient pair (cell) of each usable sample and count
+		 * the samples in each cell
+		 */
+		final int[] sampleCells = new int[ n ];
+		final int[] cellStarts = new int[ numCells + 1 ];
+		for ( int i = 0; i < n; ++i )
+		{
+			sampleCells[ i ] = -1;
+			final int c1 = coefficients1[ i ];
+			if ( c1 > 0 )
 			{
-				final int c1 = coefficients1.get( i );
-				if ( c1 > 0 )
+				final int c2 = coefficients2[ i ];
+				if ( c2 > 0 && weights1[ i ] > 0 && weights2[ i ] > 0 )
 				{
-					final int c2 = coefficients2.get( i );
-					if ( c2 > 0 )
-					{
-						final double w1 = weights1.getf( i );
-						if ( w1 > 0 )
-						{
-							final double w2 = weights2.getf( i );
-							if ( w2 > 0 )
-							{
-								final double p = pixels1.getf( i );
-								final double q = pixels2.getf( i );
-								final PointMatch pq = new PointMatch( new Point( new double[] { p } ), new Point( new double[] { q } ), w1 * w2 );
-
-								/* first label is 1 */
-								ra.setPosition( c1 - 1, 0 );
-								ra.setPosition( c2 - 1, 1 );
-								ra.get().add( pq );
-							}
-						}
-					}
+					/* first label is 1 */
+					final int cell = ( c1 - 1 ) + ( c2 - 1 ) * numCoefficientTiles;
+					sampleCells[ i ] = cell;
+					++cellStarts[ cell + 1 ];
 				}
 			}
+		}
+
+		for ( int cell = 0; cell < numCells; ++cell )
+			cellStarts[ cell + 1 ] += cellStarts[ cell ];
 
-			/* filter matches */
-			final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
-			for ( final ArrayList< PointMatch > candidates : matrix )
+		/* copy samples into contiguous ranges for each cell, keeping pixel order within each cell */
+		final int numSamples = cellStarts[ numCells ];
+		final double[] ps = new double[ numSamples ];
+		final double[] qs = new double[ numSamples ];
+		final double[] ws = new double[ numSamples ];
+		final int[] nextSample = Arrays.copyOf( cellStarts, numCells );
+		for ( int i = 0; i < n; ++i )
+		{
+			final int cell = sampleCells[ i ];
+			if ( cell >= 0 )
 			{
-				inliers.clear();
-				filter.filter( candidates, inliers );
-				candidates.clear();
-				candidates.addAll( inliers );
+				final int k = nextSample[ cell ]++;
+				ps[ k ] = pixels1[ i ];
+				qs[ k ] = pixels2[ i ];
+				ws[ k ] = ( double )weights1[ i ] * weights2[ i ];
 			}
+		}
 
-			/* get the coefficient tiles of p2 */
-			final ArrayList< Tile< ? > > p2CoefficientsTiles = coefficientsTiles.get( p2 );
-
-			/* connect tiles across patches */
-			for ( int i = 0; i < numCoefficients * numCoefficients; ++i )
+		/* filter matches */
+		final ArrayList< ArrayList< PointMatch > > filteredMatches = new ArrayList<>( numCells );
+		final ArrayList< PointMatch > candidates = new ArrayList<>();
+		for ( int cell = 0; cell < numCells; ++cell )
+		{
+			ArrayList< PointMatch > inliers = null;
+			final int start = cellStarts[ cell ];
+			final int stop = cellStarts[ cell + 1 ];
+			if ( stop > start )
 			{
-				final Tile< ? > t1 = p1CoefficientsTiles.get( i );
-				ra.setPosition( i, 0 );
-				for ( int j = 0; j < numCoefficients * numCoefficients; ++j )
-				{
-					ra.setPosition( j, 1 );
-					final ArrayList< PointMatch > matches = ra.get();
-					if ( matches.size() > 0 )
-					{
-						final Tile< ? > t2 = p2CoefficientsTiles.get( j );
-						//synchronized ( MatchIntensities.this )
-						{
-							t1.connect( t2, ra.get() );
-							System.out.println( "Connected patch " + p1.getB().getImageCol() + ", coefficient " + i + "  +  patch " + p2.getB().getImageCol() + ", coefficient " + j + " by " + matches.size() + " samples." );
-						}
-					}
-				}
+				candidates.clear();
+				for ( int k = start; k < stop; ++k )
+					candidates.add( new PointMatch( new Point( new double[] { ps[ k ] } ), new Point( new double[] { qs[ k ] } ), ws[ k ] ) );
+
+				inliers = new ArrayList<>();
+				filter.filter( candidates, inliers );
+				if ( inliers.isEmpty() )
+					inliers = null;
 			}
+			filteredMatches.add( inliers );
 		}
+
+		return filteredMatches;
 	}
 
 	public < M extends Model< M > & Affine1D< M > > List<Pair<ByteProcessor, FloatProcessor>> match(
@@ -207,7 +241,30 @@ public class IntensityMatcher
 			final int iterations,
 			final boolean cacheOnDisk ) throws InterruptedException, ExecutionException
 	{
-		final PointMatchFilter filter = new RansacRegressionReduceFilter();
+		return match( patches, scale, numCoefficients, lambda1, lambda2, neighborWeight, iterations, cacheOnDisk, 1 );
+	}
+
+	/**
+	 * Matches intensities of all overlapping patch pairs, optimizes the coefficient tiles of all patches,
+	 * and returns the intensity corrected patches (in the same order as the input patches).
+	 *
+	 * Patch pairs are matched and patches are corrected concurrently using numThreads threads.
+	 * Tiles are connected on the calling thread in patch pair order, so results do not depend on
+	 * the order in which concurrent matches complete.
+	 */
+	public < M extends Model< M > & Affine1D< M > > List<Pair<ByteProcessor, FloatProcessor>> match(
+			final List<Pair<AffineModel2D,MinimalTileSpec>> patches,
+			final double scale,
+			final int numCoefficients,
+			final double lambda1,
+			final double lambda2,
+			final double neighborWeight,
+			final int iterations,
+			final boolean cacheOnDisk,
+			final int numThreads ) throws InterruptedException, ExecutionException
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "numThreads must be positive" );
 
 		/* generate coefficient tiles for all patches
 		 * TODO consider offering alternative models */
@@ -257,29 +314,92 @@ public class IntensityMatcher
 			}
 		}
 
-		final int numThreads = 1;
 		final int meshResolution = 64; //?
 
+		final ExecutorService exec = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			return match( patches, coefficientsTiles, completedPatches, patchPairs, scale, numCoefficients, neighborWeight, iterations, cacheOnDisk, numThreads, meshResolution, exec );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	private < M extends Model< M > & Affine1D< M > > List<Pair<ByteProcessor, FloatProcessor>> match(
+			final List<Pair<AffineModel2D,MinimalTileSpec>> patches,
+			final HashMap< Pair<AffineModel2D,MinimalTileSpec>, ArrayList< Tile< ? extends M > > > coefficientsTiles,
+			final HashSet< Pair<AffineModel2D,MinimalTileSpec> > completedPatches,
+			final ArrayList< ValuePair< Pair<AffineModel2D,MinimalTileSpec>, Pair<AffineModel2D,MinimalTileSpec> > > patchPairs,
+			final double scale,
+			final int numCoefficients,
+			final double neighborWeight,
+			final int iterations,
+			final boolean cacheOnDisk,
+			final int numThreads,
+			final int meshResolution,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		if ( cacheOnDisk && numThreads > 1 )
+		{
+			/* write each patch's disk cache once so that concurrent matchers never read partially written files */
+			System.out.println( "Caching patch images using " + numThreads + " threads ... " );
+
+			final ArrayList< Future< ? > > cacheFutures = new ArrayList<>();
+			for ( final Pair<AffineModel2D,MinimalTileSpec> p : patches )
+				cacheFutures.add( exec.submit( () -> VisualizeTools.getImage( p.getB(), 1.0, true ) ) );
+
+			for ( final Future< ? > future : cacheFutures )
+				future.get();
+		}
+
 		System.out.println( "Matching intensities using " + numThreads + " threads ... " );
 
-		final ExecutorService exec = Executors.newFixedThreadPool( numThreads );
-		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		/* each matcher gets its own filter since filters are not thread safe */
+		final ArrayList< Future< ArrayList< ArrayList< PointMatch > > > > futures = new ArrayList<>();
 		for ( final ValuePair< Pair<AffineModel2D,MinimalTileSpec>, Pair<AffineModel2D,MinimalTileSpec> > patchPair : patchPairs )
 		{
 			futures.add(
 					exec.submit(
 							new Matcher(
 									patchPair,
-									( HashMap )coefficientsTiles,
-									filter,
+									new RansacRegressionReduceFilter(),
 									scale,
 									numCoefficients,
 									meshResolution,
 									cacheOnDisk ) ) );
 		}
 
-		for ( final Future< ? > future : futures )
-			future.get();
+		/* connect tiles across patches in patch pair order */
+		final int numCoefficientTiles = numCoefficients * numCoefficients;
+		for ( int pairIndex = 0; pairIndex < patchPairs.size(); ++pairIndex )
+		{
+			final Pair<AffineModel2D,MinimalTileSpec> p1 = patchPairs.get( pairIndex ).getA();
+			final Pair<AffineModel2D,MinimalTileSpec> p2 = patchPairs.get( pairIndex ).getB();
+
+			final ArrayList< ArrayList< PointMatch > > filteredMatches = futures.get( pairIndex ).get();
+			futures.set( pairIndex, null ); // release matches once they are connected
+
+			/* get the coefficient tiles */
+			final ArrayList< Tile< ? extends M > > p1CoefficientsTiles = coefficientsTiles.get( p1 );
+			final ArrayList< Tile< ? extends M > > p2CoefficientsTiles = coefficientsTiles.get( p2 );
+
+			for ( int i = 0; i < numCoefficientTiles; ++i )
+			{
+				final Tile< ? > t1 = p1CoefficientsTiles.get( i );
+				for ( int j = 0; j < numCoefficientTiles; ++j )
+				{
+					final ArrayList< PointMatch > matches = filteredMatches.get( i + j * numCoefficientTiles );
+					if ( matches != null )
+					{
+						final Tile< ? > t2 = p2CoefficientsTiles.get( j );
+						t1.connect( t2, matches );
+						System.out.println( "Connected patch " + p1.getB().getImageCol() + ", coefficient " + i + "  +  patch " + p2.getB().getImageCol() + ", coefficient " + j + " by " + matches.size() + " samples." );
+					}
+				}
+			}
+		}
 
 		/* connect tiles within patches */
 		System.out.println( "Connecting coefficient tiles in the same patch  ... " );
@@ -326,7 +446,7 @@ public class IntensityMatcher
 			//tc.optimizeSilentlyConcurrent( observer, 0.01f, iterations, iterations, 0.75f );
 			
 			TileUtil.optimizeConcurrently(new ErrorStatistic( iterations + 1 ), 0.01f, iterations, iterations, 0.75f,
-					tc, tc.getTiles(), tc.getFixedTiles(), 1 );
+					tc, tc.getTiles(), tc.getFixedTiles(), numThreads );
 			
 			//tc.optimize( 0.01f, iterations, iterations, 0.75f );
 		}
@@ -337,69 +457,77 @@ public class IntensityMatcher
 		}
 
 		/* save coefficients */
-		final double[] ab = new double[ 2 ];
+		System.out.println( "Correcting patches using " + numThreads + " threads ... " );
 
-		List<Pair<ByteProcessor, FloatProcessor>> corrected = new ArrayList<>();
+		final ArrayList< Future< Pair<ByteProcessor, FloatProcessor> > > correctedFutures = new ArrayList<>();
 
 		// iterate in the same order as the input
-		for ( Pair<AffineModel2D,MinimalTileSpec> p : patches )
+		for ( final Pair<AffineModel2D,MinimalTileSpec> p : patches )
 		//for ( final Entry< Pair<AffineModel2D,MinimalTileSpec>, ArrayList< Tile< ? extends M > > > entry : coefficientsTiles.entrySet() )
 		{
 			//final Pair<AffineModel2D,MinimalTileSpec> p = entry.getKey();
 			//final ArrayList< Tile< ? extends M > > tiles = entry.getValue();
-			final ArrayList< Tile< ? extends M > > tiles = coefficientsTiles.get( p );
+			final Callable< Pair<ByteProcessor, FloatProcessor> > correction = () -> {
+				final ArrayList< Tile< ? extends M > > tiles = coefficientsTiles.get( p );
 
-			final FloatProcessor as = new FloatProcessor( numCoefficients, numCoefficients );
-			final FloatProcessor bs = new FloatProcessor( numCoefficients, numCoefficients );
+				final FloatProcessor as = new FloatProcessor( numCoefficients, numCoefficients );
+				final FloatProcessor bs = new FloatProcessor( numCoefficients, numCoefficients );
 
-			final ImageProcessorWithMasks imp = VisualizeTools.getImage( p.getB(), 1.0, cacheOnDisk );
+				final ImageProcessorWithMasks imp = VisualizeTools.getImage( p.getB(), 1.0, cacheOnDisk );
 
-			FloatProcessor fp = imp.ip.convertToFloatProcessor();
-			fp.resetMinAndMax();
-			final double min = 0;//fp.getMin();//patch.getMin();
-			final double max = 255;//fp.getMax();//patch.getMax();
-			System.out.println( min + ", " + max );
+				FloatProcessor fp = imp.ip.convertToFloatProcessor();
+				fp.resetMinAndMax();
+				final double min = 0;//fp.getMin();//patch.getMin();
+				final double max = 255;//fp.getMax();//patch.getMax();
+				System.out.println( min + ", " + max );
 
-			for ( int i = 0; i < numCoefficients * numCoefficients; ++i )
-			{
-				final Tile< ? extends M > t = tiles.get( i );
-				final Affine1D< ? > affine = t.getModel();
-				affine.toArray( ab );
+				final double[] ab = new double[ 2 ];
+				for ( int i = 0; i < numCoefficients * numCoefficients; ++i )
+				{
+					final Tile< ? extends M > t = tiles.get( i );
+					final Affine1D< ? > affine = t.getModel();
+					affine.toArray( ab );
 
-				/* coefficients mapping into existing [min, max] */
-				as.setf( i, ( float ) ab[ 0 ] );
-				bs.setf( i, ( float ) ( ( max - min ) * ab[ 1 ] + min - ab[ 0 ] * min ) );
-			}
-			final ImageStack coefficientsStack = new ImageStack( numCoefficients, numCoefficients );
-			coefficientsStack.addSlice( as );
-			coefficientsStack.addSlice( bs );
+					/* coefficients mapping into existing [min, max] */
+					as.setf( i, ( float ) ab[ 0 ] );
+					bs.setf( i, ( float ) ( ( max - min ) * ab[ 1 ] + min - ab[ 0 ] * min ) );
+				}
+				final ImageStack coefficientsStack = new ImageStack( numCoefficients, numCoefficients );
+				coefficientsStack.addSlice( as );
+				coefficientsStack.addSlice( bs );
 
-			//new ImagePlus( "a", as ).show();
-			//new ImagePlus( "b", bs ).show();
-			//SimpleMultiThreading.threadHaltUnClean();
+				//new ImagePlus( "a", as ).show();
+				//new ImagePlus( "b", bs ).show();
+				//SimpleMultiThreading.threadHaltUnClean();
 
-			//final String itsPath = itsDir + FSLoader.createIdPath( Long.toString( p.getId() ), "it", ".tif" );
-			//new File( itsPath ).getParentFile().mkdirs();
-			//IJ.saveAs( new ImagePlus( "", coefficientsStack ), "tif", itsPath );
+				//final String itsPath = itsDir + FSLoader.createIdPath( Long.toString( p.getId() ), "it", ".tif" );
+				//new File( itsPath ).getParentFile().mkdirs();
+				//IJ.saveAs( new ImagePlus( "", coefficientsStack ), "tif", itsPath );
 
-			@SuppressWarnings({"rawtypes"})
-			final LinearIntensityMap<FloatType> map =
-					new LinearIntensityMap<FloatType>(
-							(FloatImagePlus)ImagePlusImgs.from( new ImagePlus( "", coefficientsStack ) ));
+				@SuppressWarnings({"rawtypes"})
+				final LinearIntensityMap<FloatType> map =
+						new LinearIntensityMap<FloatType>(
+								(FloatImagePlus)ImagePlusImgs.from( new ImagePlus( "", coefficientsStack ) ));
 
 
-			final long[] dims = new long[]{imp.getWidth(), imp.getHeight()};
-			final Img< FloatType > img = ArrayImgs.floats((float[])fp.getPixels(), dims);
+				final long[] dims = new long[]{imp.getWidth(), imp.getHeight()};
+				final Img< FloatType > img = ArrayImgs.floats((float[])fp.getPixels(), dims);
 
-			map.run(img);
+				map.run(img);
 
-			//new ImagePlus( "imp.ip", imp.ip ).show();
-			//new ImagePlus( "fp", fp ).show();
-			//SimpleMultiThreading.threadHaltUnClean();
+				//new ImagePlus( "imp.ip", imp.ip ).show();
+				//new ImagePlus( "fp", fp ).show();
+				//SimpleMultiThreading.threadHaltUnClean();
 
-			corrected.add( new ValuePair<>( (ByteProcessor)imp.mask, fp ) );
+				return new ValuePair<>( (ByteProcessor)imp.mask, fp );
+			};
+			correctedFutures.add( exec.submit( correction ) );
 		}
 
+		final List<Pair<ByteProcessor, FloatProcessor>> corrected = new ArrayList<>();
+		for ( final Future< Pair<ByteProcessor, FloatProcessor> > future : correctedFutures )
+			corrected.add( future.get() );
+
 		return corrected;
 	}
 
@@ -70,6 +70,12 @@ public class IntensityAdjustParameters
             description = "Correction method to use")
     public CorrectionMethod correctionMethod = CorrectionMethod.DEFAULT;
 
+    @Parameter(
+            names = "--numberOfThreads",
+            description = "Number of threads to use for matching intensities within each layer " +
+                          "(only used by the GLOBAL_PER_SLICE correction method)")
+    public int numberOfThreads = 1;
+
     public File getSectionRootDirectory(final Date forRunTime) {
 
         final Path sectionRootPath;
@@ -0,0 +1,66 @@
+package org.janelia.render.client.response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ContentType;
+import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec;
+
+/**
+ * Translates binary (see {@link CanvasMatchesCodec}) or JSON canvas matches response content into a list.
+ * JSON content is supported so that clients still work with servers that do not support binary responses.
+ *
+ * @author Eric Trautman
+ */
+public class CanvasMatchesResponseHandler
+        extends BaseResponseHandler
+        implements ResponseHandler<List<CanvasMatches>> {
+
+    private static final String BINARY_MIME_TYPE = ContentType.APPLICATION_OCTET_STREAM.getMimeType();
+
+    /** Accept header value for requests handled by this class (binary content is preferred). */
+    public static final String ACCEPT_HEADER_VALUE = BINARY_MIME_TYPE + ", " + JSON_MIME_TYPE + ";q=0.9";
+
+    /**
+     * @param  requestContext  context (e.g. "GET http://janelia.org") for use in error messages.
+     */
+    public CanvasMatchesResponseHandler(final String requestContext) {
+        super(requestContext);
+    }
+
+    @Override
+    public List<CanvasMatches> handleResponse(final HttpResponse response)
+            throws IOException {
+
+        final HttpEntity entity = getValidatedResponseEntity(response, OK);
+        final Header contentTypeHeader = entity.getContentType();
+
+        if (contentTypeHeader == null) {
+            throw new ClientProtocolException("content type header missing for\n\n  " + getRequestContext() + "\n");
+        }
+
+        final List<CanvasMatches> canvasMatchesList;
+        final String mimeType = contentTypeHeader.getValue();
+        try (final InputStream content = entity.getContent()) {
+            if (BINARY_MIME_TYPE.equals(mimeType)) {
+                canvasMatchesList = CanvasMatchesCodec.readList(content);
+            } else if (JSON_MIME_TYPE.equals(mimeType)) {
+                canvasMatchesList = CanvasMatches.fromJsonArray(new InputStreamReader(content));
+            } else {
+                throw new ClientProtocolException("invalid mime type '" + mimeType + "' for\n\n  " +
+                                                  getRequestContext() + "\n\n(expected '" + BINARY_MIME_TYPE +
+                                                  "' or '" + JSON_MIME_TYPE + "')");
+            }
+        }
+
+        return canvasMatchesList;
+    }
+}
@@ -0,0 +1,182 @@
+package org.janelia.render.client.response;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ContentType;
+import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec;
+
+/**
+ * Incrementally translates binary (see {@link CanvasMatchesCodec}) or JSON canvas matches response content
+ * sorted by pGroupId, passing all matches for each pGroup to a consumer as soon as they have been read.
+ * This allows large multi-group responses to be processed without holding the entire response in memory.
+ *
+ * Binary records are decoded in parallel (but consumed in stream order).
+ * Since a group is only consumed after the first match for the next group (or the end of the stream)
+ * has been read, a truncated response never results in a partially consumed group.
+ *
+ * @author Eric Trautman
+ */
+public class CanvasMatchesStreamResponseHandler
+        extends BaseResponseHandler
+        implements ResponseHandler<Long> {
+
+    private static final String BINARY_MIME_TYPE = ContentType.APPLICATION_OCTET_STREAM.getMimeType();
+
+    /** Accept header value for requests handled by this class (binary content is preferred). */
+    public static final String ACCEPT_HEADER_VALUE = CanvasMatchesResponseHandler.ACCEPT_HEADER_VALUE;
+
+    private final int numberOfDecodingThreads;
+    private final Consumer<List<CanvasMatches>> pGroupMatchesConsumer;
+
+    /**
+     * @param  requestContext           context (e.g. "POST http://janelia.org") for use in error messages.
+     * @param  numberOfDecodingThreads  number of threads to use for decoding binary records.
+     * @param  pGroupMatchesConsumer    consumer for the list of matches in each pGroup.
+     */
+    public CanvasMatchesStreamResponseHandler(final String requestContext,
+                                              final int numberOfDecodingThreads,
+                                              final Consumer<List<CanvasMatches>> pGroupMatchesConsumer) {
+        super(requestContext);
+        this.numberOfDecodingThreads = Math.max(1, numberOfDecodingThreads);
+        this.pGroupMatchesConsumer = pGroupMatchesConsumer;
+    }
+
+    /**
+     * @return total number of matches consumed.
+     */
+    @Override
+    public Long handleResponse(final HttpResponse response)
+            throws IOException {
+
+        final HttpEntity entity = getValidatedResponseEntity(response, OK);
+        final Header contentTypeHeader = entity.getContentType();
+
+        if (contentTypeHeader == null) {
+            throw new ClientProtocolException("content type header missing for\n\n  " + getRequestContext() + "\n");
+        }
+
+        final GroupAssembler groupAssembler = new GroupAssembler();
+        final String mimeType = contentTypeHeader.getValue();
+        try (final InputStream content = entity.getContent()) {
+            if (BINARY_MIME_TYPE.equals(mimeType)) {
+                consumeBinaryContent(content, groupAssembler);
+            } else if (JSON_MIME_TYPE.equals(mimeType)) {
+                consumeJsonContent(content, groupAssembler);
+            } else {
+                throw new ClientProtocolException("invalid mime type '" + mimeType + "' for\n\n  " +
+                                                  getRequestContext() + "\n\n(expected '" + BINARY_MIME_TYPE +
+                                                  "' or '" + JSON_MIME_TYPE + "')");
+            }
+        }
+
+        groupAssembler.flush();
+
+        return groupAssembler.totalCount;
+    }
+
+    private void consumeBinaryContent(final InputStream content,
+                                      final GroupAssembler groupAssembler)
+            throws IOException {
+
+        final CanvasMatchesCodec.RecordReader recordReader = new CanvasMatchesCodec.RecordReader(content);
+
+        // bound the number of pending records so that fast reads don't outrun decoding
+        final int maxPendingRecords = numberOfDecodingThreads * 64;
+        final Deque<Future<CanvasMatches>> pendingRecords = new ArrayDeque<>(maxPendingRecords);
+        final ExecutorService executorService = Executors.newFixedThreadPool(numberOfDecodingThreads);
+
+        try {
+            byte[] record = recordReader.next();
+            while (record != null) {
+                if (pendingRecords.size() == maxPendingRecords) {
+                    groupAssembler.add(getDecodedRecord(pendingRecords.removeFirst()));
+                }
+                final byte[] recordToDecode = record;
+                pendingRecords.addLast(executorService.submit(() -> CanvasMatchesCodec.decode(recordToDecode)));
+                record = recordReader.next();
+            }
+
+            while (pendingRecords.size() > 0) {
+                groupAssembler.add(getDecodedRecord(pendingRecords.removeFirst()));
+            }
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void consumeJsonContent(final InputStream content,
+                                    final GroupAssembler groupAssembler)
+            throws IOException {
+        try (final MappingIterator<CanvasMatches> iterator =
+                     JsonUtils.MAPPER.readerFor(CanvasMatches.class).readValues(content)) {
+            while (iterator.hasNextValue()) {
+                groupAssembler.add(iterator.nextValue());
+            }
+        }
+    }
+
+    private CanvasMatches getDecodedRecord(final Future<CanvasMatches> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while decoding matches for\n\n  " + getRequestContext() + "\n", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("failed to decode matches for\n\n  " + getRequestContext() + "\n", e.getCause());
+        }
+    }
+
+    /**
+     * Collects contiguous matches with the same pGroupId and passes them to the consumer when the group changes.
+     */
+    private class GroupAssembler {
+
+        private String pGroupId;
+        private List<CanvasMatches> pGroupMatches;
+        private long totalCount;
+
+        GroupAssembler() {
+            this.pGroupId = null;
+            this.pGroupMatches = new ArrayList<>();
+            this.totalCount = 0;
+        }
+
+        void add(final CanvasMatches canvasMatches) {
+            if ((pGroupMatches.size() > 0) && (! Objects.equals(pGroupId, canvasMatches.getpGroupId()))) {
+                flush();
+            }
+            pGroupId = canvasMatches.getpGroupId();
+            pGroupMatches.add(canvasMatches);
+        }
+
+        void flush() {
+            if (pGroupMatches.size() > 0) {
+                totalCount += pGroupMatches.size();
+                pGroupMatchesConsumer.accept(pGroupMatches);
+                pGroupMatches = new ArrayList<>();
+            }
+        }
+    }
+}
@@ -4,11 +4,13 @@ import ij.ImageJ;
 import ij.ImagePlus;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -215,145 +217,180 @@ public class DistributedSolveWorker< G extends Model< G > & Affine2D< G >, B ext
 		if ( !Double.isNaN( maxRange ) )
 			LOG.info( "block " + inputSolveItem.getId() + ": WARNING! max z range for matching is " + maxRange );
 
+		// matches for all layers in the block are streamed in one request, each pGroup is added as soon as it is read
+		final Set< String > remainingPGroupIds = new LinkedHashSet<>();
 		for ( final Pair< String, Double > pGroupPair : pGroupList )
 		{
 			if ( pGroupPair.getB().doubleValue() < inputSolveItem.minZ() || pGroupPair.getB().doubleValue() > inputSolveItem.maxZ() )
 				continue;
 
-			final String pGroupId = pGroupPair.getA();
+			remainingPGroupIds.add( pGroupPair.getA() );
+		}
 
-			LOG.info("block " + inputSolveItem.getId() + ": run: connecting tiles with pGroupId {}", pGroupId);
+		LOG.info( "block " + inputSolveItem.getId() + ": run: loading matches for {} pGroupIds", remainingPGroupIds.size() );
 
-			List<CanvasMatches> matches = null;
-			final int maxTries = 10;
-			int run = 0;
+		final int maxTries = 10;
+		int run = 0;
 
-			do
+		while ( remainingPGroupIds.size() > 0 )
+		{
+			try
+			{
+				matchDataClient.consumeMatchesWithPGroupIds(
+						new ArrayList<>( remainingPGroupIds ),
+						false,
+						numThreads,
+						pGroupMatches -> {
+							final String pGroupId = pGroupMatches.get( 0 ).getpGroupId();
+							try
+							{
+								addMatches( pairs, zToPairs, maxRange, zToTileSpecsMap, pGroupId, pGroupMatches );
+							}
+							catch ( final IOException e )
+							{
+								throw new UncheckedIOException( e );
+							}
+							remainingPGroupIds.remove( pGroupId );
+						} );
+
+				// pGroups without matches are never consumed
+				remainingPGroupIds.clear();
+			}
+			catch ( final UncheckedIOException e )
 			{
-				try
+				// tile spec retrieval failures are not retried since a partially added group cannot be added again
+				throw e.getCause();
+			}
+			catch ( final IOException e )
+			{
+				// only groups that were not completely consumed are requested again
+				if ( ++run <= maxTries )
 				{
-					matches = matchDataClient.getMatchesWithPGroupId(pGroupId, false);
+					LOG.warn( "block " + inputSolveItem.getId() + ": Failed at: " + inputSolveItem.getId() + " with " + remainingPGroupIds.size() + " pGroupIds remaining: " + e );
+					SimpleMultiThreading.threadWait( 1000 );
 				}
-				catch (Exception e )
+				else
 				{
-					matches = null;
-					if ( ++run <= maxTries )
-					{
-						LOG.warn( "block " + inputSolveItem.getId() + ": Failed at: " + inputSolveItem.getId() + ": " + e );
-						SimpleMultiThreading.threadWait( 1000 );
-					}
-					else
-					{
-						throw new RuntimeException( "failed to retrieve matches for pGroupId " + pGroupId + " after " + maxTries + " attempts (id=" + inputSolveItem.getId() + ")" );
-					}
+					throw new RuntimeException( "failed to retrieve matches for " + remainingPGroupIds.size() + " pGroupIds after " + maxTries + " attempts (id=" + inputSolveItem.getId() + ")" );
 				}
-			} while( matches == null );
+			}
+		}
+	}
 
-			for (final CanvasMatches match : matches)
-			{
-				final String pId = match.getpId();
-				final TileSpec pTileSpec = SolveTools.getTileSpec(sectionIdToZMap, zToTileSpecsMap, renderDataClient, stack, pGroupId, pId);
+	protected void addMatches(
+			final ArrayList< Pair< Pair< Tile< ? >, Tile< ? > >, List< PointMatch > > > pairs,
+			final HashMap< Integer, List< Integer > > zToPairs,
+			final double maxRange,
+			final Map<Double, ResolvedTileSpecCollection> zToTileSpecsMap,
+			final String pGroupId,
+			final List< CanvasMatches > matches ) throws IOException
+	{
+		LOG.info("block " + inputSolveItem.getId() + ": run: connecting tiles with pGroupId {}", pGroupId);
 
-				final String qGroupId = match.getqGroupId();
-				final String qId = match.getqId();
-				final TileSpec qTileSpec = SolveTools.getTileSpec(sectionIdToZMap, zToTileSpecsMap, renderDataClient, stack, qGroupId, qId);
+		for (final CanvasMatches match : matches)
+		{
+			final String pId = match.getpId();
+			final TileSpec pTileSpec = SolveTools.getTileSpec(sectionIdToZMap, zToTileSpecsMap, renderDataClient, stack, pGroupId, pId);
 
-				if ((pTileSpec == null) || (qTileSpec == null))
-				{
-					LOG.info("block " + inputSolveItem.getId() + ": run: ignoring pair ({}, {}) because one or both tiles are missing from stack {}", pId, qId, stack);
-					continue;
-				}
+			final String qGroupId = match.getqGroupId();
+			final String qId = match.getqId();
+			final TileSpec qTileSpec = SolveTools.getTileSpec(sectionIdToZMap, zToTileSpecsMap, renderDataClient, stack, qGroupId, qId);
 
-				// if any of the matches is outside the range we ignore them
-				if ( pTileSpec.getZ() < inputSolveItem.minZ() || pTileSpec.getZ() > inputSolveItem.maxZ() || qTileSpec.getZ() < inputSolveItem.minZ() || qTileSpec.getZ() > inputSolveItem.maxZ() )
-				{
-					LOG.info("block " + inputSolveItem.getId() + ": run: ignoring pair ({}, {}) because it is out of range {}", pId, qId, stack);
-					continue;
-				}
+			if ((pTileSpec == null) || (qTileSpec == null))
+			{
+				LOG.info("block " + inputSolveItem.getId() + ": run: ignoring pair ({}, {}) because one or both tiles are missing from stack {}", pId, qId, stack);
+				continue;
+			}
 
-				// max range
-				if ( !Double.isNaN( maxRange ) && Math.abs( pTileSpec.getZ() - qTileSpec.getZ() ) > maxRange )
-					continue;
+			// if any of the matches is outside the range we ignore them
+			if ( pTileSpec.getZ() < inputSolveItem.minZ() || pTileSpec.getZ() > inputSolveItem.maxZ() || qTileSpec.getZ() < inputSolveItem.minZ() || qTileSpec.getZ() > inputSolveItem.maxZ() )
+			{
+				LOG.info("block " + inputSolveItem.getId() + ": run: ignoring pair ({}, {}) because it is out of range {}", pId, qId, stack);
+				continue;
+			}
 
-				/*
-				// TODO: REMOVE Artificial split of the data
-				if ( pTileSpec.getZ().doubleValue() == qTileSpec.getZ().doubleValue() )
+			// max range
+			if ( !Double.isNaN( maxRange ) && Math.abs( pTileSpec.getZ() - qTileSpec.getZ() ) > maxRange )
+				continue;
+
+			/*
+			// TODO: REMOVE Artificial split of the data
+			if ( pTileSpec.getZ().doubleValue() == qTileSpec.getZ().doubleValue() )
+			{
+				if ( pTileSpec.getZ().doubleValue() >= 10049 && pTileSpec.getZ().doubleValue() <= 10149 )
 				{
-					if ( pTileSpec.getZ().doubleValue() >= 10049 && pTileSpec.getZ().doubleValue() <= 10149 )
+					if ( ( pId.contains( "_0-0-1." ) && qId.contains( "_0-0-2." ) ) || ( qId.contains( "_0-0-1." ) && pId.contains( "_0-0-2." ) ) )
 					{
-						if ( ( pId.contains( "_0-0-1." ) && qId.contains( "_0-0-2." ) ) || ( qId.contains( "_0-0-1." ) && pId.contains( "_0-0-2." ) ) )
-						{
-							LOG.info("run: ignoring pair ({}, {}) to artificially split the data", pId, qId );
-							continue;
-						}
+						LOG.info("run: ignoring pair ({}, {}) to artificially split the data", pId, qId );
+						continue;
 					}
 				}
-				*/
-
-				final Tile< B > p, q;
+			}
+			*/
 
-				if ( !inputSolveItem.idToTileMap().containsKey( pId ) )
-				{
-					final Pair< Tile< B >, AffineModel2D > pairP = SolveTools.buildTileFromSpec( inputSolveItem.blockSolveModelInstance(), SolveItem.samplesPerDimension, pTileSpec);
-					p = pairP.getA();
-					inputSolveItem.idToTileMap().put( pId, p );
-					inputSolveItem.idToPreviousModel().put( pId, pairP.getB() );
+			final Tile< B > p, q;
 
-					final MinimalTileSpec pTileSpecMin = new MinimalTileSpec( pTileSpec );
-					inputSolveItem.idToTileSpec().put( pId, pTileSpecMin );
+			if ( !inputSolveItem.idToTileMap().containsKey( pId ) )
+			{
+				final Pair< Tile< B >, AffineModel2D > pairP = SolveTools.buildTileFromSpec( inputSolveItem.blockSolveModelInstance(), SolveItem.samplesPerDimension, pTileSpec);
+				p = pairP.getA();
+				inputSolveItem.idToTileMap().put( pId, p );
+				inputSolveItem.idToPreviousModel().put( pId, pairP.getB() );
 
-					inputSolveItem.tileToIdMap().put( p, pId );
+				final MinimalTileSpec pTileSpecMin = new MinimalTileSpec( pTileSpec );
+				inputSolveItem.idToTileSpec().put( pId, pTileSpecMin );
 
-					if ( pTileSpecMin.isRestart() )
-						inputSolveItem.restarts().add( (int)Math.round( pTileSpecMin.getZ() ) );
-				}
-				else
-				{
-					p = inputSolveItem.idToTileMap().get( pId );
-				}
+				inputSolveItem.tileToIdMap().put( p, pId );
 
-				if ( !inputSolveItem.idToTileMap().containsKey( qId ) )
-				{
-					final Pair< Tile< B >, AffineModel2D > pairQ = SolveTools.buildTileFromSpec( inputSolveItem.blockSolveModelInstance(), SolveItem.samplesPerDimension, qTileSpec);
-					q = pairQ.getA();
-					inputSolveItem.idToTileMap().put( qId, q );
-					inputSolveItem.idToPreviousModel().put( qId, pairQ.getB() );
+				if ( pTileSpecMin.isRestart() )
+					inputSolveItem.restarts().add( (int)Math.round( pTileSpecMin.getZ() ) );
+			}
+			else
+			{
+				p = inputSolveItem.idToTileMap().get( pId );
+			}
 
-					final MinimalTileSpec qTileSpecMin = new MinimalTileSpec( qTileSpec );
-					inputSolveItem.idToTileSpec().put( qId, qTileSpecMin );
+			if ( !inputSolveItem.idToTileMap().containsKey( qId ) )
+			{
+				final Pair< Tile< B >, AffineModel2D > pairQ = SolveTools.buildTileFromSpec( inputSolveItem.blockSolveModelInstance(), SolveItem.samplesPerDimension, qTileSpec);
+				q = pairQ.getA();
+				inputSolveItem.idToTileMap().put( qId, q );
+				inputSolveItem.idToPreviousModel().put( qId, pairQ.getB() );
 
-					inputSolveItem.tileToIdMap().put( q, qId );
+				final MinimalTileSpec qTileSpecMin = new MinimalTileSpec( qTileSpec );
+				inputSolveItem.idToTileSpec().put( qId, qTileSpecMin );
 
-					if ( qTileSpecMin.isRestart() )
-						inputSolveItem.restarts().add( (int)Math.round( qTileSpecMin.getZ() ) );
-				}
-				else
-				{
-					q = inputSolveItem.idToTileMap().get( qId );
-				}
+				inputSolveItem.tileToIdMap().put( q, qId );
 
-				// remember the entries, need to perform section-based stitching before running global optimization
-				pairs.add( new ValuePair<>( new ValuePair<>( p, q ), matchFilter.filter( match.getMatches(), pTileSpec, qTileSpec ) ) );//CanvasMatchResult.convertMatchesToPointMatchList(match.getMatches()) ) );
+				if ( qTileSpecMin.isRestart() )
+					inputSolveItem.restarts().add( (int)Math.round( qTileSpecMin.getZ() ) );
+			}
+			else
+			{
+				q = inputSolveItem.idToTileMap().get( qId );
+			}
 
-				final int pZ = (int)Math.round( pTileSpec.getZ() );
-				final int qZ = (int)Math.round( qTileSpec.getZ() );
+			// remember the entries, need to perform section-based stitching before running global optimization
+			pairs.add( new ValuePair<>( new ValuePair<>( p, q ), matchFilter.filter( match.getMatches(), pTileSpec, qTileSpec ) ) );//CanvasMatchResult.convertMatchesToPointMatchList(match.getMatches()) ) );
 
-				inputSolveItem.zToTileId().putIfAbsent( pZ, new HashSet<>() );
-				inputSolveItem.zToTileId().putIfAbsent( qZ, new HashSet<>() );
+			final int pZ = (int)Math.round( pTileSpec.getZ() );
+			final int qZ = (int)Math.round( qTileSpec.getZ() );
 
-				inputSolveItem.zToTileId().get( pZ ).add( pId );
-				inputSolveItem.zToTileId().get( qZ ).add( qId );
+			inputSolveItem.zToTileId().putIfAbsent( pZ, new HashSet<>() );
+			inputSolveItem.zToTileId().putIfAbsent( qZ, new HashSet<>() );
 
-				// if the pair is from the same layer we remember the current index in the pairs list for stitching
-				if ( pZ == qZ )
-				{
-					zToPairs.putIfAbsent( pZ, new ArrayList<>() );
-					zToPairs.get( pZ ).add( pairs.size() - 1 );
-				}
+			inputSolveItem.zToTileId().get( pZ ).add( pId );
+			inputSolveItem.zToTileId().get( qZ ).add( qId );
 
-				// for error computation
-				this.canvasMatches.add( match );
+			// if the pair is from the same layer we remember the current index in the pairs list for stitching
+			if ( pZ == qZ )
+			{
+				zToPairs.putIfAbsent( pZ, new ArrayList<>() );
+				zToPairs.get( pZ ).add( pairs.size() - 1 );
 			}
+
+			// for error computation
+			this.canvasMatches.add( match );
 		}
 	}
 	/**
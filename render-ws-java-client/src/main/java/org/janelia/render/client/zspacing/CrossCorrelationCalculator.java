@@ -0,0 +1,338 @@
+package org.janelia.render.client.zspacing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.render.client.zspacing.loader.LayerLoader;
+import org.janelia.render.client.zspacing.loader.LayerLoader.FloatProcessors;
+import org.janelia.thickness.plugin.RealSumFloatNCC;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.imglib2.util.RealSum;
+import net.imglib2.util.StopWatch;
+
+/**
+ * Derives cross correlation values for z-ordered layers by sliding a window of
+ * comparisonRange loaded layers through the stack.
+ *
+ * Each layer is loaded once and its pixel sums are computed once when it enters the window.
+ * Pairs of layers without NaN or masked pixels then only need a single multiply-accumulate pass
+ * to derive their correlation.  Pairs with excluded pixels fall back to
+ * {@link RealSumFloatNCCMasks} or {@link RealSumFloatNCC}.
+ * The correlations between each newly loaded layer and the layers in the window are computed concurrently.
+ *
+ * @author Eric Trautman
+ */
+public class CrossCorrelationCalculator {
+
+    private final LayerLoader layerLoader;
+    private final int comparisonRange;
+    private final int numberOfThreads;
+
+    /**
+     * @param  layerLoader      loader for z-ordered layers to process.
+     * @param  comparisonRange  number of adjacent neighbor layers to compare with each layer.
+     * @param  numberOfThreads  number of threads to use for pair correlation.
+     *
+     * @throws IllegalArgumentException
+     *   if the comparison range or number of threads is not positive.
+     */
+    public CrossCorrelationCalculator(final LayerLoader layerLoader,
+                                      final int comparisonRange,
+                                      final int numberOfThreads)
+            throws IllegalArgumentException {
+
+        if (comparisonRange < 1) {
+            throw new IllegalArgumentException("comparisonRange must be positive");
+        } else if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+
+        this.layerLoader = layerLoader;
+        this.comparisonRange = comparisonRange;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * @param  firstLayerOffset  offset of the first layer loaded relative to the full set of layers.
+     *
+     * @return cross correlation similarity between each layer and its neighbors.
+     *
+     * @throws IllegalArgumentException
+     *   if there are too few layers to process.
+     */
+    public CrossCorrelationData deriveCrossCorrelation(final int firstLayerOffset)
+            throws IllegalArgumentException {
+
+        final int layerCount = layerLoader.getNumberOfLayers();
+        if (layerCount < 2) {
+            throw new IllegalArgumentException("must have at least two layers to evaluate");
+        }
+
+        final CrossCorrelationData ccData = new CrossCorrelationData(layerCount,
+                                                                     comparisonRange,
+                                                                     firstLayerOffset);
+        deriveValues(ccData, 0);
+
+        return ccData;
+    }
+
+    /**
+     * Derives correlation values for layers added (e.g. newly acquired) since the existing data was derived.
+     * Only pairs that include at least one new layer are computed.
+     *
+     * @param  existingData  previously derived data for the first layers provided by this calculator's loader.
+     *
+     * @return copy of the existing data extended to include all layers provided by this calculator's loader.
+     *
+     * @throws IllegalArgumentException
+     *   if the existing data has a different comparison range or has more layers than the loader.
+     */
+    public CrossCorrelationData appendCrossCorrelation(final CrossCorrelationData existingData)
+            throws IllegalArgumentException {
+
+        if (existingData.getComparisonRange() != comparisonRange) {
+            throw new IllegalArgumentException(
+                    "existing data comparison range " + existingData.getComparisonRange() +
+                    " differs from calculator comparison range " + comparisonRange);
+        }
+
+        final int existingLayerCount = existingData.getLayerCount();
+        final int additionalLayerCount = layerLoader.getNumberOfLayers() - existingLayerCount;
+        if (additionalLayerCount < 0) {
+            throw new IllegalArgumentException(
+                    "existing data has " + existingLayerCount + " layers but loader only has " +
+                    layerLoader.getNumberOfLayers() + " layers");
+        }
+
+        final CrossCorrelationData ccData = existingData.copyWithAdditionalLayers(additionalLayerCount);
+        deriveValues(ccData, existingLayerCount);
+
+        return ccData;
+    }
+
+    /**
+     * Derives correlation values for all pairs whose greater layer index is at least firstNewLayerIndex.
+     */
+    private void deriveValues(final CrossCorrelationData ccData,
+                              final int firstNewLayerIndex) {
+
+        final int layerCount = ccData.getLayerCount();
+        final int firstLoadedLayerIndex = Math.max(0, firstNewLayerIndex - comparisonRange);
+
+        LOG.info("deriveValues: entry, deriving values for layers {} to {} with {} threads",
+                 firstNewLayerIndex, layerCount - 1, numberOfThreads);
+
+        final StopWatch stopWatch = StopWatch.createAndStart();
+
+        final Deque<LayerData> window = new ArrayDeque<>(comparisonRange + 1);
+
+        // limit pending work to the current and prior layer so that memory use stays bounded
+        final int maxPendingLayers = 2;
+        final Deque<List<PairCorrelation>> pendingLayers = new ArrayDeque<>(maxPendingLayers + 1);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+
+            for (int toLayerIndex = firstLoadedLayerIndex; toLayerIndex < layerCount; toLayerIndex++) {
+
+                final LayerData toLayer = new LayerData(toLayerIndex, layerLoader.getProcessors(toLayerIndex));
+
+                if (toLayerIndex >= firstNewLayerIndex) {
+                    final List<PairCorrelation> pairs = new ArrayList<>(window.size());
+                    for (final LayerData fromLayer : window) {
+                        pairs.add(new PairCorrelation(fromLayer.layerIndex,
+                                                      toLayerIndex,
+                                                      executorService.submit(() -> correlate(fromLayer, toLayer))));
+                    }
+                    pendingLayers.add(pairs);
+                    while (pendingLayers.size() > maxPendingLayers) {
+                        savePairCorrelations(pendingLayers.removeFirst(), ccData);
+                    }
+                }
+
+                window.add(toLayer);
+                if (window.size() > comparisonRange) {
+                    window.removeFirst();
+                }
+            }
+
+            while (pendingLayers.size() > 0) {
+                savePairCorrelations(pendingLayers.removeFirst(), ccData);
+            }
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        stopWatch.stop();
+
+        LOG.info("deriveValues: exit, took {}", stopWatch);
+    }
+
+    private void savePairCorrelations(final List<PairCorrelation> pairs,
+                                      final CrossCorrelationData ccData)
+            throws IllegalStateException {
+        for (final PairCorrelation pair : pairs) {
+            final double value;
+            try {
+                value = pair.futureValue.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while correlating layers", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("failed to correlate layer " + pair.fromLayerIndex +
+                                                " with layer " + pair.toLayerIndex, e.getCause());
+            }
+            // store single precision values to match legacy results
+            ccData.set(pair.fromLayerIndex, pair.toLayerIndex, (float) value);
+        }
+    }
+
+    /**
+     * @return normalized cross correlation of the two layers.
+     */
+    static double correlate(final LayerData layerA,
+                            final LayerData layerB) {
+
+        // legacy behavior: masks are only considered when both layers have them
+        final boolean useMasks = (layerA.masks != null) && (layerB.masks != null);
+
+        final double value;
+        if (layerA.includesAllPixels(useMasks) && layerB.includesAllPixels(useMasks)) {
+
+            final int n = layerA.pixels.length;
+            if (n == 0) {
+                value = 0.0;
+            } else {
+                final double sumAB = sumOfProducts(layerA.pixels, layerB.pixels);
+                value = (n * sumAB - layerA.sum * layerB.sum) /
+                        Math.sqrt(n * layerA.sumOfSquares - layerA.sum * layerA.sum) /
+                        Math.sqrt(n * layerB.sumOfSquares - layerB.sum * layerB.sum);
+            }
+
+        } else if (useMasks) {
+            value = new RealSumFloatNCCMasks(layerA.pixels, layerA.masks, layerB.pixels, layerB.masks).call();
+        } else {
+            value = new RealSumFloatNCC(layerA.pixels, layerB.pixels).call();
+        }
+
+        return value;
+    }
+
+    /**
+     * @return sum of the element-wise products of the specified arrays.
+     */
+    static double sumOfProducts(final float[] a,
+                                final float[] b) {
+
+        // Independent accumulators keep the inner loop free of serial dependencies so the JIT can
+        // pipeline (and vectorize) the multiply-adds.  Blocks are summed in double precision and
+        // combined with a compensated sum, so accuracy matches the legacy per-pixel RealSum loop.
+        final RealSum sum = new RealSum();
+        for (int blockStart = 0; blockStart < a.length; blockStart += SUM_BLOCK_SIZE) {
+
+            final int blockEnd = Math.min(blockStart + SUM_BLOCK_SIZE, a.length);
+            double sum0 = 0.0;
+            double sum1 = 0.0;
+            double sum2 = 0.0;
+            double sum3 = 0.0;
+
+            int i = blockStart;
+            for (; i + 3 < blockEnd; i += 4) {
+                sum0 += (double) a[i] * b[i];
+                sum1 += (double) a[i + 1] * b[i + 1];
+                sum2 += (double) a[i + 2] * b[i + 2];
+                sum3 += (double) a[i + 3] * b[i + 3];
+            }
+            for (; i < blockEnd; i++) {
+                sum0 += (double) a[i] * b[i];
+            }
+
+            sum.add((sum0 + sum1) + (sum2 + sum3));
+        }
+        return sum.getSum();
+    }
+
+    /**
+     * Pixels for one layer along with sums that only need to be computed once per layer.
+     */
+    static class LayerData {
+
+        private final int layerIndex;
+        private final float[] pixels;
+        private final float[] masks;
+        private final double sum;
+        private final double sumOfSquares;
+        private final boolean hasNaNPixels;
+        private final boolean hasMaskedPixels;
+
+        LayerData(final int layerIndex,
+                  final FloatProcessors processors) {
+
+            this.layerIndex = layerIndex;
+            this.pixels = (float[]) processors.image.getPixels();
+            this.masks = processors.mask == null ? null : (float[]) processors.mask.getPixels();
+
+            final RealSum realSum = new RealSum();
+            final RealSum realSumOfSquares = new RealSum();
+            boolean foundNaN = false;
+            for (final float pixel : pixels) {
+                if (Float.isNaN(pixel)) {
+                    foundNaN = true;
+                    break;
+                }
+                realSum.add(pixel);
+                realSumOfSquares.add((double) pixel * pixel);
+            }
+
+            boolean foundMasked = false;
+            if (masks != null) {
+                for (final float mask : masks) {
+                    if (mask < 255) {
+                        foundMasked = true;
+                        break;
+                    }
+                }
+            }
+
+            this.sum = realSum.getSum();
+            this.sumOfSquares = realSumOfSquares.getSum();
+            this.hasNaNPixels = foundNaN;
+            this.hasMaskedPixels = foundMasked;
+        }
+
+        /**
+         * @return true if all of this layer's pixels contribute to correlations (allowing use of precomputed sums).
+         */
+        boolean includesAllPixels(final boolean useMasks) {
+            return (! hasNaNPixels) && ((! useMasks) || (! hasMaskedPixels));
+        }
+    }
+
+    private static class PairCorrelation {
+
+        private final int fromLayerIndex;
+        private final int toLayerIndex;
+        private final Future<Double> futureValue;
+
+        PairCorrelation(final int fromLayerIndex,
+                        final int toLayerIndex,
+                        final Future<Double> futureValue) {
+            this.fromLayerIndex = fromLayerIndex;
+            this.toLayerIndex = toLayerIndex;
+            this.futureValue = futureValue;
+        }
+    }
+
+    private static final int SUM_BLOCK_SIZE = 4096;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CrossCorrelationCalculator.class);
+}
@@ -123,6 +123,31 @@ public class CrossCorrelationData
         data[fromLayerIndex][toLayerDelta-1] = value;
     }
 
+    /**
+     * @param  additionalLayerCount  number of layers to add after this data set's last layer.
+     *
+     * @return copy of this data set that includes (unset) values for the specified number of additional layers.
+     *
+     * @throws IllegalArgumentException
+     *   if the additional layer count is negative.
+     */
+    public CrossCorrelationData copyWithAdditionalLayers(final int additionalLayerCount)
+            throws IllegalArgumentException {
+
+        if (additionalLayerCount < 0) {
+            throw new IllegalArgumentException("additionalLayerCount must not be negative");
+        }
+
+        final CrossCorrelationData copy = new CrossCorrelationData(layerCount + additionalLayerCount,
+                                                                   comparisonRange,
+                                                                   firstLayerOffset);
+        for (int layerIndex = 0; layerIndex < layerCount; layerIndex++) {
+            System.arraycopy(data[layerIndex], 0, copy.data[layerIndex], 0, comparisonRange);
+        }
+
+        return copy;
+    }
+
     /**
      * @return a view of this data set's correlation values as a matrix.
      */
@@ -14,7 +14,6 @@ import org.apache.commons.io.FileUtils;
 import org.janelia.render.client.ClientRunner;
 import org.janelia.render.client.parameter.CommandLineParameters;
 import org.janelia.render.client.zspacing.loader.LayerLoader;
-import org.janelia.render.client.zspacing.loader.LayerLoader.FloatProcessors;
 import org.janelia.render.client.zspacing.loader.PathLayerLoader;
 import org.janelia.render.client.zspacing.loader.SimpleLeastRecentlyUsedLayerCache;
 import org.janelia.thickness.inference.InferFromMatrix;
@@ -24,7 +23,6 @@ import org.janelia.thickness.inference.fits.GlobalCorrelationFitAverage;
 import org.janelia.thickness.inference.fits.LocalCorrelationFitAverage;
 import org.janelia.thickness.inference.visitor.LazyVisitor;
 import org.janelia.thickness.inference.visitor.Visitor;
-import org.janelia.thickness.plugin.RealSumFloatNCC;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,13 +116,49 @@ public class HeadlessZPositionCorrection {
                                                                                final int comparisonRange,
                                                                                final int firstLayerOffset)
             throws IllegalArgumentException {
+        return deriveCrossCorrelationWithCachedLoaders(layerLoader, comparisonRange, firstLayerOffset, 1);
+    }
+
+    /**
+     * @param  layerLoader       loader for each layer's pixels (this gets wrapped in a caching loader).
+     * @param  comparisonRange   number of adjacent neighbor layers to compare with each layer.
+     * @param  firstLayerOffset  offset of the first layer loaded relative to the full set of layers.
+     * @param  numberOfThreads   number of threads to use for correlating layers.
+     *
+     * @return cross correlation similarity between each layer and its neighbors.
+     *
+     * @throws IllegalArgumentException
+     *   if there are too few or too many layers to process.
+     */
+    public static CrossCorrelationData deriveCrossCorrelationWithCachedLoaders(final LayerLoader layerLoader,
+                                                                               final int comparisonRange,
+                                                                               final int firstLayerOffset,
+                                                                               final int numberOfThreads)
+            throws IllegalArgumentException {
+
+        final LayerLoader cachedLayerLoader;
+        if (layerLoader.getNumberOfLayers() > 1) {
+
+            // size the cache from the first layer so that it can hold the current layer,
+            // the comparisonRange layers prefetched after it, and the comparisonRange layers before it
+            final LayerLoader.FloatProcessors firstLayerProcessors = layerLoader.getProcessors(0);
+            final long maxCachedPixels = (long) SimpleLeastRecentlyUsedLayerCache.getPixelCount(firstLayerProcessors) *
+                                         ((2 * comparisonRange) + 1);
+
+            final SimpleLeastRecentlyUsedLayerCache layerCache =
+                    new SimpleLeastRecentlyUsedLayerCache(layerLoader, maxCachedPixels, comparisonRange);
+            layerCache.cacheProcessors(0, firstLayerProcessors);
+
+            cachedLayerLoader = layerCache;
+
+        } else {
+            cachedLayerLoader = layerLoader; // let deriveCrossCorrelation reject the layers
+        }
 
-        final int maxLayersToCache = comparisonRange + 1;
-        final LayerLoader cachedLayerLoader = new SimpleLeastRecentlyUsedLayerCache(layerLoader,
-                                                                                    maxLayersToCache);
         return deriveCrossCorrelation(cachedLayerLoader,
                                       comparisonRange,
-                                      firstLayerOffset);
+                                      firstLayerOffset,
+                                      numberOfThreads);
     }
 
     /**
@@ -141,44 +175,56 @@ public class HeadlessZPositionCorrection {
                                                               final int comparisonRange,
                                                               final int firstLayerOffset)
             throws IllegalArgumentException {
+        return deriveCrossCorrelation(layerLoader, comparisonRange, firstLayerOffset, 1);
+    }
 
-        final int layerCount = layerLoader.getNumberOfLayers();
-        if (layerCount < 2) {
-            throw new IllegalArgumentException("must have at least two layers to evaluate");
-        }
+    /**
+     * @param  layerLoader       loader for z-ordered layers to process.
+     * @param  comparisonRange   number of adjacent neighbor layers to compare with each layer.
+     * @param  firstLayerOffset  offset of the first layer loaded relative to the full set of layers.
+     * @param  numberOfThreads   number of threads to use for correlating layers.
+     *
+     * @return cross correlation similarity between each layer and its neighbors.
+     *
+     * @throws IllegalArgumentException
+     *   if there are too few or too many layers to process.
+     */
+    public static CrossCorrelationData deriveCrossCorrelation(final LayerLoader layerLoader,
+                                                              final int comparisonRange,
+                                                              final int firstLayerOffset,
+                                                              final int numberOfThreads)
+            throws IllegalArgumentException {
 
         LOG.info("building cross correlation data for {} layers", layerLoader.getNumberOfLayers());
 
-        final CrossCorrelationData ccData = new CrossCorrelationData(layerCount,
-                                                                     comparisonRange,
-                                                                     firstLayerOffset);
-
-        for (int fromLayerIndex = 0; fromLayerIndex < layerCount; ++fromLayerIndex) {
-
-            final FloatProcessors processorsA = layerLoader.getProcessors(fromLayerIndex);
-            final float[] pixelsA = (float[]) processorsA.image.getPixels();
-            final float[] masksA = processorsA.mask == null ? null : (float[]) processorsA.mask.getPixels();
-
-            for (int toLayerIndex = fromLayerIndex + 1;
-                 toLayerIndex - fromLayerIndex <= comparisonRange && toLayerIndex < layerCount;
-                 ++toLayerIndex) {
-
-                final FloatProcessors processorsB = layerLoader.getProcessors(toLayerIndex);
-                final float[] pixelsB = (float[]) processorsB.image.getPixels();
-                final float[] masksB = processorsB.mask == null ? null : (float[]) processorsB.mask.getPixels();
+        final CrossCorrelationCalculator calculator = new CrossCorrelationCalculator(layerLoader,
+                                                                                     comparisonRange,
+                                                                                     numberOfThreads);
+        return calculator.deriveCrossCorrelation(firstLayerOffset);
+    }
 
-                final float val;
-                if ((masksA == null) || (masksB == null)) {
-                    val = new RealSumFloatNCC(pixelsA, pixelsB).call().floatValue();
-                } else {
-                    val = new RealSumFloatNCCMasks(pixelsA, masksA, pixelsB, masksB).call().floatValue();
-                }
+    /**
+     * @param  existingData     previously derived data for the first layers provided by the loader.
+     * @param  layerLoader      loader for all z-ordered layers (existing layers followed by new layers).
+     * @param  numberOfThreads  number of threads to use for correlating layers.
+     *
+     * @return copy of the existing data extended with correlation values for the new layers
+     *         (existing layer pair values are not recomputed).
+     *
+     * @throws IllegalArgumentException
+     *   if the existing data is inconsistent with the loader.
+     */
+    public static CrossCorrelationData appendCrossCorrelation(final CrossCorrelationData existingData,
+                                                              final LayerLoader layerLoader,
+                                                              final int numberOfThreads)
+            throws IllegalArgumentException {
 
-                ccData.set(fromLayerIndex, toLayerIndex, val);
-            }
-        }
+        LOG.info("appending cross correlation data for {} layers to {}",
+                 layerLoader.getNumberOfLayers() - existingData.getLayerCount(), existingData);
 
-        return ccData;
+        final CrossCorrelationCalculator calculator =
+                new CrossCorrelationCalculator(layerLoader, existingData.getComparisonRange(), numberOfThreads);
+        return calculator.appendCrossCorrelation(existingData);
     }
 
     /**
@@ -285,6 +331,11 @@ public class HeadlessZPositionCorrection {
                 description = "Offset to add to layer z values in output (omit to just start at 0)")
         public Double zOffset;
 
+        @Parameter(
+                names = "--numberOfThreads",
+                description = "Number of threads to use for correlating layers")
+        public int numberOfThreads = 1;
+
         public MainParameters() {
         }
 
@@ -335,7 +386,7 @@ public class HeadlessZPositionCorrection {
 
                 final List<String> layerPaths = parameters.getImagePathsSortedByBaseName();
 
-                if (layerPaths.size() > 100) {
+                if ((layerPaths.size() > 100) && (parameters.numberOfThreads == 1)) {
                     LOG.warn("processing is single threaded so this might take a while");
                 } else if (layerPaths.size() == 0) {
                     throw new IllegalArgumentException("no layer images found in " + parameters.imagePaths);
@@ -346,7 +397,8 @@ public class HeadlessZPositionCorrection {
                 final RandomAccessibleInterval<DoubleType> crossCorrelationMatrix =
                         deriveCrossCorrelationWithCachedLoaders(pathLayerLoader,
                                                                 inferenceOptions.comparisonRange,
-                                                                0).toMatrix();
+                                                                0,
+                                                                parameters.numberOfThreads).toMatrix();
 
                 final double[] transforms = estimateZCoordinates(crossCorrelationMatrix,
                                                                  inferenceOptions,
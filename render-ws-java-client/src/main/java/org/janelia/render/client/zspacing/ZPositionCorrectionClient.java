@@ -141,6 +141,11 @@ public class ZPositionCorrectionClient {
         )
         public String debugFormat;
 
+        @Parameter(
+                names = "--numberOfThreads",
+                description = "Number of threads to use for correlating layers")
+        public int numberOfThreads = 1;
+
         public Parameters() {
         }
 
@@ -362,7 +367,8 @@ public class ZPositionCorrectionClient {
 
         return HeadlessZPositionCorrection.deriveCrossCorrelationWithCachedLoaders(layerLoader,
                                                                                    inferenceOptions.comparisonRange,
-                                                                                   firstLayerOffset);
+                                                                                   firstLayerOffset,
+                                                                                   parameters.numberOfThreads);
     }
 
     void saveRunFiles()
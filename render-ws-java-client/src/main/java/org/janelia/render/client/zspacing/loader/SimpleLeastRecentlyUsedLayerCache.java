@@ -1,24 +1,115 @@
 package org.janelia.render.client.zspacing.loader;
 
-import java.util.LinkedHashMap;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Simple LRU cache of loaded processors for slices.
+ * Thread safe LRU cache of loaded processors for slices.
+ *
+ * Each layer is loaded at most once no matter how many threads request it concurrently,
+ * and requests for other layers proceed while a layer is loading.
+ * Cache capacity can be limited by number of layers or by number of pixels.
+ * When prefetching is enabled, each request also starts loading the layers that follow it
+ * on background threads so that they are ready when a sequential consumer needs them.
  *
  * @author Eric Trautman
  */
 public class SimpleLeastRecentlyUsedLayerCache implements LayerLoader {
 
     private final LayerLoader loader;
-    private final int maxNumberOfLayersToCache;
+    private final int numberOfLayersToPrefetch;
 
-    private final LinkedHashMap<Integer, FloatProcessors> indexToLayerProcessors;
+    private final LoadingCache<Integer, FloatProcessors> indexToLayerProcessors;
+    private final Set<Integer> prefetchingLayerIndexes;
+    private final ExecutorService prefetchService;
 
+    /**
+     * @param  loader                    loader for layers that are not cached.
+     * @param  maxNumberOfLayersToCache  maximum number of layers to keep in memory.
+     */
     public SimpleLeastRecentlyUsedLayerCache(final LayerLoader loader,
                                              final int maxNumberOfLayersToCache) {
+        this(loader, maxNumberOfLayersToCache, (layerIndex, processors) -> 1, 0);
+    }
+
+    /**
+     * @param  loader                    loader for layers that are not cached.
+     * @param  maxCachedPixels           maximum number of image and mask pixels to keep in memory.
+     * @param  numberOfLayersToPrefetch  number of layers after each requested layer to load in the background
+     *                                   (specify 0 to disable prefetching).
+     */
+    public SimpleLeastRecentlyUsedLayerCache(final LayerLoader loader,
+                                             final long maxCachedPixels,
+                                             final int numberOfLayersToPrefetch) {
+        this(loader,
+             maxCachedPixels,
+             (layerIndex, processors) -> getPixelCount(processors),
+             numberOfLayersToPrefetch);
+    }
+
+    private SimpleLeastRecentlyUsedLayerCache(final LayerLoader loader,
+                                              final long maximumWeight,
+                                              final Weigher<Integer, FloatProcessors> weigher,
+                                              final int numberOfLayersToPrefetch) {
+
         this.loader = loader;
-        this.maxNumberOfLayersToCache = maxNumberOfLayersToCache;
-        this.indexToLayerProcessors = new LinkedHashMap<>();
+        this.numberOfLayersToPrefetch = numberOfLayersToPrefetch;
+
+        // Setting concurrency level to 1 ensures global LRU eviction
+        // by limiting all entries to one segment.
+        // Layers are loaded outside of the segment lock, so only the put of each
+        // loaded layer is serialized.
+        this.indexToLayerProcessors = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumWeight)
+                .weigher(weigher)
+                .build(new CacheLoader<Integer, FloatProcessors>() {
+                    @Override
+                    public FloatProcessors load(final Integer layerIndex) {
+                        return loader.getProcessors(layerIndex);
+                    }
+                });
+
+        this.prefetchingLayerIndexes = ConcurrentHashMap.newKeySet();
+
+        if (numberOfLayersToPrefetch > 0) {
+
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            final ThreadFactory threadFactory = runnable -> {
+                final Thread thread = new Thread(runnable, "layer-prefetch-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+
+            final ThreadPoolExecutor threadPoolExecutor =
+                    new ThreadPoolExecutor(numberOfLayersToPrefetch,
+                                           numberOfLayersToPrefetch,
+                                           60L,
+                                           TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(),
+                                           threadFactory);
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+            this.prefetchService = threadPoolExecutor;
+
+        } else {
+            this.prefetchService = null;
+        }
     }
 
     @Override
@@ -26,32 +117,73 @@ public class SimpleLeastRecentlyUsedLayerCache implements LayerLoader {
         return loader.getNumberOfLayers();
     }
 
+    /**
+     * @return processors for the specified layer.
+     *
+     * @throws IllegalStateException
+     *   if the layer cannot be loaded.
+     */
     @Override
-    public FloatProcessors getProcessors(final int layerIndex) {
-        return threadSafeGet(layerIndex);
-    }
+    public FloatProcessors getProcessors(final int layerIndex)
+            throws IllegalStateException {
 
-    private synchronized FloatProcessors threadSafeGet(final int layerIndex) {
+        prefetchLayersAfter(layerIndex);
 
-        FloatProcessors processors = indexToLayerProcessors.remove(layerIndex);
+        final FloatProcessors processors;
+        try {
+            processors = indexToLayerProcessors.getUnchecked(layerIndex);
+        } catch (final UncheckedExecutionException e) {
+            throw new IllegalStateException("failed to load layer " + layerIndex, e.getCause());
+        }
 
-        if (processors == null) {
+        return processors;
+    }
 
-            if (indexToLayerProcessors.size() >= maxNumberOfLayersToCache) {
-                final Integer leastRecentlyUsedIndex = indexToLayerProcessors.keySet()
-                        .stream()
-                        .findFirst()
-                        .orElseThrow(() -> new IllegalStateException("cache should have at least one element"));
-                indexToLayerProcessors.remove(leastRecentlyUsedIndex);
-            }
+    /**
+     * Adds already loaded processors for the specified layer to this cache
+     * (e.g. a layer loaded to determine layer size before the cache was built).
+     */
+    public void cacheProcessors(final int layerIndex,
+                                final FloatProcessors processors) {
+        indexToLayerProcessors.put(layerIndex, processors);
+    }
 
-            processors = loader.getProcessors(layerIndex);
+    private void prefetchLayersAfter(final int layerIndex) {
+        if (prefetchService != null) {
+            final int stopIndex = Math.min(layerIndex + numberOfLayersToPrefetch, loader.getNumberOfLayers() - 1);
+            for (int prefetchIndex = layerIndex + 1; prefetchIndex <= stopIndex; prefetchIndex++) {
+                // containsKey does not change access order, so prefetch checks do not affect eviction
+                if ((! indexToLayerProcessors.asMap().containsKey(prefetchIndex)) &&
+                    prefetchingLayerIndexes.add(prefetchIndex)) {
+                    final int layerIndexToLoad = prefetchIndex;
+                    prefetchService.submit(() -> prefetchLayer(layerIndexToLoad));
+                }
+            }
         }
+    }
 
-        // reorder linked hash map so that most recently used is last
-        indexToLayerProcessors.put(layerIndex, processors);
+    private void prefetchLayer(final int layerIndex) {
+        try {
+            // requests for this layer made while it is loading wait for (rather than repeat) this load
+            indexToLayerProcessors.getUnchecked(layerIndex);
+        } catch (final Throwable t) {
+            // failed loads are not cached, so the consumer's request will retry and report the failure
+            LOG.warn("prefetchLayer: failed to load layer " + layerIndex, t);
+        } finally {
+            prefetchingLayerIndexes.remove(layerIndex);
+        }
+    }
 
-        return processors;
+    /**
+     * @return number of image and mask pixels in the specified processors (for cache weighing).
+     */
+    public static int getPixelCount(final FloatProcessors processors) {
+        long pixelCount = processors.image.getPixelCount();
+        if (processors.mask != null) {
+            pixelCount += processors.mask.getPixelCount();
+        }
+        return (int) Math.min(pixelCount, Integer.MAX_VALUE);
     }
 
+    private static final Logger LOG = LoggerFactory.getLogger(SimpleLeastRecentlyUsedLayerCache.class);
 }
@@ -0,0 +1,258 @@
+package org.janelia.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.render.client.intensityadjust.intensity.IntensityMatcher;
+import org.janelia.render.client.intensityadjust.intensity.PointMatchFilter;
+import org.janelia.render.client.intensityadjust.intensity.RansacRegressionReduceFilter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * Compares the time needed to sample and filter intensity matches for all overlapping tile pairs in a layer
+ * using the original approach (one boxed {@link PointMatch} per overlap pixel, single threaded) with
+ * {@link IntensityMatcher#filterOverlapMatches} (primitive sample arrays) run with one and with many threads.
+ * Average times for each approach are printed to standard out.
+ *
+ * <p>
+ * The synthetic layer is a 25 x 20 grid of 500 tiles with 10% overlap between neighbors (including diagonal
+ * neighbors), rendered at 0.1 scale with 8 x 8 coefficients per tile to match the GLOBAL_PER_SLICE correction.
+ * Tile rendering is excluded since it requires real source images.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class IntensityMatcherPerformanceTest {
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+    private int numberOfThreads;
+
+    private List<OverlapSamples> pairSamples;
+
+    public static void main(final String[] args) {
+        final IntensityMatcherPerformanceTest test = new IntensityMatcherPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 3;
+        numberOfThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    @Test
+    public void runTests() throws Exception {
+        if (enableTests) {
+
+            buildLayerPairs();
+
+            // run each approach once to warm up JIT before measuring
+            final int boxedCount = matchLayer(true, 1);
+            final int primitiveCount = matchLayer(false, numberOfThreads);
+
+            // RANSAC sampling is random, so connected counts can differ slightly between runs
+            Assert.assertTrue("boxed approach should connect coefficient pairs", boxedCount > 0);
+            Assert.assertTrue("primitive approach should connect coefficient pairs", primitiveCount > 0);
+
+            System.out.println("matched " + pairSamples.size() + " tile pairs, connecting " + boxedCount +
+                               " (boxed) and " + primitiveCount + " (primitive) coefficient pairs");
+            System.out.println(String.format("%-9s  %7s  %12s", "approach", "threads", "avgLayerMs"));
+            System.out.println(String.format("%-9s  %7s  %12s", "--------", "-------", "----------"));
+
+            printAverageTime(true, 1);
+            printAverageTime(false, 1);
+            printAverageTime(false, numberOfThreads);
+        }
+    }
+
+    private void printAverageTime(final boolean useBoxedSamples,
+                                  final int threads)
+            throws Exception {
+        long totalTime = 0;
+        for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+            final long startTime = System.currentTimeMillis();
+            matchLayer(useBoxedSamples, threads);
+            totalTime += System.currentTimeMillis() - startTime;
+        }
+        System.out.println(String.format("%-9s  %7d  %12d",
+                                         useBoxedSamples ? "boxed" : "primitive",
+                                         threads,
+                                         totalTime / numberOfTimesToRepeatEachTest));
+    }
+
+    private int matchLayer(final boolean useBoxedSamples,
+                           final int threads)
+            throws Exception {
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        int connectedCount = 0;
+        try {
+            final List<Future<ArrayList<ArrayList<PointMatch>>>> futures = new ArrayList<>();
+            for (final OverlapSamples samples : pairSamples) {
+                // filters are not thread safe, so each pair gets its own
+                final PointMatchFilter filter = new RansacRegressionReduceFilter();
+                futures.add(executorService.submit(
+                        () -> useBoxedSamples ? samples.filterBoxedMatches(filter) : samples.filterMatches(filter)));
+            }
+            for (final Future<ArrayList<ArrayList<PointMatch>>> future : futures) {
+                for (final ArrayList<PointMatch> matches : future.get()) {
+                    if ((matches != null) && (matches.size() > 0)) {
+                        connectedCount++;
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        return connectedCount;
+    }
+
+    private void buildLayerPairs() {
+
+        final int columns = 25;
+        final int rows = 20;
+        final Random random = new Random(11);
+
+        pairSamples = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                final boolean hasRight = column + 1 < columns;
+                final boolean hasBelow = row + 1 < rows;
+                if (hasRight) {
+                    pairSamples.add(new OverlapSamples(TILE_WIDTH - OVERLAP_WIDTH, 0, random));
+                }
+                if (hasBelow) {
+                    pairSamples.add(new OverlapSamples(0, TILE_HEIGHT - OVERLAP_HEIGHT, random));
+                }
+                if (hasRight && hasBelow) {
+                    pairSamples.add(new OverlapSamples(TILE_WIDTH - OVERLAP_WIDTH, TILE_HEIGHT - OVERLAP_HEIGHT,
+                                                       random));
+                }
+                if ((column > 0) && hasBelow) {
+                    pairSamples.add(new OverlapSamples(OVERLAP_WIDTH - TILE_WIDTH, TILE_HEIGHT - OVERLAP_HEIGHT,
+                                                       random));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rendered intersection of two tiles where the second tile is offset from the first by (dx, dy).
+     */
+    private static class OverlapSamples {
+
+        private final float[] pixels1;
+        private final float[] weights1;
+        private final int[] coefficients1;
+        private final float[] pixels2;
+        private final float[] weights2;
+        private final int[] coefficients2;
+
+        OverlapSamples(final int dx,
+                       final int dy,
+                       final Random random) {
+
+            final int minX = Math.max(0, dx);
+            final int minY = Math.max(0, dy);
+            final int width = Math.min(TILE_WIDTH, TILE_WIDTH + dx) - minX;
+            final int height = Math.min(TILE_HEIGHT, TILE_HEIGHT + dy) - minY;
+            final int n = width * height;
+
+            pixels1 = new float[n];
+            weights1 = new float[n];
+            coefficients1 = new int[n];
+            pixels2 = new float[n];
+            weights2 = new float[n];
+            coefficients2 = new int[n];
+
+            // second tile is slightly brighter with more contrast than the first
+            final float scale = 1.0f + random.nextFloat() * 0.2f;
+            final float offset = random.nextFloat() * 10.0f;
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final int i = y * width + x;
+                    final int x1 = minX + x;
+                    final int y1 = minY + y;
+                    pixels1[i] = (float) ((x1 + y1) % 200) / 200.0f + random.nextFloat() * 0.05f;
+                    pixels2[i] = pixels1[i] * scale + offset / 255.0f + random.nextFloat() * 0.05f;
+                    weights1[i] = 1.0f;
+                    weights2[i] = 1.0f;
+                    coefficients1[i] = getCoefficientLabel(x1, y1);
+                    coefficients2[i] = getCoefficientLabel(x1 - dx, y1 - dy);
+                }
+            }
+        }
+
+        ArrayList<ArrayList<PointMatch>> filterMatches(final PointMatchFilter filter) {
+            return IntensityMatcher.filterOverlapMatches(pixels1, weights1, coefficients1,
+                                                         pixels2, weights2, coefficients2,
+                                                         NUM_COEFFICIENTS * NUM_COEFFICIENTS,
+                                                         filter);
+        }
+
+        /**
+         * Original approach: one boxed match per overlap pixel, all held in memory until filtering is complete.
+         */
+        ArrayList<ArrayList<PointMatch>> filterBoxedMatches(final PointMatchFilter filter) {
+
+            final int numCoefficientTiles = NUM_COEFFICIENTS * NUM_COEFFICIENTS;
+            final ArrayList<ArrayList<PointMatch>> matrix = new ArrayList<>();
+            for (int cell = 0; cell < numCoefficientTiles * numCoefficientTiles; cell++) {
+                matrix.add(new ArrayList<>());
+            }
+
+            for (int i = 0; i < pixels1.length; i++) {
+                final int c1 = coefficients1[i];
+                final int c2 = coefficients2[i];
+                if ((c1 > 0) && (c2 > 0) && (weights1[i] > 0) && (weights2[i] > 0)) {
+                    final PointMatch pq = new PointMatch(new Point(new double[] { pixels1[i] }),
+                                                         new Point(new double[] { pixels2[i] }),
+                                                         (double) weights1[i] * weights2[i]);
+                    matrix.get((c1 - 1) + (c2 - 1) * numCoefficientTiles).add(pq);
+                }
+            }
+
+            final ArrayList<PointMatch> inliers = new ArrayList<>();
+            for (final ArrayList<PointMatch> candidates : matrix) {
+                inliers.clear();
+                filter.filter(candidates, inliers);
+                candidates.clear();
+                candidates.addAll(inliers);
+            }
+
+            return matrix;
+        }
+
+        private static int getCoefficientLabel(final int x,
+                                               final int y) {
+            // first label is 1
+            return 1 + (y * NUM_COEFFICIENTS / TILE_HEIGHT) * NUM_COEFFICIENTS + (x * NUM_COEFFICIENTS / TILE_WIDTH);
+        }
+    }
+
+    // 2000 x 1750 pixel tiles rendered at 0.1 scale
+    private static final int TILE_WIDTH = 200;
+    private static final int TILE_HEIGHT = 175;
+    private static final int OVERLAP_WIDTH = TILE_WIDTH / 10;
+    private static final int OVERLAP_HEIGHT = TILE_HEIGHT / 10;
+    private static final int NUM_COEFFICIENTS = 8;
+}
@@ -0,0 +1,119 @@
+package org.janelia.render.client.zspacing;
+
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.render.client.zspacing.loader.LayerLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Tests the {@link CrossCorrelationCalculator} class.
+ *
+ * @author Eric Trautman
+ */
+public class CrossCorrelationCalculatorTest {
+
+    @Test
+    public void testDeriveCrossCorrelation() {
+
+        final int comparisonRange = 3;
+        final List<LayerLoader.FloatProcessors> layers = buildLayers(12, true);
+        final LayerLoader layerLoader = new HeadlessZPositionCorrectionTest.TestLayerLoader(layers);
+
+        for (final int numberOfThreads : new int[] {1, 3}) {
+            final CrossCorrelationCalculator calculator =
+                    new CrossCorrelationCalculator(layerLoader, comparisonRange, numberOfThreads);
+            validateData("with " + numberOfThreads + " threads",
+                         calculator.deriveCrossCorrelation(0), layers, comparisonRange);
+        }
+    }
+
+    @Test
+    public void testAppendCrossCorrelation() {
+
+        final int comparisonRange = 4;
+        final List<LayerLoader.FloatProcessors> allLayers = buildLayers(15, false);
+        final List<LayerLoader.FloatProcessors> firstLayers = new ArrayList<>(allLayers.subList(0, 9));
+
+        final CrossCorrelationData existingData =
+                new CrossCorrelationCalculator(new HeadlessZPositionCorrectionTest.TestLayerLoader(firstLayers),
+                                               comparisonRange,
+                                               2).deriveCrossCorrelation(7);
+
+        final CrossCorrelationData appendedData =
+                new CrossCorrelationCalculator(new HeadlessZPositionCorrectionTest.TestLayerLoader(allLayers),
+                                               comparisonRange,
+                                               2).appendCrossCorrelation(existingData);
+
+        Assert.assertEquals("invalid layer count after append",
+                            allLayers.size(), appendedData.getLayerCount());
+        Assert.assertEquals("first layer offset should not change after append",
+                            7, appendedData.getFirstLayerOffset());
+
+        validateData("after append", appendedData, allLayers, comparisonRange);
+    }
+
+    private static List<LayerLoader.FloatProcessors> buildLayers(final int layerCount,
+                                                                 final boolean includeExcludedPixels) {
+        final Random random = new Random(42);
+        final int width = 37;
+        final int height = 23;
+        final List<LayerLoader.FloatProcessors> layers = new ArrayList<>();
+        for (int z = 0; z < layerCount; z++) {
+            final float[] pixels = new float[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                // shared base pattern (so neighbors correlate) plus layer specific noise
+                pixels[i] = (i % width) + (i / width) + (random.nextFloat() * 20 * z);
+            }
+            final float[] masks = new float[pixels.length];
+            Arrays.fill(masks, 255.0f);
+            if (includeExcludedPixels) {
+                if (z == 4) {
+                    masks[7] = 0.0f;
+                } else if (z == 6) {
+                    pixels[11] = Float.NaN;
+                }
+            }
+            layers.add(new LayerLoader.FloatProcessors(new FloatProcessor(width, height, pixels),
+                                                       new FloatProcessor(width, height, masks)));
+        }
+        return layers;
+    }
+
+    private static void validateData(final String context,
+                                     final CrossCorrelationData ccData,
+                                     final List<LayerLoader.FloatProcessors> layers,
+                                     final int comparisonRange) {
+
+        final RandomAccess<DoubleType> matrixAccess = ccData.toMatrix().randomAccess();
+
+        for (int fromIndex = 0; fromIndex < layers.size(); fromIndex++) {
+            for (int toIndex = fromIndex + 1;
+                 (toIndex - fromIndex <= comparisonRange) && (toIndex < layers.size());
+                 toIndex++) {
+
+                final float[] pixelsA = (float[]) layers.get(fromIndex).image.getPixels();
+                final float[] masksA = (float[]) layers.get(fromIndex).mask.getPixels();
+                final float[] pixelsB = (float[]) layers.get(toIndex).image.getPixels();
+                final float[] masksB = (float[]) layers.get(toIndex).mask.getPixels();
+
+                final float expectedValue =
+                        new RealSumFloatNCCMasks(pixelsA, masksA, pixelsB, masksB).call().floatValue();
+
+                matrixAccess.setPosition(new int[] {fromIndex, toIndex});
+
+                Assert.assertEquals(context + ": invalid value for layer " + fromIndex + " and layer " + toIndex,
+                                    expectedValue, matrixAccess.get().getRealDouble(), 0.00001);
+            }
+        }
+    }
+
+}
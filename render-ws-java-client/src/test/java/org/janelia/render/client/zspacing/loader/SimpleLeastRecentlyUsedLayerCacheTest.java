@@ -0,0 +1,82 @@
+package org.janelia.render.client.zspacing.loader;
+
+import ij.process.FloatProcessor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SimpleLeastRecentlyUsedLayerCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class SimpleLeastRecentlyUsedLayerCacheTest {
+
+    @Test
+    public void testLayerCountLimit() {
+
+        final CountingLayerLoader loader = new CountingLayerLoader(5);
+        final SimpleLeastRecentlyUsedLayerCache cache = new SimpleLeastRecentlyUsedLayerCache(loader, 2);
+
+        cache.getProcessors(0);
+        cache.getProcessors(1);
+        cache.getProcessors(0);  // makes layer 1 least recently used
+        cache.getProcessors(2);  // evicts layer 1
+        cache.getProcessors(0);
+        cache.getProcessors(1);
+
+        Assert.assertEquals("layer 0 should only be loaded once", 1, loader.loadCounts.get(0));
+        Assert.assertEquals("layer 1 should be reloaded after eviction", 2, loader.loadCounts.get(1));
+    }
+
+    @Test
+    public void testPixelLimitAndPrefetch() throws Exception {
+
+        final CountingLayerLoader loader = new CountingLayerLoader(6);
+        final int pixelsPerLayer =
+                SimpleLeastRecentlyUsedLayerCache.getPixelCount(loader.getProcessors(0));
+        loader.loadCounts.set(0, 0);
+
+        final SimpleLeastRecentlyUsedLayerCache cache =
+                new SimpleLeastRecentlyUsedLayerCache(loader, pixelsPerLayer * 4L, 2);
+
+        cache.getProcessors(0);
+
+        // wait for prefetch of layers 1 and 2 to complete
+        for (int i = 0; (i < 100) && ((loader.loadCounts.get(1) == 0) || (loader.loadCounts.get(2) == 0)); i++) {
+            Thread.sleep(10);
+        }
+
+        for (int layerIndex = 0; layerIndex < loader.getNumberOfLayers(); layerIndex++) {
+            cache.getProcessors(layerIndex);
+        }
+
+        for (int layerIndex = 0; layerIndex < loader.getNumberOfLayers(); layerIndex++) {
+            Assert.assertEquals("layer " + layerIndex + " should only be loaded once when read sequentially",
+                                1, loader.loadCounts.get(layerIndex));
+        }
+    }
+
+    private static class CountingLayerLoader implements LayerLoader {
+
+        private final AtomicIntegerArray loadCounts;
+
+        CountingLayerLoader(final int numberOfLayers) {
+            this.loadCounts = new AtomicIntegerArray(numberOfLayers);
+        }
+
+        @Override
+        public int getNumberOfLayers() {
+            return loadCounts.length();
+        }
+
+        @Override
+        public FloatProcessors getProcessors(final int layerIndex) {
+            loadCounts.incrementAndGet(layerIndex);
+            return new FloatProcessors(new FloatProcessor(10, 10), new FloatProcessor(10, 10));
+        }
+    }
+
+}
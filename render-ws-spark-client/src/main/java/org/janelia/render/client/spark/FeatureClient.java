@@ -20,6 +20,7 @@ import org.apache.spark.api.java.function.Function;
 import org.apache.spark.broadcast.Broadcast;
 import org.janelia.alignment.match.CanvasFeatureExtractor;
 import org.janelia.alignment.match.CanvasFeatureList;
+import org.janelia.alignment.match.CanvasFeatureListCodec.DescriptorEncoding;
 import org.janelia.alignment.match.CanvasId;
 import org.janelia.alignment.match.CanvasIdWithRenderContext;
 import org.janelia.alignment.match.CanvasRenderParametersUrlTemplate;
@@ -62,10 +63,16 @@ public class FeatureClient
 
         @Parameter(
                 names = "--rootFeatureDirectory",
-                description = "Root directory for saved feature lists (features saved to [root]/[canvas_group_id]/[canvas_id].features.json.gz)",
+                description = "Root directory for saved feature lists (features saved to [root]/[canvas_group_id]/[canvas_id].features.bin)",
                 required = true)
         public String rootFeatureDirectory;
 
+        @Parameter(
+                names = "--descriptorEncoding",
+                description = "Encoding for saved feature descriptors (UINT8 files are roughly 4x smaller)"
+        )
+        public DescriptorEncoding descriptorEncoding = DescriptorEncoding.FLOAT32;
+
         @Parameter(
                 names = "--pairJson",
                 description = "JSON file where tile pairs are stored (.json, .gz, or .zip)",
@@ -141,7 +148,8 @@ public class FeatureClient
                                         parameters.featureRender,
                                         parameters.featureRenderClip,
                                         parameters.featureExtraction,
-                                        new File(parameters.rootFeatureDirectory).getAbsoluteFile());
+                                        new File(parameters.rootFeatureDirectory).getAbsoluteFile(),
+                                        parameters.descriptorEncoding);
     }
 
     private static void generateFeatureListsForCanvases(final JavaSparkContext sparkContext,
@@ -150,7 +158,8 @@ public class FeatureClient
                                                         final FeatureRenderParameters featureRenderParameters,
                                                         final FeatureRenderClipParameters featureRenderClipParameters,
                                                         final FeatureExtractionParameters featureExtractionParameters,
-                                                        final File rootDirectory) {
+                                                        final File rootDirectory,
+                                                        final DescriptorEncoding descriptorEncoding) {
 
         final CanvasRenderParametersUrlTemplate urlTemplateForRun =
                 CanvasRenderParametersUrlTemplate.getTemplateForRun(
@@ -193,7 +202,7 @@ public class FeatureClient
                                                   canvasIdWithRenderContext.getClipWidth(),
                                                   canvasIdWithRenderContext.getClipHeight(),
                                                   canvasFeatures.getFeatureList());
-                    CanvasFeatureList.writeToStorage(rootDirectory, canvasFeatureList);
+                    CanvasFeatureList.writeToStorage(rootDirectory, canvasFeatureList, descriptorEncoding);
                     return 1;
                 }
         );
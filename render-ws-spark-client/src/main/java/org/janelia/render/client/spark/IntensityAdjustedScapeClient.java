@@ -99,7 +99,8 @@ public class IntensityAdjustedScapeClient
                                                  parameters.correctionMethod,
                                                  slicePathFormatSpec,
                                                  parameters.format,
-                                                 z.intValue());
+                                                 z.intValue(),
+                                                 parameters.numberOfThreads);
                     return 1;
                 };
 
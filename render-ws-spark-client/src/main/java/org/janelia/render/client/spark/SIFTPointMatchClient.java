@@ -221,8 +221,7 @@ public class SIFTPointMatchClient
 
                         log.info("derive matches between {} and {}", p, q);
 
-                        matchResult = featureMatcher.deriveMatchResult(pFeatures.getFeatureList(),
-                                                                       qFeatures.getFeatureList());
+                        matchResult = featureMatcher.deriveMatchResult(pFeatures, qFeatures);
 
                         final double[] pClipOffsets = pFeatures.getClipOffsets();
                         final double[] qClipOffsets = qFeatures.getClipOffsets();
@@ -4,9 +4,9 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 
 import ij.process.ByteProcessor;
-import ij.process.ColorProcessor;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
@@ -17,7 +17,7 @@ import java.util.List;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import org.janelia.alignment.ArgbRenderer;
+import org.janelia.alignment.ByteRenderer;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.stack.StackMetaData;
@@ -172,6 +172,19 @@ public class N5Client {
         )
         public Double maxIntensity;
 
+        @Parameter(
+                names = "--maxCacheGb",
+                description = "Maximum number of gigabytes of source image data to cache on each executor " +
+                              "(shared by all tasks running on the executor, 0 to disable caching)"
+        )
+        public Double maxCacheGb = 1.0;
+
+        @Parameter(
+                names = "--maxCachedLayers",
+                description = "Maximum number of layers of resolved tile specs to cache on each executor"
+        )
+        public Integer maxCachedLayers = 64;
+
         private int[] parseCSIntArray(final String csvString) {
             int[] intValues = null;
             if (csvString != null) {
@@ -293,7 +306,9 @@ public class N5Client {
                                                             parameters.tileHeight,
                                                             1.0,
                                                             parameters.minIntensity,
-                                                            parameters.maxIntensity);
+                                                            parameters.maxIntensity,
+                                                            parameters.maxCachedLayers,
+                                                            (long) (1_000_000_000L * parameters.maxCacheGb));
 
             // save full scale first ...
             if (is2DVolume) {
@@ -389,46 +404,112 @@ public class N5Client {
         sparkContext.close();
     }
 
+    /**
+     * Renders 8-bit boxes for a stack.
+     *
+     * Render parameters for each box are derived from resolved layer tile specs cached on each executor
+     * (see {@link ResolvedLayerCache}) and source images are loaded through an executor-wide cache,
+     * so neighboring boxes rendered by different tasks on the same executor share loaded data.
+     * Executor caches are rebuilt whenever a renderer for a different stack (or source cache size) is used.
+     */
     public static class BoxRenderer
             implements Serializable {
 
-        private final String stackUrl;
-        private final String boxUrlSuffix;
+        private final String baseDataUrl;
+        private final String owner;
+        private final String project;
+        private final String stack;
+        private final int width;
+        private final int height;
+        private final double scale;
         private final Double minIntensity;
         private final Double maxIntensity;
+        private final int maxCachedLayers;
+        // maximum number of bytes of source image data cached on each executor (0 to disable caching)
+        private final long maxCachedBytes;
 
-        public BoxRenderer(final String baseUrl,
+        public BoxRenderer(final String baseDataUrl,
                            final String owner,
                            final String project,
                            final String stack,
-                           final long width,
-                           final long height,
+                           final int width,
+                           final int height,
                            final double scale,
                            final Double minIntensity,
-                           final Double maxIntensity) {
-            this.stackUrl = String.format("%s/owner/%s/project/%s/stack/%s", baseUrl, owner, project, stack);
-            this.boxUrlSuffix = String.format("%d,%d,%f/render-parameters", width, height, scale);
+                           final Double maxIntensity,
+                           final int maxCachedLayers,
+                           final long maxCachedBytes) {
+            this.baseDataUrl = baseDataUrl;
+            this.owner = owner;
+            this.project = project;
+            this.stack = stack;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
             this.minIntensity = minIntensity;
             this.maxIntensity = maxIntensity;
+            this.maxCachedLayers = maxCachedLayers;
+            this.maxCachedBytes = maxCachedBytes;
         }
 
         public ByteProcessor render(final long x,
                                     final long y,
-                                    final long z,
-                                    final ImageProcessorCache ipCache) {
-            final String renderParametersUrlString = String.format("%s/z/%d/box/%d,%d,%s",
-                                                                   stackUrl, z, x, y, boxUrlSuffix);
-            final RenderParameters renderParameters = RenderParameters.loadFromUrl(renderParametersUrlString);
+                                    final long z) {
+
+            final RenderParameters renderParameters =
+                    getExecutorLayerCache().getBoxParameters(x, y, z, width, height, scale);
             if (minIntensity != null) {
                 renderParameters.setMinIntensity(minIntensity);
             }
             if (maxIntensity != null) {
                 renderParameters.setMaxIntensity(maxIntensity);
             }
-            final BufferedImage image = renderParameters.openTargetImage();
-            ArgbRenderer.render(renderParameters, image, ipCache);
-            return new ColorProcessor(image).convertToByteProcessor();
+            renderParameters.initializeDerivedValues();
+
+            final BufferedImage image = renderParameters.openTargetImage(BufferedImage.TYPE_BYTE_GRAY);
+            ByteRenderer.render(renderParameters, image, getExecutorSourceCache());
+
+            // wrap the rendered gray pixels directly instead of converting from ARGB
+            final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            return new ByteProcessor(image.getWidth(), image.getHeight(), pixels);
+        }
+
+        private String getStackKey() {
+            return baseDataUrl + "/owner/" + owner + "/project/" + project + "/stack/" + stack;
+        }
+
+        private ResolvedLayerCache getExecutorLayerCache() {
+            final String layerCacheKey = getStackKey();
+            synchronized (BoxRenderer.class) {
+                if ((executorLayerCache == null) || (! layerCacheKey.equals(executorLayerCacheKey))) {
+                    final RenderDataClient dataClient = new RenderDataClient(baseDataUrl, owner, project);
+                    executorLayerCache = new ResolvedLayerCache(dataClient, stack, maxCachedLayers);
+                    executorLayerCacheKey = layerCacheKey;
+                }
+                return executorLayerCache;
+            }
         }
+
+        private ImageProcessorCache getExecutorSourceCache() {
+            final String sourceCacheKey = getStackKey() + "?maxCachedBytes=" + maxCachedBytes;
+            synchronized (BoxRenderer.class) {
+                if ((executorSourceCache == null) || (! sourceCacheKey.equals(executorSourceCacheKey))) {
+                    // the image processor cache weighs entries by their size in bytes (not by pixel count),
+                    // so the byte limit is passed directly as the cache's maximum "pixel" count
+                    executorSourceCache = maxCachedBytes > 0 ?
+                                          new ImageProcessorCache(maxCachedBytes, false, false) :
+                                          ImageProcessorCache.DISABLED_CACHE;
+                    executorSourceCacheKey = sourceCacheKey;
+                }
+                return executorSourceCache;
+            }
+        }
+
+        // caches shared by all tasks running in the same executor JVM
+        private static ResolvedLayerCache executorLayerCache;
+        private static String executorLayerCacheKey;
+        private static ImageProcessorCache executorSourceCache;
+        private static String executorSourceCacheKey;
     }
 
     // serializable downsample supplier for spark
@@ -484,9 +565,6 @@ public class N5Client {
 
         rdd.foreach(gridBlock -> {
 
-            // final ImageProcessorCache ipCache = new ImageProcessorCache();
-            final ImageProcessorCache ipCache = ImageProcessorCache.DISABLED_CACHE;
-
             /* assume we can fit it in an array */
             final ArrayImg<UnsignedByteType, ByteArray> block = ArrayImgs.unsignedBytes(gridBlock[1]);
 
@@ -502,7 +580,7 @@ public class N5Client {
                 final long z = gridBlock[0][2] + min[2] + zIndex;
 
                 if (thicknessCorrectionData == null) {
-                    currentProcessor = boxRenderer.render(x, y, z, ipCache);
+                    currentProcessor = boxRenderer.render(x, y, z);
                 } else {
 
                     final ThicknessCorrectionData.LayerInterpolator interpolator =
@@ -520,7 +598,7 @@ public class N5Client {
                     priorInterpolator = interpolator;
 
                     if (priorProcessor == null) {
-                        priorProcessor = boxRenderer.render(x, y, interpolator.getPriorStackZ(), ipCache);
+                        priorProcessor = boxRenderer.render(x, y, interpolator.getPriorStackZ());
 //                    } else {
 //                        LOG.info("priorProcessor already exists for z " + z + " (" + x + "," + y + ")");
                     }
@@ -530,7 +608,7 @@ public class N5Client {
                         currentProcessor = new ByteProcessor(priorProcessor.getWidth(), priorProcessor.getHeight());
 
                         if (nextProcessor == null) {
-                            nextProcessor = boxRenderer.render(x, y, interpolator.getNextStackZ(), ipCache);
+                            nextProcessor = boxRenderer.render(x, y, interpolator.getNextStackZ());
 //                        } else {
 //                            LOG.info("nextProcessor already exists for z " + z + " (" + x + "," + y + ")");
                         }
@@ -610,16 +688,13 @@ public class N5Client {
 
         rdd.foreach(gridBlock -> {
 
-            // final ImageProcessorCache ipCache = new ImageProcessorCache();
-            final ImageProcessorCache ipCache = ImageProcessorCache.DISABLED_CACHE;
-
             /* assume we can fit it in an array */
             final ArrayImg<UnsignedByteType, ByteArray> block = ArrayImgs.unsignedBytes(gridBlock[1]);
 
             final long x = gridBlock[0][0] + min[0];
             final long y = gridBlock[0][1] + min[1];
 
-            final ByteProcessor currentProcessor = boxRenderer.render(x, y, z, ipCache);
+            final ByteProcessor currentProcessor = boxRenderer.render(x, y, z);
 
             final IterableInterval<UnsignedByteType> inSlice = Views
                     .flatIterable(
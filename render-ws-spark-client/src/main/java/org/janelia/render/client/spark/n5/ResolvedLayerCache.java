@@ -0,0 +1,188 @@
+package org.janelia.render.client.spark.n5;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.spec.ResolvedTileSpecCollection;
+import org.janelia.alignment.spec.TileBounds;
+import org.janelia.alignment.spec.TileBoundsPackedRTree;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.stack.StackMetaData;
+import org.janelia.render.client.RenderDataClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, thread safe cache of resolved tile specs for recently rendered layers in a stack.
+ *
+ * Each layer is loaded from the web service once and indexed with a {@link TileBoundsPackedRTree}
+ * so that render parameters for any box within the layer can be derived locally
+ * (instead of requesting render parameters from the web service for every box).
+ *
+ * @author Eric Trautman
+ */
+public class ResolvedLayerCache {
+
+    private final RenderDataClient renderDataClient;
+    private final String stack;
+    private final LoadingCache<Double, ResolvedLayer> zToLayerCache;
+    private StackMetaData stackMetaData;
+    private Set<Double> stackZValues;
+
+    /**
+     * @param  renderDataClient  client for retrieving layer data.
+     * @param  stack             name of stack.
+     * @param  maxCachedLayers   maximum number of layers to keep in memory.
+     */
+    public ResolvedLayerCache(final RenderDataClient renderDataClient,
+                              final String stack,
+                              final int maxCachedLayers) {
+        this.renderDataClient = renderDataClient;
+        this.stack = stack;
+        this.zToLayerCache = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedLayers)
+                .build(new CacheLoader<Double, ResolvedLayer>() {
+                    @Override
+                    public ResolvedLayer load(final Double z)
+                            throws IOException {
+                        return loadLayer(z);
+                    }
+                });
+        this.stackMetaData = null;
+        this.stackZValues = null;
+    }
+
+    /**
+     * @return render parameters for all tiles in the specified layer that intersect the specified box.
+     *         Tiles are ordered by tileId and stack default mipmap and channel settings are applied
+     *         to match render parameters built by the web service.
+     *
+     * @throws IllegalStateException
+     *   if the layer's tile specs cannot be retrieved.
+     */
+    public RenderParameters getBoxParameters(final double x,
+                                             final double y,
+                                             final double z,
+                                             final int width,
+                                             final int height,
+                                             final double scale)
+            throws IllegalStateException {
+        final ResolvedLayer layer;
+        try {
+            layer = zToLayerCache.get(z);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("failed to load tile specs for z " + z + " in stack " + stack,
+                                            e.getCause());
+        }
+
+        final RenderParameters renderParameters = layer.buildBoxParameters(x, y, width, height, scale);
+
+        final StackMetaData metaData;
+        try {
+            metaData = getStackMetaData();
+        } catch (final IOException e) {
+            throw new IllegalStateException("failed to load metadata for stack " + stack, e);
+        }
+
+        renderParameters.setMipmapPathBuilder(metaData.getCurrentMipmapPathBuilder());
+        final String defaultChannel = metaData.getCurrentDefaultChannel();
+        if (defaultChannel != null) {
+            renderParameters.setChannels(defaultChannel);
+        }
+
+        return renderParameters;
+    }
+
+    private ResolvedLayer loadLayer(final Double z)
+            throws IOException {
+
+        // empty layers are not served by the web service, so identify them up front
+        final ResolvedTileSpecCollection resolvedTiles;
+        if (getStackZValues().contains(z)) {
+            resolvedTiles = renderDataClient.getResolvedTiles(stack, z);
+        } else {
+            resolvedTiles = new ResolvedTileSpecCollection();
+        }
+
+        final ResolvedLayer layer = new ResolvedLayer(z, resolvedTiles);
+
+        LOG.info("loadLayer: loaded {} tile specs for z {} in stack {}", layer.getTileCount(), z, stack);
+
+        return layer;
+    }
+
+    private synchronized StackMetaData getStackMetaData()
+            throws IOException {
+        if (stackMetaData == null) {
+            stackMetaData = renderDataClient.getStackMetaData(stack);
+        }
+        return stackMetaData;
+    }
+
+    private synchronized Set<Double> getStackZValues()
+            throws IOException {
+        if (stackZValues == null) {
+            stackZValues = new HashSet<>(renderDataClient.getStackZValues(stack));
+        }
+        return stackZValues;
+    }
+
+    /**
+     * Resolved tile specs for one layer along with an index of their bounds.
+     */
+    static class ResolvedLayer {
+
+        private final ResolvedTileSpecCollection resolvedTiles;
+        private final TileBoundsPackedRTree tileBoundsTree;
+
+        ResolvedLayer(final Double z,
+                      final ResolvedTileSpecCollection resolvedTiles) {
+
+            this.resolvedTiles = resolvedTiles;
+
+            final List<TileBounds> tileBoundsList = new ArrayList<>(resolvedTiles.getTileCount());
+            for (final TileSpec tileSpec : resolvedTiles.getTileSpecs()) {
+                tileBoundsList.add(tileSpec.toTileBounds());
+            }
+            this.tileBoundsTree = new TileBoundsPackedRTree(z, tileBoundsList);
+        }
+
+        int getTileCount() {
+            return tileBoundsTree.size();
+        }
+
+        RenderParameters buildBoxParameters(final double x,
+                                            final double y,
+                                            final int width,
+                                            final int height,
+                                            final double scale) {
+
+            final List<TileBounds> tileBoundsList = tileBoundsTree.findTilesInBox(x, y, x + width, y + height);
+
+            // order tile specs by tileId to ensure consistent coordinate mapping
+            final List<String> tileIds = new ArrayList<>(tileBoundsList.size());
+            for (final TileBounds tileBounds : tileBoundsList) {
+                tileIds.add(tileBounds.getTileId());
+            }
+            tileIds.sort(null);
+
+            final RenderParameters renderParameters = new RenderParameters(null, x, y, width, height, scale);
+            for (final String tileId : tileIds) {
+                renderParameters.addTileSpec(resolvedTiles.getTileSpec(tileId));
+            }
+
+            return renderParameters;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResolvedLayerCache.class);
+}
@@ -0,0 +1,60 @@
+package org.janelia.render.client.spark.n5;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.spec.ResolvedTileSpecCollection;
+import org.janelia.alignment.spec.TileSpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ResolvedLayerCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class ResolvedLayerCacheTest {
+
+    @Test
+    public void testBuildBoxParameters() {
+
+        final double z = 7.0;
+        final ResolvedTileSpecCollection resolvedTiles = new ResolvedTileSpecCollection();
+        // add tiles in reverse order to verify parameters are sorted by tileId
+        for (int i = 3; i >= 0; i--) {
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("tile-" + i);
+            tileSpec.setZ(z);
+            tileSpec.setBoundingBox(new Rectangle(i * 100, 0, 100, 100), RenderParameters.DEFAULT_MESH_CELL_SIZE);
+            resolvedTiles.addTileSpecToCollection(tileSpec);
+        }
+
+        final ResolvedLayerCache.ResolvedLayer layer = new ResolvedLayerCache.ResolvedLayer(z, resolvedTiles);
+
+        Assert.assertEquals("invalid tile count", 4, layer.getTileCount());
+
+        RenderParameters renderParameters = layer.buildBoxParameters(150, 10, 100, 20, 0.5);
+
+        Assert.assertEquals("invalid box x", 150, renderParameters.getX(), 0.0);
+        Assert.assertEquals("invalid box width", 100, renderParameters.getWidth());
+        Assert.assertEquals("invalid box scale", 0.5, renderParameters.getScale(), 0.0);
+        Assert.assertEquals("invalid tiles for box spanning two tiles",
+                            "[tile-1, tile-2]", getTileIds(renderParameters).toString());
+
+        renderParameters = layer.buildBoxParameters(1000, 1000, 100, 100, 1.0);
+
+        Assert.assertEquals("box outside layer should not have tiles",
+                            0, renderParameters.numberOfTileSpecs());
+    }
+
+    private static List<String> getTileIds(final RenderParameters renderParameters) {
+        final List<String> tileIds = new ArrayList<>();
+        for (final TileSpec tileSpec : renderParameters.getTileSpecs()) {
+            tileIds.add(tileSpec.getTileId());
+        }
+        return tileIds;
+    }
+
+}
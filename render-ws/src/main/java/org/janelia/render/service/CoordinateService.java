@@ -2,8 +2,16 @@ package org.janelia.render.service;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
@@ -16,10 +24,17 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+
+import org.janelia.alignment.spec.TileBounds;
+import org.janelia.alignment.spec.TileBoundsRTree;
 import org.janelia.alignment.spec.TileCoordinates;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.stack.StackId;
+import org.janelia.alignment.util.SharedMappingThreadPool;
 import org.janelia.render.service.dao.RenderDao;
+import org.janelia.render.service.model.ObjectNotFoundException;
 import org.janelia.render.service.util.RenderServiceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -195,14 +210,14 @@ public class CoordinateService {
                  owner, project, stack, localCoordinatesList.size());
 
         final long startTime = System.currentTimeMillis();
-        long lastStatusTime = startTime;
-        final List<TileCoordinates> worldCoordinatesList = new ArrayList<>(localCoordinatesList.size());
+        final TileCoordinates[] worldCoordinatesArray = new TileCoordinates[localCoordinatesList.size()];
         final StackId stackId = new StackId(owner, project, stack);
-        TileSpec tileSpec;
+
+        // group points by tile so that each tile spec is loaded and its transforms are built only once
+        final Map<String, List<Integer>> tileIdToIndexes = new LinkedHashMap<>();
         TileCoordinates coordinates;
         String tileId;
         double[] local;
-        int errorCount = 0;
         for (int i = 0; i < localCoordinatesList.size(); i++) {
 
             coordinates = localCoordinatesList.get(i);
@@ -224,35 +239,81 @@ public class CoordinateService {
                     throw new IllegalArgumentException("local values must include both x and y");
                 }
 
-                tileSpec = renderDao.getTileSpec(stackId, tileId, true);
-                worldCoordinatesList.add(TileCoordinates.getWorldCoordinates(tileSpec, local[0], local[1]));
+                tileIdToIndexes.computeIfAbsent(tileId, id -> new ArrayList<>()).add(i);
 
             } catch (final Throwable t) {
+                worldCoordinatesArray[i] = getLocalCoordinatesWithError("getWorldCoordinates", i, coordinates, t);
+            }
+        }
 
-                LOG.warn("getWorldCoordinates: caught exception for list item {}, adding original coordinates with error message to list", i, t);
+        // load tile specs for a batch of tiles with one query and then transform each tile's points in parallel
+        final ProgressLogger progressLogger = new ProgressLogger("getWorldCoordinates: transformed",
+                                                                 localCoordinatesList.size());
+        final List<String> tileIds = new ArrayList<>(tileIdToIndexes.keySet());
+        for (int fromIndex = 0; fromIndex < tileIds.size(); fromIndex += TILE_SPEC_BATCH_SIZE) {
 
-                errorCount++;
+            final List<String> batchTileIds =
+                    tileIds.subList(fromIndex, Math.min(fromIndex + TILE_SPEC_BATCH_SIZE, tileIds.size()));
 
-                if (coordinates == null) {
-                    coordinates = TileCoordinates.buildLocalInstance(null, null);
+            final Map<String, TileSpec> tileIdToSpec = new HashMap<>();
+            Throwable batchLoadFailure = null;
+            try {
+                for (final TileSpec tileSpec : renderDao.getTileSpecs(stackId, batchTileIds)) {
+                    tileIdToSpec.put(tileSpec.getTileId(), tileSpec);
                 }
-                coordinates.setError(t.getMessage());
-
-                worldCoordinatesList.add(coordinates);
+            } catch (final Throwable t) {
+                batchLoadFailure = t;
             }
 
-            if ((System.currentTimeMillis() - lastStatusTime) > COORDINATE_PROCESSING_LOG_INTERVAL) {
-                lastStatusTime = System.currentTimeMillis();
-                LOG.info("getWorldCoordinates: transformed {} out of {} points",
-                         worldCoordinatesList.size(), localCoordinatesList.size());
-            }
+            final Throwable loadFailure = batchLoadFailure;
+            forEachInParallel(batchTileIds, batchTileId -> {
+                final List<Integer> indexes = tileIdToIndexes.get(batchTileId);
+                final TileSpec tileSpec = tileIdToSpec.get(batchTileId);
+                CoordinateTransformList<CoordinateTransform> transformList = null;
+                Throwable tileFailure = loadFailure;
+                if (tileFailure == null) {
+                    try {
+                        if (tileSpec == null) {
+                            throw new ObjectNotFoundException("tile spec with id '" + batchTileId +
+                                                              "' does not exist in " + stackId);
+                        }
+                        transformList = tileSpec.hasTransforms() ? tileSpec.getTransformList() : null;
+                    } catch (final Throwable t) {
+                        tileFailure = t;
+                    }
+                }
+
+                for (final Integer i : indexes) {
+                    final TileCoordinates tileCoordinates = localCoordinatesList.get(i);
+                    if (tileFailure == null) {
+                        // applying transforms in place is safe since the request's local values are not returned
+                        final double[] w = tileCoordinates.getLocal();
+                        if (transformList != null) {
+                            transformList.applyInPlace(w);
+                        }
+                        final double[] world = tileSpec.getZ() == null ? new double[] {w[0], w[1]} :
+                                               new double[] {w[0], w[1], tileSpec.getZ()};
+                        worldCoordinatesArray[i] = TileCoordinates.buildWorldInstance(batchTileId, world);
+                    } else {
+                        worldCoordinatesArray[i] =
+                                getLocalCoordinatesWithError("getWorldCoordinates", i, tileCoordinates, tileFailure);
+                    }
+                }
+                progressLogger.add(indexes.size());
+            });
+        }
 
+        int errorCount = 0;
+        for (final TileCoordinates worldCoordinates : worldCoordinatesArray) {
+            if (worldCoordinates.hasError()) {
+                errorCount++;
+            }
         }
 
-        LOG.info("getWorldCoordinates: exit, transformed {} points with {} errors in {} ms",
-                 worldCoordinatesList.size(), errorCount, (System.currentTimeMillis() - startTime));
+        LOG.info("getWorldCoordinates: exit, transformed {} points with {} errors in {} ms",
+                 worldCoordinatesArray.length, errorCount, (System.currentTimeMillis() - startTime));
 
-        return worldCoordinatesList;
+        return Arrays.asList(worldCoordinatesArray);
     }
 
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/z/{z}/local-to-world-coordinates")
@@ -402,19 +463,16 @@ public class CoordinateService {
                  owner, project, stack, z, worldCoordinatesList.size());
 
         final long startTime = System.currentTimeMillis();
-        long lastStatusTime = startTime;
-
-        double currentZ = -1;
-        if (z != null) {
-            currentZ = z;
-        }
 
-        final List<List<TileCoordinates>> localCoordinatesList = new ArrayList<>(worldCoordinatesList.size());
+        final List<List<TileCoordinates>> localCoordinatesList =
+                new ArrayList<>(Collections.nCopies(worldCoordinatesList.size(), null));
         final StackId stackId = new StackId(owner, project, stack);
-        List<TileSpec> tileSpecList;
+
+        // group points by layer so that each layer's tiles can be found with one query
+        final Map<Double, List<Integer>> zToIndexes = new LinkedHashMap<>();
         TileCoordinates coordinates;
         double[] world;
-        int errorCount = 0;
+        Double currentZ;
         for (int i = 0; i < worldCoordinatesList.size(); i++) {
 
             coordinates = worldCoordinatesList.get(i);
@@ -438,42 +496,245 @@ public class CoordinateService {
 
                 } else if (world.length < 2) {
                     throw new IllegalArgumentException("world values must include both x and y");
+                } else {
+                    currentZ = z;
                 }
 
-                tileSpecList = renderDao.getTileSpecs(stackId, world[0], world[1], currentZ);
-                localCoordinatesList.add(TileCoordinates.getLocalCoordinates(tileSpecList,
-                                                                             world[0],
-                                                                             world[1]));
+                zToIndexes.computeIfAbsent(currentZ, layerZ -> new ArrayList<>()).add(i);
 
             } catch (final Throwable t) {
+                localCoordinatesList.set(i, getWorldCoordinatesWithError(i, coordinates, t));
+            }
+        }
 
-                LOG.warn("getLocalCoordinates: caught exception for list item {}, adding original coordinates with error message to list", i, t);
+        // Load each layer's tile specs on this (request) thread so that blocking database work
+        // does not tie up the shared mapping pool that render requests also use.
+        final List<LayerPoints> layerPointsList = new ArrayList<>(zToIndexes.size());
+        long lastStatusTime = System.currentTimeMillis();
+        for (final Map.Entry<Double, List<Integer>> entry : zToIndexes.entrySet()) {
+            layerPointsList.add(loadLayerPoints(stackId,
+                                                entry.getKey(),
+                                                entry.getValue(),
+                                                worldCoordinatesList,
+                                                localCoordinatesList));
+            if ((System.currentTimeMillis() - lastStatusTime) > COORDINATE_PROCESSING_LOG_INTERVAL) {
+                lastStatusTime = System.currentTimeMillis();
+                LOG.info("getLocalCoordinates: loaded tile specs for {} out of {} layers",
+                         layerPointsList.size(), zToIndexes.size());
+            }
+        }
 
+        // tile specs cache inverse meshes that are not thread safe, so layers (with distinct specs) are
+        // processed in parallel while the points within each layer are processed sequentially
+        final ProgressLogger progressLogger = new ProgressLogger("getLocalCoordinates: inversely transformed",
+                                                                 worldCoordinatesList.size());
+        forEachInParallel(layerPointsList,
+                          layerPoints -> setLocalCoordinatesForLayer(stackId,
+                                                                     layerPoints,
+                                                                     worldCoordinatesList,
+                                                                     localCoordinatesList,
+                                                                     progressLogger));
+
+        int errorCount = 0;
+        for (final List<TileCoordinates> tileCoordinatesList : localCoordinatesList) {
+            if ((tileCoordinatesList.size() == 1) && tileCoordinatesList.get(0).hasError()) {
                 errorCount++;
+            }
+        }
 
-                if (coordinates == null) {
-                    coordinates = TileCoordinates.buildWorldInstance(null, null);
-                }
-                coordinates.setError(t.getMessage());
+        LOG.info("getLocalCoordinates: inversely transformed {} points in {} layers with {} errors in {} ms",
+                 localCoordinatesList.size(), zToIndexes.size(), errorCount, (System.currentTimeMillis() - startTime));
+
+        return localCoordinatesList;
+    }
+
+    /**
+     * Loads the tile specs needed to map the specified layer's world points.
+     * A single box query is used for the layer unless it fails (e.g. because the box is too large),
+     * in which case each point's tile specs are queried separately.
+     */
+    private LayerPoints loadLayerPoints(final StackId stackId,
+                                        final Double z,
+                                        final List<Integer> indexes,
+                                        final List<TileCoordinates> worldCoordinatesList,
+                                        final List<List<TileCoordinates>> localCoordinatesList) {
+
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (final Integer i : indexes) {
+            final double[] world = worldCoordinatesList.get(i).getWorld();
+            minX = Math.min(minX, world[0]);
+            minY = Math.min(minY, world[1]);
+            maxX = Math.max(maxX, world[0]);
+            maxY = Math.max(maxY, world[1]);
+        }
 
-                localCoordinatesList.add(Collections.singletonList(coordinates));
+        final LayerPoints layerPoints = new LayerPoints(z, indexes);
+        try {
+            final List<TileSpec> layerTileSpecs = renderDao.getTileSpecsInBox(stackId, z, minX, minY, maxX, maxY);
+            final List<TileBounds> tileBoundsList = new ArrayList<>(layerTileSpecs.size());
+            for (final TileSpec tileSpec : layerTileSpecs) {
+                tileBoundsList.add(tileSpec.toTileBounds());
+                layerPoints.tileIdToSpec.put(tileSpec.getTileId(), tileSpec);
+            }
+            layerPoints.layerTree = new TileBoundsRTree(z, tileBoundsList);
+        } catch (final Throwable t) {
+            LOG.info("loadLayerPoints: failed to load tiles for z {} points, querying each point instead ({})",
+                     z, t.getMessage());
+            for (final Integer i : indexes) {
+                final TileCoordinates coordinates = worldCoordinatesList.get(i);
+                final double[] world = coordinates.getWorld();
+                try {
+                    layerPoints.indexToTileSpecs.put(i, renderDao.getTileSpecs(stackId, world[0], world[1], z));
+                } catch (final Throwable pointFailure) {
+                    localCoordinatesList.set(i, getWorldCoordinatesWithError(i, coordinates, pointFailure));
+                }
             }
+        }
 
-            if ((System.currentTimeMillis() - lastStatusTime) > COORDINATE_PROCESSING_LOG_INTERVAL) {
-                lastStatusTime = System.currentTimeMillis();
-                LOG.info("getLocalCoordinates: inversely transformed {} out of {} points",
-                         localCoordinatesList.size(), worldCoordinatesList.size());
+        return layerPoints;
+    }
+
+    private void setLocalCoordinatesForLayer(final StackId stackId,
+                                             final LayerPoints layerPoints,
+                                             final List<TileCoordinates> worldCoordinatesList,
+                                             final List<List<TileCoordinates>> localCoordinatesList,
+                                             final ProgressLogger progressLogger) {
+
+        final Double z = layerPoints.z;
+        for (final Integer i : layerPoints.indexes) {
+            final TileCoordinates coordinates = worldCoordinatesList.get(i);
+            final double[] world = coordinates.getWorld();
+            try {
+
+                final List<TileSpec> tileSpecList;
+                if (layerPoints.layerTree == null) {
+                    tileSpecList = layerPoints.indexToTileSpecs.get(i);
+                    if (tileSpecList == null) {
+                        continue; // point query failed and error has already been set
+                    }
+                } else {
+                    // order tile specs by tileId to match database query ordering (and ensure consistent mapping)
+                    tileSpecList = layerPoints.layerTree.findTilesInBox(world[0], world[1], world[0], world[1])
+                            .stream()
+                            .map(TileBounds::getTileId)
+                            .sorted()
+                            .map(layerPoints.tileIdToSpec::get)
+                            .collect(Collectors.toList());
+                    if (tileSpecList.size() == 0) {
+                        throw new IllegalArgumentException("no tile specifications found in " + stackId +
+                                                           " for world coordinates x=" + world[0] +
+                                                           ", y=" + world[1] + ", z=" + z);
+                    }
+                }
+
+                localCoordinatesList.set(i, TileCoordinates.getLocalCoordinates(tileSpecList,
+                                                                                world[0],
+                                                                                world[1]));
+
+            } catch (final Throwable t) {
+                localCoordinatesList.set(i, getWorldCoordinatesWithError(i, coordinates, t));
             }
+        }
+
+        progressLogger.add(layerPoints.indexes.size());
+    }
+
+    private static TileCoordinates getLocalCoordinatesWithError(final String context,
+                                                                final int index,
+                                                                final TileCoordinates coordinates,
+                                                                final Throwable t) {
+
+        LOG.warn("{}: caught exception for list item {}, adding original coordinates with error message to list",
+                 context, index, t);
+
+        final TileCoordinates coordinatesWithError =
+                coordinates == null ? TileCoordinates.buildLocalInstance(null, null) : coordinates;
+        coordinatesWithError.setError(t.getMessage());
+        return coordinatesWithError;
+    }
+
+    private static List<TileCoordinates> getWorldCoordinatesWithError(final int index,
+                                                                      final TileCoordinates coordinates,
+                                                                      final Throwable t) {
 
+        LOG.warn("getLocalCoordinates: caught exception for list item {}, adding original coordinates with error message to list",
+                 index, t);
+
+        final TileCoordinates coordinatesWithError =
+                coordinates == null ? TileCoordinates.buildWorldInstance(null, null) : coordinates;
+        coordinatesWithError.setError(t.getMessage());
+        return Collections.singletonList(coordinatesWithError);
+    }
+
+    /**
+     * Runs the consumer for each item using the shared mapping thread pool.
+     * Since render requests use the same pool, consumers should only do CPU bound work (no database queries).
+     */
+    private static <T> void forEachInParallel(final Collection<T> items,
+                                              final Consumer<T> consumer)
+            throws IllegalStateException {
+        try {
+            SharedMappingThreadPool.getInstance().submit(() -> items.parallelStream().forEach(consumer)).get();
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("failed to process coordinates", e);
         }
+    }
 
-        LOG.info("getLocalCoordinates: inversely transformed {} points with {} errors in {} ms",
-                 localCoordinatesList.size(), errorCount, (System.currentTimeMillis() - startTime));
+    /**
+     * Tile specs loaded for the world points in one layer.
+     */
+    private static class LayerPoints {
+
+        private final Double z;
+        private final List<Integer> indexes;
+        private final Map<String, TileSpec> tileIdToSpec;
+        private final Map<Integer, List<TileSpec>> indexToTileSpecs;
+        private TileBoundsRTree layerTree;
+
+        LayerPoints(final Double z,
+                    final List<Integer> indexes) {
+            this.z = z;
+            this.indexes = indexes;
+            this.tileIdToSpec = new HashMap<>();
+            this.indexToTileSpecs = new HashMap<>();
+            this.layerTree = null; // only built if the layer query succeeds
+        }
+    }
 
-        return localCoordinatesList;
+    /**
+     * Periodically logs the number of points mapped by concurrent workers.
+     */
+    private static class ProgressLogger {
+
+        private final String context;
+        private final int totalCount;
+        private int processedCount;
+        private long lastStatusTime;
+
+        ProgressLogger(final String context,
+                       final int totalCount) {
+            this.context = context;
+            this.totalCount = totalCount;
+            this.processedCount = 0;
+            this.lastStatusTime = System.currentTimeMillis();
+        }
+
+        synchronized void add(final int count) {
+            processedCount += count;
+            if ((System.currentTimeMillis() - lastStatusTime) > COORDINATE_PROCESSING_LOG_INTERVAL) {
+                lastStatusTime = System.currentTimeMillis();
+                LOG.info("{} {} out of {} points", context, processedCount, totalCount);
+            }
+        }
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(CoordinateService.class);
 
     private static final long COORDINATE_PROCESSING_LOG_INTERVAL = 5000;
+
+    /** Maximum number of tile specs to load with one query when mapping local coordinates. */
+    private static final int TILE_SPEC_BATCH_SIZE = 5000;
 }
@@ -1,8 +1,10 @@
 package org.janelia.render.service;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Maps;
 
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -14,9 +16,16 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.janelia.alignment.filter.FilterFactory;
+import org.janelia.alignment.loader.HDF5SliceLoader;
+import org.janelia.alignment.loader.N5BlockCache;
+import org.janelia.alignment.loader.N5SliceLoader;
 import org.janelia.alignment.util.ImageProcessorCache;
+import org.janelia.alignment.util.RenderTransformMeshCache;
+import org.janelia.render.service.dao.StackDataCache;
+import org.janelia.render.service.dao.TransformSpecCache;
 import org.janelia.render.service.util.RenderServerProperties;
 import org.janelia.render.service.util.RenderServiceUtil;
+import org.janelia.render.service.util.RenderedImageCache;
 import org.janelia.render.service.util.SharedImageProcessorCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -100,6 +109,34 @@ public class DeploymentConfigurationService {
         return versionInfo;
     }
 
+    @Path("v1/imageProcessorCache/stats")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Statistics for the on-heap and off-heap tiers of the shared image cache",
+            produces = MediaType.APPLICATION_JSON)
+    public Map<String, Object> getImageProcessorCacheStats() {
+
+        final ImageProcessorCache sharedCache = SharedImageProcessorCache.getInstance();
+        final CacheStats onHeapStats = sharedCache.getStats();
+
+        final Map<String, Object> onHeap = new LinkedHashMap<>();
+        onHeap.put("entryCount", sharedCache.size());
+        onHeap.put("hitCount", onHeapStats.hitCount());
+        onHeap.put("missCount", onHeapStats.missCount());
+        onHeap.put("loadSuccessCount", onHeapStats.loadSuccessCount());
+        onHeap.put("loadExceptionCount", onHeapStats.loadExceptionCount());
+        onHeap.put("totalLoadTime", onHeapStats.totalLoadTime());
+        onHeap.put("evictionCount", onHeapStats.evictionCount());
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("onHeap", onHeap);
+        stats.put("offHeap", sharedCache.getOffHeapStats());
+
+        return stats;
+    }
+
     @Path("v1/imageProcessorCache/allEntries")
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
@@ -111,7 +148,30 @@ public class DeploymentConfigurationService {
         Response response = null;
         try {
             final ImageProcessorCache sharedCache = SharedImageProcessorCache.getInstance();
-            LOG.info("invalidateImageProcessorCache: entry, invalidating {} elements, current stats are: {}",
+            LOG.info("invalidateImageProcessorCache: entry, invalidating {} elements, current stats are: {}, off-heap stats are: {}",
+                     sharedCache.size(), sharedCache.getStats(), sharedCache.getOffHeapStats());
+            sharedCache.invalidateAll();
+
+            response = Response.ok().build();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
+    @Path("v1/meshCache/allEntries")
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Discards all cached tile meshes",
+            produces = MediaType.APPLICATION_JSON)
+    public Response invalidateMeshCache() {
+        Response response = null;
+        try {
+            final RenderTransformMeshCache sharedCache = RenderTransformMeshCache.getSharedInstance();
+            LOG.info("invalidateMeshCache: entry, invalidating {} elements, current stats are: {}",
                      sharedCache.size(), sharedCache.getStats());
             sharedCache.invalidateAll();
 
@@ -123,6 +183,124 @@ public class DeploymentConfigurationService {
         return response;
     }
 
+    @Path("v1/n5BlockCache/allEntries")
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Discards all cached N5/HDF5 blocks, pooled readers, and data set attributes",
+            produces = MediaType.APPLICATION_JSON)
+    public Response invalidateN5BlockCache() {
+        Response response = null;
+        try {
+            final N5BlockCache sharedCache = N5BlockCache.getSharedInstance();
+            LOG.info("invalidateN5BlockCache: entry, invalidating {} elements, current stats are: {}",
+                     sharedCache.size(), sharedCache.getStats());
+            sharedCache.invalidateAll();
+            N5SliceLoader.INSTANCE.invalidateReaders();
+            HDF5SliceLoader.INSTANCE.invalidateReaders();
+
+            response = Response.ok().build();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
+    @Path("v1/transformSpecCache/allEntries")
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Discards all cached shared transform specs",
+            produces = MediaType.APPLICATION_JSON)
+    public Response invalidateTransformSpecCache() {
+        Response response = null;
+        try {
+            final TransformSpecCache sharedCache = TransformSpecCache.getSharedInstance();
+            LOG.info("invalidateTransformSpecCache: entry, invalidating {}", sharedCache);
+            sharedCache.invalidateAll();
+
+            response = Response.ok().build();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
+    @Path("v1/stackDataCache/stats")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Statistics for the cache of tile specs and bounds for complete stacks",
+            produces = MediaType.APPLICATION_JSON)
+    public Map<String, Object> getStackDataCacheStats() {
+
+        final StackDataCache sharedCache = StackDataCache.getSharedInstance();
+        final CacheStats cacheStats = sharedCache.getStats();
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", sharedCache.isEnabled());
+        stats.put("entryCount", sharedCache.size());
+        stats.put("hitCount", cacheStats.hitCount());
+        stats.put("missCount", cacheStats.missCount());
+        stats.put("loadSuccessCount", cacheStats.loadSuccessCount());
+        stats.put("loadExceptionCount", cacheStats.loadExceptionCount());
+        stats.put("totalLoadTime", cacheStats.totalLoadTime());
+        stats.put("evictionCount", cacheStats.evictionCount());
+
+        return stats;
+    }
+
+    @Path("v1/stackDataCache/allEntries")
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Discards all cached tile specs and bounds",
+            produces = MediaType.APPLICATION_JSON)
+    public Response invalidateStackDataCache() {
+        Response response = null;
+        try {
+            final StackDataCache sharedCache = StackDataCache.getSharedInstance();
+            LOG.info("invalidateStackDataCache: entry, invalidating {}, current stats are: {}",
+                     sharedCache, sharedCache.getStats());
+            sharedCache.invalidateAll();
+
+            response = Response.ok().build();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
+    @Path("v1/renderedImageCache/allEntries")
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Service Configuration APIs",
+            value = "Discards all cached (encoded) bounding box images",
+            produces = MediaType.APPLICATION_JSON)
+    public Response invalidateRenderedImageCache() {
+        Response response = null;
+        try {
+            final RenderedImageCache sharedCache = RenderedImageCache.getSharedInstance();
+            LOG.info("invalidateRenderedImageCache: entry, invalidating {}, current stats are: {}",
+                     sharedCache, sharedCache.getStats());
+            sharedCache.invalidateAll();
+
+            response = Response.ok().build();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
     private FilterFactory getFilterFactory() {
         if (this.filterFactory == null) {
             // lazy-load factory configuration from JSON file
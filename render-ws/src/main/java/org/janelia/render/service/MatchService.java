@@ -17,6 +17,7 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
@@ -198,7 +199,7 @@ public class MatchService {
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/pGroup/{pGroupId}/matches")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches with the specified pGroup",
             notes = "Find all matches where the first tile is in the specified layer.",
@@ -211,22 +212,62 @@ public class MatchService {
                                          @PathParam("matchCollection") final String matchCollection,
                                          @PathParam("pGroupId") final String pGroupId,
                                          @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
-                                         @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                         @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                         @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesWithPGroup: entry, owner={}, matchCollection={}, pGroupId={}, mergeCollectionList={}",
                  owner, matchCollection, pGroupId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
+        final StreamingOutput responseOutput =
+                output -> matchDao.writeMatchesWithPGroup(collectionId, mergeCollectionIdList, pGroupId, excludeMatchDetails, responseFormat, output);
+
+        return streamResponse(responseOutput, responseFormat);
+    }
+
+    @Path("v1/owner/{owner}/matchCollection/{matchCollection}/matchesWithPGroupIds")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
+    @ApiOperation(
+            value = "Find matches with any of the specified pGroups",
+            notes = "Find all matches where the first tile is in one of the layers listed in the request body. " +
+                    "Matches are sorted by pGroupId so that all matches for each layer are returned together. " +
+                    "POST is used because lists of pGroupIds can be too long for a URL.",
+            response = CanvasMatches.class,
+            responseContainer="List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "If no pGroupIds are provided"),
+            @ApiResponse(code = 404, message = "Match collection not found")
+    })
+    public Response getMatchesWithPGroups(@PathParam("owner") final String owner,
+                                          @PathParam("matchCollection") final String matchCollection,
+                                          @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
+                                          @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                          @Context final HttpHeaders headers,
+                                          final List<String> pGroupIds) {
+
+        LOG.info("getMatchesWithPGroups: entry, owner={}, matchCollection={}, pGroupIds.size()={}, mergeCollectionList={}",
+                 owner, matchCollection, pGroupIds == null ? null : pGroupIds.size(), mergeCollectionList);
+
+        if ((pGroupIds == null) || (pGroupIds.size() == 0)) {
+            throw new IllegalServiceArgumentException("no pGroupIds provided");
+        }
+
+        final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
+        final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesWithPGroup(collectionId, mergeCollectionIdList, pGroupId, excludeMatchDetails, output);
+                output -> matchDao.writeMatchesWithPGroups(collectionId, mergeCollectionIdList, pGroupIds, excludeMatchDetails, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{groupId}/matchesWithinGroup")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches within the specified group",
             notes = "Find all matches where both tiles are in the specified layer.",
@@ -239,22 +280,24 @@ public class MatchService {
                                           @PathParam("matchCollection") final String matchCollection,
                                           @PathParam("groupId") final String groupId,
                                           @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
-                                          @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                          @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                          @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesWithinGroup: entry, owner={}, matchCollection={}, groupId={}, mergeCollectionList={}",
                  owner, matchCollection, groupId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesWithinGroup(collectionId, mergeCollectionIdList, groupId, excludeMatchDetails, output);
+                output -> matchDao.writeMatchesWithinGroup(collectionId, mergeCollectionIdList, groupId, excludeMatchDetails, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{groupId}/matchesOutsideGroup")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches outside the specified group",
             notes = "Find all matches with one tile in the specified layer and another tile outside that layer.",
@@ -267,22 +310,24 @@ public class MatchService {
                                            @PathParam("matchCollection") final String matchCollection,
                                            @PathParam("groupId") final String groupId,
                                            @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
-                                           @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                           @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                           @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesOutsideGroup: entry, owner={}, matchCollection={}, groupId={}, mergeCollectionList={}",
                  owner, matchCollection, groupId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesOutsideGroup(collectionId, mergeCollectionIdList, groupId, excludeMatchDetails, output);
+                output -> matchDao.writeMatchesOutsideGroup(collectionId, mergeCollectionIdList, groupId, excludeMatchDetails, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{pGroupId}/matchesWith/{qGroupId}")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches between the specified groups",
             notes = "Find all matches with one tile in the specified p layer and another tile in the specified q layer.",
@@ -296,22 +341,24 @@ public class MatchService {
                                             @PathParam("pGroupId") final String pGroupId,
                                             @PathParam("qGroupId") final String qGroupId,
                                             @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
-                                            @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                            @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                            @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesBetweenGroups: entry, owner={}, matchCollection={}, pGroupId={}, qGroupId={}, mergeCollectionList={}",
                  owner, matchCollection, pGroupId, qGroupId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesBetweenGroups(collectionId, mergeCollectionIdList, pGroupId, qGroupId, excludeMatchDetails, output);
+                output -> matchDao.writeMatchesBetweenGroups(collectionId, mergeCollectionIdList, pGroupId, qGroupId, excludeMatchDetails, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{pGroupId}/id/{pId}/matchesWith/{qGroupId}/id/{qId}")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches between the specified objects",
             notes = "Find all matches between two specific tiles.",
@@ -326,21 +373,23 @@ public class MatchService {
                                              @PathParam("pId") final String pId,
                                              @PathParam("qGroupId") final String qGroupId,
                                              @PathParam("qId") final String qId,
-                                             @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                             @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                             @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesBetweenObjects: entry, owner={}, matchCollection={}, pGroupId={}, pId={}, qGroupId={}, qId={}, mergeCollectionList={}",
                  owner, matchCollection, pGroupId, pId, qGroupId, qId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesBetweenObjects(collectionId, mergeCollectionIdList, pGroupId, pId, qGroupId, qId, output);
+                output -> matchDao.writeMatchesBetweenObjects(collectionId, mergeCollectionIdList, pGroupId, pId, qGroupId, qId, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{pGroupId}/id/{pId}/matchesWith/{qGroupId}")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches from a specified object to a specified group",
             notes = "Find all matches between a specific tile and a specific section.",
@@ -355,22 +404,24 @@ public class MatchService {
                                                 @PathParam("pId") final String pId,
                                                 @PathParam("qGroupId") final String qGroupId,
                                                 @DefaultValue("false") @QueryParam("excludeMatchDetails") final boolean excludeMatchDetails,
-                                                @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                                @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                                @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesFromObjectToGroup: entry, owner={}, matchCollection={}, pGroupId={}, pId={}, qGroupId={}, mergeCollectionList={}",
                  owner, matchCollection, pGroupId, pId, qGroupId, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesBetweenObjectAndGroup(collectionId, mergeCollectionIdList, pGroupId, pId, qGroupId, excludeMatchDetails, output);
+                output -> matchDao.writeMatchesBetweenObjectAndGroup(collectionId, mergeCollectionIdList, pGroupId, pId, qGroupId, excludeMatchDetails, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{groupId}/id/{id}")
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
     @ApiOperation(
             value = "Find matches from or to a specific object",
             notes = "Find all matches that either come from or to a specific tile.",
@@ -383,17 +434,19 @@ public class MatchService {
                                              @PathParam("matchCollection") final String matchCollection,
                                              @PathParam("groupId") final String groupId,
                                              @PathParam("id") final String id,
-                                             @QueryParam("mergeCollection") final List<String> mergeCollectionList) {
+                                             @QueryParam("mergeCollection") final List<String> mergeCollectionList,
+                                              @Context final HttpHeaders headers) {
 
         LOG.info("getMatchesInvolvingObject: entry, owner={}, matchCollection={}, groupId={}, id={}, mergeCollectionList={}",
                  owner, matchCollection, groupId, id, mergeCollectionList);
 
         final MatchCollectionId collectionId = getCollectionId(owner, matchCollection);
         final List<MatchCollectionId> mergeCollectionIdList = getCollectionIdList(owner, mergeCollectionList);
+        final MatchDao.ResponseFormat responseFormat = getResponseFormat(headers);
         final StreamingOutput responseOutput =
-                output -> matchDao.writeMatchesInvolvingObject(collectionId, mergeCollectionIdList, groupId, id, output);
+                output -> matchDao.writeMatchesInvolvingObject(collectionId, mergeCollectionIdList, groupId, id, responseFormat, output);
 
-        return streamResponse(responseOutput);
+        return streamResponse(responseOutput, responseFormat);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/group/{groupId}/id/{id}")
@@ -591,7 +644,7 @@ public class MatchService {
                                             @PathParam("matchCollection") final String matchCollection,
                                             @PathParam("pGroupId") final String pGroupId) {
 
-        return getMatchesWithPGroup(owner, matchCollection, pGroupId,true, null);
+        return getMatchesWithPGroup(owner, matchCollection, pGroupId,true, null, null);
     }
 
     @Path("v1/owner/{owner}/matchCollection/{matchCollection}/pGroup/{pGroupId}/matchCounts")
@@ -786,11 +839,15 @@ public class MatchService {
         return collectionIdList;
     }
 
-    private Response streamResponse(final StreamingOutput responseOutput) {
+    private Response streamResponse(final StreamingOutput responseOutput,
+                                    final MatchDao.ResponseFormat responseFormat) {
+
+        final String mediaType = responseFormat == MatchDao.ResponseFormat.BINARY ?
+                                 MediaType.APPLICATION_OCTET_STREAM : MediaType.APPLICATION_JSON;
 
         Response response = null;
         try {
-            response = Response.ok(responseOutput).build();
+            response = Response.ok(responseOutput, mediaType).build();
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
         }
@@ -798,6 +855,26 @@ public class MatchService {
         return response;
     }
 
+    /**
+     * @return binary format if the most acceptable (non-wildcard) media type for the request is
+     *         application/octet-stream, otherwise JSON.  Clients that do not explicitly ask for binary
+     *         data always receive JSON.
+     */
+    private static MatchDao.ResponseFormat getResponseFormat(final HttpHeaders headers) {
+        MatchDao.ResponseFormat responseFormat = MatchDao.ResponseFormat.JSON;
+        if (headers != null) {
+            for (final MediaType mediaType : headers.getAcceptableMediaTypes()) {
+                if (! (mediaType.isWildcardType() || mediaType.isWildcardSubtype())) {
+                    if (MediaType.APPLICATION_OCTET_STREAM_TYPE.isCompatible(mediaType)) {
+                        responseFormat = MatchDao.ResponseFormat.BINARY;
+                    }
+                    break;
+                }
+            }
+        }
+        return responseFormat;
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(MatchService.class);
 
 }
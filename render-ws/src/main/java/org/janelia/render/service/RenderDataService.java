@@ -1,9 +1,11 @@
 package org.janelia.render.service;
 
+import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -33,6 +35,7 @@ import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.SectionData;
 import org.janelia.alignment.spec.TileBounds;
 import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TileSpecImportSummary;
 import org.janelia.alignment.spec.TransformSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
@@ -62,6 +65,9 @@ import static org.janelia.alignment.spec.stack.StackMetaData.StackState.LOADING;
 @Api(tags = {"Render Data APIs"})
 public class RenderDataService {
 
+    /** Media type for newline-delimited JSON streams. */
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
     private final RenderDao renderDao;
     private FilterFactory filterFactory;
 
@@ -640,6 +646,58 @@ public class RenderDataService {
         return responseBuilder.build();
     }
 
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/resolvedTilesStream")
+    @PUT
+    @Consumes({ NDJSON_MEDIA_TYPE, MediaType.TEXT_PLAIN })
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Stack Data APIs",
+            value = "Save streamed newline-delimited (NDJSON) tile and transform specs",
+            notes = "Each line must contain one tile spec or one shared transform spec.  " +
+                    "Shared transform specs must precede the tile specs that reference them and " +
+                    "tile specs must include bounding box attributes.  " +
+                    "Tile specs are saved concurrently in batches as the request body is read.  " +
+                    "Requested batchSize and writeThreads values are limited to server maximums of " +
+                    StreamedTileSpecImporter.MAX_BATCH_SIZE + " and " +
+                    StreamedTileSpecImporter.MAX_NUMBER_OF_WRITE_THREADS + ".",
+            response = TileSpecImportSummary.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "stack not in LOADING state, invalid data provided"),
+            @ApiResponse(code = 404, message = "stack not found"),
+    })
+    public TileSpecImportSummary saveStreamedTilesAndTransforms(@PathParam("owner") final String owner,
+                                                                @PathParam("project") final String project,
+                                                                @PathParam("stack") final String stack,
+                                                                @QueryParam("batchSize") final Integer batchSize,
+                                                                @QueryParam("writeThreads") final Integer writeThreads,
+                                                                final InputStream inputStream) {
+
+        LOG.info("saveStreamedTilesAndTransforms: entry, owner={}, project={}, stack={}, " +
+                 "batchSize={}, writeThreads={}",
+                 owner, project, stack, batchSize, writeThreads);
+
+        TileSpecImportSummary summary = null;
+        try {
+            final StackId stackId = new StackId(owner, project, stack);
+            final StackMetaData stackMetaData = getStackMetaData(stackId);
+
+            if (! stackMetaData.isLoading()) {
+                throw new IllegalStateException("Tile specs can only be saved to stacks in the " +
+                                                LOADING + " state, but this stack's state is " +
+                                                stackMetaData.getState() + ".");
+            }
+
+            final StreamedTileSpecImporter importer =
+                    new StreamedTileSpecImporter(renderDao, stackId, batchSize, writeThreads);
+            summary = importer.importSpecs(inputStream);
+
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return summary;
+    }
+
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/section/{sectionId}/z")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -1076,9 +1134,19 @@ public class RenderDataService {
                                                  final RenderQueryParameters renderQueryParameters)
             throws ObjectNotFoundException {
 
-        final RenderParameters parameters = renderDao.getParameters(stackId, groupId, x, y, z, width, height, scale);
+        // meta data is retrieved before tile specs so that a stack change between the two queries
+        // results in a namespace that is already stale instead of one that labels changed specs
         final StackMetaData stackMetaData = getStackMetaData(stackId);
+        final RenderParameters parameters = renderDao.getParameters(stackId, groupId, x, y, z, width, height, scale);
         renderQueryParameters.applyQueryAndDefaultParameters(parameters, stackMetaData, this);
+
+        // tiles in stacks that are no longer loading can only change by changing the stack's timestamp,
+        // so cached meshes can be keyed by tile id and timestamp instead of hashing each tile's transforms
+        final Date lastModifiedTimestamp = stackMetaData.getLastModifiedTimestamp();
+        if ((! stackMetaData.isLoading()) && (lastModifiedTimestamp != null)) {
+            parameters.setMeshCacheNamespace(stackId + "@" + lastModifiedTimestamp.getTime());
+        }
+
         return parameters;
     }
 
@@ -25,6 +25,7 @@ import org.janelia.alignment.spec.stack.StackMetaData;
 import org.janelia.alignment.spec.stack.StackStats;
 import org.janelia.render.service.model.RenderQueryParameters;
 import org.janelia.render.service.util.RenderServiceUtil;
+import org.janelia.render.service.util.RenderedImageCache;
 import org.janelia.render.service.util.ResponseHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -209,13 +210,14 @@ public class RenderImageService {
 
         LOG.info("renderJpegImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.JPEG_FORMAT, RenderServiceUtil.IMAGE_JPEG_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -263,13 +265,14 @@ public class RenderImageService {
 
         LOG.info("renderPngImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -317,13 +320,14 @@ public class RenderImageService {
 
         LOG.info("renderTiffImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.TIFF_FORMAT, RenderServiceUtil.IMAGE_TIFF_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -350,13 +354,14 @@ public class RenderImageService {
 
         LOG.info("renderTiffImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper, true);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.TIFF_FORMAT, RenderServiceUtil.IMAGE_TIFF_MIME_TYPE, true,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -383,13 +388,14 @@ public class RenderImageService {
 
         LOG.info("renderPng16ImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper, true);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE, true,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -416,13 +422,14 @@ public class RenderImageService {
 
         LOG.info("renderRaw16ImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderRawImage(renderParameters, maxTileSpecsToRender, responseHelper, true);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.RAW_FORMAT, RenderServiceUtil.IMAGE_RAW_MIME_TYPE, true,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -449,13 +456,14 @@ public class RenderImageService {
 
         LOG.info("renderRawImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderRawImage(renderParameters, maxTileSpecsToRender, responseHelper, false);
+            return renderBoxImage(stackMetaData, null,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.RAW_FORMAT, RenderServiceUtil.IMAGE_RAW_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -504,13 +512,14 @@ public class RenderImageService {
 
         LOG.info("renderJpegImageForGroupBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, groupId,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, groupId,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.JPEG_FORMAT, RenderServiceUtil.IMAGE_JPEG_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -560,13 +569,14 @@ public class RenderImageService {
 
         LOG.info("renderPngImageForGroupBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, groupId,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, groupId,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -616,13 +626,14 @@ public class RenderImageService {
 
         LOG.info("renderTiffImageForGroupBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, groupId,
-                                                   x, y, z, width, height, scale,
-                                                   renderQueryParameters);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderBoxImage(stackMetaData, groupId,
+                                  x, y, z, width, height, scale,
+                                  renderQueryParameters,
+                                  Utils.TIFF_FORMAT, RenderServiceUtil.IMAGE_TIFF_MIME_TYPE, false,
+                                  maxTileSpecsToRender, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -944,6 +955,72 @@ public class RenderImageService {
                  file);
     }
 
+    private Response renderBoxImage(final StackMetaData stackMetaData,
+                                    final String groupId,
+                                    final Double x,
+                                    final Double y,
+                                    final Double z,
+                                    final Integer width,
+                                    final Integer height,
+                                    final Double scale,
+                                    final RenderQueryParameters renderQueryParameters,
+                                    final String format,
+                                    final String mimeType,
+                                    final boolean render16bit,
+                                    final Integer maxTileSpecsToRender,
+                                    final ResponseHelper responseHelper) {
+
+        final StackId stackId = stackMetaData.getStackId();
+        final RenderedImageCache renderedImageCache = RenderedImageCache.getSharedInstance();
+
+        // loading stacks can change without changing their last modified timestamp, so don't cache them
+        if (renderedImageCache.isEnabled() &&
+            (! stackMetaData.isLoading()) &&
+            (stackMetaData.getLastModifiedTimestamp() != null)) {
+
+            final String imageId = "z=" + z + ",box=" + x + "," + y + "," + width + "," + height + "," + scale +
+                                   ",groupId=" + groupId +
+                                   ",format=" + format + ",16bit=" + render16bit +
+                                   ",maxTileSpecsToRender=" + maxTileSpecsToRender +
+                                   ",binaryMask=" + renderQueryParameters.getBinaryMask() +
+                                   ",channels=" + renderQueryParameters.getChannels() +
+                                   ",convertToGray=" + renderQueryParameters.getConvertToGray() +
+                                   ",excludeMask=" + renderQueryParameters.getExcludeMask() +
+                                   ",fillWithNoise=" + renderQueryParameters.getFillWithNoise() +
+                                   ",filter=" + renderQueryParameters.getFilter() +
+                                   ",filterListName=" + renderQueryParameters.getFilterListName() +
+                                   ",minIntensity=" + renderQueryParameters.getMinIntensity() +
+                                   ",maxIntensity=" + renderQueryParameters.getMaxIntensity() +
+                                   ",queryScale=" + renderQueryParameters.getScale();
+            final RenderedImageCache.Key key =
+                    new RenderedImageCache.Key(stackId, stackMetaData.getLastModifiedTimestamp(), imageId);
+
+            return RenderServiceUtil.renderCachedImageStream(
+                    key,
+                    () -> renderDataService.getInternalRenderParameters(stackId, groupId,
+                                                                        x, y, z, width, height, scale,
+                                                                        renderQueryParameters),
+                    format,
+                    mimeType,
+                    maxTileSpecsToRender,
+                    responseHelper,
+                    render16bit);
+
+        } else {
+
+            final RenderParameters renderParameters =
+                    renderDataService.getInternalRenderParameters(stackId, groupId,
+                                                                  x, y, z, width, height, scale,
+                                                                  renderQueryParameters);
+            return RenderServiceUtil.renderImageStream(renderParameters,
+                                                       format,
+                                                       mimeType,
+                                                       maxTileSpecsToRender,
+                                                       responseHelper,
+                                                       render16bit);
+        }
+    }
+
     private RenderParameters getRenderParametersForGroupBox(final String owner,
                                                             final String project,
                                                             final String stack,
@@ -0,0 +1,286 @@
+package org.janelia.render.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TileSpecImportSummary;
+import org.janelia.alignment.spec.TransformSpec;
+import org.janelia.alignment.spec.stack.StackId;
+import org.janelia.alignment.util.ProcessTimer;
+import org.janelia.render.service.dao.RenderDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports newline-delimited JSON (NDJSON) tile and transform specs into a stack.
+ *
+ * Each non-blank line must contain one tile spec (identified by a tileId attribute) or one shared transform spec.
+ * Lines are parsed as they are read and tile specs are saved in fixed size batches that are written concurrently,
+ * so memory use does not depend upon the number of specs being imported.
+ * Shared transform specs are saved before any subsequent tile batch is written,
+ * so they need to appear in the stream before the tiles that reference them.
+ *
+ * @author Eric Trautman
+ */
+class StreamedTileSpecImporter {
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // bounds the number of tile specs each pending batch can hold (batch lists are allocated up front)
+    static final int MAX_BATCH_SIZE = 10000;
+    static final int DEFAULT_NUMBER_OF_WRITE_THREADS = 4;
+
+    // bounds the number of write threads (and concurrent database writes) each import request can create
+    static final int MAX_NUMBER_OF_WRITE_THREADS = 8;
+
+    private final RenderDao renderDao;
+    private final StackId stackId;
+    private final int batchSize;
+    private final int numberOfWriteThreads;
+
+    // layers already recorded as changed by earlier batches, shared by concurrent batch writes
+    private final Set<Double> recordedZValues;
+
+    StreamedTileSpecImporter(final RenderDao renderDao,
+                             final StackId stackId,
+                             final Integer batchSize,
+                             final Integer numberOfWriteThreads)
+            throws IllegalArgumentException {
+
+        this.renderDao = renderDao;
+        this.stackId = stackId;
+        this.recordedZValues = ConcurrentHashMap.newKeySet();
+
+        if (batchSize == null) {
+            this.batchSize = DEFAULT_BATCH_SIZE;
+        } else if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than zero");
+        } else if (batchSize > MAX_BATCH_SIZE) {
+            LOG.warn("StreamedTileSpecImporter: requested batchSize value {} exceeds server maximum, using {}",
+                     batchSize, MAX_BATCH_SIZE);
+            this.batchSize = MAX_BATCH_SIZE;
+        } else {
+            this.batchSize = batchSize;
+        }
+
+        if (numberOfWriteThreads == null) {
+            this.numberOfWriteThreads = DEFAULT_NUMBER_OF_WRITE_THREADS;
+        } else if (numberOfWriteThreads < 1) {
+            throw new IllegalArgumentException("writeThreads must be greater than zero");
+        } else if (numberOfWriteThreads > MAX_NUMBER_OF_WRITE_THREADS) {
+            LOG.warn("StreamedTileSpecImporter: requested writeThreads value {} exceeds server maximum, using {}",
+                     numberOfWriteThreads, MAX_NUMBER_OF_WRITE_THREADS);
+            this.numberOfWriteThreads = MAX_NUMBER_OF_WRITE_THREADS;
+        } else {
+            this.numberOfWriteThreads = numberOfWriteThreads;
+        }
+    }
+
+    /**
+     * Reads all specs from the specified stream and saves them.
+     *
+     * @return summary of the import.
+     *
+     * @throws IllegalArgumentException
+     *   if any line cannot be parsed or contains an invalid spec.
+     *
+     * @throws IOException
+     *   if the stream cannot be read.
+     */
+    TileSpecImportSummary importSpecs(final InputStream inputStream)
+            throws IllegalArgumentException, IOException {
+
+        final ProcessTimer timer = new ProcessTimer();
+
+        // limit the number of pending batches so that memory use stays constant for large imports
+        final int maxPendingBatches = numberOfWriteThreads * 2;
+        final Deque<Future<?>> pendingBatches = new ArrayDeque<>(maxPendingBatches);
+        final ExecutorService executorService = Executors.newFixedThreadPool(numberOfWriteThreads);
+
+        List<TileSpec> tileBatch = new ArrayList<>(batchSize);
+        final List<TransformSpec> transformBatch = new ArrayList<>();
+        long tileCount = 0;
+        long transformCount = 0;
+        long batchCount = 0;
+        long lineNumber = 0;
+
+        try (final BufferedReader reader =
+                     new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+
+            String line;
+            JsonNode node;
+            while ((line = reader.readLine()) != null) {
+
+                lineNumber++;
+
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                node = parseLine(line, lineNumber);
+
+                if (node.has("tileId")) {
+
+                    tileBatch.add(toTileSpec(node, lineNumber));
+                    tileCount++;
+
+                    if (tileBatch.size() == batchSize) {
+                        saveTransforms(transformBatch);
+                        waitForPendingBatches(pendingBatches, maxPendingBatches - 1);
+                        pendingBatches.add(submitTileBatch(executorService, tileBatch));
+                        batchCount++;
+                        tileBatch = new ArrayList<>(batchSize);
+                    }
+
+                } else {
+
+                    transformBatch.add(toTransformSpec(node, lineNumber));
+                    transformCount++;
+
+                    if (transformBatch.size() == batchSize) {
+                        saveTransforms(transformBatch);
+                    }
+
+                }
+
+                if (timer.hasIntervalPassed()) {
+                    LOG.info("importSpecs: read {} tile and {} transform specs for {}, {} tiles per second",
+                             tileCount, transformCount, stackId,
+                             new TileSpecImportSummary(tileCount, transformCount, batchCount,
+                                                       timer.getElapsedMilliseconds()).getTilesPerSecond());
+                }
+            }
+
+            saveTransforms(transformBatch);
+
+            if (tileBatch.size() > 0) {
+                pendingBatches.add(submitTileBatch(executorService, tileBatch));
+                batchCount++;
+            }
+
+            waitForPendingBatches(pendingBatches, 0);
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        final TileSpecImportSummary summary =
+                new TileSpecImportSummary(tileCount, transformCount, batchCount, timer.getElapsedMilliseconds());
+
+        LOG.info("importSpecs: imported {} lines for {}, summary is {}", lineNumber, stackId, summary);
+
+        return summary;
+    }
+
+    private void saveTransforms(final List<TransformSpec> transformBatch) {
+        if (transformBatch.size() > 0) {
+            renderDao.saveTransformSpecs(stackId, transformBatch);
+            transformBatch.clear();
+        }
+    }
+
+    private Future<?> submitTileBatch(final ExecutorService executorService,
+                                      final List<TileSpec> tileBatch) {
+        return executorService.submit(() -> renderDao.saveTileSpecs(stackId, tileBatch, recordedZValues));
+    }
+
+    /**
+     * Waits for the oldest pending batches to be written until no more than maxPendingCount remain.
+     */
+    private void waitForPendingBatches(final Deque<Future<?>> pendingBatches,
+                                       final int maxPendingCount)
+            throws IOException {
+
+        while (pendingBatches.size() > maxPendingCount) {
+            try {
+                pendingBatches.removeFirst().get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while saving tile specs for " + stackId, e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("failed to save tile specs for " + stackId, cause);
+            }
+        }
+    }
+
+    private static JsonNode parseLine(final String line,
+                                      final long lineNumber)
+            throws IllegalArgumentException {
+        final JsonNode node;
+        try {
+            node = JsonUtils.FAST_MAPPER.readTree(line);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to parse line " + lineNumber, e);
+        }
+        if ((node == null) || (! node.isObject())) {
+            throw new IllegalArgumentException("line " + lineNumber + " does not contain a JSON object");
+        }
+        return node;
+    }
+
+    private static TileSpec toTileSpec(final JsonNode node,
+                                       final long lineNumber)
+            throws IllegalArgumentException {
+
+        final TileSpec tileSpec;
+        try {
+            tileSpec = JsonUtils.FAST_MAPPER.treeToValue(node, TileSpec.class);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to parse tile spec on line " + lineNumber, e);
+        }
+
+        if (tileSpec.getZ() == null) {
+            throw new IllegalArgumentException("tile with id '" + tileSpec.getTileId() + "' on line " + lineNumber +
+                                               " is missing a z value");
+        }
+
+        // bounding boxes cannot be derived here because referenced transforms may not be resolvable
+        if (tileSpec.isBoundingBoxDerivationNeeded(tileSpec.getMeshCellSize())) {
+            throw new IllegalArgumentException("tile with id '" + tileSpec.getTileId() + "' on line " + lineNumber +
+                                               " is missing bounding box attributes (minX, minY, maxX, and/or maxY)");
+        }
+
+        return tileSpec;
+    }
+
+    private static TransformSpec toTransformSpec(final JsonNode node,
+                                                 final long lineNumber)
+            throws IllegalArgumentException {
+
+        final TransformSpec transformSpec;
+        try {
+            transformSpec = JsonUtils.FAST_MAPPER.treeToValue(node, TransformSpec.class);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to parse transform spec on line " + lineNumber, e);
+        }
+
+        if (transformSpec.getId() == null) {
+            throw new IllegalArgumentException("shared transform spec on line " + lineNumber + " is missing an id");
+        }
+
+        return transformSpec;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamedTileSpecImporter.class);
+}
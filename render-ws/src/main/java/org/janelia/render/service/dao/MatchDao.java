@@ -19,17 +19,22 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec;
+import org.janelia.alignment.match.CanvasMatchesCodec.ValueEncoding;
 import org.janelia.alignment.match.MatchCollectionId;
 import org.janelia.alignment.match.MatchCollectionMetaData;
 import org.janelia.alignment.match.MatchTrial;
 import org.janelia.alignment.util.ProcessTimer;
 import org.janelia.render.service.model.ObjectNotFoundException;
+import org.janelia.render.service.util.RenderServerProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,16 +48,37 @@ public class MatchDao {
     static final String MATCH_DB_NAME = "match";
     static final String MATCH_TRIAL_COLLECTION_NAME = "aaa_match_trial";
 
+    /** Formats for streamed match responses. */
+    public enum ResponseFormat {
+
+        /** JSON array of canvas matches. */
+        JSON,
+
+        /** Binary canvas matches stream (see {@link CanvasMatchesCodec}). */
+        BINARY
+    }
+
     public static MatchDao build()
             throws UnknownHostException {
         final MongoClient mongoClient = SharedMongoClient.getInstance();
-        return new MatchDao(mongoClient);
+        return new MatchDao(mongoClient, getConfiguredStorageEncoding());
     }
 
     private final MongoDatabase matchDatabase;
+    private final ValueEncoding storageEncoding;
 
     MatchDao(final MongoClient client) {
-        matchDatabase = client.getDatabase(MATCH_DB_NAME);
+        this(client, null);
+    }
+
+    /**
+     * @param  client           database client.
+     * @param  storageEncoding  encoding for saved match values or null to save values in JSON arrays.
+     */
+    MatchDao(final MongoClient client,
+             final ValueEncoding storageEncoding) {
+        this.matchDatabase = client.getDatabase(MATCH_DB_NAME);
+        this.storageEncoding = storageEncoding;
     }
 
     /**
@@ -128,6 +154,7 @@ public class MatchDao {
                                        final List<MatchCollectionId> mergeCollectionIdList,
                                        final String pGroupId,
                                        final boolean excludeMatchDetails,
+                                       final ResponseFormat responseFormat,
                                        final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -140,13 +167,39 @@ public class MatchDao {
 
         final Document query = new Document("pGroupId", pGroupId);
 
-        writeMatches(collectionList, query, excludeMatchDetails, outputStream);
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
+    }
+
+    /**
+     * Writes all matches with any of the specified pGroupIds.
+     * Matches are sorted by pGroupId (then qGroupId, pId, and qId), so all matches for each pGroup
+     * are written contiguously and clients can process one pGroup at a time as the data streams in.
+     */
+    public void writeMatchesWithPGroups(final MatchCollectionId collectionId,
+                                        final List<MatchCollectionId> mergeCollectionIdList,
+                                        final List<String> pGroupIds,
+                                        final boolean excludeMatchDetails,
+                                        final ResponseFormat responseFormat,
+                                        final OutputStream outputStream)
+            throws IllegalArgumentException, IOException, ObjectNotFoundException {
+
+        LOG.debug("writeMatchesWithPGroups: entry, collectionId={}, mergeCollectionIdList={}, pGroupIds.size()={}",
+                  collectionId, mergeCollectionIdList, pGroupIds == null ? null : pGroupIds.size());
+
+        final List<MongoCollection<Document>> collectionList = getDistinctCollectionList(collectionId,
+                                                                                         mergeCollectionIdList);
+        MongoUtil.validateRequiredParameter("pGroupIds", pGroupIds);
+
+        final Document query = new Document("pGroupId", new Document(MongoUtil.OP_IN, pGroupIds));
+
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
     }
 
     public void writeMatchesWithinGroup(final MatchCollectionId collectionId,
                                         final List<MatchCollectionId> mergeCollectionIdList,
                                         final String groupId,
                                         final boolean excludeMatchDetails,
+                                        final ResponseFormat responseFormat,
                                         final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -159,13 +212,14 @@ public class MatchDao {
 
         final Document query = new Document("pGroupId", groupId).append("qGroupId", groupId);
 
-        writeMatches(collectionList, query, excludeMatchDetails, outputStream);
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
     }
 
     public void writeMatchesOutsideGroup(final MatchCollectionId collectionId,
                                          final List<MatchCollectionId> mergeCollectionIdList,
                                          final String groupId,
                                          final boolean excludeMatchDetails,
+                                         final ResponseFormat responseFormat,
                                          final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -178,7 +232,7 @@ public class MatchDao {
 
         final Document query = getOutsideGroupQuery(groupId);
 
-        writeMatches(collectionList, query, excludeMatchDetails, outputStream);
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
     }
 
     public List<CanvasMatches> getMatchesWithinGroup(final MatchCollectionId collectionId,
@@ -238,6 +292,7 @@ public class MatchDao {
                                           final String pGroupId,
                                           final String qGroupId,
                                           final boolean excludeMatchDetails,
+                                          final ResponseFormat responseFormat,
                                           final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -250,7 +305,7 @@ public class MatchDao {
                                                                                          mergeCollectionIdList);
         final Document query = getNormalizedGroupIdQuery(pGroupId, qGroupId);
 
-        writeMatches(collectionList, query, excludeMatchDetails, outputStream);
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
     }
 
     public void writeMatchesBetweenObjectAndGroup(final MatchCollectionId collectionId,
@@ -259,6 +314,7 @@ public class MatchDao {
                                                   final String pId,
                                                   final String qGroupId,
                                                   final boolean excludeMatchDetails,
+                                                  final ResponseFormat responseFormat,
                                                   final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -273,7 +329,7 @@ public class MatchDao {
 
         final Document query = getInvolvingObjectAndGroupQuery(pGroupId, pId, qGroupId);
 
-        writeMatches(collectionList, query, excludeMatchDetails, outputStream);
+        writeMatches(collectionList, query, excludeMatchDetails, responseFormat, outputStream);
     }
 
     public CanvasMatches getMatchesBetweenObjects(final MatchCollectionId collectionId,
@@ -293,7 +349,7 @@ public class MatchDao {
         CanvasMatches canvasMatches = null;
         try (final MongoCursor<Document> cursor = collection.find(query).iterator()) {
             if (cursor.hasNext()) {
-                canvasMatches = CanvasMatches.fromJson(cursor.next().toJson());
+                canvasMatches = MatchDocumentCodec.toCanvasMatches(cursor.next());
                 matchCount = canvasMatches.size();
             }
         }
@@ -315,6 +371,7 @@ public class MatchDao {
                                            final String pId,
                                            final String qGroupId,
                                            final String qId,
+                                           final ResponseFormat responseFormat,
                                            final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -328,13 +385,14 @@ public class MatchDao {
 
         final Document query = getNormalizedIdQuery(pGroupId, pId, qGroupId, qId);
 
-        writeMatches(collectionList, query, false, outputStream);
+        writeMatches(collectionList, query, false, responseFormat, outputStream);
     }
 
     public void writeMatchesInvolvingObject(final MatchCollectionId collectionId,
                                             final List<MatchCollectionId> mergeCollectionIdList,
                                             final String groupId,
                                             final String id,
+                                            final ResponseFormat responseFormat,
                                             final OutputStream outputStream)
             throws IllegalArgumentException, IOException, ObjectNotFoundException {
 
@@ -346,7 +404,7 @@ public class MatchDao {
                                                                                          mergeCollectionIdList);
         final Document query = getInvolvingObjectQuery(groupId, id);
 
-        writeMatches(collectionList, query, false, outputStream);
+        writeMatches(collectionList, query, false, responseFormat, outputStream);
     }
 
     public void removeMatchesInvolvingObject(final MatchCollectionId collectionId,
@@ -466,7 +524,7 @@ public class MatchDao {
                         "pId", canvasMatches.getpId()).append(
                         "qGroupId", canvasMatches.getqGroupId()).append(
                         "qId", canvasMatches.getqId());
-                matchesObject = Document.parse(canvasMatches.toJson());
+                matchesObject = MatchDocumentCodec.toDocument(canvasMatches, storageEncoding);
                 modelList.add(new ReplaceOneModel<>(filter, matchesObject, upsertOption));
             }
 
@@ -589,7 +647,8 @@ public class MatchDao {
         //     [
         //         {
         //             "$match":  {
-        //                 "pGroupId": "..."
+        //                 "pGroupId": "...",
+        //                 "matches.w": { "$type": "array" }
         //             }
         //         },
         //         {
@@ -601,7 +660,9 @@ public class MatchDao {
         //     ]
         // )
 
-        final Document matchCriteria = new Document("pGroupId", pGroupId);
+        // matches with packed (binary) values always have a stored matchCount, so they are skipped here
+        final Document matchCriteria = new Document("pGroupId", pGroupId).append("matches.w",
+                                                                              new Document("$type", "array"));
         final Document projectCriteria = new Document("_id", "$_id").append("matchCount",
                                                                            new Document("$size", "$matches.w"));
 
@@ -718,7 +779,7 @@ public class MatchDao {
 
         try (final MongoCursor<Document> cursor = collection.find(query).projection(projection).iterator()) {
             while (cursor.hasNext()) {
-                canvasMatchesList.add(CanvasMatches.fromJson(cursor.next().toJson()));
+                canvasMatchesList.add(MatchDocumentCodec.toCanvasMatches(cursor.next()));
             }
         }
 
@@ -733,14 +794,16 @@ public class MatchDao {
     private void writeMatches(final List<MongoCollection<Document>> collectionList,
                               final Document query,
                               final boolean excludeMatchDetails,
+                              final ResponseFormat responseFormat,
                               final OutputStream outputStream)
             throws IOException {
 
         final Document projection = excludeMatchDetails ? EXCLUDE_MONGO_ID_KEY_AND_MATCHES : EXCLUDE_MONGO_ID_KEY;
+        final boolean isBinary = (responseFormat == ResponseFormat.BINARY);
 
         if (collectionList.size() > 1) {
 
-            writeMergedMatches(collectionList, query, projection, outputStream);
+            writeMergedMatches(collectionList, query, projection, isBinary, outputStream);
 
         } else {
 
@@ -748,7 +811,7 @@ public class MatchDao {
 
             final ProcessTimer timer = new ProcessTimer();
 
-            outputStream.write(OPEN_BRACKET);
+            writeStart(isBinary, outputStream);
 
             int count = 0;
             try (final MongoCursor<Document> cursor = collection.find(query).projection(projection).sort(MATCH_ORDER_BY).iterator()) {
@@ -756,12 +819,8 @@ public class MatchDao {
                 Document document;
                 while (cursor.hasNext()) {
 
-                    if (count > 0) {
-                        outputStream.write(COMMA_WITH_NEW_LINE);
-                    }
-
                     document = cursor.next();
-                    outputStream.write(document.toJson().getBytes());
+                    writeDocument(document, isBinary, count, outputStream);
                     count++;
 
                     if (timer.hasIntervalPassed()) {
@@ -770,7 +829,7 @@ public class MatchDao {
                 }
             }
 
-            outputStream.write(CLOSE_BRACKET);
+            writeEnd(isBinary, outputStream);
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("writeMatches: wrote data for {} matches returned by {}.find({},{}), elapsedSeconds={}",
@@ -779,49 +838,86 @@ public class MatchDao {
         }
     }
 
+    /**
+     * Writes matches from multiple collections as one sorted stream, combining the match points
+     * for pairs that exist in more than one collection.
+     * Each collection cursor is prefetched concurrently and the cursors are merged with a priority queue
+     * keyed on each cursor's current pair (in {@link #MATCH_ORDER_BY} order).
+     * Pairs that only exist in one collection are written directly from their documents.
+     */
     private void writeMergedMatches(final List<MongoCollection<Document>> collectionList,
                                     final Document query,
                                     final Document projection,
+                                    final boolean isBinary,
                                     final OutputStream outputStream)
             throws IOException {
 
-        // exclude mongo id from results
         final ProcessTimer timer = new ProcessTimer();
 
-        outputStream.write(OPEN_BRACKET);
+        writeStart(isBinary, outputStream);
 
         int count = 0;
 
         final int numberOfCollections = collectionList.size();
-        final List<MongoCursor<Document>> cursorList = new ArrayList<>(numberOfCollections);
-        final List<CanvasMatches> matchesList = new ArrayList<>(numberOfCollections);
+        final List<PrefetchingCursor> cursorList = new ArrayList<>(numberOfCollections);
+        final ExecutorService prefetchPool = SharedQueryPools.getMatchPrefetchPool();
 
         try {
 
-            int numberOfCompletedCursors = 0;
             MongoCollection<Document> collection;
             for (int i = 0; i < numberOfCollections; i++) {
                 collection = collectionList.get(i);
-                cursorList.add(collection.find(query).projection(projection).sort(MATCH_ORDER_BY).iterator());
-                matchesList.add(null);
-                numberOfCompletedCursors += updateMatches(cursorList, matchesList, i);
+                cursorList.add(new PrefetchingCursor(MongoUtil.fullName(collection),
+                                                     i,
+                                                     collection.find(query).projection(projection).sort(MATCH_ORDER_BY),
+                                                     MERGE_PREFETCH_DOCUMENT_COUNT,
+                                                     prefetchPool));
             }
 
-            if (numberOfCompletedCursors > 0) {
-                removeCompletedCursors(cursorList, matchesList);
+            // ties are broken by collection order so that merged points are appended in collection order
+            final PriorityQueue<PrefetchingCursor> mergeQueue = new PriorityQueue<>(
+                    numberOfCollections,
+                    (a, b) -> {
+                        final int result = compareMatchOrder(a.current(), b.current());
+                        return result == 0 ? Integer.compare(a.getIndex(), b.getIndex()) : result;
+                    });
+
+            for (final PrefetchingCursor cursor : cursorList) {
+                if (cursor.advance()) {
+                    mergeQueue.add(cursor);
+                }
             }
 
+            final List<PrefetchingCursor> pairCursorList = new ArrayList<>(numberOfCollections);
+            PrefetchingCursor firstCursor;
             CanvasMatches mergedMatches;
-            while (matchesList.size() > 0) {
-                if (count > 0) {
-                    outputStream.write(COMMA_WITH_NEW_LINE);
-                }
+            while (mergeQueue.size() > 0) {
 
-                mergedMatches = getNextMergedMatches(cursorList, matchesList);
+                firstCursor = mergeQueue.poll();
+                pairCursorList.add(firstCursor);
+                while ((mergeQueue.size() > 0) &&
+                       (compareMatchOrder(mergeQueue.peek().current(), firstCursor.current()) == 0)) {
+                    pairCursorList.add(mergeQueue.poll());
+                }
 
-                outputStream.write(mergedMatches.toJson().getBytes());
+                if (pairCursorList.size() == 1) {
+                    writeDocument(firstCursor.current(), isBinary, count, outputStream);
+                } else {
+                    mergedMatches = MatchDocumentCodec.toCanvasMatches(firstCursor.current());
+                    for (int i = 1; i < pairCursorList.size(); i++) {
+                        mergedMatches.append(MatchDocumentCodec.toCanvasMatches(pairCursorList.get(i).current()).getMatches());
+                    }
+                    writeCanvasMatches(mergedMatches, isBinary, count, outputStream);
+                }
                 count++;
 
+                for (final PrefetchingCursor cursor : pairCursorList) {
+                    if (cursor.advance()) {
+                        mergeQueue.add(cursor);
+                    }
+                }
+                pairCursorList.clear();
+
                 if (timer.hasIntervalPassed()) {
                     LOG.debug("writeMergedMatches: data written for {} matches", count);
                 }
@@ -829,19 +925,13 @@ public class MatchDao {
 
         } finally {
 
-            for (final MongoCursor<Document> cursor : cursorList) {
-                if (cursor != null) {
-                    try {
-                        cursor.close();
-                    } catch (final Throwable t) {
-                        LOG.error("failed to close cursor, ignoring exception", t);
-                    }
-                }
+            for (final PrefetchingCursor cursor : cursorList) {
+                cursor.close();
             }
 
         }
 
-        outputStream.write(CLOSE_BRACKET);
+        writeEnd(isBinary, outputStream);
 
         if (LOG.isDebugEnabled()) {
             final StringBuilder collectionNames = new StringBuilder(512);
@@ -856,57 +946,69 @@ public class MatchDao {
         }
     }
 
-    private CanvasMatches getNextMergedMatches(final List<MongoCursor<Document>> cursorList,
-                                               final List<CanvasMatches> matchesList) {
-
-        int numberOfCompletedCursors = 0;
-        int nextMatchesIndex = 0;
-        CanvasMatches nextMatches = matchesList.get(nextMatchesIndex);
-        CanvasMatches matches;
-        int comparisonResult;
-        for (int i = 1; i < matchesList.size(); i++) {
-            matches = matchesList.get(i);
-            comparisonResult = matches.compareTo(nextMatches);
-            if (comparisonResult == 0) {
-                nextMatches.append(matches.getMatches());
-                numberOfCompletedCursors += updateMatches(cursorList, matchesList, i);
-            } else if (comparisonResult < 0) {
-                nextMatchesIndex = i;
-                nextMatches = matches;
-            }
+    private void writeStart(final boolean isBinary,
+                            final OutputStream outputStream)
+            throws IOException {
+        if (isBinary) {
+            CanvasMatchesCodec.writeHeader(outputStream);
+        } else {
+            outputStream.write(OPEN_BRACKET);
         }
+    }
 
-        numberOfCompletedCursors += updateMatches(cursorList, matchesList, nextMatchesIndex);
-
-        if (numberOfCompletedCursors > 0) {
-            removeCompletedCursors(cursorList, matchesList);
+    private void writeEnd(final boolean isBinary,
+                          final OutputStream outputStream)
+            throws IOException {
+        if (isBinary) {
+            CanvasMatchesCodec.writeTerminator(outputStream);
+        } else {
+            outputStream.write(CLOSE_BRACKET);
         }
+    }
 
-        return nextMatches;
+    private void writeDocument(final Document document,
+                               final boolean isBinary,
+                               final int count,
+                               final OutputStream outputStream)
+            throws IOException {
+        if (isBinary) {
+            CanvasMatchesCodec.write(MatchDocumentCodec.toCanvasMatches(document), outputStream);
+        } else {
+            if (count > 0) {
+                outputStream.write(COMMA_WITH_NEW_LINE);
+            }
+            outputStream.write(MatchDocumentCodec.toJson(document).getBytes());
+        }
     }
 
-    private void removeCompletedCursors(final List<MongoCursor<Document>> cursorList,
-                                        final List<CanvasMatches> matchesList) {
-        MongoCursor<Document> cursor;
-        for (int i = matchesList.size() - 1; i >=0; i--) {
-            if (matchesList.get(i) == null) {
-                matchesList.remove(i);
-                cursor = cursorList.remove(i);
-                cursor.close();
+    private void writeCanvasMatches(final CanvasMatches canvasMatches,
+                                    final boolean isBinary,
+                                    final int count,
+                                    final OutputStream outputStream)
+            throws IOException {
+        if (isBinary) {
+            CanvasMatchesCodec.write(canvasMatches, outputStream);
+        } else {
+            if (count > 0) {
+                outputStream.write(COMMA_WITH_NEW_LINE);
             }
+            outputStream.write(canvasMatches.toJson().getBytes());
         }
     }
 
-    private int updateMatches(final List<MongoCursor<Document>> cursorList,
-                              final List<CanvasMatches> matchesList,
-                              final int index) {
-        CanvasMatches canvasMatches = null;
-        final MongoCursor<Document> cursor = cursorList.get(index);
-        if (cursor.hasNext()) {
-            canvasMatches = CanvasMatches.fromJson(cursor.next().toJson());
+    /**
+     * Compares match documents in the same order as {@link #MATCH_ORDER_BY}.
+     */
+    private static int compareMatchOrder(final Document a,
+                                         final Document b) {
+        int result = 0;
+        for (final String key : MATCH_ORDER_BY.keySet()) {
+            result = a.getString(key).compareTo(b.getString(key));
+            if (result != 0) {
+                break;
+            }
         }
-        matchesList.set(index, canvasMatches);
-        return (canvasMatches == null ? 1 : 0);
+        return result;
     }
 
     private Set<String> getMultiConsensusGroupIds(final MatchCollectionId collectionId,
@@ -1012,6 +1114,24 @@ public class MatchDao {
                               MATCH_B_OPTIONS);
     }
 
+    /**
+     * @return encoding configured for saved match values or null if values should be saved in JSON arrays.
+     */
+    private static ValueEncoding getConfiguredStorageEncoding() {
+        ValueEncoding encoding = null;
+        final String encodingName = RenderServerProperties.getProperties().get("webService.matchStorageEncoding");
+        if ((encodingName != null) && (encodingName.trim().length() > 0)) {
+            try {
+                encoding = ValueEncoding.valueOf(encodingName.trim().toUpperCase());
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("ignoring invalid webService.matchStorageEncoding value '{}'", encodingName);
+            }
+        }
+        LOG.info("getConfiguredStorageEncoding: match values will be saved in {}",
+                 encoding == null ? "JSON arrays" : encoding + " binary fields");
+        return encoding;
+    }
+
     private static void validateRequiredCanvasIds(final String groupId,
                                                   final String id) {
         MongoUtil.validateRequiredParameter("groupId", groupId);
@@ -1039,6 +1159,7 @@ public class MatchDao {
     private static final Document MATCH_ORDER_BY =
             new Document("pGroupId", 1).append("qGroupId", 1).append("pId", 1).append("qId", 1);
     private static final String MATCH_ORDER_BY_JSON = MATCH_ORDER_BY.toJson();
+    private static final int MERGE_PREFETCH_DOCUMENT_COUNT = 256;
     private static final Document EXCLUDE_MONGO_ID_KEY = new Document("_id", 0);
     private static final Document EXCLUDE_MONGO_ID_KEY_AND_MATCHES = new Document("_id", 0).append("matches", 0);
     private static final byte[] OPEN_BRACKET = "[".getBytes();
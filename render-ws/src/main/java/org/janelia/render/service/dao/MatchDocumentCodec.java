@@ -0,0 +1,153 @@
+package org.janelia.render.service.dao;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec;
+import org.janelia.alignment.match.CanvasMatchesCodec.ValueEncoding;
+import org.janelia.alignment.match.ConsensusSetData;
+import org.janelia.alignment.match.Matches;
+
+/**
+ * Converts {@link CanvasMatches} to and from match collection documents.
+ *
+ * Matches were originally stored (and can still be stored) with p, q, and w values in nested JSON arrays.
+ * When a value encoding is specified, those values are instead packed into BSON binary fields
+ * (see {@link CanvasMatchesCodec#pack}) that are much smaller and faster to read and write:
+ *
+ * <pre>
+ *     "matches": { "encoding": "FLOAT32", "dimensions": 2, "p": BinData, "q": BinData, "w": BinData }
+ * </pre>
+ *
+ * Documents are read directly into canvas matches (without an intermediate JSON string) and
+ * both storage forms can coexist in the same collection.
+ *
+ * @author Eric Trautman
+ */
+class MatchDocumentCodec {
+
+    private static final String MATCHES_KEY = "matches";
+    private static final String ENCODING_KEY = "encoding";
+    private static final String DIMENSIONS_KEY = "dimensions";
+
+    /**
+     * @param  canvasMatches  matches to convert.
+     * @param  encoding       encoding for match values or null to store values in JSON arrays.
+     *
+     * @return document for the specified matches.
+     */
+    static Document toDocument(final CanvasMatches canvasMatches,
+                               final ValueEncoding encoding) {
+
+        if (encoding == null) {
+            return Document.parse(canvasMatches.toJson());
+        }
+
+        final Document document = new Document("pGroupId", canvasMatches.getpGroupId())
+                .append("pId", canvasMatches.getpId())
+                .append("qGroupId", canvasMatches.getqGroupId())
+                .append("qId", canvasMatches.getqId());
+
+        final ConsensusSetData consensusSetData = canvasMatches.getConsensusSetData();
+        if (consensusSetData != null) {
+            document.append("consensusSetData",
+                            new Document("index", consensusSetData.getIndex())
+                                    .append("originalPId", consensusSetData.getOriginalPId())
+                                    .append("originalQId", consensusSetData.getOriginalQId()));
+        }
+
+        final Matches matches = canvasMatches.getMatches();
+        if (matches != null) {
+            document.append(MATCHES_KEY,
+                            new Document(ENCODING_KEY, encoding.name())
+                                    .append(DIMENSIONS_KEY, matches.getPs().length)
+                                    .append("p", new Binary(CanvasMatchesCodec.pack(matches.getPs(), encoding)))
+                                    .append("q", new Binary(CanvasMatchesCodec.pack(matches.getQs(), encoding)))
+                                    .append("w", new Binary(CanvasMatchesCodec.pack(matches.getWs(), encoding))));
+        }
+
+        document.append("matchCount", canvasMatches.getMatchCount());
+
+        return document;
+    }
+
+    /**
+     * @return canvas matches parsed from the specified document (in either storage form).
+     *
+     * @throws IllegalArgumentException
+     *   if the document cannot be parsed.
+     */
+    static CanvasMatches toCanvasMatches(final Document document)
+            throws IllegalArgumentException {
+
+        ConsensusSetData consensusSetData = null;
+        final Document consensusSetDocument = document.get("consensusSetData", Document.class);
+        if (consensusSetDocument != null) {
+            consensusSetData = new ConsensusSetData(consensusSetDocument.getInteger("index"),
+                                                    consensusSetDocument.getString("originalPId"),
+                                                    consensusSetDocument.getString("originalQId"));
+        }
+
+        Matches matches = null;
+        final Document matchesDocument = document.get(MATCHES_KEY, Document.class);
+        if (matchesDocument != null) {
+            final String encodingName = matchesDocument.getString(ENCODING_KEY);
+            if (encodingName == null) {
+                matches = new Matches(toPoints(matchesDocument.get("p")),
+                                      toPoints(matchesDocument.get("q")),
+                                      toValues(matchesDocument.get("w")));
+            } else {
+                final ValueEncoding encoding = ValueEncoding.valueOf(encodingName);
+                final int dimensions = matchesDocument.getInteger(DIMENSIONS_KEY);
+                matches = new Matches(
+                        CanvasMatchesCodec.unpackPoints(getBytes(matchesDocument, "p"), dimensions, encoding),
+                        CanvasMatchesCodec.unpackPoints(getBytes(matchesDocument, "q"), dimensions, encoding),
+                        CanvasMatchesCodec.unpackValues(getBytes(matchesDocument, "w"), encoding));
+            }
+        }
+
+        return CanvasMatchesCodec.buildCanvasMatches(document.getString("pGroupId"),
+                                                     document.getString("pId"),
+                                                     document.getString("qGroupId"),
+                                                     document.getString("qId"),
+                                                     consensusSetData,
+                                                     matches,
+                                                     document.getInteger("matchCount"));
+    }
+
+    /**
+     * @return JSON representation of the specified document.
+     *         Documents with JSON array values are serialized directly.
+     */
+    static String toJson(final Document document) {
+        final Document matchesDocument = document.get(MATCHES_KEY, Document.class);
+        final boolean hasPackedValues = (matchesDocument != null) && matchesDocument.containsKey(ENCODING_KEY);
+        return hasPackedValues ? toCanvasMatches(document).toJson() : document.toJson();
+    }
+
+    private static byte[] getBytes(final Document matchesDocument,
+                                   final String key) {
+        return matchesDocument.get(key, Binary.class).getData();
+    }
+
+    private static double[][] toPoints(final Object listObject) {
+        final List<?> list = (List<?>) listObject;
+        final double[][] points = new double[list.size()][];
+        for (int d = 0; d < points.length; d++) {
+            points[d] = toValues(list.get(d));
+        }
+        return points;
+    }
+
+    private static double[] toValues(final Object listObject) {
+        final List<?> list = (List<?>) listObject;
+        final double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) list.get(i)).doubleValue();
+        }
+        return values;
+    }
+
+}
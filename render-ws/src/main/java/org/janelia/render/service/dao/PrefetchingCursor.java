@@ -0,0 +1,195 @@
+package org.janelia.render.service.dao;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the documents of a query on a separate thread into a bounded queue so that
+ * multiple cursors can fetch their batches concurrently while the caller consumes them.
+ *
+ * Prefetch tasks are run by a shared bounded pool.  If a cursor's task has not started by the time
+ * the caller needs documents (because the pool is busy with other requests), the caller claims the
+ * query and reads it directly so that merges never wait on a pool thread that may not become available.
+ *
+ * The underlying mongo cursor is only ever used (and closed) by the thread that claimed the query.
+ *
+ * @author Eric Trautman
+ */
+class PrefetchingCursor
+        implements Closeable {
+
+    /** Marks the end of the prefetched documents (identity comparison only). */
+    private static final Document END_OF_DOCUMENTS = new Document();
+
+    /** Time to wait for a submitted prefetch task to start before the caller reads the query directly. */
+    private static final long PREFETCH_START_WAIT_MILLIS = 100;
+
+    private final String context;
+    private final int index;
+    private final FindIterable<Document> findIterable;
+    private final BlockingQueue<Document> queue;
+    private final AtomicBoolean claimed;
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private MongoCursor<Document> directCursor;
+    private Document current;
+
+    /**
+     * Submits a prefetch task for the specified query.
+     *
+     * @param  context           context for use in error messages.
+     * @param  index             position of this cursor among the cursors being consumed together.
+     * @param  findIterable      query to prefetch.
+     * @param  capacity          maximum number of documents to prefetch.
+     * @param  executor          executor for running the prefetch task.
+     */
+    PrefetchingCursor(final String context,
+                      final int index,
+                      final FindIterable<Document> findIterable,
+                      final int capacity,
+                      final Executor executor) {
+        this.context = context;
+        this.index = index;
+        this.findIterable = findIterable;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.claimed = new AtomicBoolean(false);
+        this.closed = false;
+        this.failure = null;
+        this.directCursor = null;
+        this.current = null;
+
+        try {
+            executor.execute(() -> {
+                if ((! closed) && claimed.compareAndSet(false, true)) {
+                    prefetch();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            LOG.warn("PrefetchingCursor: prefetch task rejected, documents will be read directly from " + context);
+        }
+    }
+
+    /**
+     * @return position of this cursor among the cursors being consumed together.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the current document (or null if {@link #advance} has not been called or no documents remain).
+     */
+    Document current() {
+        return current;
+    }
+
+    /**
+     * Moves to the next document, waiting for it to be fetched if necessary.
+     *
+     * @return true if a next document exists; otherwise false.
+     *
+     * @throws IOException
+     *   if the documents could not be fetched.
+     */
+    boolean advance()
+            throws IOException {
+
+        Document next = null;
+        if (directCursor == null) {
+            try {
+                next = queue.poll(PREFETCH_START_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    if (claimed.compareAndSet(false, true)) {
+                        LOG.debug("advance: prefetch task not started, reading documents directly from {}",
+                                  context);
+                        directCursor = findIterable.iterator();
+                    } else {
+                        next = queue.take();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for documents from " + context, e);
+            } catch (final RuntimeException e) {
+                throw new IOException("failed to retrieve documents from " + context, e);
+            }
+        }
+
+        if (directCursor != null) {
+            try {
+                current = directCursor.hasNext() ? directCursor.next() : null;
+            } catch (final RuntimeException e) {
+                throw new IOException("failed to retrieve documents from " + context, e);
+            }
+            return current != null;
+        }
+
+        if (next == END_OF_DOCUMENTS) {
+            current = null;
+            if (failure != null) {
+                throw new IOException("failed to retrieve documents from " + context, failure);
+            }
+        } else {
+            current = next;
+        }
+
+        return current != null;
+    }
+
+    /**
+     * Stops prefetching and releases any prefetched documents.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        current = null;
+        queue.clear();
+        if (directCursor != null) {
+            directCursor.close();
+            directCursor = null;
+        }
+    }
+
+    private void prefetch() {
+        try (final MongoCursor<Document> cursor = findIterable.iterator()) {
+            while ((! closed) && cursor.hasNext()) {
+                put(cursor.next());
+            }
+        } catch (final Throwable t) {
+            failure = t;
+            LOG.error("prefetch: failed to retrieve documents from " + context, t);
+        } finally {
+            try {
+                put(END_OF_DOCUMENTS);
+            } catch (final InterruptedException e) {
+                LOG.warn("prefetch: interrupted before end of documents was queued for " + context);
+            }
+        }
+    }
+
+    private void put(final Document document)
+            throws InterruptedException {
+        // poll closed state while waiting so that abandoned (closed) cursors never block the prefetch thread
+        while (! closed) {
+            if (queue.offer(document, 100, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefetchingCursor.class);
+}
@@ -9,6 +9,7 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.RenameCollectionOptions;
 import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
@@ -21,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -29,6 +31,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.bson.Document;
 import org.janelia.alignment.RenderParameters;
@@ -37,6 +43,7 @@ import org.janelia.alignment.spec.ListTransformSpec;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.SectionData;
 import org.janelia.alignment.spec.TileBounds;
+import org.janelia.alignment.spec.TileBoundsPackedRTree;
 import org.janelia.alignment.spec.TileCoordinates;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpec;
@@ -61,13 +68,39 @@ public class RenderDao {
     public static RenderDao build()
             throws UnknownHostException {
         final MongoClient mongoClient = SharedMongoClient.getInstance();
-        return new RenderDao(mongoClient);
+        return new RenderDao(mongoClient, TransformSpecCache.getSharedInstance(), StackDataCache.getSharedInstance());
     }
 
     private final MongoDatabase renderDatabase;
+    private final TransformSpecCache transformSpecCache;
+    private final StackDataCache stackDataCache;
 
     public RenderDao(final MongoClient client) {
-        renderDatabase = client.getDatabase(RENDER_DB_NAME);
+        this(client, null);
+    }
+
+    /**
+     * @param  client              database client.
+     * @param  transformSpecCache  cache for resolved shared transform specs (or null to always query the database).
+     */
+    public RenderDao(final MongoClient client,
+                     final TransformSpecCache transformSpecCache) {
+        this(client, transformSpecCache, StackDataCache.DISABLED_CACHE);
+    }
+
+    /**
+     * @param  client              database client.
+     * @param  transformSpecCache  cache for resolved shared transform specs (or null to always query the database).
+     * @param  stackDataCache      cache for tile specs and bounds of complete stacks.
+     */
+    public RenderDao(final MongoClient client,
+                     final TransformSpecCache transformSpecCache,
+                     final StackDataCache stackDataCache) {
+        final MongoDatabase database = client.getDatabase(RENDER_DB_NAME);
+        // clients created by SharedMongoClient already include spec codecs, but other clients (e.g. tests) may not
+        renderDatabase = database.withCodecRegistry(SpecCodec.withSpecCodecs(database.getCodecRegistry()));
+        this.transformSpecCache = transformSpecCache;
+        this.stackDataCache = stackDataCache;
     }
 
     /**
@@ -95,7 +128,7 @@ public class RenderDao {
 
         final double lowerRightX = x + width;
         final double lowerRightY = y + height;
-        final Document tileQuery = getIntersectsBoxQuery(z, x, y, lowerRightX, lowerRightY);
+        final Document tileQuery = getIntersectsBoxQuery(stackId, z, x, y, lowerRightX, lowerRightY);
         if (groupId != null) {
             tileQuery.append("groupId", groupId);
         }
@@ -166,7 +199,7 @@ public class RenderDao {
 
         final double lowerRightX = x + width;
         final double lowerRightY = y + height;
-        final Document tileQuery = getIntersectsBoxQuery(z, x, y, lowerRightX, lowerRightY);
+        final Document tileQuery = getIntersectsBoxQuery(stackId, z, x, y, lowerRightX, lowerRightY);
 
         // need to use countDocuments here because we have a filter query
         final long count = tileCollection.countDocuments(tileQuery);
@@ -199,7 +232,24 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("stackId", stackId);
         MongoUtil.validateRequiredParameter("tileId", tileId);
 
-        final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        if (resolveTransformReferences && stackDataCache.isEnabled()) {
+            final StackMetaData stackMetaData = getCacheableStackMetaData(stackId);
+            if (stackDataCache.isCacheable(stackMetaData)) {
+                return stackDataCache.getResolvedTileSpec(stackMetaData,
+                                                          tileId,
+                                                          () -> findTileSpec(stackId, tileId, true));
+            }
+        }
+
+        return findTileSpec(stackId, tileId, resolveTransformReferences);
+    }
+
+    private TileSpec findTileSpec(final StackId stackId,
+                                  final String tileId,
+                                  final boolean resolveTransformReferences)
+            throws ObjectNotFoundException {
+
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
 
         final Document query = new Document();
         query.put("tileId", tileId);
@@ -208,15 +258,13 @@ public class RenderDao {
 
         // EXAMPLE:   find({ "tileId" : "140723171842050101.3299.0"})
         // INDEX:     tileId_1
-        final Document document = tileCollection.find(query).first();
+        final TileSpec tileSpec = tileCollection.find(query).first();
 
-        if (document == null) {
+        if (tileSpec == null) {
             throw new ObjectNotFoundException("tile spec with id '" + tileId + "' does not exist in the " +
                                               MongoUtil.fullName(tileCollection) + " collection");
         }
 
-        final TileSpec tileSpec = TileSpec.fromJson(document.toJson());
-
         if (resolveTransformReferences) {
             resolveTransformReferencesForTiles(stackId, Collections.singletonList(tileSpec));
         }
@@ -242,12 +290,30 @@ public class RenderDao {
         final int unresolvedCount = unresolvedIds.size();
         if (unresolvedCount > 0) {
 
-            final MongoCollection<Document> transformCollection = getTransformCollection(stackId);
-            getDataForTransformSpecReferences(transformCollection, unresolvedIds, resolvedIdToSpecMap, 1);
+            final MongoCollection<TransformSpec> transformCollection = getTransformSpecCollection(stackId);
+            // meta data comes from the stack data cache (when it is enabled) to avoid a query for every resolution
+            final StackMetaData stackMetaData = transformSpecCache == null ? null : getCacheableStackMetaData(stackId);
+
+            // shared transforms can change while a stack is loading without changing its timestamp,
+            // so only use cached transforms for stacks that are no longer loading
+            if ((stackMetaData != null) &&
+                (! stackMetaData.isLoading()) &&
+                (stackMetaData.getLastModifiedTimestamp() != null)) {
+
+                resolvedIdToSpecMap.putAll(
+                        transformSpecCache.getResolvedSpecs(stackId,
+                                                            stackMetaData.getLastModifiedTimestamp(),
+                                                            unresolvedIds,
+                                                            ids -> getTransformSpecsWithReferences(transformCollection,
+                                                                                                   ids).values()));
+            } else {
 
-            // resolve any references within the retrieved transform specs
-            for (final TransformSpec transformSpec : resolvedIdToSpecMap.values()) {
-                transformSpec.resolveReferences(resolvedIdToSpecMap);
+                resolvedIdToSpecMap.putAll(getTransformSpecsWithReferences(transformCollection, unresolvedIds));
+
+                // resolve any references within the retrieved transform specs
+                for (final TransformSpec transformSpec : resolvedIdToSpecMap.values()) {
+                    transformSpec.resolveReferences(resolvedIdToSpecMap);
+                }
             }
 
             // apply fully resolved transform specs to tiles
@@ -285,7 +351,7 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("y", y);
         MongoUtil.validateRequiredParameter("z", z);
 
-        final Document tileQuery = getIntersectsBoxQuery(z, x, y, x, y);
+        final Document tileQuery = getIntersectsBoxQuery(stackId, z, x, y, x, y);
         final RenderParameters renderParameters = new RenderParameters();
         addResolvedTileSpecs(stackId, tileQuery, renderParameters);
 
@@ -325,6 +391,32 @@ public class RenderDao {
         return tileSpecs;
     }
 
+    /**
+     * @return a list of resolved tile specifications for all tiles in the specified layer that
+     *         intersect the specified box (or an empty list if no tiles intersect the box).
+     *
+     * @throws IllegalArgumentException
+     *   if any required parameters are missing, if the stack cannot be found, or
+     *   if too many tiles intersect the box.
+     */
+    public List<TileSpec> getTileSpecsInBox(final StackId stackId,
+                                            final Double z,
+                                            final double minX,
+                                            final double minY,
+                                            final double maxX,
+                                            final double maxY)
+            throws IllegalArgumentException {
+
+        MongoUtil.validateRequiredParameter("stackId", stackId);
+        MongoUtil.validateRequiredParameter("z", z);
+
+        final Document tileQuery = getIntersectsBoxQuery(stackId, z, minX, minY, maxX, maxY);
+        final RenderParameters renderParameters = new RenderParameters();
+        addResolvedTileSpecs(stackId, tileQuery, renderParameters);
+
+        return renderParameters.hasTileSpecs() ? renderParameters.getTileSpecs() : new ArrayList<>();
+    }
+
     public void writeCoordinatesWithTileIds(final StackId stackId,
                                             final Double z,
                                             final List<TileCoordinates> worldCoordinatesList,
@@ -555,30 +647,117 @@ public class RenderDao {
 
         if (transformSpecs.size() > 0) {
             saveResolvedTransforms(stackId, transformSpecs);
+            invalidateCachedData(stackId);
         }
 
         if (tileSpecs.size() > 0) {
+            recordChangedZValues(stackId, getZValues(tileSpecs), getTileIdQuery(tileSpecs), null);
+            writeTileSpecs(stackId, tileSpecs);
+        }
+
+    }
+
+    /**
+     * Saves the specified shared transform specs to the database.
+     *
+     * @param  stackId         stack identifier.
+     * @param  transformSpecs  transform specs to save.
+     *
+     * @throws IllegalArgumentException
+     *   if any required parameters are missing.
+     */
+    public void saveTransformSpecs(final StackId stackId,
+                                   final Collection<TransformSpec> transformSpecs)
+            throws IllegalArgumentException {
+
+        MongoUtil.validateRequiredParameter("stackId", stackId);
+        MongoUtil.validateRequiredParameter("transformSpecs", transformSpecs);
 
-            final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        if (transformSpecs.size() > 0) {
+            saveResolvedTransforms(stackId, transformSpecs);
+            invalidateCachedData(stackId);
+        }
+    }
 
-            final List<WriteModel<Document>> modelList = new ArrayList<>(tileSpecs.size());
-            Document query;
-            Document tileSpecObject;
+    /**
+     * Saves the specified batch of tile specs to the database.
+     * Unlike {@link #saveResolvedTiles}, the tile specs do not need to be resolved
+     * but any transforms they reference must already be stored for the stack.
+     *
+     * Layer changes (including the current layers of any existing tiles being replaced)
+     * are only recorded for z values that are not already in the recordedZValues set,
+     * so a multi-batch import only records each layer once.
+     *
+     * @param  stackId          stack identifier.
+     * @param  tileSpecs        tile specs to save.
+     * @param  recordedZValues  thread safe set of z values already recorded as changed by earlier batches
+     *                          of the same import, newly recorded values are added to this set.
+     *
+     * @throws IllegalArgumentException
+     *   if any required parameters or transform spec references are missing.
+     */
+    public void saveTileSpecs(final StackId stackId,
+                              final Collection<TileSpec> tileSpecs,
+                              final Set<Double> recordedZValues)
+            throws IllegalArgumentException {
+
+        MongoUtil.validateRequiredParameter("stackId", stackId);
+        MongoUtil.validateRequiredParameter("tileSpecs", tileSpecs);
+        MongoUtil.validateRequiredParameter("recordedZValues", recordedZValues);
+
+        if (tileSpecs.size() > 0) {
+
+            final Set<String> unresolvedTransformSpecIds = new HashSet<>();
             for (final TileSpec tileSpec : tileSpecs) {
-                query = new Document("tileId", tileSpec.getTileId());
-                tileSpecObject = Document.parse(tileSpec.toJson());
-                modelList.add(new ReplaceOneModel<>(query, tileSpecObject, MongoUtil.UPSERT_OPTION));
+                if (tileSpec.hasTransforms()) {
+                    unresolvedTransformSpecIds.addAll(tileSpec.getTransforms().getUnresolvedIds());
+                }
             }
+            validateTransformReferences("batch of " + tileSpecs.size() + " tile specs",
+                                        stackId,
+                                        unresolvedTransformSpecIds);
 
-            final BulkWriteResult result = tileCollection.bulkWrite(modelList, MongoUtil.UNORDERED_OPTION);
+            recordChangedZValues(stackId, getZValues(tileSpecs), getTileIdQuery(tileSpecs), recordedZValues);
 
-            if (LOG.isDebugEnabled()) {
-                final String bulkResultMessage = MongoUtil.toMessage("tile specs", result, tileSpecs.size());
-                LOG.debug("saveResolvedTiles: {} using {}.initializeUnorderedBulkOp()",
-                          bulkResultMessage, MongoUtil.fullName(tileCollection));
-            }
+            writeTileSpecs(stackId, tileSpecs);
+        }
+    }
+
+    private static Set<Double> getZValues(final Collection<TileSpec> tileSpecs) {
+        final Set<Double> zValues = new HashSet<>();
+        for (final TileSpec tileSpec : tileSpecs) {
+            zValues.add(tileSpec.getZ());
+        }
+        return zValues;
+    }
+
+    private static Document getTileIdQuery(final Collection<TileSpec> tileSpecs) {
+        final List<String> tileIds = new ArrayList<>(tileSpecs.size());
+        for (final TileSpec tileSpec : tileSpecs) {
+            tileIds.add(tileSpec.getTileId());
+        }
+        return new Document("tileId", new Document(MongoUtil.OP_IN, tileIds));
+    }
+
+    private void writeTileSpecs(final StackId stackId,
+                                final Collection<TileSpec> tileSpecs) {
+
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
+
+        final List<WriteModel<TileSpec>> modelList = new ArrayList<>(tileSpecs.size());
+        Document query;
+        for (final TileSpec tileSpec : tileSpecs) {
+            query = new Document("tileId", tileSpec.getTileId());
+            modelList.add(new ReplaceOneModel<>(query, tileSpec, MongoUtil.UPSERT_OPTION));
         }
 
+        final BulkWriteResult result = tileCollection.bulkWrite(modelList, MongoUtil.UNORDERED_OPTION);
+
+        if (LOG.isDebugEnabled()) {
+            final String bulkResultMessage = MongoUtil.toMessage("tile specs", result, tileSpecs.size());
+            LOG.debug("writeTileSpecs: {} using {}.initializeUnorderedBulkOp()",
+                      bulkResultMessage, MongoUtil.fullName(tileCollection));
+        }
     }
 
     /**
@@ -598,7 +777,7 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("tileSpec", tileSpec);
         MongoUtil.validateRequiredParameter("tileSpec.tileId", tileSpec.getTileId());
 
-        final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
 
         final String context = "tile spec with id '" + tileSpec.getTileId();
         validateTransformReferences(context, stackId, tileSpec.getTransforms());
@@ -606,9 +785,9 @@ public class RenderDao {
         final Document query = new Document();
         query.put("tileId", tileSpec.getTileId());
 
-        final Document tileSpecObject = Document.parse(tileSpec.toJson());
+        recordChangedZValues(stackId, Collections.singletonList(tileSpec.getZ()), query);
 
-        final UpdateResult result = tileCollection.replaceOne(query, tileSpecObject, MongoUtil.UPSERT_OPTION);
+        final UpdateResult result = tileCollection.replaceOne(query, tileSpec, MongoUtil.UPSERT_OPTION);
 
         LOG.debug("saveTileSpec: {}.{},({}), upsertedId is {}",
                   MongoUtil.fullName(tileCollection),
@@ -634,22 +813,22 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("stackId", stackId);
         MongoUtil.validateRequiredParameter("transformId", transformId);
 
-        final MongoCollection<Document> transformCollection = getTransformCollection(stackId);
+        final MongoCollection<TransformSpec> transformCollection = getTransformSpecCollection(stackId);
 
         final Document query = new Document();
         query.put("id", transformId);
 
         LOG.debug("getTransformSpec: {}.find({})", MongoUtil.fullName(transformCollection), query.toJson());
 
-        final Document document = transformCollection.find(query).first();
+        final TransformSpec transformSpec = transformCollection.find(query).first();
 
-        if (document == null) {
+        if (transformSpec == null) {
             throwExceptionIfStackIsMissing(stackId);
             throw new ObjectNotFoundException("transform spec with id '" + transformId + "' does not exist in the " +
                                               stackId);
         }
 
-        return TransformSpec.fromJson(document.toJson());
+        return transformSpec;
     }
 
     /**
@@ -669,7 +848,7 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("transformSpec", transformSpec);
         MongoUtil.validateRequiredParameter("transformSpec.id", transformSpec.getId());
 
-        final MongoCollection<Document> transformCollection = getTransformCollection(stackId);
+        final MongoCollection<TransformSpec> transformCollection = getTransformSpecCollection(stackId);
 
         final String context = "transform spec with id '" + transformSpec.getId() + "'";
         validateTransformReferences(context, stackId, transformSpec);
@@ -677,12 +856,12 @@ public class RenderDao {
         final Document query = new Document();
         query.put("id", transformSpec.getId());
 
-        final Document transformSpecObject = Document.parse(transformSpec.toJson());
-
         final UpdateResult result = transformCollection.replaceOne(query,
-                                                                   transformSpecObject,
+                                                                   transformSpec,
                                                                    MongoUtil.UPSERT_OPTION);
 
+        invalidateCachedData(stackId);
+
         LOG.debug("saveTransformSpec: {}.{},({}), upsertedId is {}",
                   MongoUtil.fullName(transformCollection),
                   MongoUtil.action(result),
@@ -750,18 +929,16 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("stackId", stackId);
         MongoUtil.validateRequiredParameter("sectionId", sectionId);
 
-        final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
         final Document query = new Document("layout.sectionId", sectionId);
 
-        final Document document = tileCollection.find(query).first();
+        final TileSpec tileSpec = tileCollection.find(query).first();
 
-        if (document == null) {
+        if (tileSpec == null) {
             throwExceptionIfStackIsMissing(stackId);
             throw new ObjectNotFoundException("sectionId '" + sectionId + "' does not exist in the " + stackId);
         }
 
-        final TileSpec tileSpec = TileSpec.fromJson(document.toJson());
-
         return tileSpec.getZ();
     }
 
@@ -778,6 +955,8 @@ public class RenderDao {
         final Document query = new Document("layout.sectionId", sectionId);
         final Document update = new Document("$set", new Document("z", z));
 
+        recordChangedZValues(stackId, Collections.singletonList(z), query);
+
         final UpdateResult result = tileCollection.updateMany(query, update);
 
         LOG.debug("updateZForSection: updated {} tile specs with {}.update({},{})",
@@ -797,6 +976,8 @@ public class RenderDao {
         final Document query = new Document("tileId", new Document("$in", tileIds));
         final Document update = new Document("$set", new Document("z", z));
 
+        recordChangedZValues(stackId, Collections.singletonList(z), query);
+
         final UpdateResult result = tileCollection.updateMany(query, update);
 
         final String shortQueryForLog = "{ 'tileId': { '$in': [ " + tileIds.size() + " tile ids ... ] } }";
@@ -841,7 +1022,8 @@ public class RenderDao {
             query.append("_id.z", new Document(MongoUtil.OP_LTE, maxZ));
         }
 
-        try (final MongoCursor<Document> cursor = sectionCollection.find(query).iterator()) {
+        try (final MongoCursor<Document> cursor =
+                     sectionCollection.find(query).sort(new Document("_id.sectionId", 1)).iterator()) {
             Document document;
             Document resultId;
             String sectionId;
@@ -992,6 +1174,13 @@ public class RenderDao {
         return stackMetaData;
     }
 
+    /**
+     * @return meta data for the specified stack (possibly from the stack data cache) for cached data lookups.
+     */
+    private StackMetaData getCacheableStackMetaData(final StackId stackId) {
+        return stackDataCache.getStackMetaData(stackId, () -> getStackMetaData(stackId));
+    }
+
     public void saveStackMetaData(final StackMetaData stackMetaData) {
 
         LOG.debug("saveStackMetaData: entry, stackMetaData={}", stackMetaData);
@@ -1007,6 +1196,9 @@ public class RenderDao {
                                                                        stackMetaDataObject,
                                                                        MongoUtil.UPSERT_OPTION);
 
+        // any state change (e.g. COMPLETE to LOADING) means previously cached data can no longer be trusted
+        stackDataCache.invalidate(stackId);
+
         final String action;
         if (result.getMatchedCount() > 0) {
             action = "update";
@@ -1020,10 +1212,31 @@ public class RenderDao {
                   stackMetaDataCollection.getNamespace().getFullName(), action, query.toJson());
     }
 
-    public StackMetaData ensureIndexesAndDeriveStats(final StackMetaData stackMetaData) {
+    /**
+     * Ensures all stack indexes exist, derives section data and stats for the stack,
+     * and then saves the stack in the COMPLETE state.
+     *
+     * Section (layer) data is aggregated in z-sharded batches that run concurrently.
+     * If the stack's section data was derived before and layer changes have been tracked since then,
+     * only the changed layers are re-aggregated and the stack stats are rebuilt from the (small)
+     * section collection instead of from the full tile collection.
+     * Tile changes made directly in the database (bypassing this DAO) are not tracked (beyond layers
+     * being added or removed), so the section collection for stacks modified that way should be dropped
+     * to force derivation of all layers.
+     *
+     * @param  stackMetaData  meta data for the stack being completed.
+     *
+     * @return the updated meta data with derived stats.
+     *
+     * @throws IllegalStateException
+     *   if the stack has no tiles or data aggregation fails.
+     */
+    public StackMetaData ensureIndexesAndDeriveStats(final StackMetaData stackMetaData)
+            throws IllegalStateException {
 
         MongoUtil.validateRequiredParameter("stackMetaData", stackMetaData);
 
+        final ProcessTimer timer = new ProcessTimer();
         final StackId stackId = stackMetaData.getStackId();
 
         LOG.debug("ensureIndexesAndDeriveStats: entry, {}", stackId);
@@ -1037,135 +1250,29 @@ public class RenderDao {
 
         ensureSupplementaryTileIndexes(tileCollection);
 
-        deriveSectionData(stackId);
-
         final List<Double> zValues = getZValues(stackId);
-        final long sectionCount = zValues.size();
-
-        long nonIntegralSectionCount = 0;
-        double truncatedZ;
-        for (final Double z : zValues) {
-            truncatedZ = z.intValue();
-            if (z > truncatedZ) {
-                nonIntegralSectionCount++;
-            }
+        if (zValues.size() == 0) {
+            throw new IllegalStateException("Stack data aggregation returned no results because " +
+                                            MongoUtil.fullName(tileCollection) + " has no tiles.");
         }
 
-        // NOTE: do not use estimateDocumentCount here because we want to store accurate count
-        //       see https://docs.mongodb.com/v4.2/reference/method/db.collection.count/#db.collection.count
-        final long tileCount = tileCollection.countDocuments();
-        LOG.debug("ensureIndexesAndDeriveStats: tileCount for {} is {}", stackId, tileCount);
-
-        final long transformCount = transformCollection.countDocuments();
-        LOG.debug("ensureIndexesAndDeriveStats: transformCount for {} is {}, deriving aggregate stats ...",
-                  stackId, transformCount);
-
-        // db.<stack_prefix>__tile.aggregate(
-        //     [
-        //         {
-        //             "$project":  {
-        //                 "z": "$z",
-        //                 "minX": "$minX",
-        //                 "minY": "$minY",
-        //                 "maxX": "$maxX",
-        //                 "maxY": "$maxY",
-        //                 "width":  { "$subtract": [ "$maxX", "$minX" ] },
-        //                 "height": { "$subtract": [ "$maxY", "$minY" ] }
-        //             }
-        //         },
-        //         {
-        //             "$group": {
-        //                 "_id": "minAndMaxValues",
-        //                 "stackMinX": { "$min": "$minX" },
-        //                 "stackMinY": { "$min": "$minY" },
-        //                 "stackMinZ": { "$min": "$z" },
-        //                 "stackMaxX": { "$max": "$maxX" },
-        //                 "stackMaxY": { "$max": "$maxY" },
-        //                 "stackMaxZ": { "$max": "$z" } } } )
-        //                 "stackMinTileWidth":  { "$min": "$width" },
-        //                 "stackMaxTileWidth":  { "$max": "$width" },
-        //                 "stackMinTileHeight": { "$min": "$height" },
-        //                 "stackMaxTileHeight": { "$max": "$height" }
-        //             }
-        //         }
-        //     ]
-        // )
+        final Set<Double> changedZValues = getChangedZValuesForUpdate(stackMetaData, zValues);
 
-        final Document tileWidth = new Document("$subtract", buildBasicDBList(new String[] {"$maxX","$minX" }));
-        final Document tileHeight = new Document("$subtract", buildBasicDBList(new String[] {"$maxY","$minY" }));
-        final Document tileValues = new Document("z", "$z").append(
-                "minX", "$minX").append("minY", "$minY").append("maxX", "$maxX").append("maxY", "$maxY").append(
-                "width", tileWidth).append("height", tileHeight);
-
-        final Document projectStage = new Document("$project", tileValues);
-
-        final String minXKey = "stackMinX";
-        final String minYKey = "stackMinY";
-        final String minZKey = "stackMinZ";
-        final String maxXKey = "stackMaxX";
-        final String maxYKey = "stackMaxY";
-        final String maxZKey = "stackMaxZ";
-        final String minWidthKey = "stackMinTileWidth";
-        final String maxWidthKey = "stackMaxTileWidth";
-        final String minHeightKey = "stackMinTileHeight";
-        final String maxHeightKey = "stackMaxTileHeight";
-
-        final Document minAndMaxValues = new Document("_id", "minAndMaxValues");
-        minAndMaxValues.append(minXKey, new Document(MongoUtil.OP_MIN, "$minX"));
-        minAndMaxValues.append(minYKey, new Document(MongoUtil.OP_MIN, "$minY"));
-        minAndMaxValues.append(minZKey, new Document(MongoUtil.OP_MIN, "$z"));
-        minAndMaxValues.append(maxXKey, new Document(MongoUtil.OP_MAX, "$maxX"));
-        minAndMaxValues.append(maxYKey, new Document(MongoUtil.OP_MAX, "$maxY"));
-        minAndMaxValues.append(maxZKey, new Document(MongoUtil.OP_MAX, "$z"));
-        minAndMaxValues.append(minWidthKey, new Document(MongoUtil.OP_MIN, "$width"));
-        minAndMaxValues.append(maxWidthKey, new Document(MongoUtil.OP_MAX, "$width"));
-        minAndMaxValues.append(minHeightKey, new Document(MongoUtil.OP_MIN, "$height"));
-        minAndMaxValues.append(maxHeightKey, new Document(MongoUtil.OP_MAX, "$height"));
-        final Document groupStage = new Document("$group", minAndMaxValues);
+        if (changedZValues == null) {
+            deriveSectionData(stackId, zValues, true);
+        } else {
+            deriveSectionData(stackId, changedZValues, false);
+        }
 
-        final List<Document> pipeline = new ArrayList<>();
-        pipeline.add(projectStage);
-        pipeline.add(groupStage);
+        removeChangedZValues(stackId, changedZValues);
 
+        final long transformCount = transformCollection.countDocuments();
+        LOG.debug("ensureIndexesAndDeriveStats: transformCount for {} is {}", stackId, transformCount);
 
-        // mongodb java 3.0 driver notes:
-        // -- need to set cursor batchSize to prevent NPE from cursor creation
-        final Document aggregateResult = tileCollection.aggregate(pipeline).batchSize(1).first();
-        if (aggregateResult == null) {
-            String cause = "";
-            if (tileCollection.estimatedDocumentCount() == 0) {
-                cause = " because the stack has no tiles";
-            }
-            throw new IllegalStateException("Stack data aggregation returned no results" + cause + ".  " +
-                                            "The aggregation query was " + MongoUtil.fullName(tileCollection) +
-                                            ".aggregate(" + pipeline + ") .");
-        }
-
-        final List<String> channelNames = tileCollection.distinct("channels.name", String.class).into(new ArrayList<>());
-        Collections.sort(channelNames);
-
-        final Bounds stackBounds = new Bounds(aggregateResult.get(minXKey, Double.class),
-                                              aggregateResult.get(minYKey, Double.class),
-                                              aggregateResult.get(minZKey, Double.class),
-                                              aggregateResult.get(maxXKey, Double.class),
-                                              aggregateResult.get(maxYKey, Double.class),
-                                              aggregateResult.get(maxZKey, Double.class));
-
-        final Integer minTileWidth = MongoUtil.toInteger(aggregateResult.get(minWidthKey, Double.class));
-        final Integer maxTileWidth = MongoUtil.toInteger(aggregateResult.get(maxWidthKey, Double.class));
-        final Integer minTileHeight = MongoUtil.toInteger(aggregateResult.get(minHeightKey, Double.class));
-        final Integer maxTileHeight = MongoUtil.toInteger(aggregateResult.get(maxHeightKey, Double.class));
-
-        final StackStats stats = new StackStats(stackBounds,
-                                                sectionCount,
-                                                nonIntegralSectionCount,
-                                                tileCount,
-                                                transformCount,
-                                                minTileWidth,
-                                                maxTileWidth,
-                                                minTileHeight,
-                                                maxTileHeight,
-                                                new LinkedHashSet<>(channelNames));
+        final StackStats stats = buildStackStats(stackId,
+                                                 transformCount,
+                                                 changedZValues == null ? zValues.size() : changedZValues.size(),
+                                                 timer.getElapsedMilliseconds());
         stackMetaData.setStats(stats);
 
         LOG.debug("ensureIndexesAndDeriveStats: completed stat derivation for {}, stats={}", stackId, stats);
@@ -1179,69 +1286,433 @@ public class RenderDao {
                                                                        stackMetaDataObject,
                                                                        MongoUtil.UPSERT_OPTION);
 
+        // any state change (e.g. COMPLETE to LOADING) means previously cached data can no longer be trusted
+        stackDataCache.invalidate(stackId);
+
         LOG.debug("ensureIndexesAndDeriveStats: {}.{}({})",
                   MongoUtil.fullName(stackMetaDataCollection), MongoUtil.action(result), query.toJson());
 
         return stackMetaData;
     }
 
-    private void deriveSectionData(final StackId stackId)
-            throws IllegalArgumentException {
+    /**
+     * @return the z values changed since the stack's section data was last derived or
+     *         null if the section data for all layers needs to be (re)derived.
+     */
+    private Set<Double> getChangedZValuesForUpdate(final StackMetaData stackMetaData,
+                                                   final List<Double> zValues) {
 
+        final StackId stackId = stackMetaData.getStackId();
+
+        if ((stackMetaData.getStats() == null) ||
+            (! MongoUtil.exists(renderDatabase, stackId.getSectionCollectionName()))) {
+            return null;
+        }
+
+        // section data derived before layer changes were tracked needs to be completely rebuilt
+        final MongoCollection<Document> sectionCollection = getSectionCollection(stackId);
+        final Document untrackedQuery = new Document(MIN_TILE_WIDTH_KEY, new Document(MongoUtil.OP_EXISTS, false));
+        if (sectionCollection.countDocuments(untrackedQuery) > 0) {
+            return null;
+        }
+
+        final Set<Double> changedZValues =
+                getChangedZCollection(stackId).distinct("_id", Double.class).into(new HashSet<>());
+
+        // make sure every current layer was either derived before or has been changed since then
+        final Set<Double> sectionZValues = sectionCollection.distinct("_id.z", Double.class).into(new HashSet<>());
+        final Set<Double> currentZValues = new HashSet<>(zValues);
+        for (final Double z : zValues) {
+            if (! (sectionZValues.contains(z) || changedZValues.contains(z))) {
+                LOG.debug("getChangedZValuesForUpdate: untracked z {} found in {}", z, stackId);
+                return null;
+            }
+        }
+        for (final Double z : sectionZValues) {
+            if (! (currentZValues.contains(z) || changedZValues.contains(z))) {
+                LOG.debug("getChangedZValuesForUpdate: untracked removal of z {} found in {}", z, stackId);
+                return null;
+            }
+        }
+
+        LOG.debug("getChangedZValuesForUpdate: {} of {} layers in {} have changed",
+                  changedZValues.size(), zValues.size(), stackId);
+
+        return changedZValues;
+    }
+
+    /**
+     * Aggregates section data for the specified layers in z-sharded batches that run concurrently
+     * and saves the results to the stack's section collection.
+     *
+     * @param  stackId     stack identifier.
+     * @param  zValues     layers to derive.
+     * @param  replaceAll  if true, all existing section data is replaced;
+     *                     otherwise only existing data for the specified layers is replaced.
+     *
+     * @throws IllegalStateException
+     *   if any batch fails.
+     */
+    private void deriveSectionData(final StackId stackId,
+                                   final Collection<Double> zValues,
+                                   final boolean replaceAll)
+            throws IllegalStateException {
+
+        final ProcessTimer timer = new ProcessTimer();
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
-        final String sectionCollectionName = stackId.getSectionCollectionName();
+
+        final List<Double> sortedZValues = new ArrayList<>(zValues);
+        Collections.sort(sortedZValues);
+
+        final int zValuesPerShard = Math.max(1, (int) Math.ceil(sortedZValues.size() /
+                                                                (double) DERIVE_SECTION_DATA_SHARD_COUNT));
+        final List<List<Double>> shards = new ArrayList<>();
+        for (int from = 0; from < sortedZValues.size(); from += zValuesPerShard) {
+            shards.add(sortedZValues.subList(from, Math.min(from + zValuesPerShard, sortedZValues.size())));
+        }
+
+        final List<Document> sectionDocuments = new ArrayList<>();
+
+        if (shards.size() > 0) {
+
+            // batches run on a pool shared by all requests so that concurrent completions stay bounded
+            final ExecutorService executorService = SharedQueryPools.getSectionDataPool();
+            final List<Future<List<Document>>> futureList = new ArrayList<>(shards.size());
+
+            try {
+
+                for (final List<Double> shardZValues : shards) {
+                    futureList.add(executorService.submit(() -> aggregateSectionData(tileCollection,
+                                                                                     shardZValues)));
+                }
+
+                for (final Future<List<Document>> future : futureList) {
+                    sectionDocuments.addAll(future.get());
+                }
+
+            } catch (final InterruptedException | ExecutionException e) {
+                for (final Future<List<Document>> future : futureList) {
+                    future.cancel(true);
+                }
+                throw new IllegalStateException("Section data aggregation failed for " + stackId, e);
+            }
+
+        }
+
+        // keep section data in sectionId order (like the original single aggregation) for unsorted readers
+        sectionDocuments.sort(Comparator.comparing(
+                (Document document) -> document.get("_id", Document.class).getString("sectionId"),
+                Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+
+        final MongoCollection<Document> sectionCollection = getSectionCollection(stackId);
+        if (replaceAll) {
+
+            // Build replacement data in a temporary collection and then swap it in with a single rename
+            // (like $out) so that readers never see a partially derived stack and
+            // existing section data is preserved if anything fails before the swap.
+            final MongoCollection<Document> tempCollection =
+                    renderDatabase.getCollection(stackId.getSectionTempCollectionName());
+            tempCollection.drop();
+
+            if (sectionDocuments.size() > 0) {
+                tempCollection.insertMany(sectionDocuments);
+                MongoUtil.createIndex(tempCollection, new Document("_id.sectionId", 1), SECTION_A_OPTIONS);
+                tempCollection.renameCollection(sectionCollection.getNamespace(),
+                                                new RenameCollectionOptions().dropTarget(true));
+                setHasSectionData(stackId, true);
+            } else {
+                sectionCollection.drop();
+                setHasSectionData(stackId, false);
+            }
+
+        } else {
+
+            final Document query = new Document("_id.z", new Document(MongoUtil.OP_IN, sortedZValues));
+            final DeleteResult deleteResult = sectionCollection.deleteMany(query);
+            LOG.debug("deriveSectionData: removed {} previously derived sections from {}",
+                      deleteResult.getDeletedCount(), MongoUtil.fullName(sectionCollection));
+
+            if (sectionDocuments.size() > 0) {
+                sectionCollection.insertMany(sectionDocuments);
+            }
+
+            MongoUtil.createIndex(sectionCollection, new Document("_id.sectionId", 1), SECTION_A_OPTIONS);
+            setHasSectionData(stackId, true);
+        }
+
+        LOG.debug("deriveSectionData: saved data for {} sections from {} layers in {} batches to {}, took {} ms",
+                  sectionDocuments.size(), sortedZValues.size(), shards.size(),
+                  MongoUtil.fullName(sectionCollection), timer.getElapsedMilliseconds());
+    }
+
+    private List<Document> aggregateSectionData(final MongoCollection<Document> tileCollection,
+                                                final List<Double> zValues) {
 
         // db.<stack_prefix>__tile.aggregate(
         //     [
-        //         { "$group": { "_id": { "sectionId": "$layout.sectionId", "z": "$z" } },
+        //         { "$match": { "z": { "$in": [ <shard z values> ] } } },
+        //         { "$group": { "_id": { "sectionId": "$layout.sectionId", "z": "$z" },
         //                       "tileCount": { "$sum": 1 },
         //                       "minX": { "$min": "$minX" }, "maxX": { "$max": "$maxX" },
-        //                       "minY": { "$min": "$minY" }, "maxY": { "$max": "$maxY" }},
-        //         { "$sort": { "_id.sectionId": 1 } }
+        //                       "minY": { "$min": "$minY" }, "maxY": { "$max": "$maxY" },
+        //                       "minTileWidth": { "$min": { "$subtract": [ "$maxX", "$minX" ] } }, ...
+        //                       "channelNames": { "$addToSet": "$channels.name" } } }
         //     ]
         // )
 
+        final Document tileWidth = new Document("$subtract", buildBasicDBList(new String[] {"$maxX","$minX" }));
+        final Document tileHeight = new Document("$subtract", buildBasicDBList(new String[] {"$maxY","$minY" }));
+
         final Document idComponents = new Document("sectionId", "$layout.sectionId").append("z", "$z");
-        final Document tileCountComponents = new Document("$sum", 1);
-        final Document minXComponents = new Document("$min", "$minX");
-        final Document maxXComponents = new Document("$max", "$maxX");
-        final Document minYComponents = new Document("$min", "$minY");
-        final Document maxYComponents = new Document("$max", "$maxY");
         final Document group = new Document(
                 "_id", idComponents).append(
-                "tileCount", tileCountComponents).append(
-                "minX", minXComponents).append(
-                "maxX", maxXComponents).append(
-                "minY", minYComponents).append(
-                "maxY", maxYComponents);
+                "tileCount", new Document("$sum", 1)).append(
+                "minX", new Document(MongoUtil.OP_MIN, "$minX")).append(
+                "maxX", new Document(MongoUtil.OP_MAX, "$maxX")).append(
+                "minY", new Document(MongoUtil.OP_MIN, "$minY")).append(
+                "maxY", new Document(MongoUtil.OP_MAX, "$maxY")).append(
+                MIN_TILE_WIDTH_KEY, new Document(MongoUtil.OP_MIN, tileWidth)).append(
+                MAX_TILE_WIDTH_KEY, new Document(MongoUtil.OP_MAX, tileWidth)).append(
+                MIN_TILE_HEIGHT_KEY, new Document(MongoUtil.OP_MIN, tileHeight)).append(
+                MAX_TILE_HEIGHT_KEY, new Document(MongoUtil.OP_MAX, tileHeight)).append(
+                CHANNEL_NAMES_KEY, new Document("$addToSet", "$channels.name"));
 
         final List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("z", new Document(MongoUtil.OP_IN, zValues))));
         pipeline.add(new Document("$group", group));
-        pipeline.add(new Document("$sort", new Document("_id.sectionId", 1)));
-        pipeline.add(new Document("$out", sectionCollectionName));
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("deriveSectionData: running {}.aggregate({})",
-                      MongoUtil.fullName(tileCollection),
-                      MongoUtil.toJson(pipeline));
+        return tileCollection.aggregate(pipeline).allowDiskUse(true).into(new ArrayList<>());
+    }
+
+    /**
+     * @return stats for the stack built from its derived section data.
+     */
+    private StackStats buildStackStats(final StackId stackId,
+                                       final long transformCount,
+                                       final long derivedZCount,
+                                       final long derivationMillis) {
+
+        final TreeSet<Double> zValues = new TreeSet<>();
+        final Set<String> channelNames = new TreeSet<>();
+        long tileCount = 0;
+        Double minX = null;
+        Double minY = null;
+        Double maxX = null;
+        Double maxY = null;
+        Double minTileWidth = null;
+        Double maxTileWidth = null;
+        Double minTileHeight = null;
+        Double maxTileHeight = null;
+
+        try (final MongoCursor<Document> cursor = getSectionCollection(stackId).find().iterator()) {
+            Document document;
+            Double z;
+            Number sectionTileCount;
+            while (cursor.hasNext()) {
+                document = cursor.next();
+                z = document.get("_id", Document.class).getDouble("z");
+                if (z != null) {
+                    zValues.add(z);
+                }
+                sectionTileCount = document.get("tileCount", Number.class);
+                if (sectionTileCount != null) {
+                    tileCount += sectionTileCount.longValue();
+                }
+                minX = min(minX, document.get("minX", Number.class));
+                minY = min(minY, document.get("minY", Number.class));
+                maxX = max(maxX, document.get("maxX", Number.class));
+                maxY = max(maxY, document.get("maxY", Number.class));
+                minTileWidth = min(minTileWidth, document.get(MIN_TILE_WIDTH_KEY, Number.class));
+                maxTileWidth = max(maxTileWidth, document.get(MAX_TILE_WIDTH_KEY, Number.class));
+                minTileHeight = min(minTileHeight, document.get(MIN_TILE_HEIGHT_KEY, Number.class));
+                maxTileHeight = max(maxTileHeight, document.get(MAX_TILE_HEIGHT_KEY, Number.class));
+                addChannelNames(document.get(CHANNEL_NAMES_KEY), channelNames);
+            }
         }
 
-        // mongodb java 3.0 driver notes:
-        // -- need to retrieve first batch from cursor - via first() call - to force aggregate operation to run
-        //    (even though we don't need to work with the batch result here)
-        // -- need to set cursor batchSize to prevent NPE from cursor creation
-        tileCollection.aggregate(pipeline).batchSize(0).first();
+        long nonIntegralSectionCount = 0;
+        for (final Double z : zValues) {
+            if (z > z.intValue()) {
+                nonIntegralSectionCount++;
+            }
+        }
 
-        if (! MongoUtil.exists(renderDatabase, sectionCollectionName)) {
-            throw new IllegalStateException("Section data aggregation results were not saved to " +
-                                            sectionCollectionName);
+        Double minZ = null;
+        Double maxZ = null;
+        if (zValues.size() > 0) {
+            minZ = zValues.first();
+            maxZ = zValues.last();
         }
 
-        final MongoCollection<Document> sectionCollection = getSectionCollection(stackId);
-        final long sectionCount = sectionCollection.estimatedDocumentCount();
+        return new StackStats(new Bounds(minX, minY, minZ, maxX, maxY, maxZ),
+                              (long) zValues.size(),
+                              nonIntegralSectionCount,
+                              tileCount,
+                              transformCount,
+                              MongoUtil.toInteger(minTileWidth),
+                              MongoUtil.toInteger(maxTileWidth),
+                              MongoUtil.toInteger(minTileHeight),
+                              MongoUtil.toInteger(maxTileHeight),
+                              new LinkedHashSet<>(channelNames),
+                              derivedZCount,
+                              derivationMillis);
+    }
+
+    private static Double min(final Double currentValue,
+                              final Number value) {
+        return (value == null) ? currentValue :
+               (currentValue == null) ? value.doubleValue() : Math.min(currentValue, value.doubleValue());
+    }
+
+    private static Double max(final Double currentValue,
+                              final Number value) {
+        return (value == null) ? currentValue :
+               (currentValue == null) ? value.doubleValue() : Math.max(currentValue, value.doubleValue());
+    }
+
+    /**
+     * Adds names from an aggregated channel names value
+     * (a set of the channel name arrays for each tile) to the specified set.
+     */
+    private static void addChannelNames(final Object value,
+                                        final Set<String> channelNames) {
+        if (value instanceof String) {
+            channelNames.add((String) value);
+        } else if (value instanceof Collection) {
+            for (final Object element : (Collection<?>) value) {
+                addChannelNames(element, channelNames);
+            }
+        }
+    }
+
+    /**
+     * Records the layers that will be changed by a tile update
+     * so that stack completion only needs to re-derive data for those layers.
+     * Changes are only tracked for stacks that have previously derived section data
+     * (all layers are derived for other stacks).
+     *
+     * This is called once per mutation request (not per written tile).  Callers that replace or move
+     * existing tiles provide a query for those tiles so that the layers the tiles are moved from are
+     * recorded along with the layers they are moved to.
+     *
+     * @param  stackId            stack identifier.
+     * @param  newZValues         z values for the updated tiles (or null if tiles are being removed).
+     * @param  existingTileQuery  query for the tiles being changed, used to find their current z values
+     *                            (or null if those values are already in the newZValues collection).
+     */
+    private void recordChangedZValues(final StackId stackId,
+                                      final Collection<Double> newZValues,
+                                      final Document existingTileQuery) {
+        recordChangedZValues(stackId, newZValues, existingTileQuery, null);
+    }
+
+    /**
+     * Records changed layers like {@link #recordChangedZValues(StackId, Collection, Document)}
+     * but skips (and then adds) values in the specified recordedZValues set.
+     *
+     * @param  recordedZValues    thread safe set of z values that have already been recorded
+     *                            (or null to record all changed values).
+     */
+    private void recordChangedZValues(final StackId stackId,
+                                      final Collection<Double> newZValues,
+                                      final Document existingTileQuery,
+                                      final Set<Double> recordedZValues) {
+
+        if (! hasSectionData(stackId)) {
+            return;
+        }
+
+        final Set<Double> changedZValues = new HashSet<>();
+        if (newZValues != null) {
+            changedZValues.addAll(newZValues);
+        }
+        if (existingTileQuery != null) {
+            getTileCollection(stackId).distinct("z", existingTileQuery, Double.class).into(changedZValues);
+        }
+        changedZValues.remove(null);
+        if (recordedZValues != null) {
+            changedZValues.removeAll(recordedZValues);
+        }
+
+        if (changedZValues.size() > 0) {
+
+            final MongoCollection<Document> changedZCollection = getChangedZCollection(stackId);
+            final List<WriteModel<Document>> modelList = new ArrayList<>(changedZValues.size());
+            Document document;
+            for (final Double z : changedZValues) {
+                document = new Document("_id", z);
+                modelList.add(new ReplaceOneModel<>(document, document, MongoUtil.UPSERT_OPTION));
+            }
+
+            final BulkWriteResult result = changedZCollection.bulkWrite(modelList, MongoUtil.UNORDERED_OPTION);
+
+            if (recordedZValues != null) {
+                recordedZValues.addAll(changedZValues);
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("recordChangedZValues: {}",
+                          MongoUtil.toMessage("changed z values", result, changedZValues.size()));
+            }
+        }
+    }
+
+    /**
+     * Checking for section data requires a listCollections round trip, so results are remembered for
+     * the life of the JVM.  Stacks known to have section data are trusted until this DAO removes that data
+     * (a stale positive result only costs an unneeded change record).  Stacks without section data are
+     * re-checked after a short interval in case another server derived data for them.
+     *
+     * @return true if section data has been derived for the specified stack.
+     */
+    private boolean hasSectionData(final StackId stackId) {
+
+        if (STACKS_WITH_SECTION_DATA.contains(stackId)) {
+            return true;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Long missingTime = STACK_TO_MISSING_SECTION_DATA_TIME.get(stackId);
+        if ((missingTime != null) && ((now - missingTime) < SECTION_DATA_RECHECK_MILLIS)) {
+            return false;
+        }
+
+        final boolean exists = MongoUtil.exists(renderDatabase, stackId.getSectionCollectionName());
+        setHasSectionData(stackId, exists);
+        if (! exists) {
+            STACK_TO_MISSING_SECTION_DATA_TIME.put(stackId, now);
+        }
+
+        return exists;
+    }
+
+    private static void setHasSectionData(final StackId stackId,
+                                          final boolean hasSectionData) {
+        if (hasSectionData) {
+            STACKS_WITH_SECTION_DATA.add(stackId);
+            STACK_TO_MISSING_SECTION_DATA_TIME.remove(stackId);
+        } else {
+            STACKS_WITH_SECTION_DATA.remove(stackId);
+        }
+    }
 
-        LOG.debug("deriveSectionData: saved data for {} sections in {}",
-                  sectionCount, MongoUtil.fullName(sectionCollection));
+    /**
+     * Removes change records for layers that have been (re)derived.
+     *
+     * @param  stackId         stack identifier.
+     * @param  derivedZValues  derived layers or null if all layers were derived.
+     */
+    private void removeChangedZValues(final StackId stackId,
+                                      final Collection<Double> derivedZValues) {
+
+        final MongoCollection<Document> changedZCollection = getChangedZCollection(stackId);
+        if (derivedZValues == null) {
+            changedZCollection.drop();
+        } else if (derivedZValues.size() > 0) {
+            final Document query = new Document("_id", new Document(MongoUtil.OP_IN,
+                                                                    new ArrayList<>(derivedZValues)));
+            changedZCollection.deleteMany(query);
+        }
     }
 
     public void removeStack(final StackId stackId,
@@ -1263,13 +1734,19 @@ public class RenderDao {
         LOG.debug("removeStack: {}.drop() deleted {} document(s)",
                   MongoUtil.fullName(transformCollection), transformCount);
 
+        invalidateCachedData(stackId);
+
         final MongoCollection<Document> sectionCollection = getSectionCollection(stackId);
         final long sectionCount = sectionCollection.estimatedDocumentCount();
         sectionCollection.drop();
+        setHasSectionData(stackId, false);
 
         LOG.debug("removeStack: {}.drop() deleted {} document(s)",
                   MongoUtil.fullName(sectionCollection), sectionCount);
 
+        getChangedZCollection(stackId).drop();
+        renderDatabase.getCollection(stackId.getSectionTempCollectionName()).drop();
+
         if (includeMetaData) {
             final MongoCollection<Document> stackMetaDataCollection = getStackMetaDataCollection();
             final Document stackIdQuery = getStackIdQuery(stackId);
@@ -1291,6 +1768,9 @@ public class RenderDao {
 
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
         final Document tileQuery = new Document("layout.sectionId", sectionId);
+
+        recordChangedZValues(stackId, null, tileQuery);
+
         final DeleteResult removeResult = tileCollection.deleteMany(tileQuery);
 
         LOG.debug("removeTilesWithSectionId: {}.remove({}) deleted {} document(s)",
@@ -1306,6 +1786,9 @@ public class RenderDao {
 
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
         final Document tileQuery = new Document("z", z);
+
+        recordChangedZValues(stackId, Collections.singletonList(z), null);
+
         final DeleteResult removeResult = tileCollection.deleteMany(tileQuery);
 
         LOG.debug("removeTilesWithZ: {}.remove({}) deleted {} document(s)",
@@ -1327,6 +1810,9 @@ public class RenderDao {
                                                       new Document(MongoUtil.OP_IN,
                                                                    Arrays.asList("list of",
                                                                                  tileIds.size() + " tileIds")));
+
+        recordChangedZValues(stackId, null, tileQuery);
+
         final DeleteResult removeResult = tileCollection.deleteMany(tileQuery);
 
         LOG.debug("removeTilesWithIds: {}.remove({}) deleted {} document(s)",
@@ -1342,6 +1828,9 @@ public class RenderDao {
 
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
         final Document tileQuery = new Document("tileId", tileId);
+
+        recordChangedZValues(stackId, null, tileQuery);
+
         final DeleteResult removeResult = tileCollection.deleteOne(tileQuery);
 
         LOG.debug("removeTile: {}.remove({}) deleted {} document(s)",
@@ -1361,6 +1850,20 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("stackId", stackId);
         MongoUtil.validateRequiredParameter("z", z);
 
+        if (stackDataCache.isEnabled()) {
+            final StackMetaData stackMetaData = getCacheableStackMetaData(stackId);
+            if (stackDataCache.isCacheable(stackMetaData)) {
+                return stackDataCache.getLayerBounds(stackMetaData, z, () -> findLayerBounds(stackId, z));
+            }
+        }
+
+        return findLayerBounds(stackId, z);
+    }
+
+    private Bounds findLayerBounds(final StackId stackId,
+                                   final Double z)
+            throws IllegalArgumentException {
+
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
         final Document tileQuery = new Document("z", z);
 
@@ -1433,6 +1936,14 @@ public class RenderDao {
         MongoUtil.validateRequiredParameter("z", z);
 
         final Document tileQuery = new Document("z", z);
+
+        if (stackDataCache.isEnabled()) {
+            final StackMetaData stackMetaData = getCacheableStackMetaData(stackId);
+            if (stackDataCache.isCacheable(stackMetaData)) {
+                return stackDataCache.getTileBoundsForZ(stackMetaData, z, () -> getTileBounds(stackId, tileQuery));
+            }
+        }
+
         return getTileBounds(stackId, tileQuery);
     }
 
@@ -1469,6 +1980,7 @@ public class RenderDao {
             final MongoCollection<Document> fromTransformCollection = getTransformCollection(fromStackId);
             final MongoCollection<Document> toTransformCollection = getTransformCollection(toStackId);
             cloneCollection(fromTransformCollection, toTransformCollection, new Document());
+            invalidateCachedData(toStackId);
         }
 
         final Document filterQuery = new Document();
@@ -1481,6 +1993,13 @@ public class RenderDao {
 
         final MongoCollection<Document> fromTileCollection = getTileCollection(fromStackId);
         final MongoCollection<Document> toTileCollection = getTileCollection(toStackId);
+
+        if (hasSectionData(toStackId)) {
+            recordChangedZValues(toStackId,
+                                 fromTileCollection.distinct("z", filterQuery, Double.class).into(new HashSet<>()),
+                                 null);
+        }
+
         cloneCollection(fromTileCollection, toTileCollection, filterQuery);
     }
 
@@ -1520,8 +2039,14 @@ public class RenderDao {
 
         MongoUtil.renameCollection(renderDatabase,
                                    fromStackId.getSectionCollectionName(), toStackId.getSectionCollectionName());
+        MongoUtil.renameCollection(renderDatabase,
+                                   fromStackId.getChangedZCollectionName(), toStackId.getChangedZCollectionName());
         MongoUtil.renameCollection(renderDatabase,
                                    fromStackId.getTransformCollectionName(), toStackId.getTransformCollectionName());
+        invalidateCachedData(fromStackId);
+        invalidateCachedData(toStackId);
+        setHasSectionData(fromStackId, false);
+        setHasSectionData(toStackId, false);
         MongoUtil.renameCollection(renderDatabase,
                                    fromStackId.getTileCollectionName(), toStackId.getTileCollectionName());
 
@@ -1580,7 +2105,7 @@ public class RenderDao {
             outputStream.write(header.getBytes());
         }
 
-        final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
 
         final Document zFilter = buildMinMaxFilter(minZ, maxZ);
 
@@ -1599,15 +2124,13 @@ public class RenderDao {
         final ProcessTimer timer = new ProcessTimer();
         int tileSpecCount = 0;
         final Document orderBy = format.getOrderBy();
-        try (final MongoCursor<Document> cursor =
+        try (final MongoCursor<TileSpec> cursor =
                      tileCollection.find(tileQuery).projection(tileKeys).sort(orderBy).iterator()) {
 
-            Document document;
             TileSpec tileSpec;
             String layoutText;
             while (cursor.hasNext()) {
-                document = cursor.next();
-                tileSpec = TileSpec.fromJson(document.toJson());
+                tileSpec = cursor.next();
                 layoutText = format.formatTileSpec(tileSpec, stackRequestUri);
                 outputStream.write(layoutText.getBytes());
                 tileSpecCount++;
@@ -1770,7 +2293,7 @@ public class RenderDao {
         return list;
     }
 
-    private List<TransformSpec> getTransformSpecs(final MongoCollection<Document> transformCollection,
+    private List<TransformSpec> getTransformSpecs(final MongoCollection<TransformSpec> transformCollection,
                                                   final Set<String> specIds) {
         final int specCount = specIds.size();
         final List<TransformSpec> transformSpecList = new ArrayList<>(specCount);
@@ -1782,13 +2305,9 @@ public class RenderDao {
             LOG.debug("getTransformSpecs: {}.find({})",
                       MongoUtil.fullName(transformCollection), transformQuery.toJson());
 
-            try (final MongoCursor<Document> cursor = transformCollection.find(transformQuery).iterator()) {
-                Document document;
-                TransformSpec transformSpec;
+            try (final MongoCursor<TransformSpec> cursor = transformCollection.find(transformQuery).iterator()) {
                 while (cursor.hasNext()) {
-                    document = cursor.next();
-                    transformSpec = TransformSpec.fromJson(document.toJson());
-                    transformSpecList.add(transformSpec);
+                    transformSpecList.add(cursor.next());
                 }
             }
 
@@ -1797,7 +2316,76 @@ public class RenderDao {
         return transformSpecList;
     }
 
-    private void getDataForTransformSpecReferences(final MongoCollection<Document> transformCollection,
+    /**
+     * @return (unresolved) specs with the specified ids along with all of the specs they reference.
+     */
+    private Map<String, TransformSpec> getTransformSpecsWithReferences(
+            final MongoCollection<TransformSpec> transformCollection,
+            final Set<String> specIds) {
+
+        final Map<String, TransformSpec> idToSpecMap = new HashMap<>();
+
+        // EXAMPLE:   aggregate([{"$match": {"id": {"$in": ["1"]}}},
+        //                       {"$graphLookup": {"from": "<transformCollection>", "startWith": "$specList.refId",
+        //                                         "connectFromField": "specList.refId", "connectToField": "id",
+        //                                         "as": "referencedSpecs", "maxDepth": 9}},
+        //                       {"$project": {"specs": {"$concatArrays": [["$$ROOT"], "$referencedSpecs"]}}},
+        //                       {"$unwind": "$specs"},
+        //                       {"$replaceRoot": {"newRoot": "$specs"}},
+        //                       {"$project": {"referencedSpecs": 0}}])
+        // INDEX:     id_1
+
+        final Document graphLookup = new Document(
+                "from", transformCollection.getNamespace().getCollectionName()).append(
+                "startWith", "$specList.refId").append(
+                "connectFromField", "specList.refId").append(
+                "connectToField", "id").append(
+                "as", "referencedSpecs").append(
+                "maxDepth", 9);
+        final Document specs = new Document(
+                "$concatArrays", Arrays.asList(Collections.singletonList("$$ROOT"), "$referencedSpecs"));
+
+        final List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("id", new Document(MongoUtil.OP_IN, specIds))));
+        pipeline.add(new Document("$graphLookup", graphLookup));
+        pipeline.add(new Document("$project", new Document("specs", specs)));
+        pipeline.add(new Document("$unwind", "$specs"));
+        pipeline.add(new Document("$replaceRoot", new Document("newRoot", "$specs")));
+        pipeline.add(new Document("$project", new Document("referencedSpecs", 0)));
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("getTransformSpecsWithReferences: running {}.aggregate({})",
+                      MongoUtil.fullName(transformCollection),
+                      MongoUtil.toJson(pipeline));
+        }
+
+        try (final MongoCursor<TransformSpec> cursor = transformCollection.aggregate(pipeline).iterator()) {
+            TransformSpec transformSpec;
+            while (cursor.hasNext()) {
+                transformSpec = cursor.next();
+                idToSpecMap.put(transformSpec.getId(), transformSpec);
+            }
+        }
+
+        // $graphLookup only follows list references (specList.refId),
+        // so use separate queries for any other references (e.g. within interpolated or nested list specs)
+        final Set<String> missingIds = new HashSet<>();
+        for (final TransformSpec transformSpec : idToSpecMap.values()) {
+            for (final String id : transformSpec.getUnresolvedIds()) {
+                if (! idToSpecMap.containsKey(id)) {
+                    missingIds.add(id);
+                }
+            }
+        }
+
+        if (missingIds.size() > 0) {
+            getDataForTransformSpecReferences(transformCollection, missingIds, idToSpecMap, 1);
+        }
+
+        return idToSpecMap;
+    }
+
+    private void getDataForTransformSpecReferences(final MongoCollection<TransformSpec> transformCollection,
                                                    final Set<String> unresolvedSpecIds,
                                                    final Map<String, TransformSpec> resolvedIdToSpecMap,
                                                    final int callCount) {
@@ -1840,7 +2428,7 @@ public class RenderDao {
                                                             final Document tileQuery,
                                                             final RenderParameters renderParameters) {
 
-        final MongoCollection<Document> tileCollection = getTileCollection(stackId);
+        final MongoCollection<TileSpec> tileCollection = getTileSpecCollection(stackId);
 
         // EXAMPLE:   find({"z": 4050.0 , "minX": {"$lte": 239850.0} , "minY": {"$lte": 149074.0}, "maxX": {"$gte": -109.0}, "maxY": {"$gte": 370.0}}).sort({"tileId": 1})
         // INDEXES:   z_1_minY_1_minX_1_maxY_1_maxX_1_tileId_1 (z1_minX_1, z1_maxX_1, ... used for edge cases)
@@ -1848,17 +2436,13 @@ public class RenderDao {
         // order tile specs by tileId to ensure consistent coordinate mapping
         final Document orderBy = new Document("tileId", 1);
 
-        try (final MongoCursor<Document> cursor = tileCollection.find(tileQuery).sort(orderBy).iterator()) {
-            Document document;
-            TileSpec tileSpec;
+        try (final MongoCursor<TileSpec> cursor = tileCollection.find(tileQuery).sort(orderBy).iterator()) {
             int count = 0;
             while (cursor.hasNext()) {
-                if (count > 50000) {
+                if (count > MAX_TILE_SPECS_PER_QUERY) {
                     throw new IllegalArgumentException("query too broad, over " + count + " tiles match " + tileQuery);
                 }
-                document = cursor.next();
-                tileSpec = TileSpec.fromJson(document.toJson());
-                renderParameters.addTileSpec(tileSpec);
+                renderParameters.addTileSpec(cursor.next());
                 count++;
             }
         }
@@ -1884,6 +2468,36 @@ public class RenderDao {
         return new Document(MongoUtil.OP_GTE, value);
     }
 
+    /**
+     * @return query for all tiles in the specified layer that intersect the specified box.
+     *         For complete stacks, intersecting tiles are found using a cached in-memory index of the layer
+     *         so that the database only needs to fetch the identified tiles (instead of scanning bounds indexes).
+     */
+    private Document getIntersectsBoxQuery(final StackId stackId,
+                                           final double z,
+                                           final double x,
+                                           final double y,
+                                           final double lowerRightX,
+                                           final double lowerRightY) {
+        if (stackDataCache.isEnabled()) {
+            final StackMetaData stackMetaData = getCacheableStackMetaData(stackId);
+            if (stackDataCache.isCacheable(stackMetaData)) {
+                final TileBoundsPackedRTree layerIndex =
+                        stackDataCache.getLayerIndex(stackMetaData, z, () -> getTileBoundsForZ(stackId, z));
+                final List<TileBounds> tileBoundsList = layerIndex.findTilesInBox(x, y, lowerRightX, lowerRightY);
+                // let overly broad queries fall through to the standard query (and its size check)
+                if (tileBoundsList.size() <= MAX_TILE_SPECS_PER_QUERY) {
+                    final List<String> tileIds = new ArrayList<>(tileBoundsList.size());
+                    for (final TileBounds tileBounds : tileBoundsList) {
+                        tileIds.add(tileBounds.getTileId());
+                    }
+                    return new Document("z", z).append("tileId", new Document(MongoUtil.OP_IN, tileIds));
+                }
+            }
+        }
+        return getIntersectsBoxQuery(z, x, y, lowerRightX, lowerRightY);
+    }
+
     private Document getIntersectsBoxQuery(final double z,
                                            final double x,
                                            final double y,
@@ -1961,11 +2575,15 @@ public class RenderDao {
     private void validateTransformReferences(final String context,
                                              final StackId stackId,
                                              final TransformSpec transformSpec) {
+        validateTransformReferences(context, stackId, transformSpec.getUnresolvedIds());
+    }
 
-        final Set<String> unresolvedTransformSpecIds = transformSpec.getUnresolvedIds();
+    private void validateTransformReferences(final String context,
+                                             final StackId stackId,
+                                             final Set<String> unresolvedTransformSpecIds) {
 
         if (unresolvedTransformSpecIds.size() > 0) {
-            final MongoCollection<Document> transformCollection = getTransformCollection(stackId);
+            final MongoCollection<TransformSpec> transformCollection = getTransformSpecCollection(stackId);
             final List<TransformSpec> transformSpecList = getTransformSpecs(transformCollection,
                                                                             unresolvedTransformSpecIds);
             if (transformSpecList.size() != unresolvedTransformSpecIds.size()) {
@@ -2122,17 +2740,16 @@ public class RenderDao {
     private void saveResolvedTransforms(final StackId stackId,
                                         final Collection<TransformSpec> transformSpecs) {
 
-        final MongoCollection<Document> transformCollection = getTransformCollection(stackId);
+        final MongoCollection<TransformSpec> transformCollection = getTransformSpecCollection(stackId);
 
         int updateCount = 0;
         int insertCount = 0;
         UpdateResult result;
         for (final TransformSpec transformSpec : transformSpecs) {
             final Document query = new Document("id", transformSpec.getId());
-            final Document transformSpecObject = Document.parse(transformSpec.toJson());
             try {
                 result = transformCollection.replaceOne(query,
-                                                        transformSpecObject,
+                                                        transformSpec,
                                                         MongoUtil.UPSERT_OPTION);
                 if (result.getMatchedCount() > 0) {
                     updateCount++;
@@ -2143,7 +2760,7 @@ public class RenderDao {
                 LOG.warn("possible duplicate key exception thrown for upsert, retrying operation ...", e);
 
                 result = transformCollection.replaceOne(query,
-                                                        transformSpecObject,
+                                                        transformSpec,
                                                         MongoUtil.UPSERT_OPTION);
                 if (result.getMatchedCount() > 0) {
                     updateCount++;
@@ -2162,6 +2779,13 @@ public class RenderDao {
         }
     }
 
+    private void invalidateCachedData(final StackId stackId) {
+        if (transformSpecCache != null) {
+            transformSpecCache.invalidate(stackId);
+        }
+        stackDataCache.invalidate(stackId);
+    }
+
     private MongoCollection<Document> getStackMetaDataCollection() {
         return renderDatabase.getCollection(STACK_META_DATA_COLLECTION_NAME);
     }
@@ -2170,14 +2794,26 @@ public class RenderDao {
         return renderDatabase.getCollection(stackId.getTileCollectionName());
     }
 
+    private MongoCollection<TileSpec> getTileSpecCollection(final StackId stackId) {
+        return renderDatabase.getCollection(stackId.getTileCollectionName(), TileSpec.class);
+    }
+
     private MongoCollection<Document> getSectionCollection(final StackId stackId) {
         return renderDatabase.getCollection(stackId.getSectionCollectionName());
     }
 
+    private MongoCollection<Document> getChangedZCollection(final StackId stackId) {
+        return renderDatabase.getCollection(stackId.getChangedZCollectionName());
+    }
+
     private MongoCollection<Document> getTransformCollection(final StackId stackId) {
         return renderDatabase.getCollection(stackId.getTransformCollectionName());
     }
 
+    private MongoCollection<TransformSpec> getTransformSpecCollection(final StackId stackId) {
+        return renderDatabase.getCollection(stackId.getTransformCollectionName(), TransformSpec.class);
+    }
+
     private void ensureCoreTransformIndex(final MongoCollection<Document> transformCollection) {
         MongoUtil.createIndex(transformCollection,
                               new Document("id", 1),
@@ -2233,6 +2869,26 @@ public class RenderDao {
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderDao.class);
 
+    /** Maximum number of tile specs that can be retrieved by a single box (or layer) query. */
+    private static final int MAX_TILE_SPECS_PER_QUERY = 50000;
+
+    /** Number of z-sharded batches used to aggregate section data for a complete stack. */
+    private static final int DERIVE_SECTION_DATA_SHARD_COUNT = 64;
+
+    /** Number of milliseconds a stack found to be missing section data is trusted to still be missing it. */
+    private static final long SECTION_DATA_RECHECK_MILLIS = 5000;
+
+    // JVM-wide section data state shared by all DAO instances (see hasSectionData)
+    private static final Set<StackId> STACKS_WITH_SECTION_DATA = ConcurrentHashMap.newKeySet();
+    private static final Map<StackId, Long> STACK_TO_MISSING_SECTION_DATA_TIME = new ConcurrentHashMap<>();
+
+    // derived section data keys
+    private static final String MIN_TILE_WIDTH_KEY = "minTileWidth";
+    private static final String MAX_TILE_WIDTH_KEY = "maxTileWidth";
+    private static final String MIN_TILE_HEIGHT_KEY = "minTileHeight";
+    private static final String MAX_TILE_HEIGHT_KEY = "maxTileHeight";
+    private static final String CHANNEL_NAMES_KEY = "channelNames";
+
     /** Explicitly named index options allow a little more namespace room for stack id components. */
     private static final IndexOptions TRANSFORM_A_OPTIONS = new IndexOptions().unique(true).background(true).name("A");
     private static final IndexOptions TILE_A_OPTIONS = new IndexOptions().unique(true).background(true).name("A");
@@ -2245,4 +2901,5 @@ public class RenderDao {
     private static final IndexOptions TILE_H_OPTIONS = new IndexOptions().background(true).name("H");
     private static final IndexOptions TILE_I_OPTIONS = new IndexOptions().background(true).name("I");
     private static final IndexOptions TILE_J_OPTIONS = new IndexOptions().background(true).name("J");
+    private static final IndexOptions SECTION_A_OPTIONS = new IndexOptions().background(true).name("A");
 }
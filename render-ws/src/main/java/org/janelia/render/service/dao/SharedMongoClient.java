@@ -75,6 +75,9 @@ public class SharedMongoClient {
 
         }
 
+        // decode tile and transform specs directly from BSON (see SpecCodec)
+        settingsBuilder.codecRegistry(SpecCodec.withSpecCodecs(MongoClientSettings.getDefaultCodecRegistry()));
+
         final MongoClientSettings settings = settingsBuilder.build();
         client = MongoClients.create(settings);
 
@@ -0,0 +1,77 @@
+package org.janelia.render.service.dao;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pools shared by all DAO instances within a JVM for running database queries concurrently.
+ *
+ * Each pool has a fixed number of daemon threads, so the number of concurrent queries does not
+ * grow with the number of concurrent requests.  Requests that find a pool busy either wait longer
+ * or (for match prefetching) read their queries directly on the request thread.
+ *
+ * @author Eric Trautman
+ */
+class SharedQueryPools {
+
+    /** Maximum number of section data aggregation batches run concurrently across all requests. */
+    static final int SECTION_DATA_POOL_SIZE = 8;
+
+    /** Maximum number of match collection cursors prefetched concurrently across all merge requests. */
+    static final int MATCH_PREFETCH_POOL_SIZE = 16;
+
+    private static volatile ExecutorService sectionDataPool;
+    private static volatile ExecutorService matchPrefetchPool;
+
+    /**
+     * @return the pool for aggregating z-sharded batches of section data.
+     */
+    static ExecutorService getSectionDataPool() {
+        if (sectionDataPool == null) {
+            setSectionDataPool();
+        }
+        return sectionDataPool;
+    }
+
+    private static synchronized void setSectionDataPool() {
+        if (sectionDataPool == null) {
+            sectionDataPool = buildPool("render-section-data-", SECTION_DATA_POOL_SIZE);
+            LOG.info("setSectionDataPool: exit, created pool with {} threads", SECTION_DATA_POOL_SIZE);
+        }
+    }
+
+    /**
+     * @return the pool for prefetching match collection cursors that are merged into one result stream.
+     */
+    static ExecutorService getMatchPrefetchPool() {
+        if (matchPrefetchPool == null) {
+            setMatchPrefetchPool();
+        }
+        return matchPrefetchPool;
+    }
+
+    private static synchronized void setMatchPrefetchPool() {
+        if (matchPrefetchPool == null) {
+            matchPrefetchPool = buildPool("render-match-prefetch-", MATCH_PREFETCH_POOL_SIZE);
+            LOG.info("setMatchPrefetchPool: exit, created pool with {} threads", MATCH_PREFETCH_POOL_SIZE);
+        }
+    }
+
+    private static ExecutorService buildPool(final String threadNamePrefix,
+                                             final int numberOfThreads) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, threadNamePrefix + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(numberOfThreads, threadFactory);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedQueryPools.class);
+}
@@ -0,0 +1,228 @@
+package org.janelia.render.service.dao;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Decimal128;
+import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TransformSpec;
+
+/**
+ * BSON codec for render spec objects (e.g. {@link TileSpec} and {@link TransformSpec}).
+ *
+ * Specs were originally read by converting each retrieved {@link org.bson.Document} to a JSON string
+ * and then parsing that string, with the reverse happening for writes.
+ * This codec instead streams BSON values directly into (and out of) the existing Jackson mappings,
+ * so that polymorphic transform specs, channel specs, and mipmap level maps are all still handled by
+ * the same annotations used for the JSON APIs but no intermediate documents or strings are created.
+ *
+ * @author Eric Trautman
+ */
+public class SpecCodec<T>
+        implements Codec<T> {
+
+    public static final SpecCodec<TileSpec> TILE_SPEC_CODEC = new SpecCodec<>(TileSpec.class);
+    public static final SpecCodec<TransformSpec> TRANSFORM_SPEC_CODEC = new SpecCodec<>(TransformSpec.class);
+
+    /**
+     * @return registry that uses spec codecs for spec classes and the specified registry for everything else.
+     */
+    public static CodecRegistry withSpecCodecs(final CodecRegistry registry) {
+        return CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(TILE_SPEC_CODEC, TRANSFORM_SPEC_CODEC),
+                                              registry);
+    }
+
+    private static final String ID_KEY = "_id";
+
+    private final Class<T> valueClass;
+    private final ObjectMapper mapper;
+
+    public SpecCodec(final Class<T> valueClass) {
+        this.valueClass = valueClass;
+        this.mapper = JsonUtils.FAST_MAPPER;
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return valueClass;
+    }
+
+    @Override
+    public T decode(final BsonReader reader,
+                    final DecoderContext decoderContext) {
+
+        final TokenBuffer buffer = new TokenBuffer(mapper, false);
+        try {
+            reader.readStartDocument();
+            buffer.writeStartObject();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                final String name = reader.readName();
+                if (ID_KEY.equals(name)) {
+                    reader.skipValue(); // mongo identifiers are not part of the spec model
+                } else {
+                    buffer.writeFieldName(name);
+                    copyValue(reader, buffer);
+                }
+            }
+            reader.readEndDocument();
+            buffer.writeEndObject();
+
+            try (final JsonParser parser = buffer.asParser()) {
+                return mapper.readValue(parser, valueClass);
+            }
+
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to decode " + valueClass.getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public void encode(final BsonWriter writer,
+                       final T value,
+                       final EncoderContext encoderContext) {
+
+        final TokenBuffer buffer = new TokenBuffer(mapper, false);
+        try {
+            mapper.writeValue(buffer, value);
+            try (final JsonParser parser = buffer.asParser()) {
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    copyToken(parser, token, writer);
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to encode " + valueClass.getSimpleName(), e);
+        }
+    }
+
+    private static void copyValue(final BsonReader reader,
+                                  final TokenBuffer buffer)
+            throws IOException {
+
+        switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                reader.readStartDocument();
+                buffer.writeStartObject();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    buffer.writeFieldName(reader.readName());
+                    copyValue(reader, buffer);
+                }
+                reader.readEndDocument();
+                buffer.writeEndObject();
+                break;
+            case ARRAY:
+                reader.readStartArray();
+                buffer.writeStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    copyValue(reader, buffer);
+                }
+                reader.readEndArray();
+                buffer.writeEndArray();
+                break;
+            case DOUBLE:
+                buffer.writeNumber(reader.readDouble());
+                break;
+            case INT32:
+                buffer.writeNumber(reader.readInt32());
+                break;
+            case INT64:
+                buffer.writeNumber(reader.readInt64());
+                break;
+            case DECIMAL128:
+                buffer.writeNumber(reader.readDecimal128().bigDecimalValue());
+                break;
+            case STRING:
+                buffer.writeString(reader.readString());
+                break;
+            case BOOLEAN:
+                buffer.writeBoolean(reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                buffer.writeNull();
+                break;
+            case OBJECT_ID:
+                buffer.writeString(reader.readObjectId().toHexString());
+                break;
+            case DATE_TIME:
+                buffer.writeNumber(reader.readDateTime());
+                break;
+            case BINARY:
+                final BsonBinary binary = reader.readBinaryData();
+                buffer.writeBinary(binary.getData());
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported BSON type " + reader.getCurrentBsonType() +
+                                                   " found in " + reader.getCurrentName());
+        }
+    }
+
+    private static void copyToken(final JsonParser parser,
+                                  final JsonToken token,
+                                  final BsonWriter writer)
+            throws IOException {
+
+        switch (token) {
+            case START_OBJECT:
+                writer.writeStartDocument();
+                break;
+            case END_OBJECT:
+                writer.writeEndDocument();
+                break;
+            case START_ARRAY:
+                writer.writeStartArray();
+                break;
+            case END_ARRAY:
+                writer.writeEndArray();
+                break;
+            case FIELD_NAME:
+                writer.writeName(parser.getCurrentName());
+                break;
+            case VALUE_STRING:
+                writer.writeString(parser.getText());
+                break;
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        writer.writeInt32(parser.getIntValue());
+                        break;
+                    case LONG:
+                        writer.writeInt64(parser.getLongValue());
+                        break;
+                    default:
+                        writer.writeDecimal128(new Decimal128(parser.getDecimalValue()));
+                }
+                break;
+            case VALUE_NUMBER_FLOAT:
+                writer.writeDouble(parser.getDoubleValue());
+                break;
+            case VALUE_TRUE:
+                writer.writeBoolean(true);
+                break;
+            case VALUE_FALSE:
+                writer.writeBoolean(false);
+                break;
+            case VALUE_NULL:
+                writer.writeNull();
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported JSON token " + token +
+                                                   " found in " + parser.getCurrentName());
+        }
+    }
+
+}
@@ -0,0 +1,441 @@
+package org.janelia.render.service.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.janelia.alignment.spec.Bounds;
+import org.janelia.alignment.spec.TileBounds;
+import org.janelia.alignment.spec.TileBoundsPackedRTree;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.stack.StackId;
+import org.janelia.alignment.spec.stack.StackMetaData;
+import org.janelia.render.service.util.RenderServerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.janelia.alignment.spec.stack.StackMetaData.StackState.COMPLETE;
+
+/**
+ * Cache of resolved tile specs, layer tile bounds, layer bounds, and layer spatial indexes for complete stacks.
+ *
+ * Complete stacks cannot be changed without first changing their state, so cached data is only used for
+ * stacks in the COMPLETE state and each key includes the stack's last modified timestamp and version number.
+ * When a newer version of a stack is seen, all of that stack's older data is discarded.
+ *
+ * To avoid a meta data query for every cache hit, each stack's meta data is also cached and only re-read
+ * after it is older than a (short) refresh interval.  Changes made through this JVM invalidate the stack
+ * immediately, so the interval only limits how long changes made by other servers can go unnoticed.
+ *
+ * Tile specs are cached in serialized form so that each caller gets its own (modifiable) copy.
+ *
+ * @author Eric Trautman
+ */
+public class StackDataCache {
+
+    /** Default maximum number of cached megabytes (used when webService.maxStackDataCacheMb is not configured). */
+    public static final int DEFAULT_MAX_CACHED_MB = 100;
+
+    /** Cache instance that doesn't cache anything. */
+    public static final StackDataCache DISABLED_CACHE = new StackDataCache();
+
+    /** Default number of milliseconds cached stack meta data is trusted before it is re-read. */
+    public static final long DEFAULT_META_DATA_REFRESH_MILLIS = 5000;
+
+    private static volatile StackDataCache sharedCache;
+
+    /**
+     * @return the cache shared by all DAO instances within this JVM
+     *         (disabled if webService.maxStackDataCacheMb is configured to be zero).
+     */
+    public static StackDataCache getSharedInstance() {
+        if (sharedCache == null) {
+            setSharedCache();
+        }
+        return sharedCache;
+    }
+
+    private static synchronized void setSharedCache() {
+        if (sharedCache == null) {
+
+            final RenderServerProperties serverProperties = RenderServerProperties.getProperties();
+            final Integer maxMb = serverProperties.getInteger("webService.maxStackDataCacheMb");
+            final int configuredMaxMb = maxMb == null ? DEFAULT_MAX_CACHED_MB : maxMb;
+
+            if (configuredMaxMb > 0) {
+                sharedCache = new StackDataCache(configuredMaxMb * 1000L);
+            } else {
+                sharedCache = DISABLED_CACHE;
+            }
+
+            LOG.info("setSharedCache: exit, created {}", sharedCache);
+        }
+    }
+
+    private final long maximumNumberOfCachedKilobytes;
+    private final Cache<Key, CachedValue> cache;
+    private final Map<StackId, StackVersionKey> stackToVersion;
+    private final long metaDataRefreshMillis;
+    private final Map<StackId, CachedMetaData> stackToMetaData;
+
+    /**
+     * Constructor for disabled cache.
+     */
+    private StackDataCache() {
+        this.maximumNumberOfCachedKilobytes = 0;
+        this.cache = null;
+        this.stackToVersion = null;
+        this.metaDataRefreshMillis = 0;
+        this.stackToMetaData = null;
+    }
+
+    /**
+     * @param  maximumNumberOfCachedKilobytes  the (approximate) maximum number of kilobytes to cache.
+     */
+    public StackDataCache(final long maximumNumberOfCachedKilobytes) {
+        this(maximumNumberOfCachedKilobytes, DEFAULT_META_DATA_REFRESH_MILLIS);
+    }
+
+    /**
+     * @param  maximumNumberOfCachedKilobytes  the (approximate) maximum number of kilobytes to cache.
+     * @param  metaDataRefreshMillis           number of milliseconds cached stack meta data is trusted.
+     */
+    public StackDataCache(final long maximumNumberOfCachedKilobytes,
+                          final long metaDataRefreshMillis) {
+
+        this.maximumNumberOfCachedKilobytes = maximumNumberOfCachedKilobytes;
+        this.stackToVersion = new ConcurrentHashMap<>();
+        this.metaDataRefreshMillis = metaDataRefreshMillis;
+        this.stackToMetaData = new ConcurrentHashMap<>();
+
+        final Weigher<Key, CachedValue> weigher =
+                (key, value) -> value.kilobytes;
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumNumberOfCachedKilobytes)
+                .weigher(weigher)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return true if this cache actually caches data.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @return true if data for the specified stack can be cached.
+     */
+    public boolean isCacheable(final StackMetaData stackMetaData) {
+        return (cache != null) &&
+               (stackMetaData != null) &&
+               COMPLETE.equals(stackMetaData.getState()) &&
+               (stackMetaData.getLastModifiedTimestamp() != null);
+    }
+
+    /**
+     * @param  stackId  identifies the stack.
+     * @param  loader   reads the stack's current meta data (returning null if the stack does not exist).
+     *
+     * @return the stack's cached (shared, unmodifiable) meta data if it was read within the refresh interval,
+     *         otherwise the stack's current meta data from the loader.
+     */
+    public StackMetaData getStackMetaData(final StackId stackId,
+                                          final Supplier<StackMetaData> loader) {
+
+        if (cache == null) {
+            return loader.get();
+        }
+
+        final long now = System.currentTimeMillis();
+        final CachedMetaData cachedMetaData = stackToMetaData.get(stackId);
+        if ((cachedMetaData != null) && ((now - cachedMetaData.readTime) < metaDataRefreshMillis)) {
+            return cachedMetaData.stackMetaData;
+        }
+
+        final StackMetaData stackMetaData = loader.get();
+        if (stackMetaData == null) {
+            stackToMetaData.remove(stackId);
+        } else {
+            stackToMetaData.put(stackId, new CachedMetaData(stackMetaData, now));
+        }
+
+        return stackMetaData;
+    }
+
+    /**
+     * @param  stackMetaData  meta data for the tile's (cacheable) stack.
+     * @param  tileId         identifies the tile.
+     * @param  loader         loads the resolved tile spec when it is not already cached.
+     *
+     * @return a copy of the cached resolved spec for the specified tile.
+     */
+    public TileSpec getResolvedTileSpec(final StackMetaData stackMetaData,
+                                        final String tileId,
+                                        final Supplier<TileSpec> loader) {
+        final String json = get(stackMetaData, DataType.RESOLVED_TILE_SPEC, tileId, () -> {
+            final String loadedJson = loader.get().toJson();
+            return new CachedValue(loadedJson, getKilobytes(loadedJson.length() * 2L));
+        });
+        return TileSpec.fromJson(json);
+    }
+
+    /**
+     * @param  stackMetaData  meta data for the layer's (cacheable) stack.
+     * @param  z              identifies the layer.
+     * @param  loader         loads the layer's tile bounds when they are not already cached.
+     *
+     * @return a (modifiable) copy of the cached tile bounds list for the specified layer.
+     */
+    public List<TileBounds> getTileBoundsForZ(final StackMetaData stackMetaData,
+                                              final Double z,
+                                              final Supplier<List<TileBounds>> loader) {
+        final List<TileBounds> tileBoundsList =
+                get(stackMetaData, DataType.TILE_BOUNDS_FOR_Z, String.valueOf(z), () -> {
+                    final List<TileBounds> loadedList = loader.get();
+                    return new CachedValue(loadedList,
+                                           getKilobytes(loadedList.size() * ESTIMATED_TILE_BOUNDS_BYTES));
+                });
+        return new ArrayList<>(tileBoundsList);
+    }
+
+    /**
+     * @param  stackMetaData  meta data for the layer's (cacheable) stack.
+     * @param  z              identifies the layer.
+     * @param  loader         loads the layer's bounds when they are not already cached.
+     *
+     * @return the cached bounds for the specified layer.
+     */
+    public Bounds getLayerBounds(final StackMetaData stackMetaData,
+                                 final Double z,
+                                 final Supplier<Bounds> loader) {
+        return get(stackMetaData, DataType.LAYER_BOUNDS, String.valueOf(z),
+                   () -> new CachedValue(loader.get(), 1));
+    }
+
+    /**
+     * @param  stackMetaData  meta data for the layer's (cacheable) stack.
+     * @param  z              identifies the layer.
+     * @param  loader         loads the layer's tile bounds when the layer's index is not already cached.
+     *
+     * @return the cached (shared, immutable) spatial index for the specified layer.
+     */
+    public TileBoundsPackedRTree getLayerIndex(final StackMetaData stackMetaData,
+                                               final Double z,
+                                               final Supplier<List<TileBounds>> loader) {
+        return get(stackMetaData, DataType.LAYER_INDEX, String.valueOf(z), () -> {
+            final TileBoundsPackedRTree layerIndex = new TileBoundsPackedRTree(z, loader.get());
+            return new CachedValue(layerIndex, getKilobytes(layerIndex.size() * ESTIMATED_TILE_BOUNDS_BYTES));
+        });
+    }
+
+    /**
+     * Discards all data for the specified stack.
+     */
+    public void invalidate(final StackId stackId) {
+        if (cache != null) {
+            stackToVersion.remove(stackId);
+            stackToMetaData.remove(stackId);
+            cache.asMap().keySet().removeIf(k -> k.version.stackId.equals(stackId));
+        }
+    }
+
+    /**
+     * Discards all data.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            stackToVersion.clear();
+            stackToMetaData.clear();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the number of cached entries.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return a current snapshot of this cache's cumulative statistics.
+     */
+    public CacheStats getStats() {
+        return cache == null ? EMPTY_STATS : cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "{numberOfEntries: " + size() +
+               ", numberOfStacks: " + (stackToVersion == null ? 0 : stackToVersion.size()) +
+               ", maximumNumberOfCachedKilobytes: " + maximumNumberOfCachedKilobytes +
+               '}';
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(final StackMetaData stackMetaData,
+                      final DataType dataType,
+                      final String dataId,
+                      final Supplier<CachedValue> loader)
+            throws IllegalStateException {
+
+        if (! isCacheable(stackMetaData)) {
+            throw new IllegalStateException("data for stack " + stackMetaData + " cannot be cached");
+        }
+
+        final StackVersionKey versionKey = new StackVersionKey(stackMetaData);
+        final StackVersionKey previousVersionKey = stackToVersion.put(versionKey.stackId, versionKey);
+        if ((previousVersionKey != null) && (! previousVersionKey.equals(versionKey))) {
+            LOG.info("get: {} was modified, discarding data cached for {}", versionKey.stackId, previousVersionKey);
+            cache.asMap().keySet().removeIf(k -> k.version.stackId.equals(versionKey.stackId) &&
+                                                 (! k.version.equals(versionKey)));
+        }
+
+        try {
+            return (T) cache.get(new Key(versionKey, dataType, dataId), loader::get).value;
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            // preserve runtime exceptions (e.g. ObjectNotFoundException) thrown by the loader
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("failed to load " + dataType + " " + dataId + " for " + versionKey, cause);
+        }
+    }
+
+    private static int getKilobytes(final long numberOfBytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, numberOfBytes / 1000));
+    }
+
+    private enum DataType {
+        RESOLVED_TILE_SPEC, TILE_BOUNDS_FOR_Z, LAYER_BOUNDS, LAYER_INDEX
+    }
+
+    private static class CachedValue {
+
+        private final Object value;
+        private final int kilobytes;
+
+        private CachedValue(final Object value,
+                            final int kilobytes) {
+            this.value = value;
+            this.kilobytes = kilobytes;
+        }
+    }
+
+    private static class CachedMetaData {
+
+        private final StackMetaData stackMetaData;
+        private final long readTime;
+
+        private CachedMetaData(final StackMetaData stackMetaData,
+                               final long readTime) {
+            this.stackMetaData = stackMetaData;
+            this.readTime = readTime;
+        }
+    }
+
+    /**
+     * Identifies one version of a stack.
+     */
+    private static class StackVersionKey {
+
+        private final StackId stackId;
+        private final Date lastModifiedTimestamp;
+        private final Integer versionNumber;
+
+        private StackVersionKey(final StackMetaData stackMetaData) {
+            this.stackId = stackMetaData.getStackId();
+            this.lastModifiedTimestamp = stackMetaData.getLastModifiedTimestamp();
+            this.versionNumber = stackMetaData.getCurrentVersionNumber();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof StackVersionKey) {
+                    final StackVersionKey that = (StackVersionKey) o;
+                    result = this.stackId.equals(that.stackId) &&
+                             this.lastModifiedTimestamp.equals(that.lastModifiedTimestamp) &&
+                             Objects.equals(this.versionNumber, that.versionNumber);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(stackId, lastModifiedTimestamp);
+        }
+
+        @Override
+        public String toString() {
+            return "{stackId: " + stackId +
+                   ", lastModifiedTimestamp: " + lastModifiedTimestamp.getTime() +
+                   ", versionNumber: " + versionNumber + '}';
+        }
+    }
+
+    /**
+     * Identifies cached data for one version of a stack.
+     */
+    private static class Key {
+
+        private final StackVersionKey version;
+        private final DataType dataType;
+        private final String dataId;
+
+        private Key(final StackVersionKey version,
+                    final DataType dataType,
+                    final String dataId) {
+            this.version = version;
+            this.dataType = dataType;
+            this.dataId = dataId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof Key) {
+                    final Key that = (Key) o;
+                    result = this.dataId.equals(that.dataId) &&
+                             this.dataType.equals(that.dataType) &&
+                             this.version.equals(that.version);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(version, dataType, dataId);
+        }
+    }
+
+    /** Rough size of a serialized tile bounds object (ids plus six doubles). */
+    private static final long ESTIMATED_TILE_BOUNDS_BYTES = 200;
+
+    private static final CacheStats EMPTY_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    private static final Logger LOG = LoggerFactory.getLogger(StackDataCache.class);
+}
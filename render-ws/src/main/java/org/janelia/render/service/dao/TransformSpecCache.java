@@ -0,0 +1,199 @@
+package org.janelia.render.service.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.janelia.alignment.spec.TransformSpec;
+import org.janelia.alignment.spec.stack.StackId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of resolved shared transform specs (e.g. lens corrections) for recently rendered stacks.
+ *
+ * Shared transforms rarely change once a stack is complete, so each stack's cached specs are kept until
+ * the stack's last modified timestamp changes.  Callers are responsible for bypassing the cache for stacks
+ * that are still being loaded (since loading does not update the timestamp).
+ *
+ * Cached spec instances are shared by all requests, so they must not be modified.
+ *
+ * @author Eric Trautman
+ */
+public class TransformSpecCache {
+
+    /** Default maximum number of stacks with cached transform specs. */
+    public static final int DEFAULT_MAX_CACHED_STACKS = 200;
+
+    private static final TransformSpecCache SHARED_INSTANCE = new TransformSpecCache(DEFAULT_MAX_CACHED_STACKS);
+
+    /**
+     * @return the cache shared by all DAO instances within this JVM.
+     */
+    public static TransformSpecCache getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    private final Cache<StackId, StackTransforms> stackCache;
+
+    public TransformSpecCache(final int maximumNumberOfStacks) {
+        this.stackCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumNumberOfStacks)
+                .build();
+    }
+
+    /**
+     * @param  stackId                stack containing the specs.
+     * @param  lastModifiedTimestamp  current last modified time for the stack.
+     * @param  specIds                identifiers of the specs to return.
+     * @param  loader                 loads (unresolved) specs with the specified ids along with
+     *                                all of the specs they reference.
+     *
+     * @return map of fully resolved specs for the specified ids and all of the specs they reference.
+     *         Specs that cannot be found are omitted from the map.
+     */
+    public Map<String, TransformSpec> getResolvedSpecs(final StackId stackId,
+                                                       final Date lastModifiedTimestamp,
+                                                       final Set<String> specIds,
+                                                       final Function<Set<String>, Collection<TransformSpec>> loader) {
+
+        StackTransforms stackTransforms = stackCache.getIfPresent(stackId);
+        if ((stackTransforms == null) || (! stackTransforms.lastModifiedTimestamp.equals(lastModifiedTimestamp))) {
+            stackTransforms = new StackTransforms(lastModifiedTimestamp);
+            stackCache.put(stackId, stackTransforms);
+        }
+
+        final Set<String> missingIds = new HashSet<>();
+        for (final String specId : specIds) {
+            if (! stackTransforms.idToCachedSpec.containsKey(specId)) {
+                missingIds.add(specId);
+            }
+        }
+
+        if (missingIds.size() > 0) {
+            LOG.debug("getResolvedSpecs: loading {} transform specs for {}", missingIds.size(), stackId);
+            stackTransforms.addAll(loader.apply(missingIds));
+        }
+
+        return stackTransforms.getClosure(specIds);
+    }
+
+    /**
+     * Removes all cached specs for the specified stack.
+     */
+    public void invalidate(final StackId stackId) {
+        stackCache.invalidate(stackId);
+    }
+
+    /**
+     * Removes all cached specs.
+     */
+    public void invalidateAll() {
+        stackCache.invalidateAll();
+    }
+
+    /**
+     * @return the number of stacks with cached specs.
+     */
+    public long size() {
+        return stackCache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "{numberOfStacks: " + size() + '}';
+    }
+
+    /**
+     * A resolved spec along with the ids of the specs it directly references.
+     */
+    private static class CachedSpec {
+
+        private final TransformSpec spec;
+        private final Set<String> referencedIds;
+
+        private CachedSpec(final TransformSpec spec,
+                           final Set<String> referencedIds) {
+            this.spec = spec;
+            this.referencedIds = referencedIds;
+        }
+    }
+
+    /**
+     * Cached specs for one version of a stack.
+     */
+    private static class StackTransforms {
+
+        private final Date lastModifiedTimestamp;
+        private final Map<String, CachedSpec> idToCachedSpec;
+
+        private StackTransforms(final Date lastModifiedTimestamp) {
+            this.lastModifiedTimestamp = lastModifiedTimestamp;
+            this.idToCachedSpec = new ConcurrentHashMap<>();
+        }
+
+        private void addAll(final Collection<TransformSpec> loadedSpecs) {
+
+            // references must be captured before they are resolved
+            final Map<String, Set<String>> idToReferencedIds = new HashMap<>();
+            final Map<String, TransformSpec> idToSpec = new HashMap<>();
+            for (final TransformSpec spec : loadedSpecs) {
+                idToReferencedIds.put(spec.getId(), spec.getUnresolvedIds());
+                idToSpec.put(spec.getId(), spec);
+            }
+
+            // include previously cached specs so that new specs can reference them
+            for (final CachedSpec cachedSpec : idToCachedSpec.values()) {
+                idToSpec.putIfAbsent(cachedSpec.spec.getId(), cachedSpec.spec);
+            }
+
+            // chained references (references to references) may need more than one pass to resolve
+            boolean isFullyResolved = false;
+            for (int pass = 0; (pass < MAX_RESOLUTION_PASSES) && (! isFullyResolved); pass++) {
+                isFullyResolved = true;
+                for (final TransformSpec spec : loadedSpecs) {
+                    spec.resolveReferences(idToSpec);
+                    isFullyResolved = isFullyResolved && spec.isFullyResolved();
+                }
+            }
+
+            for (final TransformSpec spec : loadedSpecs) {
+                // only cache fully resolved specs, anything else will simply be reloaded and fail resolution later
+                if (spec.isFullyResolved()) {
+                    idToCachedSpec.putIfAbsent(spec.getId(),
+                                               new CachedSpec(spec, idToReferencedIds.get(spec.getId())));
+                }
+            }
+        }
+
+        private Map<String, TransformSpec> getClosure(final Set<String> specIds) {
+            final Map<String, TransformSpec> closure = new HashMap<>();
+            final Deque<String> idsToAdd = new ArrayDeque<>(specIds);
+            while (idsToAdd.size() > 0) {
+                final String specId = idsToAdd.removeFirst();
+                if (! closure.containsKey(specId)) {
+                    final CachedSpec cachedSpec = idToCachedSpec.get(specId);
+                    if (cachedSpec != null) {
+                        closure.put(specId, cachedSpec.spec);
+                        idsToAdd.addAll(cachedSpec.referencedIds);
+                    }
+                }
+            }
+            return closure;
+        }
+    }
+
+    private static final int MAX_RESOLUTION_PASSES = 10;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransformSpecCache.class);
+}
@@ -2,7 +2,9 @@ package org.janelia.render.service.util;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.function.Supplier;
 
 import javax.ws.rs.core.Response;
 
@@ -11,6 +13,9 @@ import org.janelia.alignment.BoundingBoxRenderer;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.ShortRenderer;
 import org.janelia.alignment.Utils;
+import org.janelia.alignment.loader.N5BlockCache;
+import org.janelia.alignment.util.RenderTransformMeshCache;
+import org.janelia.alignment.util.SharedMappingThreadPool;
 import org.janelia.render.service.model.IllegalServiceArgumentException;
 import org.janelia.render.service.model.ServiceException;
 import org.slf4j.Logger;
@@ -28,6 +33,8 @@ public class RenderServiceUtil {
     public static final String IMAGE_TIFF_MIME_TYPE = "image/tiff";
     public static final String IMAGE_RAW_MIME_TYPE = "application/octet-stream";
 
+    private static Integer mappingThreadsPerRequest;
+
     public static void throwServiceException(final Throwable t)
             throws ServiceException {
 
@@ -142,54 +149,66 @@ public class RenderServiceUtil {
         return renderImageStream(renderParameters, format, mimeType, maxTileSpecsToRender, responseHelper, false);
     }
 
-    private static Response renderImageStream(final RenderParameters renderParameters,
-                                              final String format,
-                                              final String mimeType,
-                                              final Integer maxTileSpecsToRender,
-                                              final ResponseHelper responseHelper,
-                                              final boolean render16bit) {
+    public static Response renderImageStream(final RenderParameters renderParameters,
+                                             final String format,
+                                             final String mimeType,
+                                             final Integer maxTileSpecsToRender,
+                                             final ResponseHelper responseHelper,
+                                             final boolean render16bit) {
 
         LOG.info("renderImageStream: entry, format={}, mimeType={}", format, mimeType);
 
         Response response = null;
         try {
+            final BufferedImageStreamingOutput out = renderImage(renderParameters,
+                                                                 format,
+                                                                 maxTileSpecsToRender,
+                                                                 render16bit);
+            response = responseHelper.getImageByteResponse(out, mimeType);
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
 
-            // if we need to optimize render time (e.g. when we're rendering a box from a database stack)
-            // and there are too many tiles to dynamically render the result quickly,
-            // just render the tile bounding boxes instead ...
-            Integer maxTilesToRender = maxTileSpecsToRender;
-            if (maxTileSpecsToRender == null) {
-                maxTilesToRender = RenderServerProperties.getProperties().getInteger("webService.maxTileSpecsToRender");
-            }
+        LOG.info("renderImageStream: exit");
 
-            boolean renderBoundingBoxesOnly = (maxTilesToRender != null) &&
-                                              (renderParameters.numberOfTileSpecs() > maxTilesToRender);
-
-            // TODO: replace this hack with a proper debugWarpField parameter
-            if ((maxTileSpecsToRender != null) && (maxTileSpecsToRender < 0)) {
-                final Integer defaultMaxTileSpecsToRender =
-                        RenderServerProperties.getProperties().getInteger("webService.maxTileSpecsToRender");
-                renderBoundingBoxesOnly = (defaultMaxTileSpecsToRender != null) &&
-                                          (renderParameters.numberOfTileSpecs() > defaultMaxTileSpecsToRender);
-                if (renderParameters.numberOfTileSpecs() < 40) {
-                    renderParameters.setAddWarpFieldDebugOverlay(true);
-                }
-            }
+        return response;
+    }
 
-            final BufferedImage targetImage = validateParametersAndRenderImage(renderParameters,
-                                                                               renderBoundingBoxesOnly,
-                                                                               render16bit);
-            final BufferedImageStreamingOutput out =
-                    new BufferedImageStreamingOutput(targetImage,
-                                                     format,
-                                                     renderParameters.isConvertToGray(),
-                                                     renderParameters.getQuality());
-            response = responseHelper.getImageByteResponse(out, mimeType);
+    /**
+     * Returns the encoded image for the specified key from the shared {@link RenderedImageCache},
+     * rendering (and caching) it first if necessary.
+     *
+     * @param  key                       identifies the image being rendered.
+     * @param  renderParametersSupplier  supplies parameters for the image (only called when it needs to be rendered).
+     */
+    public static Response renderCachedImageStream(final RenderedImageCache.Key key,
+                                                   final Supplier<RenderParameters> renderParametersSupplier,
+                                                   final String format,
+                                                   final String mimeType,
+                                                   final Integer maxTileSpecsToRender,
+                                                   final ResponseHelper responseHelper,
+                                                   final boolean render16bit) {
+
+        LOG.info("renderCachedImageStream: entry, key={}", key);
+
+        Response response = null;
+        try {
+            final byte[] imageBytes = RenderedImageCache.getSharedInstance().get(key, () -> {
+                final BufferedImageStreamingOutput out = renderImage(renderParametersSupplier.get(),
+                                                                     format,
+                                                                     maxTileSpecsToRender,
+                                                                     render16bit);
+                final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                out.write(byteArrayOutputStream);
+                return byteArrayOutputStream.toByteArray();
+            });
+            response = responseHelper.getImageByteResponse(outputStream -> outputStream.write(imageBytes),
+                                                           mimeType);
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
         }
 
-        LOG.info("renderImageStream: exit");
+        LOG.info("renderCachedImageStream: exit");
 
         return response;
     }
@@ -214,6 +233,43 @@ public class RenderServiceUtil {
         return response;
     }
 
+    private static BufferedImageStreamingOutput renderImage(final RenderParameters renderParameters,
+                                                            final String format,
+                                                            final Integer maxTileSpecsToRender,
+                                                            final boolean render16bit)
+            throws IllegalArgumentException, IllegalStateException {
+
+        // if we need to optimize render time (e.g. when we're rendering a box from a database stack)
+        // and there are too many tiles to dynamically render the result quickly,
+        // just render the tile bounding boxes instead ...
+        Integer maxTilesToRender = maxTileSpecsToRender;
+        if (maxTileSpecsToRender == null) {
+            maxTilesToRender = RenderServerProperties.getProperties().getInteger("webService.maxTileSpecsToRender");
+        }
+
+        boolean renderBoundingBoxesOnly = (maxTilesToRender != null) &&
+                                          (renderParameters.numberOfTileSpecs() > maxTilesToRender);
+
+        // TODO: replace this hack with a proper debugWarpField parameter
+        if ((maxTileSpecsToRender != null) && (maxTileSpecsToRender < 0)) {
+            final Integer defaultMaxTileSpecsToRender =
+                    RenderServerProperties.getProperties().getInteger("webService.maxTileSpecsToRender");
+            renderBoundingBoxesOnly = (defaultMaxTileSpecsToRender != null) &&
+                                      (renderParameters.numberOfTileSpecs() > defaultMaxTileSpecsToRender);
+            if (renderParameters.numberOfTileSpecs() < 40) {
+                renderParameters.setAddWarpFieldDebugOverlay(true);
+            }
+        }
+
+        final BufferedImage targetImage = validateParametersAndRenderImage(renderParameters,
+                                                                           renderBoundingBoxesOnly,
+                                                                           render16bit);
+        return new BufferedImageStreamingOutput(targetImage,
+                                                format,
+                                                renderParameters.isConvertToGray(),
+                                                renderParameters.getQuality());
+    }
+
     private static BufferedImage validateParametersAndRenderImage(final RenderParameters renderParameters,
                                                                   final boolean renderBoundingBoxesOnly,
                                                                   final boolean render16bit)
@@ -228,7 +284,9 @@ public class RenderServiceUtil {
             renderParameters.validate();
         }
 
-        renderParameters.setNumberOfThreads(1); // service requests should always be single threaded
+        // service requests are single threaded unless mapping threads per request have been configured,
+        // mapping work for all requests is then bounded by the shared mapping thread pool
+        renderParameters.setNumberOfThreads(getMappingThreadsPerRequest());
 
         final BufferedImage targetImage;
 
@@ -259,5 +317,38 @@ public class RenderServiceUtil {
         return targetImage;
     }
 
+    private static synchronized int getMappingThreadsPerRequest() {
+        if (mappingThreadsPerRequest == null) {
+
+            // shared render resources (mapping pool and mesh cache) are configured before the first render
+
+            final RenderServerProperties serverProperties = RenderServerProperties.getProperties();
+
+            final Integer poolParallelism = serverProperties.getInteger("webService.mappingThreadPoolParallelism");
+            if ((poolParallelism != null) && (poolParallelism > 0)) {
+                SharedMappingThreadPool.setParallelism(poolParallelism);
+            }
+
+            final Integer maxMeshCacheMb = serverProperties.getInteger("webService.maxMeshCacheMb");
+            if ((maxMeshCacheMb != null) && (maxMeshCacheMb > 0)) {
+                RenderTransformMeshCache.setSharedInstance(new RenderTransformMeshCache(maxMeshCacheMb * 1000L,
+                                                                                        true));
+            }
+
+            final Integer maxN5BlockCacheMb = serverProperties.getInteger("webService.maxN5BlockCacheMb");
+            if (maxN5BlockCacheMb != null) {
+                N5BlockCache.setSharedInstance(maxN5BlockCacheMb > 0 ?
+                                               new N5BlockCache(maxN5BlockCacheMb * 1000L, true) : null);
+            }
+
+            final Integer threadsPerRequest = serverProperties.getInteger("webService.mappingThreadsPerRequest");
+            mappingThreadsPerRequest = ((threadsPerRequest == null) || (threadsPerRequest < 1)) ? 1 : threadsPerRequest;
+
+            LOG.info("getMappingThreadsPerRequest: using {} thread(s) per request with pool parallelism {}",
+                     mappingThreadsPerRequest, poolParallelism);
+        }
+        return mappingThreadsPerRequest;
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(RenderServiceUtil.class);
 }
\ No newline at end of file
@@ -0,0 +1,549 @@
+package org.janelia.render.service.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.janelia.alignment.spec.stack.StackId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of encoded (e.g. JPEG or PNG) images rendered for box requests.
+ *
+ * Concurrent requests for the same image are coalesced so that the image is only rendered once.
+ * Images evicted from memory can optionally be spilled to a size constrained directory
+ * and are promoted back into memory when they are requested again.
+ *
+ * Each key includes its stack's last modified timestamp.  When a newer timestamp is seen for a stack,
+ * all of that stack's older images are discarded from both memory and disk.
+ *
+ * @author Eric Trautman
+ */
+public class RenderedImageCache {
+
+    /** Cache instance that doesn't cache anything. */
+    public static final RenderedImageCache DISABLED_CACHE = new RenderedImageCache();
+
+    private static volatile RenderedImageCache sharedCache;
+
+    /**
+     * @return the cache shared by all render web service requests
+     *         (disabled unless webService.maxRenderedImageCacheMb is configured).
+     */
+    public static RenderedImageCache getSharedInstance() {
+        if (sharedCache == null) {
+            setSharedCache();
+        }
+        return sharedCache;
+    }
+
+    private static synchronized void setSharedCache() {
+        if (sharedCache == null) {
+
+            final RenderServerProperties serverProperties = RenderServerProperties.getProperties();
+            final Integer maxMb = serverProperties.getInteger("webService.maxRenderedImageCacheMb");
+
+            if ((maxMb != null) && (maxMb > 0)) {
+
+                SpillDirectory spillDirectory = null;
+                final String spillPath = serverProperties.get("webService.renderedImageSpillDirectory");
+                final Integer maxSpillMb = serverProperties.getInteger("webService.maxRenderedImageSpillMb");
+                if ((spillPath != null) && (spillPath.trim().length() > 0) &&
+                    (maxSpillMb != null) && (maxSpillMb > 0)) {
+                    try {
+                        spillDirectory = new SpillDirectory(new File(spillPath.trim()), maxSpillMb * 1_000_000L);
+                    } catch (final Throwable t) {
+                        LOG.warn("setSharedCache: failed to create spill directory, continuing without it", t);
+                    }
+                }
+
+                sharedCache = new RenderedImageCache(maxMb * 1000L, spillDirectory);
+
+            } else {
+                sharedCache = DISABLED_CACHE;
+            }
+
+            LOG.info("setSharedCache: exit, created {}", sharedCache);
+        }
+    }
+
+    private final long maximumNumberOfCachedKilobytes;
+    private final Cache<Key, byte[]> cache;
+    private final SpillDirectory spillDirectory;
+    private final Map<StackId, Date> stackToLastModifiedTimestamp;
+
+    /**
+     * Constructor for disabled cache.
+     */
+    private RenderedImageCache() {
+        this.maximumNumberOfCachedKilobytes = 0;
+        this.cache = null;
+        this.spillDirectory = null;
+        this.stackToLastModifiedTimestamp = null;
+    }
+
+    /**
+     * Constructs a cache instance using the specified parameters.
+     *
+     * @param  maximumNumberOfCachedKilobytes  the maximum number of encoded image kilobytes to keep in memory.
+     *
+     * @param  spillDirectory                  directory for images evicted from memory
+     *                                         (or null to simply discard evicted images).
+     */
+    public RenderedImageCache(final long maximumNumberOfCachedKilobytes,
+                              final SpillDirectory spillDirectory) {
+
+        this.maximumNumberOfCachedKilobytes = maximumNumberOfCachedKilobytes;
+        this.spillDirectory = spillDirectory;
+        this.stackToLastModifiedTimestamp = new ConcurrentHashMap<>();
+
+        final Weigher<Key, byte[]> weigher =
+                (key, value) -> Math.max(1, value.length / 1000);
+
+        final RemovalListener<Key, byte[]> removalListener =
+                notification -> {
+                    if ((spillDirectory != null) && notification.wasEvicted()) {
+                        spillDirectory.put(notification.getKey(), notification.getValue());
+                    }
+                };
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumNumberOfCachedKilobytes)
+                .weigher(weigher)
+                .removalListener(removalListener)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return true if this cache actually caches images.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @param  key       identifies the image.
+     * @param  renderer  renders and encodes the image when it is not already cached.
+     *
+     * @return encoded bytes for the specified image.
+     *         Concurrent calls with the same key wait for (and share) the bytes from a single render.
+     *
+     * @throws IllegalStateException
+     *   if the image cannot be rendered.
+     */
+    public byte[] get(final Key key,
+                      final Callable<byte[]> renderer)
+            throws IllegalStateException {
+
+        if (cache == null) {
+            try {
+                return renderer.call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new IllegalStateException("failed to render image for " + key, e);
+            }
+        }
+
+        final Date previousTimestamp = stackToLastModifiedTimestamp.put(key.stackId, key.lastModifiedTimestamp);
+        if ((previousTimestamp != null) && (! previousTimestamp.equals(key.lastModifiedTimestamp))) {
+            LOG.info("get: {} was modified, discarding images rendered before {}",
+                     key.stackId, key.lastModifiedTimestamp);
+            removeIf(k -> k.stackId.equals(key.stackId) &&
+                          (! k.lastModifiedTimestamp.equals(key.lastModifiedTimestamp)));
+        }
+
+        try {
+            return cache.get(key, () -> {
+                byte[] bytes = null;
+                if (spillDirectory != null) {
+                    bytes = spillDirectory.remove(key);
+                }
+                if (bytes == null) {
+                    bytes = renderer.call();
+                }
+                return bytes;
+            });
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            // preserve runtime exceptions (e.g. IllegalArgumentException for bad parameters) thrown by the renderer
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("failed to render image for " + key, cause);
+        }
+    }
+
+    /**
+     * Discards all images for the specified stack.
+     */
+    public void invalidate(final StackId stackId) {
+        if (cache != null) {
+            stackToLastModifiedTimestamp.remove(stackId);
+            removeIf(k -> k.stackId.equals(stackId));
+        }
+    }
+
+    /**
+     * Discards all images.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            stackToLastModifiedTimestamp.clear();
+            cache.invalidateAll();
+            if (spillDirectory != null) {
+                spillDirectory.removeIf(k -> true);
+            }
+        }
+    }
+
+    /**
+     * @return the number of images currently in memory.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return the number of images currently spilled to disk.
+     */
+    public long spilledSize() {
+        return spillDirectory == null ? 0 : spillDirectory.size();
+    }
+
+    /**
+     * @return a current snapshot of this cache's cumulative (in memory) statistics.
+     */
+    public CacheStats getStats() {
+        return cache == null ? EMPTY_STATS : cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "{numberOfEntries: " + size() +
+               ", maximumNumberOfCachedKilobytes: " + maximumNumberOfCachedKilobytes +
+               ", spillDirectory: " + spillDirectory +
+               '}';
+    }
+
+    private void removeIf(final Predicate<Key> predicate) {
+        // explicit removals are not evictions, so they will not be spilled
+        cache.asMap().keySet().removeIf(predicate);
+        if (spillDirectory != null) {
+            spillDirectory.removeIf(predicate);
+        }
+    }
+
+    /**
+     * Identifies a rendered image.
+     */
+    public static class Key {
+
+        private final StackId stackId;
+        private final Date lastModifiedTimestamp;
+        private final String imageId;
+
+        /**
+         * @param  stackId                stack being rendered.
+         * @param  lastModifiedTimestamp  last modified time for the stack.
+         * @param  imageId                string that includes every request parameter (box, scale, format,
+         *                                filter, channel, etc.) that affects the rendered image.
+         */
+        public Key(final StackId stackId,
+                   final Date lastModifiedTimestamp,
+                   final String imageId) {
+            this.stackId = stackId;
+            this.lastModifiedTimestamp = lastModifiedTimestamp;
+            this.imageId = imageId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof Key) {
+                    final Key that = (Key) o;
+                    result = this.imageId.equals(that.imageId) &&
+                             this.lastModifiedTimestamp.equals(that.lastModifiedTimestamp) &&
+                             this.stackId.equals(that.stackId);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(stackId, imageId);
+        }
+
+        @Override
+        public String toString() {
+            return "{stackId: " + stackId +
+                   ", lastModifiedTimestamp: " + lastModifiedTimestamp.getTime() +
+                   ", imageId: '" + imageId + "'}";
+        }
+    }
+
+    /**
+     * Size constrained directory of images evicted from memory.
+     * Least recently spilled images are removed when the directory is full.
+     *
+     * Images are written by a single background thread so that evictions do not block the request threads
+     * that trigger them.  Images waiting to be written can still be promoted and are counted as spilled.
+     * If too many images are waiting, additional evicted images are discarded.
+     *
+     * The directory has a fixed location that is cleared when the spill directory is created,
+     * so images spilled by a previous server process do not accumulate on disk.
+     */
+    public static class SpillDirectory {
+
+        /** Name of the spill directory created within the configured parent directory. */
+        public static final String DIRECTORY_NAME = "rendered-images";
+
+        /** Maximum number of evicted images waiting to be written. */
+        static final int MAX_PENDING_IMAGES = 64;
+
+        private final File directory;
+        private final long maximumNumberOfBytes;
+        private final LinkedHashMap<Key, SpilledFile> keyToFile;
+        private final Map<Key, byte[]> keyToPendingBytes;
+        private final ExecutorService writeExecutor;
+        private long numberOfBytes;
+        private long fileCount;
+
+        /**
+         * @param  parentDirectory       directory in which the spill directory should be created.
+         *                               Each server process needs its own parent directory.
+         * @param  maximumNumberOfBytes  maximum number of bytes to spill.
+         *
+         * @throws IOException
+         *   if the spill directory cannot be created or cleared.
+         */
+        public SpillDirectory(final File parentDirectory,
+                              final long maximumNumberOfBytes)
+                throws IOException {
+            this.directory = new File(parentDirectory, DIRECTORY_NAME);
+            Files.createDirectories(this.directory.toPath());
+            deleteFiles(listFiles(this.directory));
+            this.maximumNumberOfBytes = maximumNumberOfBytes;
+            this.keyToFile = new LinkedHashMap<>();
+            this.keyToPendingBytes = new HashMap<>();
+            this.writeExecutor = new ThreadPoolExecutor(1, 1,
+                                                        0L, TimeUnit.MILLISECONDS,
+                                                        new ArrayBlockingQueue<>(MAX_PENDING_IMAGES),
+                                                        runnable -> {
+                                                            final Thread thread =
+                                                                    new Thread(runnable, "rendered-image-spill");
+                                                            thread.setDaemon(true);
+                                                            return thread;
+                                                        });
+            this.numberOfBytes = 0;
+            this.fileCount = 0;
+        }
+
+        /**
+         * @return the number of spilled images (including images waiting to be written).
+         */
+        public synchronized long size() {
+            return keyToFile.size() + keyToPendingBytes.size();
+        }
+
+        /**
+         * Queues the specified image to be written to this directory.
+         */
+        void put(final Key key,
+                 final byte[] bytes) {
+
+            if (bytes.length > maximumNumberOfBytes) {
+                return;
+            }
+
+            synchronized (this) {
+                keyToPendingBytes.put(key, bytes);
+            }
+
+            try {
+                writeExecutor.execute(() -> write(key, bytes));
+            } catch (final RejectedExecutionException e) {
+                synchronized (this) {
+                    keyToPendingBytes.remove(key, bytes);
+                }
+                LOG.debug("put: too many pending images, discarding {}", key);
+            }
+        }
+
+        private void write(final Key key,
+                           final byte[] bytes) {
+
+            final File file;
+            synchronized (this) {
+                if (keyToPendingBytes.get(key) != bytes) {
+                    return; // image was promoted or removed before it could be written
+                }
+                fileCount++;
+                file = new File(directory, "image-" + fileCount + ".bin");
+            }
+
+            // write to a temporary file and then move it so that a spilled file is never partially written
+            final Path tempPath = new File(directory, file.getName() + ".tmp").toPath();
+            final long fileSize;
+            try {
+                Files.write(tempPath, bytes);
+                Files.move(tempPath, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                fileSize = Files.size(file.toPath());
+            } catch (final IOException e) {
+                LOG.warn("failed to spill image for " + key + " to " + file, e);
+                synchronized (this) {
+                    keyToPendingBytes.remove(key, bytes);
+                }
+                deleteFiles(Arrays.asList(tempPath.toFile(), file));
+                return;
+            }
+
+            final List<File> filesToDelete = new ArrayList<>();
+            synchronized (this) {
+
+                if (keyToPendingBytes.remove(key, bytes)) {
+
+                    final SpilledFile previousFile = keyToFile.put(key, new SpilledFile(file, fileSize));
+                    if (previousFile != null) {
+                        numberOfBytes -= previousFile.numberOfBytes;
+                        filesToDelete.add(previousFile.file);
+                    }
+                    numberOfBytes += fileSize;
+
+                    final Iterator<Map.Entry<Key, SpilledFile>> iterator = keyToFile.entrySet().iterator();
+                    while ((numberOfBytes > maximumNumberOfBytes) && iterator.hasNext()) {
+                        final SpilledFile oldestFile = iterator.next().getValue();
+                        numberOfBytes -= oldestFile.numberOfBytes;
+                        filesToDelete.add(oldestFile.file);
+                        iterator.remove();
+                    }
+
+                } else {
+                    filesToDelete.add(file); // image was promoted or removed while it was being written
+                }
+            }
+
+            deleteFiles(filesToDelete);
+        }
+
+        byte[] remove(final Key key) {
+
+            final SpilledFile spilledFile;
+            synchronized (this) {
+                final byte[] pendingBytes = keyToPendingBytes.remove(key);
+                if (pendingBytes != null) {
+                    return pendingBytes;
+                }
+                spilledFile = keyToFile.remove(key);
+                if (spilledFile != null) {
+                    numberOfBytes -= spilledFile.numberOfBytes;
+                }
+            }
+
+            byte[] bytes = null;
+            if (spilledFile != null) {
+                try {
+                    bytes = Files.readAllBytes(spilledFile.file.toPath());
+                } catch (final IOException e) {
+                    LOG.warn("failed to read spilled image for " + key + " from " + spilledFile.file, e);
+                }
+                deleteFiles(Collections.singletonList(spilledFile.file));
+            }
+
+            return bytes;
+        }
+
+        void removeIf(final Predicate<Key> predicate) {
+            final List<File> filesToDelete = new ArrayList<>();
+            synchronized (this) {
+                keyToPendingBytes.keySet().removeIf(predicate);
+                final Iterator<Map.Entry<Key, SpilledFile>> iterator = keyToFile.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<Key, SpilledFile> entry = iterator.next();
+                    if (predicate.test(entry.getKey())) {
+                        numberOfBytes -= entry.getValue().numberOfBytes;
+                        filesToDelete.add(entry.getValue().file);
+                        iterator.remove();
+                    }
+                }
+            }
+            deleteFiles(filesToDelete);
+        }
+
+        @Override
+        public String toString() {
+            return "{directory: '" + directory +
+                   "', maximumNumberOfBytes: " + maximumNumberOfBytes +
+                   ", numberOfFiles: " + size() +
+                   '}';
+        }
+
+        /** Spilled file along with the size that was accounted for when it was added. */
+        private static class SpilledFile {
+
+            private final File file;
+            private final long numberOfBytes;
+
+            SpilledFile(final File file,
+                        final long numberOfBytes) {
+                this.file = file;
+                this.numberOfBytes = numberOfBytes;
+            }
+        }
+
+        private static List<File> listFiles(final File directory) {
+            final File[] files = directory.listFiles(File::isFile);
+            return files == null ? Collections.emptyList() : Arrays.asList(files);
+        }
+
+        private static void deleteFiles(final List<File> files) {
+            for (final File file : files) {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (final IOException e) {
+                    LOG.warn("failed to delete " + file, e);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderedImageCache.class);
+
+    private static final CacheStats EMPTY_STATS = new CacheStats(0, 0,
+                                                                 0, 0,
+                                                                 0, 0);
+}
@@ -1,6 +1,7 @@
 package org.janelia.render.service.util;
 
 import org.janelia.alignment.util.ImageProcessorCache;
+import org.janelia.alignment.util.OffHeapImageProcessorStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +37,19 @@ public class SharedImageProcessorCache {
                 maxCachedPixels = maxGb * 1_000_000_000;
             }
 
-            sharedCache = new ImageProcessorCache(maxCachedPixels, true, false);
+            // the off-heap store is shared for the life of the JVM, so it survives if this cache is rebuilt
+            OffHeapImageProcessorStore offHeapStore = null;
+            final Integer offHeapGb =
+                    RenderServerProperties.getProperties().getInteger("webService.offHeapImageProcessorCacheGb");
+            if ((offHeapGb != null) && (offHeapGb > 0)) {
+                try {
+                    offHeapStore = OffHeapImageProcessorStore.getSharedInstance(offHeapGb * 1_000_000_000L);
+                } catch (final Throwable t) {
+                    LOG.warn("setSharedCache: failed to create off-heap store, continuing without it", t);
+                }
+            }
+
+            sharedCache = new ImageProcessorCache(maxCachedPixels, true, false, offHeapStore);
 
             LOG.info("setSharedCache: exit, created {}", sharedCache);
         }
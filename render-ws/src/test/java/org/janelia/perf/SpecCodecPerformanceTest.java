@@ -0,0 +1,179 @@
+package org.janelia.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.render.service.dao.SpecCodec;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time needed to decode (and encode) a large layer of tile specs using
+ * {@link SpecCodec} with the original approach of round tripping each {@link Document} through a JSON string.
+ * Average times for each approach are printed to standard out.
+ *
+ * <p>
+ * Specs are held as raw BSON to emulate what the driver receives from the database,
+ * so database and network time are excluded.  Each synthetic tile resembles an aligned FAFB tile
+ * with four mipmap levels, a lens correction reference, and a polynomial plus affine transform.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class SpecCodecPerformanceTest {
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+    private int numberOfTilesPerLayer;
+
+    private List<TileSpec> tileSpecs;
+    private List<RawBsonDocument> rawDocuments;
+
+    public static void main(final String[] args) {
+        final SpecCodecPerformanceTest test = new SpecCodecPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 5;
+        numberOfTilesPerLayer = 50000;
+    }
+
+    @Test
+    public void runTests() {
+        if (enableTests) {
+
+            buildLayer();
+
+            // run each approach once to warm up JIT before measuring
+            decodeLayer(false);
+            decodeLayer(true);
+
+            System.out.println(String.format("%-6s  %-8s  %12s", "action", "approach", "avgLayerMs"));
+            System.out.println(String.format("%-6s  %-8s  %12s", "------", "--------", "----------"));
+
+            for (final boolean useCodec : new boolean[] { false, true }) {
+                long totalTime = 0;
+                for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+                    totalTime += decodeLayer(useCodec);
+                }
+                System.out.println(String.format("%-6s  %-8s  %12d",
+                                                 "decode", useCodec ? "codec" : "json",
+                                                 totalTime / numberOfTimesToRepeatEachTest));
+            }
+
+            for (final boolean useCodec : new boolean[] { false, true }) {
+                long totalTime = 0;
+                for (int i = 0; i < numberOfTimesToRepeatEachTest; i++) {
+                    totalTime += encodeLayer(useCodec);
+                }
+                System.out.println(String.format("%-6s  %-8s  %12d",
+                                                 "encode", useCodec ? "codec" : "json",
+                                                 totalTime / numberOfTimesToRepeatEachTest));
+            }
+        }
+    }
+
+    private void buildLayer() {
+        tileSpecs = new ArrayList<>(numberOfTilesPerLayer);
+        rawDocuments = new ArrayList<>(numberOfTilesPerLayer);
+        for (int i = 0; i < numberOfTilesPerLayer; i++) {
+            final TileSpec tileSpec = TileSpec.fromJson(buildTileJson(i));
+            tileSpecs.add(tileSpec);
+            rawDocuments.add(new RawBsonDocument(tileSpec, SpecCodec.TILE_SPEC_CODEC));
+        }
+    }
+
+    private long decodeLayer(final boolean useCodec) {
+        final DocumentCodec documentCodec = new DocumentCodec();
+        final long startTime = System.currentTimeMillis();
+        int count = 0;
+        for (final RawBsonDocument rawDocument : rawDocuments) {
+            final TileSpec tileSpec;
+            if (useCodec) {
+                tileSpec = rawDocument.decode(SpecCodec.TILE_SPEC_CODEC);
+            } else {
+                final Document document = rawDocument.decode(documentCodec);
+                tileSpec = TileSpec.fromJson(document.toJson());
+            }
+            if (tileSpec.getTileId() != null) {
+                count++;
+            }
+        }
+        final long elapsedTime = System.currentTimeMillis() - startTime;
+        Assert.assertEquals("invalid number of decoded specs", numberOfTilesPerLayer, count);
+        return elapsedTime;
+    }
+
+    private long encodeLayer(final boolean useCodec) {
+        final DocumentCodec documentCodec = new DocumentCodec();
+        final long startTime = System.currentTimeMillis();
+        long totalBytes = 0;
+        for (final TileSpec tileSpec : tileSpecs) {
+            final RawBsonDocument rawDocument;
+            if (useCodec) {
+                rawDocument = new RawBsonDocument(tileSpec, SpecCodec.TILE_SPEC_CODEC);
+            } else {
+                rawDocument = new RawBsonDocument(Document.parse(tileSpec.toJson()), documentCodec);
+            }
+            totalBytes += rawDocument.getByteBuffer().remaining();
+        }
+        final long elapsedTime = System.currentTimeMillis() - startTime;
+        Assert.assertTrue("no bytes encoded", totalBytes > 0);
+        return elapsedTime;
+    }
+
+    private static String buildTileJson(final int index) {
+        final int row = index / 200;
+        final int column = index % 200;
+        final String tileId = String.format("150311100915%03d%03d.1500.0", row, column);
+        final String base = String.format("/nrs/flyTEM/data/FAFB00/v14/1500/%03d/%03d", row, column);
+        final double x = column * 2400.0 + (index % 7);
+        final double y = row * 2000.0 + (index % 5);
+
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"tileId\":\"").append(tileId).append("\",")
+                .append("\"layout\":{\"sectionId\":\"1500.0\",\"temca\":\"1\",\"camera\":\"0\",")
+                .append("\"imageRow\":").append(row).append(",\"imageCol\":").append(column).append(",")
+                .append("\"stageX\":").append(x).append(",\"stageY\":").append(y).append(",\"rotation\":0.0},")
+                .append("\"z\":1500.0,")
+                .append("\"minX\":").append(x).append(",\"minY\":").append(y).append(",")
+                .append("\"maxX\":").append(x + 2719.0).append(",\"maxY\":").append(y + 2310.0).append(",")
+                .append("\"width\":2560.0,\"height\":2160.0,\"minIntensity\":0.0,\"maxIntensity\":255.0,")
+                .append("\"mipmapLevels\":{");
+        for (int level = 0; level < 4; level++) {
+            if (level > 0) {
+                json.append(",");
+            }
+            json.append("\"").append(level).append("\":{")
+                    .append("\"imageUrl\":\"file:").append(base).append("/level_").append(level).append(".png\",")
+                    .append("\"maskUrl\":\"file:/nrs/flyTEM/masks/mask_2560x2160_level_").append(level)
+                    .append(".png\"}");
+        }
+        json.append("},")
+                .append("\"transforms\":{\"type\":\"list\",\"specList\":[")
+                .append("{\"type\":\"ref\",\"refId\":\"1500_lens_correction\"},")
+                .append("{\"type\":\"leaf\",\"className\":\"mpicbg.trakem2.transform.PolynomialTransform2D\",")
+                .append("\"dataString\":\"2 ").append(x).append(" 1.0012 0.0013 -2.1E-7 3.2E-8 4.1E-8 ")
+                .append(y).append(" -0.0011 0.9987 1.2E-8 -3.3E-8 2.7E-8\"},")
+                .append("{\"type\":\"leaf\",\"className\":\"mpicbg.trakem2.transform.AffineModel2D\",")
+                .append("\"dataString\":\"0.99414426 -0.057523947 0.05564594 1.0000075 ")
+                .append(x / 3).append(" ").append(y / 3).append("\"}")
+                .append("]}}");
+        return json.toString();
+    }
+
+}
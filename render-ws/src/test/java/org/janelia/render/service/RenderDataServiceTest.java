@@ -1,7 +1,9 @@
 package org.janelia.render.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -11,8 +13,10 @@ import javax.ws.rs.core.UriInfo;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.spec.LastTileTransform;
 import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.ReferenceTransformSpec;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TileSpecImportSummary;
 import org.janelia.alignment.spec.TransformSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.render.service.dao.RenderDao;
@@ -154,6 +158,57 @@ public class RenderDataServiceTest {
         validateResolvedTiles("after second save", resolvedTest2Tiles, 2, 2);
     }
 
+    @Test
+    public void testSaveStreamedTilesAndTransforms() throws Exception {
+
+        final StackId testStackId = new StackId(alignStackId.getOwner(), alignStackId.getProject(), "test");
+        final double streamZ = 9999.0;
+
+        final LeafTransformSpec sharedTransformSpec = new LeafTransformSpec("test_stream_transform",
+                                                                           null,
+                                                                           "mpicbg.trakem2.transform.AffineModel2D",
+                                                                           "1  0  0  1  0  0");
+        final StringBuilder ndjson = new StringBuilder();
+        ndjson.append(sharedTransformSpec.toJson().replace('\n', ' ')).append("\n\n");
+
+        for (int i = 0; i < 3; i++) {
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("test_stream_tile_" + i);
+            tileSpec.setZ(streamZ);
+            tileSpec.setWidth(10.0);
+            tileSpec.setHeight(10.0);
+            tileSpec.addTransformSpecs(Collections.singletonList(
+                    new LeafTransformSpec("mpicbg.trakem2.transform.TranslationModel2D", (i * 10) + " 0")));
+            tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), false);
+            if (i == 0) {
+                tileSpec.addTransformSpecs(Collections.singletonList(
+                        new ReferenceTransformSpec(sharedTransformSpec.getId())));
+            }
+            ndjson.append(tileSpec.toJson().replace('\n', ' ')).append("\n");
+        }
+
+        final TileSpecImportSummary summary =
+                service.saveStreamedTilesAndTransforms(testStackId.getOwner(),
+                                                       testStackId.getProject(),
+                                                       testStackId.getStack(),
+                                                       2,
+                                                       2,
+                                                       new ByteArrayInputStream(
+                                                               ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertNotNull("null summary returned", summary);
+        Assert.assertEquals("invalid tile count", 3, summary.getTileCount());
+        Assert.assertEquals("invalid transform count", 1, summary.getTransformCount());
+        Assert.assertEquals("invalid batch count", 2, summary.getBatchCount());
+
+        final ResolvedTileSpecCollection resolvedTiles = service.getResolvedTiles(testStackId.getOwner(),
+                                                                                  testStackId.getProject(),
+                                                                                  testStackId.getStack(),
+                                                                                  streamZ);
+
+        validateResolvedTiles("after streamed save", resolvedTiles, 3, 1);
+    }
+
     @Test
     public void testGetLastTileTransforms() {
 
@@ -3,6 +3,7 @@ package org.janelia.render.service.dao;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec.ValueEncoding;
 import org.janelia.alignment.match.MatchCollectionId;
 import org.janelia.alignment.match.MatchCollectionMetaData;
 import org.janelia.test.EmbeddedMongoDb;
@@ -81,6 +83,10 @@ public class MatchDaoReadOnlyTest {
         return dao;
     }
 
+    static MatchDao buildDao(final ValueEncoding storageEncoding) {
+        return new MatchDao(embeddedMongoDb.getMongoClient(), storageEncoding);
+    }
+
     static MatchCollectionId getCollectionId() {
         return collectionId;
     }
@@ -148,7 +154,7 @@ public class MatchDaoReadOnlyTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesWithPGroup(collectionId, null, groupId, false, outputStream);
+        dao.writeMatchesWithPGroup(collectionId, null, groupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -161,12 +167,34 @@ public class MatchDaoReadOnlyTest {
         }
     }
 
+    @Test
+    public void testWriteMatchesWithPGroups() throws Exception {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+
+        final List<String> pGroupIds = Arrays.asList(groupId, "section0", "missingSection");
+        dao.writeMatchesWithPGroups(collectionId, null, pGroupIds, false, MatchDao.ResponseFormat.JSON, outputStream);
+
+        final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
+
+        Assert.assertEquals("invalid number of matches returned",
+                            4, canvasMatchesList.size());
+
+        // matches should be sorted by pGroupId so that each group is contiguous
+        Assert.assertEquals("invalid first source groupId",
+                            "section0", canvasMatchesList.get(0).getpGroupId());
+        for (int i = 1; i < canvasMatchesList.size(); i++) {
+            Assert.assertEquals("invalid source groupId for match " + i,
+                                groupId, canvasMatchesList.get(i).getpGroupId());
+        }
+    }
+
     @Test
     public void testWriteMatchesWithinGroup() throws Exception {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesWithinGroup(collectionId, null, groupId, false, outputStream);
+        dao.writeMatchesWithinGroup(collectionId, null, groupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -206,7 +234,7 @@ public class MatchDaoReadOnlyTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesOutsideGroup(collectionId, null, groupId, false, outputStream);
+        dao.writeMatchesOutsideGroup(collectionId, null, groupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -226,7 +254,7 @@ public class MatchDaoReadOnlyTest {
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
         final String targetGroupId = "section2";
-        dao.writeMatchesBetweenGroups(collectionId, null, groupId, targetGroupId, false, outputStream);
+        dao.writeMatchesBetweenGroups(collectionId, null, groupId, targetGroupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -252,7 +280,7 @@ public class MatchDaoReadOnlyTest {
         final String targetGroupId = "section0";
         final String targetId = "tile0.1";
 
-        dao.writeMatchesBetweenObjects(collectionId, null, groupId, sourceId, targetGroupId, targetId, outputStream);
+        dao.writeMatchesBetweenObjects(collectionId, null, groupId, sourceId, targetGroupId, targetId, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -280,7 +308,7 @@ public class MatchDaoReadOnlyTest {
         // "pGroupId": "section0", "pId": "tile0.1", "qGroupId": "section1", "qId": "tile1.1",
         final String sourceId = "tile1.1";
 
-        dao.writeMatchesInvolvingObject(collectionId, null, groupId, sourceId, outputStream);
+        dao.writeMatchesInvolvingObject(collectionId, null, groupId, sourceId, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -307,7 +335,7 @@ public class MatchDaoReadOnlyTest {
         final String sourceId = "tile1.1";
         final String qGroupId = "section1";
 
-        dao.writeMatchesBetweenObjectAndGroup(collectionId, null, groupId, sourceId,qGroupId, false, outputStream);
+        dao.writeMatchesBetweenObjectAndGroup(collectionId, null, groupId, sourceId,qGroupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -341,7 +369,7 @@ public class MatchDaoReadOnlyTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesWithinGroup(collectionId, mergeCollectionIdList, groupId, false, outputStream);
+        dao.writeMatchesWithinGroup(collectionId, mergeCollectionIdList, groupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -2,12 +2,16 @@ package org.janelia.render.service.dao;
 
 import com.mongodb.client.MongoCollection;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.CanvasMatchesCodec;
+import org.janelia.alignment.match.ConsensusSetData;
 import org.janelia.alignment.match.MatchCollectionId;
 import org.janelia.alignment.match.MatchCollectionMetaData;
 import org.janelia.alignment.match.MatchTrial;
@@ -55,7 +59,7 @@ public class MatchDaoTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesInvolvingObject(collectionId, null, groupId, sourceId, outputStream);
+        dao.writeMatchesInvolvingObject(collectionId, null, groupId, sourceId, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -70,7 +74,7 @@ public class MatchDaoTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesOutsideGroup(collectionId, null, groupId, true, outputStream);
+        dao.writeMatchesOutsideGroup(collectionId, null, groupId, true, MatchDao.ResponseFormat.JSON, outputStream);
 
         List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -79,7 +83,7 @@ public class MatchDaoTest {
 
         outputStream.reset();
 
-        dao.writeMatchesWithinGroup(collectionId, null, groupId, true, outputStream);
+        dao.writeMatchesWithinGroup(collectionId, null, groupId, true, MatchDao.ResponseFormat.JSON, outputStream);
 
         canvasMatchesList = getListFromStream(outputStream);
 
@@ -94,7 +98,7 @@ public class MatchDaoTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesWithPGroup(collectionId, null, groupId, true, outputStream);
+        dao.writeMatchesWithPGroup(collectionId, null, groupId, true, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> canvasMatchesList = getListFromStream(outputStream);
 
@@ -124,7 +128,7 @@ public class MatchDaoTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesOutsideGroup(collectionId, null, groupId, false, outputStream);
+        dao.writeMatchesOutsideGroup(collectionId, null, groupId, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         canvasMatchesList = getListFromStream(outputStream);
 
@@ -180,7 +184,7 @@ public class MatchDaoTest {
 
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
 
-        dao.writeMatchesOutsideGroup(collectionId, null, updateGroupA, false, outputStream);
+        dao.writeMatchesOutsideGroup(collectionId, null, updateGroupA, false, MatchDao.ResponseFormat.JSON, outputStream);
 
         final List<CanvasMatches> retrievedList = getListFromStream(outputStream);
 
@@ -355,6 +359,56 @@ public class MatchDaoTest {
 
     }
 
+    @Test
+    public void testSaveAndWritePackedMatches() throws Exception {
+
+        final String pGroupId = "packedGroupA";
+        final CanvasMatches savedMatches = new CanvasMatches(pGroupId,
+                                                             "tile.p",
+                                                             "packedGroupB",
+                                                             "tile.q",
+                                                             new Matches(new double[][]{{1.5, 2.25}, {4.0, -5.5}},
+                                                                         new double[][]{{11.0, 12.125}, {14.5, 15.0}},
+                                                                         new double[]{0.75, 1.0}));
+        savedMatches.setConsensusSetData(new ConsensusSetData(0, "original.p", "original.q"));
+
+        final List<CanvasMatches> saveList = new ArrayList<>();
+        saveList.add(savedMatches);
+
+        MatchDaoReadOnlyTest.buildDao(CanvasMatchesCodec.ValueEncoding.FLOAT32).saveMatches(collectionId, saveList);
+
+        final MongoCollection<Document> matchCollection = dao.getExistingCollection(collectionId);
+        final Document savedDocument = matchCollection.find(new Document("pGroupId", pGroupId)).first();
+        Assert.assertNotNull("packed matches not saved", savedDocument);
+        Assert.assertTrue("weights should be saved in a binary field",
+                          savedDocument.get("matches", Document.class).get("w") instanceof Binary);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+
+        dao.writeMatchesWithPGroup(collectionId, null, pGroupId, false, MatchDao.ResponseFormat.JSON, outputStream);
+        final List<CanvasMatches> jsonList = getListFromStream(outputStream);
+
+        outputStream.reset();
+        dao.writeMatchesWithPGroup(collectionId, null, pGroupId, false, MatchDao.ResponseFormat.BINARY, outputStream);
+        final List<CanvasMatches> binaryList =
+                CanvasMatchesCodec.readList(new ByteArrayInputStream(outputStream.toByteArray()));
+
+        final String expectedJson = savedMatches.toJson();
+        Assert.assertEquals("invalid number of JSON matches returned, matches=" + jsonList, 1, jsonList.size());
+        Assert.assertEquals("packed matches changed after JSON retrieval", expectedJson, jsonList.get(0).toJson());
+        Assert.assertEquals("invalid number of binary matches returned, matches=" + binaryList, 1, binaryList.size());
+        Assert.assertEquals("packed matches changed after binary retrieval", expectedJson, binaryList.get(0).toJson());
+
+        dao.updateMatchCountsForPGroup(collectionId, pGroupId);
+
+        final List<CanvasMatches> excludedDetailsList =
+                dao.getMatches(matchCollection, new Document("pGroupId", pGroupId), true);
+        Assert.assertEquals("invalid number of matches returned, matches=" + excludedDetailsList,
+                            1, excludedDetailsList.size());
+        Assert.assertEquals("invalid match count for packed matches without details",
+                            Integer.valueOf(2), excludedDetailsList.get(0).getMatchCount());
+    }
+
     private MatchCollectionMetaData getCollectionMetaData(final MatchCollectionId collectionId) {
         MatchCollectionMetaData metaData = null;
         for (final MatchCollectionMetaData md : dao.getMatchCollectionMetaData()) {
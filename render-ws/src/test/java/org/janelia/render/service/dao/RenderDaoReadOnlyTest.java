@@ -4,6 +4,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.spec.Bounds;
@@ -111,6 +113,47 @@ public class RenderDaoReadOnlyTest {
         Assert.assertEquals("invalid layout height", expectedLayoutHeight, stackMetaData.getLayoutHeight());
     }
 
+    @Test
+    public void testBoxQueriesWithCachedLayerIndex() {
+
+        final StackDataCache stackDataCache = new StackDataCache(10000);
+        final RenderDao cachingDao = new RenderDao(embeddedMongoDb.getMongoClient(), null, stackDataCache);
+
+        final Double x = 1000.0;
+        final Double y = 3000.0;
+        final Double z = 3903.0;
+        final Integer width = 5000;
+        final Integer height = 2000;
+
+        for (final String testGroupId : new String[] { null, groupId }) {
+            final RenderParameters expected = dao.getParameters(stackId, testGroupId, x, y, z, width, height, 1.0);
+            for (int i = 0; i < 2; i++) {
+                final RenderParameters actual =
+                        cachingDao.getParameters(stackId, testGroupId, x, y, z, width, height, 1.0);
+                Assert.assertEquals("invalid tile specs for groupId " + testGroupId + " on pass " + i,
+                                    getTileIds(expected.getTileSpecs()), getTileIds(actual.getTileSpecs()));
+            }
+        }
+
+        Assert.assertEquals("invalid tile count",
+                            dao.getTileCount(stackId, x, y, z, width, height),
+                            cachingDao.getTileCount(stackId, x, y, z, width, height));
+
+        Assert.assertEquals("invalid tile specs in box",
+                            getTileIds(dao.getTileSpecsInBox(stackId, z, x, y, x + width, y + height)),
+                            getTileIds(cachingDao.getTileSpecsInBox(stackId, z, x, y, x + width, y + height)));
+
+        Assert.assertTrue("layer index should be cached", stackDataCache.size() > 0);
+    }
+
+    private static Set<String> getTileIds(final List<TileSpec> tileSpecs) {
+        final Set<String> tileIds = new TreeSet<>();
+        for (final TileSpec tileSpec : tileSpecs) {
+            tileIds.add(tileSpec.getTileId());
+        }
+        return tileIds;
+    }
+
     @Test
     public void testGetParameters() {
 
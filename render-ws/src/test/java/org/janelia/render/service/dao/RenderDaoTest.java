@@ -228,6 +228,64 @@ public class RenderDaoTest {
         Assert.assertEquals("invalid number of sections found for filtered list", 2, filteredList.size());
     }
 
+    @Test
+    public void testDeriveStatsForChangedLayers() throws Exception {
+
+        final StackMetaData stackMetaData = dao.ensureIndexesAndDeriveStats(dao.getStackMetaData(stackId));
+        final StackStats stats = stackMetaData.getStats();
+        Assert.assertNotNull("null derivation time", stats.getDerivationMillis());
+
+        final Double newZValue = 999.0;
+        final TileSpec newTileSpec = new TileSpec();
+        newTileSpec.setTileId("new-tile-spec");
+        newTileSpec.setZ(newZValue);
+        dao.saveTileSpec(stackId, newTileSpec);
+
+        final StackStats statsAfterSave = dao.ensureIndexesAndDeriveStats(stackMetaData).getStats();
+
+        Assert.assertEquals("only the changed layer should be derived after save",
+                            new Long(1), statsAfterSave.getDerivedZCount());
+        Assert.assertEquals("invalid tile count after save",
+                            new Long(stats.getTileCount() + 1), statsAfterSave.getTileCount());
+        Assert.assertEquals("invalid section count after save",
+                            new Long(stats.getSectionCount() + 1), statsAfterSave.getSectionCount());
+        Assert.assertEquals("invalid max z after save",
+                            newZValue, statsAfterSave.getStackBounds().getMaxZ());
+
+        dao.removeTilesWithZ(stackId, newZValue);
+
+        final StackStats statsAfterRemove = dao.ensureIndexesAndDeriveStats(stackMetaData).getStats();
+
+        Assert.assertEquals("only the changed layer should be derived after remove",
+                            new Long(1), statsAfterRemove.getDerivedZCount());
+        Assert.assertEquals("invalid bounds after remove",
+                            stats.getStackBounds().toJson(), statsAfterRemove.getStackBounds().toJson());
+        Assert.assertEquals("invalid tile count after remove",
+                            stats.getTileCount(), statsAfterRemove.getTileCount());
+    }
+
+    @Test
+    public void testDeriveStatsAfterMovingTile() throws Exception {
+
+        final StackMetaData stackMetaData = dao.ensureIndexesAndDeriveStats(dao.getStackMetaData(stackId));
+        final StackStats stats = stackMetaData.getStats();
+
+        // moving a tile changes both its original layer and its new layer
+        final Double newZValue = 999.0;
+        final TileSpec movedTileSpec = dao.getTileSpec(stackId, "134", false);
+        movedTileSpec.setZ(newZValue);
+        dao.saveTileSpec(stackId, movedTileSpec);
+
+        final StackStats statsAfterMove = dao.ensureIndexesAndDeriveStats(stackMetaData).getStats();
+
+        Assert.assertEquals("only original and new layers should be derived after move",
+                            new Long(2), statsAfterMove.getDerivedZCount());
+        Assert.assertEquals("invalid tile count after move",
+                            stats.getTileCount(), statsAfterMove.getTileCount());
+        Assert.assertEquals("invalid max z after move",
+                            newZValue, statsAfterMove.getStackBounds().getMaxZ());
+    }
+
     @Test
     public void testRemoveStack() throws Exception {
 
@@ -0,0 +1,93 @@
+package org.janelia.render.service.dao;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonObjectId;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TransformSpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SpecCodec} class.
+ *
+ * @author Eric Trautman
+ */
+public class SpecCodecTest {
+
+    @Test
+    public void testTileSpecCodec() throws Exception {
+
+        final List<TileSpec> tileSpecs;
+        try (final Reader reader = new FileReader("src/test/resources/mongodb/elastic-3903.json")) {
+            tileSpecs = TileSpec.fromJsonArray(reader);
+        }
+
+        Assert.assertTrue("test data is missing tile specs", tileSpecs.size() > 0);
+
+        for (final TileSpec tileSpec : tileSpecs) {
+            validateRoundTrip(SpecCodec.TILE_SPEC_CODEC, tileSpec, TileSpec::toJson);
+        }
+    }
+
+    @Test
+    public void testTransformSpecCodec() throws Exception {
+
+        final List<TransformSpec> transformSpecs;
+        try (final Reader reader = new FileReader("src/test/resources/mongodb/elastic-transform.json")) {
+            transformSpecs = TransformSpec.fromJsonArray(reader);
+        }
+
+        Assert.assertTrue("test data is missing transform specs", transformSpecs.size() > 0);
+
+        for (final TransformSpec transformSpec : transformSpecs) {
+            validateRoundTrip(SpecCodec.TRANSFORM_SPEC_CODEC, transformSpec, TransformSpec::toJson);
+        }
+    }
+
+    @Test
+    public void testDecodeIgnoresMongoId() throws IOException {
+
+        final TileSpec tileSpec;
+        try (final Reader reader = new FileReader("src/test/resources/mongodb/elastic-3903.json")) {
+            tileSpec = TileSpec.fromJsonArray(reader).get(0);
+        }
+
+        final BsonDocument document = BsonDocument.parse(tileSpec.toJson());
+        document.put("_id", new BsonObjectId());
+
+        final TileSpec decodedTileSpec =
+                SpecCodec.TILE_SPEC_CODEC.decode(new BsonDocumentReader(document),
+                                                 DecoderContext.builder().build());
+
+        Assert.assertEquals("invalid JSON for decoded spec", tileSpec.toJson(), decodedTileSpec.toJson());
+    }
+
+    private static <T> void validateRoundTrip(final SpecCodec<T> codec,
+                                              final T spec,
+                                              final Function<T, String> toJson) {
+
+        final String specJson = toJson.apply(spec);
+
+        final BsonDocument encodedDocument = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(encodedDocument), spec, EncoderContext.builder().build());
+
+        // encoded BSON should match what was previously stored by parsing each spec's JSON
+        Assert.assertEquals("invalid BSON for " + specJson, BsonDocument.parse(specJson), encodedDocument);
+
+        final T decodedSpec = codec.decode(new BsonDocumentReader(encodedDocument),
+                                           DecoderContext.builder().build());
+
+        Assert.assertEquals("invalid JSON for decoded spec", specJson, toJson.apply(decodedSpec));
+    }
+
+}
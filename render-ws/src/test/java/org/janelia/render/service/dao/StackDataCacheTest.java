@@ -0,0 +1,136 @@
+package org.janelia.render.service.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.janelia.alignment.spec.TileBounds;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.stack.StackId;
+import org.janelia.alignment.spec.stack.StackMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StackDataCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class StackDataCacheTest {
+
+    @Test
+    public void testGetResolvedTileSpec() {
+
+        final StackDataCache cache = new StackDataCache(1000);
+        final StackMetaData completeStack = buildStackMetaData("COMPLETE", "2015-01-02T22:33:44.555Z");
+
+        final AtomicInteger loadCount = new AtomicInteger(0);
+        final Supplier<TileSpec> loader = () -> {
+            loadCount.incrementAndGet();
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("tile-a");
+            tileSpec.setZ(1.0);
+            return tileSpec;
+        };
+
+        final TileSpec firstSpec = cache.getResolvedTileSpec(completeStack, "tile-a", loader);
+        final TileSpec secondSpec = cache.getResolvedTileSpec(completeStack, "tile-a", loader);
+
+        Assert.assertEquals("cached spec should not be reloaded", 1, loadCount.get());
+        Assert.assertEquals("invalid tileId for cached spec", "tile-a", secondSpec.getTileId());
+        Assert.assertNotSame("each caller should get its own copy", firstSpec, secondSpec);
+
+        final StackMetaData modifiedStack = buildStackMetaData("COMPLETE", "2016-01-02T22:33:44.555Z");
+        cache.getResolvedTileSpec(modifiedStack, "tile-a", loader);
+
+        Assert.assertEquals("spec should be reloaded after stack is modified", 2, loadCount.get());
+        Assert.assertEquals("data for older version should be discarded", 1, cache.size());
+
+        cache.invalidate(modifiedStack.getStackId());
+        Assert.assertEquals("invalid number of entries after invalidation", 0, cache.size());
+    }
+
+    @Test
+    public void testGetTileBoundsForZ() {
+
+        final StackDataCache cache = new StackDataCache(1000);
+        final StackMetaData completeStack = buildStackMetaData("COMPLETE", "2015-01-02T22:33:44.555Z");
+
+        final AtomicInteger loadCount = new AtomicInteger(0);
+        final Supplier<List<TileBounds>> loader = () -> {
+            loadCount.incrementAndGet();
+            return new ArrayList<>(Collections.singletonList(
+                    new TileBounds("tile-a", "1.0", 1.0, 0.0, 0.0, 10.0, 10.0)));
+        };
+
+        final List<TileBounds> firstList = cache.getTileBoundsForZ(completeStack, 1.0, loader);
+        firstList.clear();
+
+        final List<TileBounds> secondList = cache.getTileBoundsForZ(completeStack, 1.0, loader);
+
+        Assert.assertEquals("cached list should not be reloaded", 1, loadCount.get());
+        Assert.assertEquals("changes to returned list should not affect cached list", 1, secondList.size());
+
+        cache.getTileBoundsForZ(completeStack, 2.0, loader);
+        Assert.assertEquals("different layer should be loaded", 2, loadCount.get());
+    }
+
+    @Test
+    public void testIsCacheable() {
+
+        final StackDataCache cache = new StackDataCache(1000);
+
+        Assert.assertTrue("complete stack should be cacheable",
+                          cache.isCacheable(buildStackMetaData("COMPLETE", "2015-01-02T22:33:44.555Z")));
+        Assert.assertFalse("loading stack should not be cacheable",
+                           cache.isCacheable(buildStackMetaData("LOADING", "2015-01-02T22:33:44.555Z")));
+        Assert.assertFalse("missing stack should not be cacheable",
+                           cache.isCacheable(null));
+        Assert.assertFalse("disabled cache should not cache anything",
+                           StackDataCache.DISABLED_CACHE.isCacheable(
+                                   buildStackMetaData("COMPLETE", "2015-01-02T22:33:44.555Z")));
+    }
+
+    @Test
+    public void testGetStackMetaData() {
+
+        final StackMetaData completeStack = buildStackMetaData("COMPLETE", "2015-01-02T22:33:44.555Z");
+        final AtomicInteger loadCount = new AtomicInteger(0);
+        final Supplier<StackMetaData> loader = () -> {
+            loadCount.incrementAndGet();
+            return completeStack;
+        };
+
+        final StackDataCache cache = new StackDataCache(1000, 60_000);
+        final StackId stackId = completeStack.getStackId();
+
+        Assert.assertSame("invalid meta data for first request",
+                          completeStack, cache.getStackMetaData(stackId, loader));
+        Assert.assertSame("invalid meta data for second request",
+                          completeStack, cache.getStackMetaData(stackId, loader));
+        Assert.assertEquals("meta data should not be re-read within refresh interval", 1, loadCount.get());
+
+        cache.invalidate(stackId);
+        cache.getStackMetaData(stackId, loader);
+        Assert.assertEquals("meta data should be re-read after invalidation", 2, loadCount.get());
+
+        final StackDataCache alwaysRefreshCache = new StackDataCache(1000, 0);
+        alwaysRefreshCache.getStackMetaData(stackId, loader);
+        alwaysRefreshCache.getStackMetaData(stackId, loader);
+        Assert.assertEquals("meta data should be re-read after refresh interval", 4, loadCount.get());
+    }
+
+    private static StackMetaData buildStackMetaData(final String state,
+                                                    final String lastModifiedTimestamp) {
+        return StackMetaData.fromJson(
+                "{\n" +
+                "  \"stackId\": { \"owner\": \"flyTEM\", \"project\": \"test\", \"stack\": \"elastic\" },\n" +
+                "  \"state\": \"" + state + "\",\n" +
+                "  \"lastModifiedTimestamp\": \"" + lastModifiedTimestamp + "\",\n" +
+                "  \"currentVersionNumber\": 2\n" +
+                "}");
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.janelia.render.service.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.ListTransformSpec;
+import org.janelia.alignment.spec.ReferenceTransformSpec;
+import org.janelia.alignment.spec.TransformSpec;
+import org.janelia.alignment.spec.stack.StackId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TransformSpecCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class TransformSpecCacheTest {
+
+    @Test
+    public void testGetResolvedSpecs() {
+
+        final StackId stackId = new StackId("flyTEM", "test", "elastic");
+        final TransformSpecCache cache = new TransformSpecCache(TransformSpecCache.DEFAULT_MAX_CACHED_STACKS);
+        final List<Set<String>> loadedIdSets = new ArrayList<>();
+        final Function<Set<String>, Collection<TransformSpec>> loader = ids -> {
+            loadedIdSets.add(ids);
+            return buildSpecs();
+        };
+
+        final Date firstTimestamp = new Date(1000);
+        final Set<String> warpIds = Collections.singleton("warp");
+
+        Map<String, TransformSpec> resolvedSpecs = cache.getResolvedSpecs(stackId, firstTimestamp, warpIds, loader);
+
+        Assert.assertEquals("invalid number of loads", 1, loadedIdSets.size());
+        Assert.assertEquals("referenced spec should be included in map", 2, resolvedSpecs.size());
+        final TransformSpec warpSpec = resolvedSpecs.get("warp");
+        Assert.assertTrue("warp spec should be resolved", warpSpec.isFullyResolved());
+
+        resolvedSpecs = cache.getResolvedSpecs(stackId, firstTimestamp, warpIds, loader);
+
+        Assert.assertEquals("cached specs should not be reloaded", 1, loadedIdSets.size());
+        Assert.assertSame("cached spec should be returned", warpSpec, resolvedSpecs.get("warp"));
+
+        resolvedSpecs = cache.getResolvedSpecs(stackId, firstTimestamp, Collections.singleton("lc"), loader);
+
+        Assert.assertEquals("referenced spec should already be cached", 1, loadedIdSets.size());
+        Assert.assertEquals("invalid number of specs for lens correction", 1, resolvedSpecs.size());
+
+        resolvedSpecs = cache.getResolvedSpecs(stackId, new Date(2000), warpIds, loader);
+
+        Assert.assertEquals("specs should be reloaded after stack is modified", 2, loadedIdSets.size());
+        Assert.assertNotSame("reloaded spec should be returned", warpSpec, resolvedSpecs.get("warp"));
+
+        cache.invalidate(stackId);
+        Assert.assertEquals("invalid number of stacks after invalidation", 0, cache.size());
+    }
+
+    private static List<TransformSpec> buildSpecs() {
+
+        final ListTransformSpec lensCorrection = new ListTransformSpec("lc", null);
+        lensCorrection.addSpec(new LeafTransformSpec("mpicbg.trakem2.transform.AffineModel2D",
+                                                     "1.001 0.002 -0.001 0.998 3.0 -2.0"));
+
+        final ListTransformSpec warp = new ListTransformSpec("warp", null);
+        warp.addSpec(new ReferenceTransformSpec("lc"));
+        warp.addSpec(new LeafTransformSpec("mpicbg.trakem2.transform.AffineModel2D",
+                                           "1.0 0.0 0.0 1.0 100.0 200.0"));
+
+        final List<TransformSpec> specs = new ArrayList<>();
+        specs.add(warp);
+        specs.add(lensCorrection);
+        return specs;
+    }
+
+}
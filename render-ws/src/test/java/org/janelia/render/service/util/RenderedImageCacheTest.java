@@ -0,0 +1,147 @@
+package org.janelia.render.service.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.alignment.spec.stack.StackId;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link RenderedImageCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class RenderedImageCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final StackId stackId = new StackId("flyTEM", "test", "montage");
+
+    @Test
+    public void testGetAndInvalidation() {
+
+        final RenderedImageCache cache = new RenderedImageCache(1000, null);
+        final AtomicInteger renderCount = new AtomicInteger(0);
+
+        final Date firstTimestamp = new Date(1000);
+        final RenderedImageCache.Key key = new RenderedImageCache.Key(stackId, firstTimestamp, "z=1.0");
+
+        final byte[] firstBytes = cache.get(key, () -> render(renderCount, 10));
+        final byte[] cachedBytes = cache.get(new RenderedImageCache.Key(stackId, firstTimestamp, "z=1.0"),
+                                             () -> render(renderCount, 10));
+
+        Assert.assertEquals("cached image should not be rendered again", 1, renderCount.get());
+        Assert.assertSame("cached bytes should be returned", firstBytes, cachedBytes);
+
+        cache.get(new RenderedImageCache.Key(stackId, firstTimestamp, "z=2.0"), () -> render(renderCount, 10));
+        Assert.assertEquals("invalid number of cached images", 2, cache.size());
+
+        final RenderedImageCache.Key modifiedKey = new RenderedImageCache.Key(stackId, new Date(2000), "z=1.0");
+        cache.get(modifiedKey, () -> render(renderCount, 10));
+
+        Assert.assertEquals("image should be rendered again after stack is modified", 3, renderCount.get());
+        Assert.assertEquals("images rendered before modification should be discarded", 1, cache.size());
+
+        cache.invalidate(stackId);
+        Assert.assertEquals("invalid number of cached images after invalidation", 0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+
+        final RenderedImageCache cache = new RenderedImageCache(1000, null);
+        final AtomicInteger renderCount = new AtomicInteger(0);
+        final CountDownLatch renderStarted = new CountDownLatch(1);
+        final CountDownLatch finishRender = new CountDownLatch(1);
+        final RenderedImageCache.Key key = new RenderedImageCache.Key(stackId, new Date(1000), "z=1.0");
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<byte[]> firstRequest = executorService.submit(() -> cache.get(key, () -> {
+                renderStarted.countDown();
+                Assert.assertTrue("render was never released", finishRender.await(10, TimeUnit.SECONDS));
+                return render(renderCount, 10);
+            }));
+
+            Assert.assertTrue("render never started", renderStarted.await(10, TimeUnit.SECONDS));
+
+            final Future<byte[]> secondRequest =
+                    executorService.submit(() -> cache.get(key, () -> render(renderCount, 10)));
+
+            finishRender.countDown();
+
+            Assert.assertSame("both requests should receive the same bytes",
+                              firstRequest.get(10, TimeUnit.SECONDS), secondRequest.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("image should only be rendered once", 1, renderCount.get());
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSpillAndPromotion() throws Exception {
+
+        final RenderedImageCache.SpillDirectory spillDirectory =
+                new RenderedImageCache.SpillDirectory(temporaryFolder.getRoot(), 100_000_000L);
+        final RenderedImageCache cache = new RenderedImageCache(1000, spillDirectory);
+        final AtomicInteger renderCount = new AtomicInteger(0);
+        final Date timestamp = new Date(1000);
+        final int numberOfImages = 40;
+
+        for (int i = 0; i < numberOfImages; i++) {
+            cache.get(new RenderedImageCache.Key(stackId, timestamp, "z=" + i), () -> render(renderCount, 100_000));
+        }
+
+        Assert.assertTrue("some images should have been spilled", cache.spilledSize() > 0);
+        Assert.assertEquals("every image should be in memory or spilled",
+                            numberOfImages, cache.size() + cache.spilledSize());
+
+        for (int i = 0; i < numberOfImages; i++) {
+            final byte[] bytes = cache.get(new RenderedImageCache.Key(stackId, timestamp, "z=" + i),
+                                           () -> render(renderCount, 100_000));
+            Assert.assertEquals("invalid number of bytes for image " + i, 100_000, bytes.length);
+        }
+
+        Assert.assertEquals("spilled images should be promoted instead of rendered", numberOfImages, renderCount.get());
+
+        cache.invalidateAll();
+        Assert.assertEquals("invalid number of spilled images after invalidation", 0, cache.spilledSize());
+    }
+
+    @Test
+    public void testSpillDirectoryIsClearedOnCreation() throws Exception {
+
+        final File parentDirectory = temporaryFolder.getRoot();
+        final File leftoverFile = new File(new File(parentDirectory, RenderedImageCache.SpillDirectory.DIRECTORY_NAME),
+                                           "image-1.bin");
+        Assert.assertTrue("failed to create " + leftoverFile.getParentFile(), leftoverFile.getParentFile().mkdirs());
+        Files.write(leftoverFile.toPath(), new byte[100]);
+
+        final RenderedImageCache.SpillDirectory spillDirectory =
+                new RenderedImageCache.SpillDirectory(parentDirectory, 100_000_000L);
+
+        Assert.assertFalse("files spilled by a previous process should be removed", leftoverFile.exists());
+        Assert.assertEquals("invalid number of spilled images", 0, spillDirectory.size());
+    }
+
+    private static byte[] render(final AtomicInteger renderCount,
+                                 final int numberOfBytes) {
+        renderCount.incrementAndGet();
+        final byte[] bytes = new byte[numberOfBytes];
+        bytes[0] = (byte) renderCount.get();
+        return bytes;
+    }
+
+}